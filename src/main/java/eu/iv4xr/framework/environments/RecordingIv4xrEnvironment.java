@@ -0,0 +1,111 @@
+package eu.iv4xr.framework.environments;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import eu.iv4xr.framework.mainConcepts.Iv4xrEnvironment;
+import eu.iv4xr.framework.mainConcepts.WorldModel;
+import eu.iv4xr.framework.spatial.meshes.Mesh;
+import nl.uu.cs.aplib.environments.OperationLog;
+import nl.uu.cs.aplib.environments.OperationLog.Kind;
+import nl.uu.cs.aplib.environments.RecordingEnvironment;
+
+/**
+ * The variant of {@link RecordingEnvironment} for an {@link Iv4xrEnvironment}:
+ * it wraps an Iv4xrEnvironment, and is itself one, so it can be given to e.g.
+ * an {@link eu.iv4xr.framework.mainConcepts.Iv4xrAgentState}. Every command,
+ * with its result, and every observation, full or delta, is recorded to an
+ * {@link OperationLog}, which can later be served back by a
+ * {@link ReplayIv4xrEnvironment}.
+ *
+ * <p>
+ * The navigable mesh of the world is not recorded, as a Mesh is not
+ * serializable; {@link #worldNavigableMesh()} is simply passed to the wrapped
+ * Environment. Call {@link #close()} at the end of the session.
+ */
+public class RecordingIv4xrEnvironment extends Iv4xrEnvironment implements Closeable {
+
+    /**
+     * The command name of a recorded {@link #observeDelta(String, long)}; its
+     * target-id is the timestamp the delta is relative to.
+     */
+    static final String OBSERVE_DELTA = "observeDelta";
+
+    protected Iv4xrEnvironment recorded;
+
+    protected OperationLog.Writer log;
+
+    /**
+     * Record the operations on the given Iv4xrEnvironment to a new log in the
+     * given file.
+     */
+    public RecordingIv4xrEnvironment(Iv4xrEnvironment recorded, String logfile) throws IOException {
+        this.recorded = recorded;
+        this.log = new OperationLog.Writer(logfile);
+    }
+
+    public Iv4xrEnvironment getRecordedEnvironment() {
+        return recorded;
+    }
+
+    @Override
+    public void resetWorker() {
+        recorded.resetWorker();
+        log.record(Kind.RESET, null, null, null, null);
+    }
+
+    @Override
+    public WorldModel observe(String agentId) {
+        WorldModel observation;
+        try {
+            observation = recorded.observe(agentId);
+        } catch (RuntimeException | Error e) {
+            log.record(Kind.FAILURE, agentId, null, null, e);
+            throw e;
+        }
+        log.record(Kind.OBSERVE, agentId, null, null, observation);
+        return observation;
+    }
+
+    @Override
+    public WorldModel observeDelta(String agentId, long sinceTimestamp) {
+        String since = "" + sinceTimestamp;
+        WorldModel observation;
+        try {
+            observation = recorded.observeDelta(agentId, sinceTimestamp);
+        } catch (RuntimeException | Error e) {
+            log.record(Kind.FAILURE, agentId, since, OBSERVE_DELTA, e);
+            throw e;
+        }
+        log.record(Kind.OBSERVE, agentId, since, OBSERVE_DELTA, observation);
+        return observation;
+    }
+
+    @Override
+    public Mesh worldNavigableMesh() {
+        return recorded.worldNavigableMesh();
+    }
+
+    @Override
+    protected Object sendCommand_(EnvOperation cmd) {
+        Object result;
+        try {
+            result = recorded.sendCommand(cmd.invokerId, cmd.targetId, cmd.command, cmd.arg,
+                    cmd.expectedTypeOfResult);
+        } catch (RuntimeException | Error e) {
+            log.record(Kind.FAILURE, cmd.invokerId, cmd.targetId, cmd.command, e);
+            throw e;
+        }
+        log.record(Kind.COMMAND, cmd.invokerId, cmd.targetId, cmd.command, result);
+        return result;
+    }
+
+    /**
+     * Close the log. The wrapped Environment is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+
+}
@@ -0,0 +1,72 @@
+package eu.iv4xr.framework.environments;
+
+import java.io.IOException;
+
+import eu.iv4xr.framework.mainConcepts.Iv4xrEnvironment;
+import eu.iv4xr.framework.mainConcepts.WorldModel;
+import nl.uu.cs.aplib.environments.OperationLog;
+import nl.uu.cs.aplib.environments.OperationLog.Kind;
+import nl.uu.cs.aplib.environments.ReplayEnvironment;
+
+/**
+ * The variant of {@link ReplayEnvironment} for an {@link Iv4xrEnvironment}: it
+ * serves back a session recorded by a {@link RecordingIv4xrEnvironment}, and
+ * its {@link #observe(String)} returns the recorded {@link WorldModel}s, so it
+ * can replace the real environment of e.g. an
+ * {@link eu.iv4xr.framework.mainConcepts.Iv4xrAgentState}. As with
+ * ReplayEnvironment, the operations must come in the same order as they were
+ * recorded, else an IllegalStateException is thrown.
+ *
+ * <p>
+ * The navigable mesh of the world is not recorded, so
+ * {@link #worldNavigableMesh()} is not supported; set the navigation graph of
+ * the agent state in another way.
+ */
+public class ReplayIv4xrEnvironment extends Iv4xrEnvironment {
+
+    protected OperationLog.Reader log;
+
+    public ReplayIv4xrEnvironment(String logfile) throws IOException {
+        this.log = new OperationLog.Reader(logfile);
+    }
+
+    /**
+     * Go back to the start of the log.
+     */
+    public void rewind() {
+        log.rewind();
+    }
+
+    /**
+     * True if all entries of the log have been replayed.
+     */
+    public boolean isFinished() {
+        return !log.hasNext();
+    }
+
+    /**
+     * Replay a reset. If the whole log has been replayed, this starts a new
+     * replay from the start of the log.
+     */
+    @Override
+    public void resetWorker() {
+        log.replayReset();
+    }
+
+    @Override
+    public WorldModel observe(String agentId) {
+        return (WorldModel) log.replay(Kind.OBSERVE, agentId, null, null);
+    }
+
+    @Override
+    public WorldModel observeDelta(String agentId, long sinceTimestamp) {
+        return (WorldModel) log.replay(Kind.OBSERVE, agentId, "" + sinceTimestamp,
+                RecordingIv4xrEnvironment.OBSERVE_DELTA);
+    }
+
+    @Override
+    protected Object sendCommand_(EnvOperation cmd) {
+        return log.replay(Kind.COMMAND, cmd.invokerId, cmd.targetId, cmd.command);
+    }
+
+}
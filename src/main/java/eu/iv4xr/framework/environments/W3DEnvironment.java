@@ -1,5 +1,7 @@
 package eu.iv4xr.framework.environments;
 
+import java.io.IOException;
+
 import eu.iv4xr.framework.exception.Iv4xrError;
 import eu.iv4xr.framework.mainConcepts.Iv4xrEnvironment;
 import eu.iv4xr.framework.mainConcepts.WorldModel;
@@ -29,6 +31,37 @@ public class W3DEnvironment extends Iv4xrEnvironment implements IW3DEnvironment
      */
     protected Mesh worldNavigableMesh;
     
+    /**
+     * The codec to decode observations received from the real environment, see
+     * {@link #decodeObservation(byte[])}.
+     */
+    protected WorldModelCodec observationCodec = new WorldModelJsonCodec();
+
+    /**
+     * Set the codec to decode observations received from the real environment,
+     * e.g. a {@link WorldModelBinaryCodec} if the real environment sends them in
+     * that format. The method returns this environment itself so that it can be
+     * used in the Fluent Interface style.
+     */
+    public W3DEnvironment useObservationCodec(WorldModelCodec codec) {
+        observationCodec = codec;
+        return this;
+    }
+
+    /**
+     * Decode an observation, as received from the real environment, with the
+     * codec set by {@link #useObservationCodec(WorldModelCodec)} (Json by
+     * default). This can be used by an implementation of
+     * {@link #sendCommand_(EnvOperation)}.
+     */
+    protected WorldModel decodeObservation(byte[] observation) {
+        try {
+            return observationCodec.decode(observation);
+        } catch (IOException e) {
+            throw new Iv4xrError("Fail to decode an observation: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * Return the polygon-mesh describing the navigable surface of the 3D-world represented
      * by this environment. This is the mesh stored in {@link #worldNavigableMesh}. 
@@ -131,6 +164,9 @@ public class W3DEnvironment extends Iv4xrEnvironment implements IW3DEnvironment
      * or "CLOSE"). This method should also obtain the observation of the said agent
      * at the end of the interaction, and package the observation as an instance of
      * WorldModel and return it.
+     * 
+     * To turn the bytes of an observation sent by the real environment into a
+     * WorldModel, {@link #decodeObservation(byte[])} can be used.
      */
     protected Object sendCommand_(EnvOperation cmd) {
         throw new UnsupportedOperationException();
@@ -0,0 +1,429 @@
+package eu.iv4xr.framework.environments;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import eu.iv4xr.framework.mainConcepts.WorldEntity;
+import eu.iv4xr.framework.mainConcepts.WorldModel;
+import eu.iv4xr.framework.spatial.Vec3;
+import nl.uu.cs.aplib.utils.SerializationFilter;
+
+/**
+ * A {@link WorldModelCodec} with a compact binary format. Compared to Json, the
+ * encoding is typically several times smaller and faster to decode:
+ *
+ * <ul>
+ * <li>Numbers are not written as text. Counts and timestamps are written as
+ * variable-length integers, so small values take a single byte.
+ * <li>Every string (ids, types, property names, string values) is written in
+ * full only once per WorldModel; later occurrences refer to the first one by
+ * its index.
+ * <li>Property values are tagged with their type. Values of types other than
+ * String, Boolean, Integer, Long, Float, Double, {@link Vec3}, ArrayList, and
+ * HashMap with string keys are written with Java serialization. When
+ * decoding, only the classes allowed by {@link #serializationFilter()} are
+ * deserialized, as the bytes typically come from the system under test.
+ * </ul>
+ *
+ * <p>
+ * Like the Json encoding of a WorldModel, the previous states of the entities
+ * are not encoded. Once its serialization filter is configured, an instance of
+ * this class can be shared by multiple threads.
+ */
+public class WorldModelBinaryCodec implements WorldModelCodec {
+
+    static final int MAGIC = 0x574D; // "WM"
+    static final int VERSION = 1;
+
+    static final int NULL = 0;
+    static final int FALSE = 1;
+    static final int TRUE = 2;
+    static final int INT = 3;
+    static final int LONG = 4;
+    static final int FLOAT = 5;
+    static final int DOUBLE = 6;
+    static final int STRING = 7;
+    static final int VEC3 = 8;
+    static final int LIST = 9;
+    static final int MAP = 10;
+    static final int SERIALIZED = 11;
+
+    /**
+     * The maximum length of a Java-serialized property value.
+     */
+    static final int MAX_SERIALIZED_LENGTH = 1 << 24;
+
+    protected SerializationFilter serializationFilter = new SerializationFilter();
+
+    public WorldModelBinaryCodec() {
+    }
+
+    /**
+     * Return the filter that decides which classes may be deserialized from
+     * property values that are written with Java serialization. To decode values
+     * of your own classes, allow them with e.g.
+     * {@code codec.serializationFilter().allow("com.example.*")}.
+     */
+    public SerializationFilter serializationFilter() {
+        return serializationFilter;
+    }
+
+    /**
+     * The state of encoding a single WorldModel.
+     */
+    static class Encoder {
+        DataOutputStream out;
+        Map<String, Integer> strings = new HashMap<>();
+
+        Encoder(OutputStream out) {
+            this.out = new DataOutputStream(out);
+        }
+
+        void writeVarLong(long v) throws IOException {
+            while ((v & ~0x7FL) != 0) {
+                out.writeByte((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            out.writeByte((int) v);
+        }
+
+        /**
+         * Write a signed value, zigzag-encoded so that small negative values such as
+         * -1 are short as well.
+         */
+        void writeSignedVarLong(long v) throws IOException {
+            writeVarLong((v << 1) ^ (v >> 63));
+        }
+
+        void writeString(String s) throws IOException {
+            if (s == null) {
+                writeVarLong(0);
+                return;
+            }
+            var k = strings.get(s);
+            if (k != null) {
+                writeVarLong(k + 2);
+                return;
+            }
+            strings.put(s, strings.size());
+            writeVarLong(1);
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            out.write(bytes);
+        }
+
+        void writeVec3(Vec3 v) throws IOException {
+            if (v == null) {
+                out.writeByte(0);
+                return;
+            }
+            out.writeByte(1);
+            out.writeFloat(v.x);
+            out.writeFloat(v.y);
+            out.writeFloat(v.z);
+        }
+
+        void writeWorldModel(WorldModel wom) throws IOException {
+            out.writeShort(MAGIC);
+            out.writeByte(VERSION);
+            writeString(wom.agentId);
+            writeVec3(wom.position);
+            writeVec3(wom.velocity);
+            writeVec3(wom.extent);
+            writeSignedVarLong(wom.timestamp);
+            writeElements(wom.elements);
+            writeSignedVarLong(wom.deltaSince);
+            if (wom.removedElements == null) {
+                writeVarLong(0);
+            } else {
+                writeVarLong(wom.removedElements.size() + 1);
+                for (var id : wom.removedElements)
+                    writeString(id);
+            }
+            out.flush();
+        }
+
+        void writeElements(Map<String, WorldEntity> elements) throws IOException {
+            if (elements == null) {
+                writeVarLong(0);
+                return;
+            }
+            writeVarLong(elements.size());
+            for (var e : elements.entrySet()) {
+                writeString(e.getKey());
+                writeEntity(e.getValue());
+            }
+        }
+
+        void writeEntity(WorldEntity e) throws IOException {
+            writeString(e.id);
+            writeString(e.type);
+            out.writeBoolean(e.dynamic);
+            writeSignedVarLong(e.timestamp);
+            writeSignedVarLong(e.lastStutterTimestamp);
+            writeVec3(e.position);
+            writeVec3(e.extent);
+            writeVec3(e.velocity);
+            if (e.properties == null) {
+                writeVarLong(0);
+            } else {
+                writeVarLong(e.properties.size());
+                for (var p : e.properties.entrySet()) {
+                    writeString(p.getKey());
+                    writeValue(p.getValue());
+                }
+            }
+            writeElements(e.elements);
+        }
+
+        void writeValue(Object v) throws IOException {
+            if (v == null) {
+                out.writeByte(NULL);
+            } else if (v instanceof Boolean) {
+                out.writeByte((Boolean) v ? TRUE : FALSE);
+            } else if (v instanceof Integer) {
+                out.writeByte(INT);
+                writeSignedVarLong((Integer) v);
+            } else if (v instanceof Long) {
+                out.writeByte(LONG);
+                writeSignedVarLong((Long) v);
+            } else if (v instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) v);
+            } else if (v instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) v);
+            } else if (v instanceof String) {
+                out.writeByte(STRING);
+                writeString((String) v);
+            } else if (v.getClass() == Vec3.class) {
+                out.writeByte(VEC3);
+                writeVec3((Vec3) v);
+            } else if (v.getClass() == ArrayList.class) {
+                var list = (List<?>) v;
+                out.writeByte(LIST);
+                writeVarLong(list.size());
+                for (var x : list)
+                    writeValue(x);
+            } else if (v.getClass() == HashMap.class && allKeysAreStrings((Map<?, ?>) v)) {
+                var map = (Map<?, ?>) v;
+                out.writeByte(MAP);
+                writeVarLong(map.size());
+                for (var x : map.entrySet()) {
+                    writeString((String) x.getKey());
+                    writeValue(x.getValue());
+                }
+            } else {
+                out.writeByte(SERIALIZED);
+                var bytes = new ByteArrayOutputStream();
+                try (var oos = new ObjectOutputStream(bytes)) {
+                    oos.writeObject(v);
+                }
+                writeVarLong(bytes.size());
+                bytes.writeTo(out);
+            }
+        }
+
+        static boolean allKeysAreStrings(Map<?, ?> map) {
+            for (var k : map.keySet())
+                if (!(k instanceof String))
+                    return false;
+            return true;
+        }
+    }
+
+    /**
+     * The state of decoding a single WorldModel.
+     */
+    static class Decoder {
+        DataInputStream in;
+        List<String> strings = new ArrayList<>();
+        SerializationFilter filter;
+
+        Decoder(InputStream in, SerializationFilter filter) {
+            this.in = new DataInputStream(in);
+            this.filter = filter;
+        }
+
+        long readVarLong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return v;
+            }
+            throw new StreamCorruptedException("Malformed variable-length integer.");
+        }
+
+        long readSignedVarLong() throws IOException {
+            long v = readVarLong();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        int readCount() throws IOException {
+            long n = readVarLong();
+            if (n < 0 || n > Integer.MAX_VALUE)
+                throw new StreamCorruptedException("Invalid count " + n);
+            return (int) n;
+        }
+
+        String readString() throws IOException {
+            int k = readCount();
+            if (k == 0)
+                return null;
+            if (k == 1) {
+                byte[] bytes = new byte[readCount()];
+                in.readFully(bytes);
+                var s = new String(bytes, StandardCharsets.UTF_8);
+                strings.add(s);
+                return s;
+            }
+            if (k - 2 >= strings.size())
+                throw new StreamCorruptedException("Invalid string reference " + k);
+            return strings.get(k - 2);
+        }
+
+        Vec3 readVec3() throws IOException {
+            if (in.readByte() == 0)
+                return null;
+            return new Vec3(in.readFloat(), in.readFloat(), in.readFloat());
+        }
+
+        WorldModel readWorldModel(WorldModel wom) throws IOException {
+            if (in.readUnsignedShort() != MAGIC)
+                throw new StreamCorruptedException("Not an encoded WorldModel.");
+            int version = in.readUnsignedByte();
+            if (version != VERSION)
+                throw new StreamCorruptedException("Unsupported version " + version);
+            wom.agentId = readString();
+            wom.position = readVec3();
+            wom.velocity = readVec3();
+            wom.extent = readVec3();
+            wom.timestamp = readSignedVarLong();
+            readElements(wom.elements);
+            wom.deltaSince = readSignedVarLong();
+            int removed = readCount();
+            if (removed > 0) {
+                wom.removedElements = new HashSet<>();
+                for (int k = 1; k < removed; k++)
+                    wom.removedElements.add(readString());
+            }
+            return wom;
+        }
+
+        void readElements(Map<String, WorldEntity> elements) throws IOException {
+            int n = readCount();
+            for (int k = 0; k < n; k++) {
+                var key = readString();
+                elements.put(key, readEntity());
+            }
+        }
+
+        WorldEntity readEntity() throws IOException {
+            var id = readString();
+            var type = readString();
+            var e = new WorldEntity(id, type, in.readBoolean());
+            e.timestamp = readSignedVarLong();
+            e.lastStutterTimestamp = readSignedVarLong();
+            e.position = readVec3();
+            e.extent = readVec3();
+            e.velocity = readVec3();
+            int n = readCount();
+            for (int k = 0; k < n; k++) {
+                var name = readString();
+                e.properties.put(name, readValue());
+            }
+            readElements(e.elements);
+            return e;
+        }
+
+        Serializable readValue() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+            case NULL:
+                return null;
+            case FALSE:
+                return false;
+            case TRUE:
+                return true;
+            case INT:
+                return (int) readSignedVarLong();
+            case LONG:
+                return readSignedVarLong();
+            case FLOAT:
+                return in.readFloat();
+            case DOUBLE:
+                return in.readDouble();
+            case STRING:
+                return readString();
+            case VEC3:
+                return readVec3();
+            case LIST:
+                int n = readCount();
+                var list = new ArrayList<Serializable>(n);
+                for (int k = 0; k < n; k++)
+                    list.add(readValue());
+                return list;
+            case MAP:
+                int m = readCount();
+                var map = new HashMap<String, Serializable>();
+                for (int k = 0; k < m; k++) {
+                    var key = readString();
+                    map.put(key, readValue());
+                }
+                return map;
+            case SERIALIZED:
+                int length = readCount();
+                if (length > MAX_SERIALIZED_LENGTH)
+                    throw new StreamCorruptedException("Serialized value too long: " + length + " bytes");
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                return (Serializable) filter.readObject(bytes);
+            default:
+                throw new StreamCorruptedException("Unknown value tag " + tag);
+            }
+        }
+    }
+
+    @Override
+    public void encode(WorldModel wom, OutputStream out) throws IOException {
+        var buffered = out instanceof ByteArrayOutputStream || out instanceof BufferedOutputStream ? out
+                : new BufferedOutputStream(out);
+        new Encoder(buffered).writeWorldModel(wom);
+    }
+
+    /**
+     * Decode a WorldModel from the given stream. Exactly the bytes of the encoded
+     * WorldModel are read from the stream, so it may contain further data. If the
+     * stream is e.g. a socket, it should be buffered, as many small reads are
+     * done.
+     */
+    @Override
+    public WorldModel decode(InputStream in) throws IOException {
+        return new Decoder(in, serializationFilter).readWorldModel(newWorldModel());
+    }
+
+    /**
+     * Create the instance of WorldModel to decode into. Override this to decode
+     * into a subclass of WorldModel.
+     */
+    protected WorldModel newWorldModel() {
+        return new WorldModel();
+    }
+
+}
@@ -0,0 +1,32 @@
+package eu.iv4xr.framework.environments;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import eu.iv4xr.framework.mainConcepts.WorldModel;
+
+/**
+ * A codec to send a {@link WorldModel}, e.g. an observation, over the wire: it
+ * encodes a WorldModel to a stream of bytes, and decodes it back. See
+ * {@link WorldModelJsonCodec} and {@link WorldModelBinaryCodec}.
+ */
+public interface WorldModelCodec {
+
+    public void encode(WorldModel wom, OutputStream out) throws IOException;
+
+    public WorldModel decode(InputStream in) throws IOException;
+
+    public default byte[] encode(WorldModel wom) throws IOException {
+        var out = new ByteArrayOutputStream();
+        encode(wom, out);
+        return out.toByteArray();
+    }
+
+    public default WorldModel decode(byte[] bytes) throws IOException {
+        return decode(new ByteArrayInputStream(bytes));
+    }
+
+}
@@ -0,0 +1,50 @@
+package eu.iv4xr.framework.environments;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+
+import eu.iv4xr.framework.mainConcepts.WorldModel;
+
+/**
+ * A {@link WorldModelCodec} that encodes a WorldModel as Json (UTF-8), using
+ * Gson. Decoding uses a {@link WorldModelJsonDecoder}. As the decoder keeps
+ * state between calls, an instance of this class is not thread-safe.
+ */
+public class WorldModelJsonCodec implements WorldModelCodec {
+
+    Gson gson;
+
+    WorldModelJsonDecoder decoder;
+
+    public WorldModelJsonCodec() {
+        this(new GsonBuilder().serializeNulls().create(), new WorldModelJsonDecoder());
+    }
+
+    public WorldModelJsonCodec(Gson gson, WorldModelJsonDecoder decoder) {
+        this.gson = gson;
+        this.decoder = decoder;
+    }
+
+    @Override
+    public void encode(WorldModel wom, OutputStream out) throws IOException {
+        var writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        gson.toJson(wom, writer);
+        writer.flush();
+    }
+
+    @Override
+    public WorldModel decode(InputStream in) throws IOException {
+        var reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        return decoder.decode(reader);
+    }
+
+}
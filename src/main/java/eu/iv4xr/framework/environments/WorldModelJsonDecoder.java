@@ -0,0 +1,371 @@
+package eu.iv4xr.framework.environments;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Serializable;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import eu.iv4xr.framework.mainConcepts.WorldEntity;
+import eu.iv4xr.framework.mainConcepts.WorldModel;
+import eu.iv4xr.framework.spatial.Vec3;
+import nl.uu.cs.aplib.environments.JsonEnvironment;
+
+/**
+ * A decoder that reads a {@link WorldModel} from a stream of Json tokens, filling
+ * in the WorldModel and its {@link WorldEntity}s directly, without first parsing
+ * the Json into a tree. The expected format is the one Gson produces for a
+ * WorldModel. Fields that are not recognized are skipped. It can be registered
+ * to a {@link JsonEnvironment} with
+ * {@link JsonEnvironment#registerDecoder(Class, JsonEnvironment.StreamingDecoder)}.
+ *
+ * <p>
+ * Consecutive observations mostly contain the same entities, with the same
+ * property names. So, the decoder interns entity ids, types and property names:
+ * an equal string decoded earlier is re-used instead of the new one. Values of
+ * properties are decoded to String, Boolean, Integer, Long, Double, ArrayList,
+ * or HashMap.
+ *
+ * <p>
+ * Optionally (see {@link #useEntityPool(boolean)}), the decoder remembers the
+ * last decoded version of each top-level entity. If an entity has the same
+ * state (see {@link WorldEntity#hasSameState(WorldEntity)}) as its remembered
+ * version, that instance is put in the decoded WorldModel instead of the new
+ * one. The decoder never changes the instance, so it keeps its old timestamp;
+ * {@link WorldModel#mergeNewObservation(WorldModel)} then updates the entity as
+ * observed again at the timestamp of the observation. Note that this means the
+ * decoded WorldModels share these instances. An entity is forgotten when an
+ * observation says it is removed, or when a full (non-delta) observation does
+ * not contain it. At most {@link #DEFAULT_POOL_CAPACITY} entities are
+ * remembered (or the capacity given to {@link #useEntityPool(int)}); beyond
+ * that, the least recently decoded ones are forgotten.
+ *
+ * <p>
+ * An instance of this class is not thread-safe.
+ */
+public class WorldModelJsonDecoder implements JsonEnvironment.StreamingDecoder<WorldModel> {
+
+    protected Map<String, String> internedStrings = new HashMap<>();
+
+    /**
+     * The default maximum number of entities in the entity pool.
+     */
+    public static final int DEFAULT_POOL_CAPACITY = 1 << 16;
+
+    protected Map<String, WorldEntity> pool = null;
+
+    public WorldModelJsonDecoder() {
+    }
+
+    /**
+     * Turn the pooling of entities on or off. The method returns this decoder
+     * itself so that it can be used in the Fluent Interface style.
+     */
+    public WorldModelJsonDecoder useEntityPool(boolean on) {
+        return on ? useEntityPool(DEFAULT_POOL_CAPACITY) : useEntityPool(0);
+    }
+
+    /**
+     * Turn the pooling of entities on, remembering at most the given number of
+     * entities, or off if this number is 0. The method returns this decoder itself
+     * so that it can be used in the Fluent Interface style.
+     */
+    public WorldModelJsonDecoder useEntityPool(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("The capacity of the entity pool cannot be negative.");
+        if (capacity == 0) {
+            pool = null;
+            return this;
+        }
+        pool = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, WorldEntity> eldest) {
+                return size() > capacity;
+            }
+        };
+        return this;
+    }
+
+    /**
+     * Forget all interned strings and pooled entities.
+     */
+    public void clear() {
+        internedStrings.clear();
+        if (pool != null)
+            pool.clear();
+    }
+
+    public WorldModel decode(String json) throws IOException {
+        return decode(new StringReader(json));
+    }
+
+    public WorldModel decode(Reader json) throws IOException {
+        try (var in = new JsonReader(json)) {
+            return decode(in);
+        }
+    }
+
+    @Override
+    public WorldModel decode(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        var wom = newWorldModel();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+            case "agentId":
+                wom.agentId = nextString(in);
+                break;
+            case "position":
+                wom.position = nextVec3(in);
+                break;
+            case "velocity":
+                wom.velocity = nextVec3(in);
+                break;
+            case "extent":
+                wom.extent = nextVec3(in);
+                break;
+            case "timestamp":
+                wom.timestamp = in.nextLong();
+                break;
+            case "elements":
+                nextElements(in, wom.elements, pool != null);
+                break;
+            case "deltaSince":
+                wom.deltaSince = in.nextLong();
+                break;
+            case "removedElements":
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    break;
+                }
+                wom.removedElements = new HashSet<>();
+                in.beginArray();
+                while (in.hasNext())
+                    wom.removedElements.add(in.nextString());
+                in.endArray();
+                break;
+            default:
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        if (pool != null) {
+            // forget the entities that are no longer in the world:
+            if (wom.removedElements != null)
+                pool.keySet().removeAll(wom.removedElements);
+            if (wom.deltaSince < 0)
+                pool.keySet().retainAll(wom.elements.keySet());
+        }
+        return wom;
+    }
+
+    /**
+     * Create the instance of WorldModel to fill in. Override this to decode into
+     * a subclass of WorldModel.
+     */
+    protected WorldModel newWorldModel() {
+        return new WorldModel();
+    }
+
+    String intern(String s) {
+        var t = internedStrings.putIfAbsent(s, s);
+        return t == null ? s : t;
+    }
+
+    String nextString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    Vec3 nextVec3(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        float x = 0, y = 0, z = 0;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+            case "x":
+                x = (float) in.nextDouble();
+                break;
+            case "y":
+                y = (float) in.nextDouble();
+                break;
+            case "z":
+                z = (float) in.nextDouble();
+                break;
+            default:
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return new Vec3(x, y, z);
+    }
+
+    void nextElements(JsonReader in, Map<String, WorldEntity> elements, boolean pooled) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return;
+        }
+        in.beginObject();
+        while (in.hasNext()) {
+            var key = intern(in.nextName());
+            var e = nextEntity(in);
+            if (e == null)
+                continue;
+            if (pooled)
+                e = pool(e);
+            elements.put(key, e);
+        }
+        in.endObject();
+    }
+
+    /**
+     * Return the pooled version of e, unchanged, if it has the same state as e,
+     * else put e in the pool.
+     */
+    WorldEntity pool(WorldEntity e) {
+        var old = pool.get(e.id);
+        if (old != null && Objects.equals(old.type, e.type) && old.dynamic == e.dynamic
+                && e.hasSameState(old))
+            return old;
+        pool.put(e.id, e);
+        return e;
+    }
+
+    WorldEntity nextEntity(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String id = null;
+        String type = null;
+        boolean dynamic = false;
+        long timestamp = -1;
+        long lastStutterTimestamp = -1;
+        Vec3 position = null;
+        Vec3 extent = null;
+        Vec3 velocity = null;
+        Map<String, Serializable> properties = new HashMap<>();
+        Map<String, WorldEntity> elements = new HashMap<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+            case "id":
+                id = intern(in.nextString());
+                break;
+            case "type":
+                var t = nextString(in);
+                type = t == null ? null : intern(t);
+                break;
+            case "dynamic":
+                dynamic = in.nextBoolean();
+                break;
+            case "timestamp":
+                timestamp = in.nextLong();
+                break;
+            case "lastStutterTimestamp":
+                lastStutterTimestamp = in.nextLong();
+                break;
+            case "position":
+                position = nextVec3(in);
+                break;
+            case "extent":
+                extent = nextVec3(in);
+                break;
+            case "velocity":
+                velocity = nextVec3(in);
+                break;
+            case "properties":
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    break;
+                }
+                in.beginObject();
+                while (in.hasNext()) {
+                    var name = intern(in.nextName());
+                    properties.put(name, nextValue(in));
+                }
+                in.endObject();
+                break;
+            case "elements":
+                nextElements(in, elements, false);
+                break;
+            default:
+                // e.g. previousState, which is not part of an observation
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        var e = new WorldEntity(id, type, dynamic);
+        e.timestamp = timestamp;
+        e.lastStutterTimestamp = lastStutterTimestamp;
+        e.position = position;
+        e.extent = extent;
+        e.velocity = velocity;
+        e.properties = properties;
+        e.elements = elements;
+        return e;
+    }
+
+    Serializable nextValue(JsonReader in) throws IOException {
+        switch (in.peek()) {
+        case NULL:
+            in.nextNull();
+            return null;
+        case BOOLEAN:
+            return in.nextBoolean();
+        case STRING:
+            return in.nextString();
+        case NUMBER:
+            var n = in.nextString();
+            if (n.indexOf('.') < 0 && n.indexOf('e') < 0 && n.indexOf('E') < 0) {
+                try {
+                    long v = Long.parseLong(n);
+                    if (v == (int) v)
+                        return (int) v;
+                    return v;
+                } catch (NumberFormatException ex) {
+                    // too large for a long
+                }
+            }
+            return Double.parseDouble(n);
+        case BEGIN_ARRAY:
+            var list = new ArrayList<Serializable>();
+            in.beginArray();
+            while (in.hasNext())
+                list.add(nextValue(in));
+            in.endArray();
+            return list;
+        case BEGIN_OBJECT:
+            var map = new HashMap<String, Serializable>();
+            in.beginObject();
+            while (in.hasNext()) {
+                var name = intern(in.nextName());
+                map.put(name, nextValue(in));
+            }
+            in.endObject();
+            return map;
+        default:
+            throw new IllegalStateException("Unexpected Json token " + in.peek() + " at " + in.getPath());
+        }
+    }
+
+}
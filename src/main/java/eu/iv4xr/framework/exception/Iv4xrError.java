@@ -7,4 +7,8 @@ public class Iv4xrError extends Error {
     public Iv4xrError(String cause) {
         super(cause);
     }
+
+    public Iv4xrError(String cause, Throwable e) {
+        super(cause, e);
+    }
 }
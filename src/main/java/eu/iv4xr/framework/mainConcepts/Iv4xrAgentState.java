@@ -1,6 +1,9 @@
 package eu.iv4xr.framework.mainConcepts;
 
 import java.io.Serializable;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
 import java.util.function.BiFunction;
 
 import eu.iv4xr.framework.extensions.ltl.BasicModelChecker;
@@ -97,6 +100,12 @@ public class Iv4xrAgentState<NavgraphNode> extends State {
 	 */
 	public BuchiModelChecker ltlchecker ;
 	
+	/**
+	 * If true, {@link #updateState(String)} asks the environment for delta
+	 * observations, see {@link Iv4xrEnvironment#observeDelta(String, long)}.
+	 */
+	protected boolean useDeltaObservations = false ;
+	
 
 	@Override
 	public Iv4xrEnvironment env() {
@@ -265,27 +274,92 @@ public class Iv4xrAgentState<NavgraphNode> extends State {
 	}
 	
 
+	/**
+	 * If true, the state will ask the environment for delta observations, which
+	 * only contain what changed since the last observation, rather than full
+	 * observations. The method returns this state itself so that it can be used
+	 * in the Fluent Interface style.
+	 */
+	public Iv4xrAgentState<NavgraphNode> useDeltaObservations(boolean on) {
+		useDeltaObservations = on ;
+		return this ;
+	}
+
 	/**
 	 * This will call the observe() method of the environment attached to this state
 	 * to obtain a fresh observation, and then uses it to update this state. If
 	 * {@link #worldmodel} exists, this new observation will be merged into the
+	 * {@link #worldmodel}. If delta observations are turned on (see
+	 * {@link #useDeltaObservations(boolean)}) and {@link #worldmodel} exists,
+	 * observeDelta() is called instead, relative to the timestamp of
 	 * {@link #worldmodel}.
+	 * 
+	 * <p>If this state tracks changes (see {@link #enableChangeTracking()}), the
+	 * entities that the merge reports as changed are registered to the
+	 * change-tracker, along with their changed properties.
 	 */
 	@Override
 	public void updateState(String agentId) {
 		// note: intentionally NOT calling super.updateState()
-		var newObs = env().observe(agentId);
+		var newObs = useDeltaObservations && worldmodel != null
+				? env().observeDelta(agentId, worldmodel.timestamp)
+				: env().observe(agentId);
+		if (changeTracker != null)
+			changeTracker.nextCycle();
 		if (worldmodel != null) {
-			worldmodel.mergeNewObservation(newObs);
+			var agentPosition = worldmodel.position ;
+			List<WorldEntity> removed = new LinkedList<>() ;
+			if (changeTracker != null && newObs != null && newObs.removedElements != null) {
+				for (var id : newObs.removedElements) {
+					var e = worldmodel.elements.get(id) ;
+					if (e != null) removed.add(e) ;
+				}
+			}
+			var impacted = worldmodel.mergeNewObservation(newObs);
+			if (changeTracker != null) {
+				if (! Objects.equals(agentPosition, worldmodel.position))
+					changeTracker.registerChange(worldmodel.agentId, null, null);
+				registerChanges(impacted) ;
+				for (var e : removed)
+					changeTracker.registerChange(e.id, e.type, e.properties.keySet());
+			}
 		}
 		else {
 			worldmodel = newObs ;
+			if (changeTracker != null)
+				changeTracker.registerChangeOfEverything();
 		}
 		if (gwmodel != null && gwmodelLearner !=null){
 			// if model learner is not null, invoke it:
 			gwmodelLearner.apply(this,gwmodel) ;
 		}
 	}
+	
+	/**
+	 * Register the given entities as changed in the current cycle of this state's
+	 * change-tracker. For an entity that has a previous state, only the properties
+	 * whose values differ from that previous state are registered as changed;
+	 * else all its properties are.
+	 */
+	protected void registerChanges(List<WorldEntity> changedEntities) {
+		for (var e : changedEntities) {
+			var prev = e.getPreviousState() ;
+			if (prev == null) {
+				changeTracker.registerChange(e.id, e.type, e.properties.keySet());
+				continue ;
+			}
+			List<String> changedProperties = new LinkedList<>() ;
+			for (var P : e.properties.entrySet()) {
+				if (! Objects.equals(P.getValue(), prev.properties.get(P.getKey())))
+					changedProperties.add(P.getKey()) ;
+			}
+			for (var q : prev.properties.keySet()) {
+				if (! e.properties.containsKey(q))
+					changedProperties.add(q) ;
+			}
+			changeTracker.registerChange(e.id, e.type, changedProperties);
+		}
+	}
 
 	/**
 	 * Covert the given surface-mesh into a navigation graph. More precisely, to an
@@ -59,5 +59,25 @@ public class Iv4xrEnvironment extends Environment  {
     public WorldModel observe(String agentId) {
     	throw new UnsupportedOperationException();
     }
+    
+    /**
+     * You can implement this method, if the real environment can report only
+     * the changes since a given time.
+     * 
+     * <p>
+     * This method should return a delta observation of the agent of the given id:
+     * a WorldModel containing only the entities whose state changed since the
+     * given timestamp, with its {@link WorldModel#deltaSince} set to that
+     * timestamp, and the ids of entities removed since then in
+     * {@link WorldModel#removedElements}. See also
+     * {@link WorldModel#mergeNewObservation(WorldModel)}.
+     * 
+     * <p>
+     * The default implementation simply returns the full observation given by
+     * {@link #observe(String)}.
+     */
+    public WorldModel observeDelta(String agentId, long sinceTimestamp) {
+    	return observe(agentId) ;
+    }
 
 }
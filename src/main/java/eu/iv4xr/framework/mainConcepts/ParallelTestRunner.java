@@ -0,0 +1,337 @@
+package eu.iv4xr.framework.mainConcepts;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+import nl.uu.cs.aplib.Logging;
+import nl.uu.cs.aplib.mainConcepts.ProgressStatus;
+
+/**
+ * Executes many independent test runs concurrently, on a bounded pool of
+ * threads. Each run uses its own test-agent, with its own environment, created
+ * by {@link #agentConstructor}. The runner then updates the agent until its
+ * goal is concluded, or until it has done {@link #maxTurnsPerRun} updates. All
+ * agents report to the same {@link #dataCollector}; give them unique ids, e.g.
+ * with {@link Run#agentId(String)}.
+ *
+ * <p>
+ * Every run gets its own random seed, derived from {@link #seed} and the index
+ * of the run, so a run can be reproduced on its own, regardless of which
+ * thread executed it, or which other runs were executed. If
+ * {@link #logDirectory} is set, the aplib log messages that a run produces on
+ * its thread are moreover written to its own log file in that directory.
+ *
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * var runner = new ParallelTestRunner();
+ * runner.agentConstructor = run -&gt; new TestAgent(run.agentId("tester"), "tester")
+ *         .attachState(new MyState())
+ *         .attachEnvironment(new MyEnv(run.random))
+ *         .setGoal(myTestGoal());
+ * var results = runner.run(100);
+ * </pre>
+ */
+public class ParallelTestRunner {
+
+    /**
+     * Information about a single run, given to {@link #agentConstructor}.
+     */
+    public static class Run {
+
+        /**
+         * The index of the run, from 0 to the number of runs - 1.
+         */
+        public final int index;
+
+        /**
+         * The random seed of this run.
+         */
+        public final long seed;
+
+        /**
+         * A random generator seeded with {@link #seed}, to be used by the agent and
+         * its environment, if they need randomness.
+         */
+        public final Random random;
+
+        Run(int index, long seed) {
+            this.index = index;
+            this.seed = seed;
+            this.random = new Random(seed);
+        }
+
+        /**
+         * Return an agent id that is unique for this run, by appending the index of
+         * the run to the given name.
+         */
+        public String agentId(String name) {
+            return name + "#" + index;
+        }
+    }
+
+    /**
+     * The outcome of a single run.
+     */
+    public static class RunResult {
+        public final int index;
+        public final long seed;
+
+        /**
+         * The id of the run's agent, or null if it could not be constructed.
+         */
+        public final String agentId;
+
+        /**
+         * The status of the agent's goal, or null if the goal was not concluded
+         * within {@link ParallelTestRunner#maxTurnsPerRun} updates.
+         */
+        public final ProgressStatus status;
+
+        /**
+         * The number of agent updates done in this run.
+         */
+        public final int turns;
+
+        /**
+         * The time the run took, in ms, including the construction of the agent.
+         */
+        public final long durationMillis;
+
+        /**
+         * The exception that aborted the run, or null if it completed.
+         */
+        public final Throwable exception;
+
+        RunResult(Run run, String agentId, ProgressStatus status, int turns, long durationMillis,
+                Throwable exception) {
+            this.index = run.index;
+            this.seed = run.seed;
+            this.agentId = agentId;
+            this.status = status;
+            this.turns = turns;
+            this.durationMillis = durationMillis;
+            this.exception = exception;
+        }
+
+        /**
+         * True if the run completed, and the agent's goal was solved.
+         */
+        public boolean success() {
+            return exception == null && status != null && status.success();
+        }
+
+        @Override
+        public String toString() {
+            return "run " + index + " (seed " + seed + ", agent " + agentId + "): "
+                    + (exception != null ? "aborted by " + exception : status) + ", " + turns + " turns, "
+                    + durationMillis + " ms";
+        }
+    }
+
+    /**
+     * A function that constructs the test-agent of a run, with its state, its
+     * environment, and its goal. This may potentially also launch a new instance
+     * of the SUT (your choice).
+     */
+    public Function<Run, TestAgent> agentConstructor;
+
+    /**
+     * If not null, this is called at the end of every run, also when the run
+     * failed, e.g. to close the agent's environment, or to shut down the SUT.
+     */
+    public Consumer<TestAgent> agentDestructor = null;
+
+    /**
+     * The number of runs executed at the same time. The default is the number of
+     * available processors.
+     */
+    public int poolSize = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The maximum number of updates of the agent in a single run. The default is
+     * 1000.
+     */
+    public int maxTurnsPerRun = 1000;
+
+    /**
+     * The seed from which the seeds of the runs are derived.
+     */
+    public long seed = 0;
+
+    /**
+     * If not null, the log messages of every run are also written to a file
+     * "run-k.log" in this directory, where k is the index of the run.
+     */
+    public String logDirectory = null;
+
+    /**
+     * The data collector the agents of all runs report to. An agent that already
+     * has a data collector keeps it.
+     */
+    public TestDataCollector dataCollector = new TestDataCollector();
+
+    /**
+     * The writer of the log file of the run executed by the current thread.
+     */
+    private static final ThreadLocal<PrintWriter> runLog = new ThreadLocal<>();
+
+    /**
+     * A log handler that writes every log message to the log file of the run of
+     * the thread that produced it.
+     */
+    private static class RunLogHandler extends Handler {
+        RunLogHandler() {
+            setFormatter(new SimpleFormatter());
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            var out = runLog.get();
+            if (out != null && isLoggable(record))
+                out.print(getFormatter().format(record));
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public ParallelTestRunner() {
+    }
+
+    /**
+     * Return the seed of the run with the given index.
+     */
+    public long seedOfRun(int index) {
+        return new SplittableRandom(seed + index).nextLong();
+    }
+
+    /**
+     * Execute the given number of runs, and wait until all of them are done. The
+     * results are returned in the order of the runs' index.
+     */
+    public List<RunResult> run(int numberOfRuns) throws InterruptedException {
+        List<Integer> indices = new ArrayList<>();
+        for (int k = 0; k < numberOfRuns; k++)
+            indices.add(k);
+        return run(indices);
+    }
+
+    /**
+     * Execute the runs with the given indices, e.g. to repeat some runs of an
+     * earlier call to {@link #run(int)}. The results are returned in the same
+     * order as the indices.
+     */
+    public List<RunResult> run(List<Integer> indices) throws InterruptedException {
+        if (agentConstructor == null)
+            throw new IllegalStateException("No agentConstructor is given.");
+        if (poolSize <= 0)
+            throw new IllegalArgumentException("The pool size should be positive.");
+        if (logDirectory != null) {
+            try {
+                Files.createDirectories(new File(logDirectory).toPath());
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot create the log directory " + logDirectory, e);
+            }
+        }
+        Handler logHandler = null;
+        if (logDirectory != null) {
+            logHandler = new RunLogHandler();
+            Logging.getAPLIBlogger().addHandler(logHandler);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+        var agentIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        try {
+            List<Future<RunResult>> futures = new ArrayList<>();
+            for (int k : indices) {
+                var run = new Run(k, seedOfRun(k));
+                futures.add(pool.submit(() -> execute(run, agentIds)));
+            }
+            List<RunResult> results = new ArrayList<>();
+            for (var f : futures) {
+                try {
+                    results.add(f.get());
+                } catch (ExecutionException e) {
+                    // execute() catches everything, so this should not happen
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+            if (logHandler != null)
+                Logging.getAPLIBlogger().removeHandler(logHandler);
+        }
+    }
+
+    private RunResult execute(Run run, Set<String> agentIds) {
+        long t0 = System.currentTimeMillis();
+        TestAgent agent = null;
+        int turns = 0;
+        PrintWriter log = null;
+        try {
+            if (logDirectory != null) {
+                log = new PrintWriter(new File(logDirectory, "run-" + run.index + ".log"), StandardCharsets.UTF_8);
+                runLog.set(log);
+            }
+            agent = agentConstructor.apply(run);
+            if (!agentIds.add(agent.getId()))
+                throw new IllegalArgumentException("Agent id " + agent.getId()
+                        + " is used by more than one run; use Run.agentId() to make it unique.");
+            if (agent.getTestDataCollector() == null)
+                agent.setTestDataCollector(dataCollector);
+            while (agent.hasGoal() && turns < maxTurnsPerRun) {
+                agent.update();
+                turns++;
+            }
+            return new RunResult(run, agent.getId(), status(agent), turns, System.currentTimeMillis() - t0, null);
+        } catch (Throwable e) {
+            return new RunResult(run, agent == null ? null : agent.getId(), agent == null ? null : status(agent),
+                    turns, System.currentTimeMillis() - t0, e);
+        } finally {
+            if (agent != null && agentDestructor != null) {
+                try {
+                    agentDestructor.accept(agent);
+                } catch (Throwable e) {
+                    Logging.getAPLIBlogger().log(Level.WARNING,
+                            "The agentDestructor fails at the end of run " + run.index + ": " + e);
+                }
+            }
+            runLog.remove();
+            if (log != null)
+                log.close();
+        }
+    }
+
+    private static ProgressStatus status(TestAgent agent) {
+        var G = agent.getLastHandledGoal();
+        return G == null ? null : G.getStatus();
+    }
+
+}
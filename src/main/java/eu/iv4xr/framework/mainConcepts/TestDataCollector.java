@@ -32,6 +32,13 @@ import nl.uu.cs.aplib.utils.Parsable;
  * the test-agent manage to cover.
  * </ul>
  * 
+ * <p>
+ * A TestDataCollector is thread-safe: test-agents running concurrently (e.g.
+ * by a {@link ParallelTestRunner}) can register themselves and report their
+ * events to the same collector. The maps and lists returned by the getters are
+ * however the collector's own; they should only be inspected when the agents
+ * are done.
+ * 
  * @author Wish
  *
  */
@@ -88,7 +95,7 @@ public class TestDataCollector implements Parsable {
         /**
          * Clear the trace and reset verdict-counts to 0.
          */
-        public void reset() {
+        public synchronized void reset() {
         	trace.clear(); 
             numOfPassVerdicts = 0;
             numOfUndecidedVerdicts = 0;
@@ -170,7 +177,7 @@ public class TestDataCollector implements Parsable {
     /**
      * Add a coverage-point to the set of coverage-points whose coverage will be tracked.
      */
-    public void startTrackingCoveragePoint(String coveragePointId) {
+    public synchronized void startTrackingCoveragePoint(String coveragePointId) {
         collectiveCoverageMap.startTrackingCoveragePoint(coveragePointId);
         for (CoverageMap CM : perAgentCoverage.values())
             CM.startTrackingCoveragePoint(coveragePointId);
@@ -182,14 +189,24 @@ public class TestDataCollector implements Parsable {
      * 
      * @param agentUniqueId The id of the agent. This is assumed to be unique.
      */
-    public void registerTestAgent(String agentUniqueId) {
+    public synchronized void registerTestAgent(String agentUniqueId) {
         if (perAgentCoverage.containsKey(agentUniqueId))
             return;
-        perAgentEventTrace.put(agentUniqueId, new EventTrace());
         CoverageMap CM = new CoverageMap();
+        synchronized (collectiveCoverageMap) {
+            for (String coveragePoint : collectiveCoverageMap.coverage.keySet())
+                CM.startTrackingCoveragePoint(coveragePoint);
+        }
+        perAgentEventTrace.put(agentUniqueId, new EventTrace());
         perAgentCoverage.put(agentUniqueId, CM);
-        for (String coveragePoint : collectiveCoverageMap.coverage.keySet())
-            CM.startTrackingCoveragePoint(coveragePoint);
+    }
+
+    /**
+     * True if a test-agent with the given id has been registered to this data
+     * collector.
+     */
+    public synchronized boolean isRegistered(String agentUniqueId) {
+        return perAgentCoverage.containsKey(agentUniqueId);
     }
 
     /**
@@ -200,9 +217,12 @@ public class TestDataCollector implements Parsable {
      *                      of interest.
      */
     public void registerVisit(String agentUniqueId, CoveragePointEvent e) {
-        if (!perAgentCoverage.containsKey(agentUniqueId))
+        CoverageMap CM;
+        synchronized (this) {
+            CM = perAgentCoverage.get(agentUniqueId);
+        }
+        if (CM == null)
             return;
-        CoverageMap CM = perAgentCoverage.get(agentUniqueId);
         CM.registerVisit(e, collectiveCoverageMap);
     }
 
@@ -217,9 +237,12 @@ public class TestDataCollector implements Parsable {
      * @param e             An event representing the observation to record.
      */
     public void registerEvent(String agentUniqueId, TimeStampedObservationEvent e) {
-        if (!perAgentEventTrace.containsKey(agentUniqueId))
+        EventTrace ET;
+        synchronized (this) {
+            ET = perAgentEventTrace.get(agentUniqueId);
+        }
+        if (ET == null)
             return;
-        EventTrace ET = perAgentEventTrace.get(agentUniqueId);
         ET.registerEvent(e);
     }
 
@@ -231,7 +254,7 @@ public class TestDataCollector implements Parsable {
      * The integer it is mapped to is the number of times the coverage-point is
      * visited.
      */
-    public Map<String, Integer> getTestAgentCoverage(String agentUniqueId) {
+    public synchronized Map<String, Integer> getTestAgentCoverage(String agentUniqueId) {
         CoverageMap CM = perAgentCoverage.get(agentUniqueId);
         if (CM == null)
             throw new IllegalArgumentException("Agent " + agentUniqueId + " is unknown.");
@@ -256,7 +279,7 @@ public class TestDataCollector implements Parsable {
      * reported to this TestDataCollector. Note that verdicts count as time-stamped
      * events.
      */
-    public List<TimeStampedObservationEvent> getTestAgentTrace(String agentUniqueId) {
+    public synchronized List<TimeStampedObservationEvent> getTestAgentTrace(String agentUniqueId) {
         EventTrace ET = perAgentEventTrace.get(agentUniqueId);
         if (ET == null)
             throw new IllegalArgumentException("Agent " + agentUniqueId + " is unknown.");
@@ -266,7 +289,7 @@ public class TestDataCollector implements Parsable {
     /**
      * Return the trace of the specified agent, containing only of ScalarTracingEvents.
      */
-    public List<ScalarTracingEvent> getTestAgentScalarsTrace(String agentUniqueId) {
+    public synchronized List<ScalarTracingEvent> getTestAgentScalarsTrace(String agentUniqueId) {
         EventTrace ET = perAgentEventTrace.get(agentUniqueId);
         if (ET == null)
             throw new IllegalArgumentException("Agent " + agentUniqueId + " is unknown.");
@@ -279,7 +302,7 @@ public class TestDataCollector implements Parsable {
     /**
      * Get the number of negative verdicts reported by the specified test-agent.
      */
-    public int getNumberOfFailVerdictsSeen(String agentUniqueId) {
+    public synchronized int getNumberOfFailVerdictsSeen(String agentUniqueId) {
         EventTrace ET = perAgentEventTrace.get(agentUniqueId);
         if (ET == null)
             throw new IllegalArgumentException("Agent " + agentUniqueId + " is unknown.");
@@ -289,7 +312,7 @@ public class TestDataCollector implements Parsable {
     /**
      * Get the total number of negative verdicts reported by all test-agents.
      */
-    public int getNumberOfFailVerdictsSeen() {
+    public synchronized int getNumberOfFailVerdictsSeen() {
         int count = 0;
         for (EventTrace ET : perAgentEventTrace.values())
             count += ET.numOfFailVerdicts;
@@ -299,7 +322,7 @@ public class TestDataCollector implements Parsable {
     /**
      * Get the number of positive verdicts reported by the specified test-agent.
      */
-    public int getNumberOfPassVerdictsSeen(String agentUniqueId) {
+    public synchronized int getNumberOfPassVerdictsSeen(String agentUniqueId) {
         EventTrace ET = perAgentEventTrace.get(agentUniqueId);
         if (ET == null)
             throw new IllegalArgumentException("Agent " + agentUniqueId + " is unknown.");
@@ -309,7 +332,7 @@ public class TestDataCollector implements Parsable {
     /**
      * Get the total number of positive verdicts reported by all test-agents.
      */
-    public int getNumberOfPassVerdictsSeen() {
+    public synchronized int getNumberOfPassVerdictsSeen() {
         int count = 0;
         for (EventTrace ET : perAgentEventTrace.values())
             count += ET.numOfPassVerdicts;
@@ -319,7 +342,7 @@ public class TestDataCollector implements Parsable {
     /**
      * Get the number of undecided verdicts reported by the specified test-agent.
      */
-    public int getNumberOfUndecidedVerdictsSeen(String agentUniqueId) {
+    public synchronized int getNumberOfUndecidedVerdictsSeen(String agentUniqueId) {
         EventTrace ET = perAgentEventTrace.get(agentUniqueId);
         if (ET == null)
             throw new IllegalArgumentException("Agent " + agentUniqueId + " is unknown.");
@@ -329,7 +352,7 @@ public class TestDataCollector implements Parsable {
     /**
      * Get the total number of undecided verdicts reported by all test-agents.
      */
-    public int getNumberOfUndecidedVerdictsSeen() {
+    public synchronized int getNumberOfUndecidedVerdictsSeen() {
         int count = 0;
         for (EventTrace ET : perAgentEventTrace.values())
             count += ET.numOfUndecidedVerdicts;
@@ -339,7 +362,7 @@ public class TestDataCollector implements Parsable {
     /**
      * Get the last negative verdict reported by the specified test-agent.
      */
-    public VerdictEvent getLastFailVerdict(String agentUniqueId) {
+    public synchronized VerdictEvent getLastFailVerdict(String agentUniqueId) {
         EventTrace ET = perAgentEventTrace.get(agentUniqueId);
         if (ET == null)
             throw new IllegalArgumentException("Agent " + agentUniqueId + " is unknown.");
@@ -349,7 +372,7 @@ public class TestDataCollector implements Parsable {
     /**
      * Get the last reported negative verdict.
      */
-    public VerdictEvent getLastFailVerdict() {
+    public synchronized VerdictEvent getLastFailVerdict() {
         VerdictEvent err = null;
         for (EventTrace ET : perAgentEventTrace.values()) {
             VerdictEvent err2 = ET.lastFailVerdict;
@@ -390,7 +413,7 @@ public class TestDataCollector implements Parsable {
      *    coverage-point-name,num-of-total-visits,agent1,num-visit-by-agent1,agent2,...
      * 
      */
-	public void save(String fname, String covFname) throws IOException {
+	public synchronized void save(String fname, String covFname) throws IOException {
 
 		// Saving the events:
 
@@ -457,7 +480,7 @@ public class TestDataCollector implements Parsable {
 	 * coverage information tracked by this data-collector (that means reseting their
 	 * visit-counts to 0). 
 	 */
-	public void reset() {
+	public synchronized void reset() {
 		for (var tr : this.perAgentEventTrace.values()) {
 			tr.reset(); 
 		}
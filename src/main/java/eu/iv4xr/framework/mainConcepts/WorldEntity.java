@@ -25,7 +25,7 @@ import eu.iv4xr.framework.spatial.Vec3;
  * @author Wish
  *
  */
-public class WorldEntity implements Serializable {
+public class WorldEntity implements Serializable, Cloneable {
 
 	private static final long serialVersionUID = 1L;
 
@@ -83,19 +83,34 @@ public class WorldEntity implements Serializable {
      */
     private WorldEntity previousState = null;
 
+    /**
+     * The cached fingerprint of the state of this entity, if
+     * {@link #hasFingerprint} is true.
+     */
+    private transient long fingerprint;
+    private transient boolean hasFingerprint = false;
+
     private static boolean equal_(Object a, Object b) {
         if (a == null)
             return b == null;
         return a.equals(b);
     }
 
+    /**
+     * True if e is this entity, or a copy made with {@link #shallowClone()} of
+     * this entity or of an entity it was copied from; they then share their state.
+     */
+    boolean sharesStateWith(WorldEntity e) {
+        return e == this || e.properties == this.properties;
+    }
+
     /**
      * Let e be non-null and represent the same entity as this entity (they have the
      * same ID), but its state is possibly different than this entity. This method
      * checks if both entity have the same state.
      * 
      * <p>Non-dynamic entity is assumed not to change state. Else this method first check
-     * the hash-value of both entities. If they are the same, this method performs
+     * the {@link #fingerprint()} of both entities. If they are the same, this method performs
      * deep comparison of position, velocity, properties, and sub-entities. This
      * might be a bit expensive; override this method if a faster implementation is
      * wanted.
@@ -106,7 +121,7 @@ public class WorldEntity implements Serializable {
         if (!this.dynamic)
             return true;
         // else:
-        if (this.hashCode() != old.hashCode())
+        if (this.fingerprint() != old.fingerprint())
             return false;
 
         if (!(equal_(position, old.position) && equal_(velocity, old.velocity)
@@ -231,14 +246,202 @@ public class WorldEntity implements Serializable {
         return Objects.hash(position, velocity, extent, properties, elements);
     }
 
+    /**
+     * A 64-bit fingerprint of the state of this entity: its position, velocity,
+     * extent, properties, and sub-entities. Entities with the same state have the
+     * same fingerprint, so entities with different fingerprints have different
+     * states. The fingerprint is computed when it is first needed, typically when
+     * the entity is merged into a {@link WorldModel}, and is then cached.
+     * {@link WorldModel#updateEntity(WorldEntity)} and
+     * {@link WorldModel#mergeNewObservation(WorldModel)} clear the cached
+     * fingerprints of the entities given to them, so these can be changed freely
+     * before.
+     *
+     * <p>IMPORTANT: if the state of this entity, or of one of its sub-entities, is
+     * changed in place at other times, e.g. while it is in a WorldModel, call
+     * {@link #stateChanged()} on this entity.
+     */
+    public long fingerprint() {
+        if (!hasFingerprint) {
+            long h = mix(Objects.hashCode(position)) ^ mix(31L + Objects.hashCode(velocity))
+                    ^ mix(63L + Objects.hashCode(extent));
+            // the sums make the fingerprint independent of the order of the maps:
+            long hp = 0;
+            for (var p : properties.entrySet())
+                hp += mix(mix(p.getKey().hashCode()) + Objects.hashCode(p.getValue()));
+            long he = 0;
+            for (var e : elements.entrySet())
+                he += mix(mix(e.getKey().hashCode()) + e.getValue().fingerprint());
+            fingerprint = mix(h + mix(hp) * 31 + mix(he) * 63);
+            hasFingerprint = true;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Clear the cached {@link #fingerprint()} of this entity and its sub-entities.
+     * Call this after changing the state of the entity, or of one of its
+     * sub-entities, in place.
+     */
+    public void stateChanged() {
+        hasFingerprint = false;
+        for (var e : elements.values())
+            e.stateChanged();
+    }
+
+    /**
+     * The finalizer of SplitMix64, to spread the bits of a hash value.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Make a copy of this entity that a {@link WorldModel} updates instead of
+     * this entity, when this entity is shared with a snapshot. Such an update only
+     * changes the timestamps and the previous state of the copy, so the copy
+     * shares its state with this entity: its properties map, and its position,
+     * extent, and velocity vectors. The sub-entities are copied likewise, as their
+     * timestamps change along with that of this entity.
+     *
+     * <p>The copy is made with {@link Object#clone()}, so it has the same class as
+     * this entity, and shares the fields that a subclass adds. Override this if a
+     * subclass has fields that should not be shared between snapshots.
+     */
+    protected WorldEntity shallowClone() {
+        WorldEntity copy;
+        try {
+            copy = (WorldEntity) super.clone();
+        } catch (CloneNotSupportedException e) {
+            // cannot happen, as WorldEntity is Cloneable
+            throw new IllegalStateException(e);
+        }
+        copy.elements = new HashMap<>();
+        for (var e : elements.entrySet())
+            copy.elements.put(e.getKey(), e.getValue().shallowClone());
+        return copy;
+    }
+
+    /**
+     * Make a deep copy of this entity, including its sub-entities and its previous
+     * state. The copy is made structurally, rather than through serialization.
+     * Immutable property values (strings, boxed primitives, enums) are shared; Vec3
+     * values, arrays, and the standard lists, sets, and maps are copied element by
+     * element; other values are copied by serializing and deserializing them. An
+     * object that is referred to from several places in this entity is copied
+     * once, so the copy refers to it from the same places (except from within
+     * values that are copied by serialization).
+     *
+     * <p>
+     * An instance of a subclass of WorldEntity is copied as a whole by serializing
+     * and deserializing it, as this copies the fields that the subclass adds too.
+     */
     public WorldEntity deepclone() throws IOException, ClassNotFoundException {
+        return deepclone(new IdentityHashMap<>());
+    }
+
+    /**
+     * Worker of {@link #deepclone()}; copies holds the copies made so far of the
+     * mutable objects in this entity.
+     */
+    private WorldEntity deepclone(Map<Object, Object> copies) throws IOException, ClassNotFoundException {
+        if (getClass() != WorldEntity.class) {
+            var copy = (WorldEntity) serializedCopy(this);
+            copies.put(this, copy);
+            return copy;
+        }
+        var copy = new WorldEntity(id, type, dynamic);
+        copies.put(this, copy);
+        copy.timestamp = timestamp;
+        copy.lastStutterTimestamp = lastStutterTimestamp;
+        copy.position = (Vec3) copyValue(position, copies);
+        copy.extent = (Vec3) copyValue(extent, copies);
+        copy.velocity = (Vec3) copyValue(velocity, copies);
+        for (var p : properties.entrySet())
+            copy.properties.put(p.getKey(), (Serializable) copyValue(p.getValue(), copies));
+        for (var e : elements.entrySet())
+            copy.elements.put(e.getKey(), (WorldEntity) copyValue(e.getValue(), copies));
+        if (previousState != null)
+            copy.previousState = (WorldEntity) copyValue(previousState, copies);
+        return copy;
+    }
+
+    private static boolean isImmutable(Object v) {
+        return v instanceof String || v instanceof Integer || v instanceof Boolean || v instanceof Float
+                || v instanceof Long || v instanceof Double || v instanceof Character || v instanceof Short
+                || v instanceof Byte || v instanceof Enum;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object copyValue(Object v, Map<Object, Object> copies) throws IOException, ClassNotFoundException {
+        if (v == null || isImmutable(v))
+            return v;
+        var done = copies.get(v);
+        if (done != null)
+            return done;
+        if (v instanceof Vec3) {
+            var copy = ((Vec3) v).copy();
+            copies.put(v, copy);
+            return copy;
+        }
+        if (v instanceof WorldEntity)
+            return ((WorldEntity) v).deepclone(copies);
+        var C = v.getClass();
+        if (C.isArray()) {
+            int n = java.lang.reflect.Array.getLength(v);
+            var copy = java.lang.reflect.Array.newInstance(C.getComponentType(), n);
+            copies.put(v, copy);
+            if (C.getComponentType().isPrimitive()) {
+                System.arraycopy(v, 0, copy, 0, n);
+            } else {
+                var src = (Object[]) v;
+                var tgt = (Object[]) copy;
+                for (int k = 0; k < n; k++)
+                    tgt[k] = copyValue(src[k], copies);
+            }
+            return copy;
+        }
+        // only the exact standard classes, as a subclass may hold more state:
+        if (C == ArrayList.class || C == LinkedList.class || C == HashSet.class || C == LinkedHashSet.class) {
+            var src = (Collection<Object>) v;
+            Collection<Object> copy;
+            if (C == ArrayList.class)
+                copy = new ArrayList<>(src.size());
+            else if (C == LinkedList.class)
+                copy = new LinkedList<>();
+            else if (C == HashSet.class)
+                copy = new HashSet<>();
+            else
+                copy = new LinkedHashSet<>();
+            copies.put(v, copy);
+            for (var x : src)
+                copy.add(copyValue(x, copies));
+            return copy;
+        }
+        if (C == HashMap.class || C == LinkedHashMap.class) {
+            var src = (Map<Object, Object>) v;
+            Map<Object, Object> copy = C == HashMap.class ? new HashMap<>() : new LinkedHashMap<>();
+            copies.put(v, copy);
+            for (var x : src.entrySet())
+                copy.put(copyValue(x.getKey(), copies), copyValue(x.getValue(), copies));
+            return copy;
+        }
+        // fall back to serialization:
+        var copy = serializedCopy(v);
+        copies.put(v, copy);
+        return copy;
+    }
+
+    private static Object serializedCopy(Object v) throws IOException, ClassNotFoundException {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         ObjectOutputStream out = new ObjectOutputStream(bos);
-        out.writeObject(this);
+        out.writeObject(v);
+        out.flush();
         ByteArrayInputStream bis = new ByteArrayInputStream(bos.toByteArray());
         ObjectInputStream in = new ObjectInputStream(bis);
-        var copied = (WorldEntity) in.readObject();
-        return copied;
+        return in.readObject();
     }
     
     @Override
@@ -12,7 +12,7 @@ import eu.iv4xr.framework.spatial.Vec3;
  * the agent's belief on how the world is structured; this may incorporate its
  * past knowledge which may no longer be up to date.
  */
-public class WorldModel implements Serializable {
+public class WorldModel implements Serializable, Cloneable {
 
 	private static final long serialVersionUID = 1L;
 
@@ -37,12 +37,140 @@ public class WorldModel implements Serializable {
 
     /**
      * In-world entities that populate this World Model.
+     *
+     * <p>IMPORTANT: this map may be shared with snapshots (see
+     * {@link #snapshot()}). Once this WorldModel is in use, do not change the map
+     * directly; use {@link #updateEntity(WorldEntity)},
+     * {@link #mergeNewObservation(WorldModel)}, and {@link #removeEntity(String)}
+     * instead, which copy it first if it is shared. Filling the map of a fresh
+     * WorldModel, e.g. an observation that is being built, is fine.
      */
     public Map<String, WorldEntity> elements = new HashMap<>();
 
+    /**
+     * If this WorldModel is a delta observation, this is the timestamp of the
+     * observation it is relative to: it then only contains the entities whose
+     * state changed since that timestamp. It is -1 for a full observation. See
+     * {@link #mergeNewObservation(WorldModel)}.
+     */
+    public long deltaSince = -1;
+
+    /**
+     * If not null, the ids of entities that have been removed from the world
+     * (tombstones). When this WorldModel is merged as an observation, these
+     * entities are removed from the target WorldModel.
+     */
+    public Set<String> removedElements = null;
+
+    /**
+     * True if {@link #elements} is shared with a snapshot, and should be copied
+     * before it is changed.
+     */
+    private transient boolean elementsShared = false;
+
+    /**
+     * If not null, a snapshot has been taken, and this contains the entities in
+     * {@link #elements} that were added or copied since then; these are not
+     * shared with any snapshot. If null, all entities belong to this WorldModel.
+     */
+    private transient Set<WorldEntity> ownEntities = null;
+
     public WorldModel() {
     }
 
+    /**
+     * Return a snapshot of this WorldModel, e.g. to remember a belief state during
+     * search, and to backtrack to it later. Taking a snapshot takes constant time:
+     * the snapshot and this WorldModel share their entities. Afterwards, changing
+     * either of them through {@link #updateEntity(WorldEntity)},
+     * {@link #mergeNewObservation(WorldModel)}, or
+     * {@link #mergeOldObservation(WorldModel)}, or {@link #removeEntity(String)}
+     * copies the map of entities (but not the entities themselves) once. An
+     * entity that changes state is replaced rather than changed, so it is not
+     * copied. An entity that is observed again with the same state gets a new
+     * timestamp, so it is copied, but the copy shares its state (properties and
+     * vectors) with the original; see {@link WorldEntity#shallowClone()}. So, many
+     * snapshots of a WorldModel that evolves over time can be kept in memory.
+     *
+     * <p>A snapshot is itself a WorldModel that can be updated, and snapshotted
+     * again. It is a (shallow) clone of this WorldModel, so it has the same class;
+     * fields that subclasses add are shared.
+     *
+     * <p>IMPORTANT: entities that are changed directly, rather than through the
+     * methods above, change in all snapshots that share them.
+     */
+    public WorldModel snapshot() {
+        WorldModel S;
+        try {
+            S = (WorldModel) super.clone();
+        } catch (CloneNotSupportedException e) {
+            // cannot happen, as WorldModel is Cloneable
+            throw new IllegalStateException(e);
+        }
+        this.elementsShared = true;
+        S.elementsShared = true;
+        this.ownEntities = Collections.newSetFromMap(new IdentityHashMap<>());
+        S.ownEntities = Collections.newSetFromMap(new IdentityHashMap<>());
+        return S;
+    }
+
+    /**
+     * Copy {@link #elements} if it is shared with a snapshot, before changing it.
+     */
+    private void unshareElements() {
+        if (elementsShared) {
+            elements = new HashMap<>(elements);
+            elementsShared = false;
+        }
+    }
+
+    /**
+     * Put e in {@link #elements}, as an entity that belongs to this WorldModel.
+     */
+    private void putOwn(WorldEntity e) {
+        unshareElements();
+        elements.put(e.id, e);
+        if (ownEntities != null)
+            ownEntities.add(e);
+    }
+
+    /**
+     * Return e if it is not shared with a snapshot. Else return a copy of e that
+     * belongs to this WorldModel. The copy does not replace e in
+     * {@link #elements}.
+     */
+    private WorldEntity own(WorldEntity e) {
+        if (ownEntities == null || ownEntities.contains(e))
+            return e;
+        return e.shallowClone();
+    }
+
+    /**
+     * Return the version of the entity in {@link #elements} that can be changed,
+     * copying it if it is shared with a snapshot.
+     */
+    private WorldEntity ownElement(WorldEntity e) {
+        var f = own(e);
+        if (f != e)
+            putOwn(f);
+        return f;
+    }
+
+    /**
+     * Remove the entity with the given id from this WorldModel, without affecting
+     * the snapshots that share the entity. Return the removed entity, or null if
+     * there is no entity with this id.
+     */
+    public WorldEntity removeEntity(String id) {
+        if (!elements.containsKey(id))
+            return null;
+        unshareElements();
+        var removed = elements.remove(id);
+        if (ownEntities != null)
+            ownEntities.remove(removed);
+        return removed;
+    }
+
     /**
      * Increase the time stamp by one unit.
      */
@@ -213,15 +341,22 @@ public class WorldModel implements Serializable {
      * 
      * <p>The method returns the Entity f which then represents e in the WorldModel.
      * Note that e reflects some state change in the WorldModel if and only if the
-     * returned f = e (pointer equality).
+     * returned f = e (pointer equality), unless e was already the instance in this
+     * WorldModel.
+     *
+     * <p>The cached {@link WorldEntity#fingerprint()} of e is cleared first, so e
+     * may have been changed in place before it is given to this method. The
+     * entities in this WorldModel should not be changed in place afterwards.
      */
     public WorldEntity updateEntity(WorldEntity e) {
         if (e == null)
             throw new IllegalArgumentException("Cannot update a null entity in a World Model.");
         var current = elements.get(e.id);
+        if (e != current)
+            e.stateChanged();
         if (current == null) {
             // e is new:
-            elements.put(e.id, e);
+            putOwn(e);
             return e;
         } else {
             // case (1) e is at least as recent as "current":
@@ -231,6 +366,7 @@ public class WorldModel implements Serializable {
                     var startTimeStutter = current.lastStutterTimestamp;
                     if (startTimeStutter < 0)
                         startTimeStutter = current.timestamp;
+                    current = ownElement(current);
                     // keep current; just update its timestamp:
                     current.assignTimeStamp(e.timestamp);
                     // update the stutter-timestamp as well:
@@ -239,8 +375,9 @@ public class WorldModel implements Serializable {
                 } else {
                     // the entity has changes its state
                     // (its start-stutter-time should already be initialized to -1)
-                    elements.put(e.id, e);
-                    e.linkPreviousState(current);
+                    putOwn(e);
+                    // linking current clears its own previous state:
+                    e.linkPreviousState(own(current));
                     // System.out.println("%%% updating " + e.id) ;
                     return e;
                 }
@@ -249,8 +386,10 @@ public class WorldModel implements Serializable {
                 // System.out.println(">>> current: " + current.id + ", e: " + e.id
                 // + ", prev: " + prev) ;
                 if (prev == null || e.timestamp > prev.timestamp) {
-                    if (!e.hasSameState(current))
+                    if (!e.hasSameState(current)) {
+                        current = ownElement(current);
                         current.linkPreviousState(e);
+                    }
                 }
                 // System.out.println(">>> prev: " + current.getPreviousState()) ;
                 return current;
@@ -288,7 +427,27 @@ public class WorldModel implements Serializable {
      * 
      * <p>IMPORTANT: note that the implemented merging algorithm is additive. That is,
      * it adds entities into the target WorldModel or updates existing ones, but it
-     * will NEVER REMOVE an entity. 
+     * will NEVER REMOVE an entity, unless the observation explicitly says so.
+     * 
+     * <p>Delta observations: if the observation's {@link #deltaSince} is not -1,
+     * the observation only contains the entities whose state changed since that
+     * timestamp. The entities in this WorldModel that were sampled at that time or
+     * later, and are not in the observation, are then taken to be observed again
+     * with an unchanged state: they get the observation's timestamp, and their
+     * stutter-timestamp is maintained, as if they were in the observation. This
+     * requires the delta to not be relative to a time after the timestamp of this
+     * WorldModel.
+     * 
+     * <p>An entity in the observation that is the instance in this WorldModel, or
+     * the instance that it was copied from after a {@link #snapshot()}, and whose
+     * timestamp is older than that of the observation, is also taken to be
+     * observed again, at the time of the observation. This is the case for the
+     * instances that a decoder with an entity pool re-uses (see
+     * {@link eu.iv4xr.framework.environments.WorldModelJsonDecoder#useEntityPool(boolean)}).
+     * 
+     * <p>Removals: the entities whose ids are in the observation's
+     * {@link #removedElements} are removed from this WorldModel. They are not
+     * included in the returned list.
      */
     public List<WorldEntity> mergeNewObservation(WorldModel observation) {
         // check if the observation is not null
@@ -296,6 +455,9 @@ public class WorldModel implements Serializable {
             throw new IllegalArgumentException("Null observation received");
         if (observation.timestamp < this.timestamp)
             throw new IllegalArgumentException("Cannot merge an older WorldModel into a newer one.");
+        if (observation.deltaSince > this.timestamp)
+            throw new IllegalArgumentException(
+                    "Cannot merge a delta relative to a time after the timestamp of this WorldModel.");
 
         // update agent's info:
         this.position = observation.position;
@@ -306,14 +468,45 @@ public class WorldModel implements Serializable {
         // maintain those entities that induce state change in this WorldModel.
         List<WorldEntity> impactEntities = new LinkedList<>();
         for (WorldEntity e : observation.elements.values()) {
+            var current = elements.get(e.id);
+            if (e != current)
+                e.stateChanged();
+            if (current != null && e.timestamp < observation.timestamp && current.timestamp <= observation.timestamp
+                    && e.sharesStateWith(current)) {
+                // the instance in this WorldModel (or the one it was copied from), e.g.
+                // re-used by the entity pool of a decoder, which keeps its old timestamp;
+                // it is observed again, with the same state:
+                observedAgain(current, observation.timestamp);
+                continue;
+            }
             var f = this.updateEntity(e);
-            if (e == f) {
+            // e may already be the instance in this WorldModel, e.g. if the
+            // observation was decoded with an entity pool:
+            if (e == f && e != current) {
                 // System.out.println("%%% updating " + e.id) ;
                 // if they are equal, then e induces some state change in the WorldModel.
                 impactEntities.add(e);
             }
         }
 
+        if (observation.removedElements != null) {
+            for (var id : observation.removedElements)
+                removeEntity(id);
+        }
+
+        if (observation.deltaSince >= 0) {
+            // the entities not in the delta, that were observed since deltaSince, are
+            // observed again with the same state:
+            List<WorldEntity> observedAgain = new ArrayList<>();
+            for (WorldEntity e : elements.values()) {
+                if (e.timestamp >= observation.deltaSince && e.timestamp < observation.timestamp
+                        && !observation.elements.containsKey(e.id))
+                    observedAgain.add(e);
+            }
+            for (WorldEntity e : observedAgain)
+                observedAgain(e, observation.timestamp);
+        }
+
         // now update the time stamp of this WorldMap to that of the received
         // observation:
         this.timestamp = observation.timestamp;
@@ -322,6 +515,19 @@ public class WorldModel implements Serializable {
         return impactEntities;
     }
 
+    /**
+     * Update the entity e in this WorldModel, whose state is unchanged, as being
+     * observed again at the given time, maintaining its stutter-timestamp.
+     */
+    private void observedAgain(WorldEntity e, long time) {
+        if (e.timestamp == time)
+            return;
+        e = ownElement(e);
+        if (e.lastStutterTimestamp < 0)
+            e.lastStutterTimestamp = e.timestamp;
+        e.assignTimeStamp(time);
+    }
+
     /**
      * This is used to merge an older observation into this one. E.g. it can be an
      * observation sent by another agent.
@@ -0,0 +1,372 @@
+package nl.uu.cs.aplib.agents;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import nl.uu.cs.aplib.Logging;
+import nl.uu.cs.aplib.mainConcepts.BasicAgent;
+import nl.uu.cs.aplib.utils.Time;
+
+/**
+ * An AgentScheduler runs a set of agents in rounds, on a bounded pool of worker
+ * threads. This is an alternative to running every
+ * {@link AutonomousBasicAgent} in its own thread with {@link AutonomousBasicAgent#loop()},
+ * which does not scale well when there are hundreds of agents. In every round,
+ * every agent that has a goal, and is not paused or stopped, gets one update
+ * (one tick). There are two kinds of rounds:
+ *
+ * <ul>
+ * <li>LOCKSTEP: all agents are updated concurrently, and the round ends when
+ * all of them are done.
+ * <li>PRIORITY: agents are grouped by their priority (given when they are added
+ * to the scheduler). The groups are updated one after another, starting with
+ * the group with the highest priority. Agents in the same group are updated
+ * concurrently.
+ * </ul>
+ *
+ * <p>
+ * The scheduler respects the commands given to an {@link AutonomousBasicAgent}:
+ * a paused agent is skipped until it is resumed or receives a message, and a
+ * stopped agent is removed from the scheduler. Giving a goal to an agent,
+ * resuming it, or sending it a message wakes up the scheduler if it was idle.
+ * Plain {@link BasicAgent}s can be scheduled too; they have no pause/stop
+ * commands. An agent should not be run by a scheduler and by its own loop at
+ * the same time.
+ *
+ * <p>
+ * To run the scheduler autonomously, run {@link #loop()} in its own thread,
+ * e.g.:
+ *
+ * <pre>
+ * new Thread(() -> scheduler.loop()).start();
+ * </pre>
+ *
+ * Alternatively, rounds can be triggered one at a time with {@link #runRound()}.
+ * The scheduler keeps track of the latency of its rounds, see e.g.
+ * {@link #getLastRoundLatency()}.
+ */
+public class AgentScheduler {
+
+    public static enum RoundMode {
+        LOCKSTEP, PRIORITY
+    }
+
+    static class ScheduledAgent {
+        BasicAgent agent;
+        int priority;
+
+        ScheduledAgent(BasicAgent agent, int priority) {
+            this.agent = agent;
+            this.priority = priority;
+        }
+    }
+
+    protected RoundMode mode;
+
+    /**
+     * The time interval in ms between the starts of two rounds, when the scheduler
+     * runs in its {@link #loop()}. If a round takes longer, the next round starts
+     * immediately after it.
+     */
+    protected long roundInterval = 0;
+
+    /**
+     * How long in ms the scheduler waits when a round did not update any agent,
+     * before it tries again (unless it is woken up earlier).
+     */
+    protected long idleInterval = 100;
+
+    protected List<ScheduledAgent> agents = new CopyOnWriteArrayList<>();
+
+    protected ExecutorService workers;
+
+    protected Logger logger = Logging.getAPLIBlogger();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition wakeUpArrived = lock.newCondition();
+    private boolean wakeUpPending = false;
+    private volatile boolean stopped = false;
+
+    // statistics of the rounds; latencies are in ns:
+    private long numberOfRounds = 0;
+    private long lastRoundLatency = 0;
+    private long maxRoundLatency = 0;
+    private long totalRoundLatency = 0;
+
+    /**
+     * Create a scheduler that runs lock-step rounds on the given number of worker
+     * threads.
+     */
+    public AgentScheduler(int numberOfWorkers) {
+        this(numberOfWorkers, RoundMode.LOCKSTEP);
+    }
+
+    /**
+     * Create a scheduler that runs rounds of the given kind on the given number of
+     * worker threads.
+     */
+    public AgentScheduler(int numberOfWorkers, RoundMode mode) {
+        if (numberOfWorkers <= 0)
+            throw new IllegalArgumentException("The number of workers should be positive.");
+        this.mode = mode;
+        workers = Executors.newFixedThreadPool(numberOfWorkers, r -> {
+            var t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Add the agent to this scheduler, with priority 0. The method returns the
+     * scheduler itself so that it can be used in the Fluent Interface style.
+     */
+    public AgentScheduler add(BasicAgent agent) {
+        return add(agent, 0);
+    }
+
+    /**
+     * Add the agent to this scheduler, with the given priority. Higher number
+     * means higher priority. Priorities only matter in the PRIORITY mode. The
+     * method returns the scheduler itself so that it can be used in the Fluent
+     * Interface style.
+     */
+    public AgentScheduler add(BasicAgent agent, int priority) {
+        if (agent == null)
+            throw new IllegalArgumentException();
+        if (agents.stream().anyMatch(a -> a.agent == agent))
+            throw new IllegalArgumentException("Agent " + agent.getId() + " is already added to the scheduler.");
+        if (agent instanceof AutonomousBasicAgent)
+            ((AutonomousBasicAgent) agent).scheduler = this;
+        agents.add(new ScheduledAgent(agent, priority));
+        wakeUp();
+        return this;
+    }
+
+    /**
+     * Remove the agent from this scheduler.
+     */
+    public void remove(BasicAgent agent) {
+        agents.removeIf(a -> a.agent == agent);
+        if (agent instanceof AutonomousBasicAgent) {
+            var A = (AutonomousBasicAgent) agent;
+            if (A.scheduler == this)
+                A.scheduler = null;
+        }
+    }
+
+    /**
+     * Return the agents run by this scheduler.
+     */
+    public List<BasicAgent> getAgents() {
+        List<BasicAgent> result = new LinkedList<>();
+        for (var a : agents)
+            result.add(a.agent);
+        return result;
+    }
+
+    /**
+     * Set the interval in ms between the starts of two rounds. The method returns
+     * the scheduler itself so that it can be used in the Fluent Interface style.
+     */
+    public AgentScheduler setRoundInterval(long interval) {
+        roundInterval = interval;
+        return this;
+    }
+
+    /**
+     * Run a single round: update every agent that has a goal and is not paused or
+     * stopped, once. Agents that were stopped are removed from this scheduler. An
+     * agent whose update throws an exception is removed as well (just as such an
+     * agent would abort its {@link AutonomousBasicAgent#loop()}).
+     *
+     * @return the number of agents that were updated in this round.
+     */
+    public int runRound() {
+        long t0 = System.nanoTime();
+        int updated = 0;
+        for (var group : groups()) {
+            List<Callable<Boolean>> tasks = new ArrayList<>(group.size());
+            for (var a : group)
+                tasks.add(() -> step(a.agent));
+            List<Future<Boolean>> results;
+            try {
+                results = workers.invokeAll(tasks);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            for (int k = 0; k < results.size(); k++) {
+                try {
+                    if (results.get(k).get())
+                        updated++;
+                } catch (ExecutionException e) {
+                    var agent = group.get(k).agent;
+                    logger.log(Level.WARNING,
+                            "Agent " + agent.getId() + " is removed from the scheduler due to exception " + e.getCause());
+                    remove(agent);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        long latency = System.nanoTime() - t0;
+        synchronized (this) {
+            numberOfRounds++;
+            lastRoundLatency = latency;
+            totalRoundLatency += latency;
+            if (latency > maxRoundLatency)
+                maxRoundLatency = latency;
+        }
+        return updated;
+    }
+
+    /**
+     * Split the agents into the groups that are to be updated one after another in
+     * a round.
+     */
+    private List<List<ScheduledAgent>> groups() {
+        List<ScheduledAgent> all = new ArrayList<>(agents);
+        List<List<ScheduledAgent>> groups = new LinkedList<>();
+        if (mode == RoundMode.LOCKSTEP) {
+            groups.add(all);
+            return groups;
+        }
+        all.sort((a, b) -> Integer.compare(b.priority, a.priority));
+        List<ScheduledAgent> group = null;
+        for (var a : all) {
+            if (group == null || group.get(0).priority != a.priority) {
+                group = new ArrayList<>();
+                groups.add(group);
+            }
+            group.add(a);
+        }
+        return groups;
+    }
+
+    private boolean step(BasicAgent agent) {
+        if (agent instanceof AutonomousBasicAgent) {
+            var A = (AutonomousBasicAgent) agent;
+            if (A.isStopped()) {
+                remove(A);
+                return false;
+            }
+            return A.scheduledUpdate();
+        }
+        if (!agent.hasGoal())
+            return false;
+        agent.update();
+        return true;
+    }
+
+    /**
+     * Run rounds repeatedly, until {@link #stop()} is called. The scheduler strives
+     * to start a new round every {@link #roundInterval} ms. If a round does not
+     * update any agent (e.g. because none has a goal, or all are paused), the
+     * scheduler waits until it is woken up, e.g. because an agent gets a new goal
+     * or a message, or until {@link #idleInterval} ms have passed.
+     */
+    public void loop() {
+        stopped = false;
+        log(Level.INFO, "Agent scheduler enters its loop on Thread " + Thread.currentThread().getId());
+        Time time = new Time();
+        while (!stopped) {
+            time.sample();
+            int updated = runRound();
+            long sleeptime = updated == 0 ? idleInterval : roundInterval - time.elapsedTimeSinceLastSample();
+            if (sleeptime > 0)
+                waitForWakeUp(sleeptime);
+        }
+        log(Level.INFO, "Agent scheduler is stopping...");
+    }
+
+    private void waitForWakeUp(long timeout) {
+        lock.lock();
+        try {
+            if (!wakeUpPending && !stopped) {
+                try {
+                    wakeUpArrived.await(timeout, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                }
+            }
+            wakeUpPending = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wake up the scheduler, if it is waiting for the next round.
+     */
+    public void wakeUp() {
+        lock.lock();
+        try {
+            wakeUpPending = true;
+            wakeUpArrived.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cause {@link #loop()} to exit after finishing its current round.
+     */
+    public void stop() {
+        stopped = true;
+        wakeUp();
+    }
+
+    /**
+     * Stop the scheduler and shut down its worker threads. The scheduler cannot be
+     * used afterwards.
+     */
+    public void shutdown() {
+        stop();
+        workers.shutdown();
+    }
+
+    public synchronized long getNumberOfRounds() {
+        return numberOfRounds;
+    }
+
+    /**
+     * The latency of the last round, in ns.
+     */
+    public synchronized long getLastRoundLatency() {
+        return lastRoundLatency;
+    }
+
+    /**
+     * The maximum latency of the rounds so far, in ns.
+     */
+    public synchronized long getMaxRoundLatency() {
+        return maxRoundLatency;
+    }
+
+    /**
+     * The average latency of the rounds so far, in ns.
+     */
+    public synchronized double getAverageRoundLatency() {
+        if (numberOfRounds == 0)
+            return 0;
+        return (double) totalRoundLatency / numberOfRounds;
+    }
+
+    /**
+     * Reset the statistics of the rounds.
+     */
+    public synchronized void resetStatistics() {
+        numberOfRounds = 0;
+        lastRoundLatency = 0;
+        maxRoundLatency = 0;
+        totalRoundLatency = 0;
+    }
+
+    protected void log(Level level, String s) {
+        logger.log(level, s);
+    }
+
+}
@@ -1,6 +1,10 @@
 package nl.uu.cs.aplib.agents;
 
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Predicate;
 import java.util.concurrent.locks.*;
 import java.util.logging.Level;
 
@@ -36,14 +40,23 @@ public class AutonomousBasicAgent extends BasicAgent {
         PAUSE, STOP
     }
 
-    protected Command cmd = null;
+    protected volatile Command cmd = null;
+
+    private static final AtomicReferenceFieldUpdater<AutonomousBasicAgent, Command> CMD = AtomicReferenceFieldUpdater
+            .newUpdater(AutonomousBasicAgent.class, Command.class, "cmd");
 
     protected ComNode comNode = null;
 
     protected final ReentrantLock lock = new ReentrantLock();
     protected final Condition triggerArrived = lock.newCondition();
     protected final Condition goalConcluded = lock.newCondition();
-    protected Thread thisAgentThread = null;
+    protected volatile Thread thisAgentThread = null;
+
+    /**
+     * If not null, this agent is run by this scheduler, rather than by its own
+     * {@link #loop()}.
+     */
+    AgentScheduler scheduler = null;
 
     /**
      * Create a plain instance of AutonomousBasicAgent. To be useful you will need
@@ -88,6 +101,37 @@ public class AutonomousBasicAgent extends BasicAgent {
         return this;
     }
 
+    /**
+     * Subscribe this agent to the given topic, on the ComNode it is registered
+     * to. The agent will then receive the TOPICCAST messages on this topic that
+     * satisfy the filter; if the filter is null, it receives all of them. The
+     * method returns this agent itself, so that it can be used in the Fluent
+     * Interface style.
+     */
+    public AutonomousBasicAgent subscribeTo(String topic, Predicate<Message> filter) {
+        if (comNode == null)
+            throw new IllegalStateException("Agent " + id + " is not registered to a ComNode.");
+        comNode.subscribe(this, topic, filter);
+        return this;
+    }
+
+    /**
+     * Subscribe this agent to all TOPICCAST messages on the given topic. The
+     * method returns this agent itself, so that it can be used in the Fluent
+     * Interface style.
+     */
+    public AutonomousBasicAgent subscribeTo(String topic) {
+        return subscribeTo(topic, null);
+    }
+
+    /**
+     * Remove the subscription of this agent to the given topic.
+     */
+    public void unsubscribeFrom(String topic) {
+        if (comNode != null)
+            comNode.unsubscribe(this, topic);
+    }
+
     @Override
     public AutonomousBasicAgent setGoal(GoalStructure G) {
         if (thisAgentThread != null) {
@@ -101,6 +145,7 @@ public class AutonomousBasicAgent extends BasicAgent {
             return this;
         } finally {
             lock.unlock();
+            wakeUpScheduler();
         }
     }
     
@@ -153,6 +198,12 @@ public class AutonomousBasicAgent extends BasicAgent {
         }
     }
 
+    private void wakeUpScheduler() {
+        var S = scheduler;
+        if (S != null)
+            S.wakeUp();
+    }
+
     /**
      * If this agent is sleeping (e.g. while waiting until it is time to do its next
      * tick), and it was paused ({@link #pause() was called}, this method will cause
@@ -166,6 +217,7 @@ public class AutonomousBasicAgent extends BasicAgent {
             triggerArrived.signal();
         } finally {
             lock.unlock();
+            wakeUpScheduler();
         }
     }
 
@@ -177,8 +229,10 @@ public class AutonomousBasicAgent extends BasicAgent {
      * causing it to exit its autonomous loop.
      */
     public void stop() {
-        awakeThisAgentFromSleep();
+        // set the command first, so that the agent sees it when it is awaken:
         cmd = Command.STOP;
+        awakeThisAgentFromSleep();
+        wakeUpScheduler();
     }
 
     /**
@@ -189,23 +243,57 @@ public class AutonomousBasicAgent extends BasicAgent {
      * agent on behalf of another agent. However, since this method is public,
      * whatever the application around this agent can also use it to directly send a
      * message to this agent.
+     * 
+     * <p>
+     * This method does not take the agent's lock, so the sender does not have to
+     * wait until the agent finishes its current update cycle. Many threads can
+     * send messages to the same agent at the same time.
      */
     public void sendMsgToThisAgent(Message m) {
+        if (cmd == Command.STOP) {
+            // if the agent has been commanded to stop then discard the msg
+            return;
+        }
+        messenger().put(m);
+        // resume, in case it was on pause; but do not undo a stop:
+        CMD.compareAndSet(this, Command.PAUSE, null);
+        // awaken the agent; if it is not waiting yet, its next wait returns at once:
         awakeThisAgentFromSleep();
+        wakeUpScheduler();
+    }
+
+    /**
+     * Do a single update cycle on behalf of an {@link AgentScheduler}. This does
+     * the same as a single iteration of {@link #loop()}: the update is done while
+     * holding this agent's lock, and threads waiting for the agent's goals to be
+     * concluded are notified when its goal-stack becomes empty. Nothing is done
+     * if the agent is paused or stopped, or has no goal.
+     * 
+     * @return true if an update was done.
+     */
+    boolean scheduledUpdate() {
         lock.lock();
         try {
-            if (cmd == Command.STOP) {
-                // if the agent has been commanded to stop then discard the msg
-                return;
+            if (cmd != null || goalstack.isEmpty())
+                return false;
+            update();
+            if (goalstack.isEmpty()) {
+                log(Level.INFO, "Agent " + id + " has no more goals in its goalstack.");
+                goalConcluded.signalAll();
             }
-            messenger().put(m);
-            cmd = null; // set cmd to resume, in case it was on pause
-            triggerArrived.signal(); // awaken the agent
+            return true;
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * True if this agent was commanded to stop.
+     */
+    boolean isStopped() {
+        return cmd == Command.STOP;
+    }
+
     /**
      * When this is called, the calling thread will be paused until this agent's
      * goalstack is empty (so, all goals there have been concluded, success or fail).
@@ -233,6 +321,86 @@ public class AutonomousBasicAgent extends BasicAgent {
         }
     }
 
+    /**
+     * Run this agent's {@link #loop()} in a new thread, created by the given
+     * factory. The thread is started, and returned. E.g. to run the agent on a
+     * lightweight thread (a virtual thread, if the JVM supports it):
+     * 
+     * <pre>
+     * agent.start(AutonomousBasicAgent.lightweightThreadFactory());
+     * </pre>
+     */
+    public Thread start(ThreadFactory factory) {
+        Thread t = factory.newThread(() -> loop());
+        t.start();
+        return t;
+    }
+
+    /**
+     * Run this agent's {@link #loop()} in a new platform thread. This is the same
+     * as {@code new Thread(() -> agent.loop()).start()}.
+     */
+    public Thread start() {
+        return start(Thread::new);
+    }
+
+    private static ThreadFactory lightweightThreadFactory = null;
+
+    /**
+     * Return a factory of threads suitable to run a large number of agents (tens
+     * of thousands) in the same JVM. If the JVM supports virtual threads (Java
+     * 21+), the factory creates virtual threads. Else it creates daemon platform
+     * threads with a small stack.
+     * 
+     * <p>
+     * The loop of this agent only blocks through its {@link ReentrantLock} and
+     * its Conditions (and never inside a synchronized block), so a virtual thread
+     * running it is unmounted from its carrier thread while the agent waits for a
+     * goal, a message, or its next tick.
+     */
+    public static synchronized ThreadFactory lightweightThreadFactory() {
+        if (lightweightThreadFactory == null) {
+            lightweightThreadFactory = virtualThreadFactory();
+            if (lightweightThreadFactory == null) {
+                lightweightThreadFactory = r -> {
+                    Thread t = new Thread(null, r, "agent", LIGHTWEIGHT_STACK_SIZE);
+                    t.setDaemon(true);
+                    return t;
+                };
+            }
+        }
+        return lightweightThreadFactory;
+    }
+
+    /**
+     * The stack size (in bytes) requested for the platform threads created by
+     * {@link #lightweightThreadFactory()}, when virtual threads are not available.
+     */
+    public static final long LIGHTWEIGHT_STACK_SIZE = 256 * 1024;
+
+    /**
+     * True if the factory returned by {@link #lightweightThreadFactory()} creates
+     * virtual threads.
+     */
+    public static boolean virtualThreadsSupported() {
+        return virtualThreadFactory() != null;
+    }
+
+    /**
+     * Obtain a factory of virtual threads, if the JVM supports them. This is done
+     * reflectively, as this library is still compiled for Java 11.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
 	/**
 	 * This will run the agent in an infinite loop. The idea is to run this in a new
 	 * thread, e.g. as in:
@@ -241,7 +409,8 @@ public class AutonomousBasicAgent extends BasicAgent {
 	 * new Thread(() -> agent.loop()).start();
 	 * </pre>
 	 * 
-	 * The above code essentially cause the agent to run autonomously.
+	 * The above code essentially cause the agent to run autonomously. See also
+	 * {@link #start(ThreadFactory)}.
 	 * 
 	 * <p>
 	 * If there is no goal however, this method will pause, until one is given to it
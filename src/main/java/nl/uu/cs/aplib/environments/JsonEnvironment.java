@@ -1,7 +1,19 @@
 package nl.uu.cs.aplib.environments;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
 
 import nl.uu.cs.aplib.mainConcepts.Environment;
 
@@ -17,7 +29,9 @@ import nl.uu.cs.aplib.mainConcepts.Environment;
  * This method should serialize the given command to a string in the JSON format
  * and send it to the real environment. If the environment replies, this is
  * expected to be as a string in the JSON format as well, which sendCommand_
- * will then return.
+ * will then return. Alternatively, sendCommand_ can return a {@link Reader}
+ * from which the reply can be read, so that large replies are parsed while
+ * they are read, without first being collected into a string.
  * 
  * <p>
  * Agents should use the wrapper method sendCommand(...) instead, which
@@ -30,6 +44,17 @@ import nl.uu.cs.aplib.mainConcepts.Environment;
  * 
  * </ol>
  * 
+ * <p>
+ * Optionally, to send a batch of commands in a single round trip (see
+ * {@link #sendCommands(List)}), override {@link #supportsBatches()} to return
+ * true, and override {@link #sendBatch_(String)}. The batch is then serialized
+ * as a single Json array, with one object per command.
+ * 
+ * <p>
+ * By default replies are parsed with Gson. For types whose instances are large
+ * or frequently received, such as observations, a dedicated
+ * {@link StreamingDecoder} can be registered with
+ * {@link #registerDecoder(Class, StreamingDecoder)}.
  * 
  * @author Wish
  */
@@ -41,6 +66,29 @@ public class JsonEnvironment extends Environment {
      */
     Gson gson;
 
+    /**
+     * A decoder that constructs an instance of some type T directly from a stream
+     * of Json tokens.
+     */
+    public interface StreamingDecoder<T> {
+        public T decode(JsonReader in) throws IOException;
+
+        /**
+         * Construct an instance of T from an already parsed Json element, e.g. the
+         * result of a command in a batch. By default this reads the element's Json
+         * text with {@link #decode(JsonReader)}; a decoder can override this to
+         * walk the element directly.
+         */
+        public default T decode(JsonElement json) throws IOException {
+            return decode(new JsonReader(new StringReader(json.toString())));
+        }
+    }
+
+    /**
+     * Decoders to use instead of Gson to parse replies of the given types.
+     */
+    protected Map<Class<?>, StreamingDecoder<?>> decoders = new ConcurrentHashMap<>();
+
     /**
      * A constructor that will initialize the internal Json builder/parser to some
      * simple setup.
@@ -57,6 +105,48 @@ public class JsonEnvironment extends Environment {
         gson = jsonBuilderParser;
     }
 
+    /**
+     * Register a decoder to parse the replies of the real environment whose
+     * expected type is the given type. The method returns this environment itself
+     * so that it can be used in the Fluent Interface style.
+     */
+    public <T> JsonEnvironment registerDecoder(Class<T> type, StreamingDecoder<? extends T> decoder) {
+        decoders.put(type, decoder);
+        return this;
+    }
+
+    /**
+     * Parse a reply of the real environment, which is either a string in the Json
+     * format, a Reader to read it from, or an already parsed
+     * {@link JsonElement} (e.g. a result in a batch), into an instance of the
+     * given type, using the decoder registered for the type, or else Gson. A
+     * Reader is closed afterwards.
+     */
+    @SuppressWarnings("rawtypes")
+    protected Object parse(Object reply, Class type) {
+        if (reply == null)
+            return null;
+        var decoder = decoders.get(type);
+        if (decoder == null && reply instanceof String)
+            return gson.fromJson((String) reply, type);
+        if (reply instanceof JsonElement) {
+            if (decoder == null)
+                return gson.fromJson((JsonElement) reply, type);
+            try {
+                return decoder.decode((JsonElement) reply);
+            } catch (IOException | IllegalStateException e) {
+                throw new JsonParseException("Fail to parse a reply to " + type.getName(), e);
+            }
+        }
+        try (var in = new JsonReader(reply instanceof Reader ? (Reader) reply : new StringReader((String) reply))) {
+            if (decoder == null)
+                return gson.fromJson(in, type);
+            return decoder.decode(in);
+        } catch (IOException | IllegalStateException e) {
+            throw new JsonParseException("Fail to parse a reply to " + type.getName(), e);
+        }
+    }
+
     /**
      * This method will invoke the underlying sendCommand_, that in turn is expected
      * to send the command as a string in the Json format to the real environment.
@@ -66,21 +156,161 @@ public class JsonEnvironment extends Environment {
      * specified type. If the parameter expectedTypeOfResult is left null, this
      * method won't know to what the Json string should be parsed to, so it will
      * simply return null.
+     * 
+     * <p>
+     * If sendCommand_ returns a Reader rather than a string, the reply is parsed
+     * while it is read.
      */
     @Override
     public Object sendCommand(String invokerId, String targetId, String command, Object arg,
             Class expectedTypeOfResult) {
-        String result = (String) super.sendCommand(invokerId, targetId, command, arg, String.class);
-        if (expectedTypeOfResult == null)
+        Object result = super.sendCommand(invokerId, targetId, command, arg, String.class);
+        if (result instanceof String)
+            recordCommandBytes(command, 0, utf8Length((String) result));
+        if (expectedTypeOfResult == null) {
+            close(result);
             return null;
-        return gson.fromJson(result, expectedTypeOfResult);
+        }
+        return parse(result, expectedTypeOfResult);
+    }
+
+    /**
+     * Close the reply if it is a Reader that is not going to be parsed.
+     */
+    static void close(Object reply) {
+        if (reply instanceof Reader) {
+            try {
+                ((Reader) reply).close();
+            } catch (IOException e) {
+                // the reply is not needed anyway
+            }
+        }
+    }
+
+    /**
+     * Send the batch of commands to the real environment, and parse the result of
+     * each command, which is expected to be a string in the Json format, into an
+     * instance of the command's expectedTypeOfResult. If this is null, the result
+     * of that command will be null. See also
+     * {@link Environment#sendCommands(List)}.
+     */
+    @Override
+    public List<Object> sendCommands(List<EnvOperation> batch) {
+        var results = super.sendCommands(batch);
+        List<Object> parsed = new ArrayList<>(results.size());
+        for (int k = 0; k < results.size(); k++) {
+            var type = batch.get(k).expectedTypeOfResult;
+            if (type == null)
+                close(results.get(k));
+            parsed.add(type == null ? null : parse(results.get(k), type));
+        }
+        return parsed;
+    }
+
+    /**
+     * The Json representation of a command in a batch.
+     */
+    static class JsonOperation {
+        String invokerId;
+        String targetId;
+        String command;
+        Object arg;
+
+        JsonOperation(EnvOperation cmd) {
+            invokerId = cmd.invokerId;
+            targetId = cmd.targetId;
+            command = cmd.command;
+            arg = cmd.arg;
+        }
+    }
+
+    /**
+     * If {@link #supportsBatches()} is true, this serializes the whole batch to a
+     * single Json array, sends it with {@link #sendBatch_(String)}, and splits the
+     * Json array it returns into the {@link JsonElement}s of the results of the
+     * individual commands, which are then decoded directly by
+     * {@link #parse(Object, Class)}. The bytes sent and received are counted
+     * evenly divided over the commands in the metrics of the commands. Otherwise
+     * the commands are sent one by one with
+     * {@link #sendCommand_(EnvOperation)}.
+     */
+    @Override
+    protected List<Object> sendCommands_(List<EnvOperation> batch) {
+        if (!supportsBatches()) {
+            var results = super.sendCommands_(batch);
+            for (int k = 0; k < results.size(); k++) {
+                if (results.get(k) instanceof String)
+                    recordCommandBytes(batch.get(k).command, 0, utf8Length((String) results.get(k)));
+            }
+            return results;
+        }
+        List<JsonOperation> ops = new ArrayList<>(batch.size());
+        for (var cmd : batch)
+            ops.add(new JsonOperation(cmd));
+        String json = gson.toJson(ops);
+        String response = sendBatch_(json);
+        if (response == null || response.isBlank())
+            throw new JsonParseException("No reply to a batch of " + batch.size() + " commands");
+        JsonArray elements = gson.fromJson(response, JsonArray.class);
+        if (elements.size() != batch.size())
+            throw new JsonParseException("The reply to a batch of " + batch.size() + " commands has "
+                    + elements.size() + " results");
+        List<Object> results = new ArrayList<>(elements.size());
+        for (JsonElement e : elements)
+            results.add(e.isJsonNull() ? null : e);
+        long sentPerCommand = utf8Length(json) / batch.size();
+        long receivedPerCommand = utf8Length(response) / batch.size();
+        for (var cmd : batch)
+            recordCommandBytes(cmd.command, sentPerCommand, receivedPerCommand);
+        return results;
+    }
+
+    /**
+     * The number of bytes of the UTF-8 encoding of the given string.
+     */
+    static long utf8Length(String s) {
+        long n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80)
+                n++;
+            else if (c < 0x800)
+                n += 2;
+            else if (Character.isHighSurrogate(c)) {
+                n += 4;
+                i++;
+            } else
+                n += 3;
+        }
+        return n;
+    }
+
+    /**
+     * Override this to return true if the real environment can receive a batch of
+     * commands through {@link #sendBatch_(String)}. The default is false.
+     */
+    protected boolean supportsBatches() {
+        return false;
+    }
+
+    /**
+     * Override this method, along with {@link #supportsBatches()}, to send a batch
+     * of commands to the real environment in a single round trip. The batch is
+     * given as a Json array of objects with the fields invokerId, targetId,
+     * command, and arg. The method should return a Json array with the results of
+     * the commands, in the same order (null for commands that return nothing).
+     * A reply that is missing, or does not have one result per command, is
+     * rejected with a {@link JsonParseException}.
+     */
+    protected String sendBatch_(String batch) {
+        throw new UnsupportedOperationException();
     }
 
     /**
      * Override this method. The method should send the command to the real
      * environment in the Json format. If the command is supposed to return some
      * infomation back, this method is supposed to return this information as a
-     * string in Json format. The wrapper method sendCommand will then parse this
+     * string in Json format, or as a Reader to read it from. The wrapper method sendCommand will then parse this
      * Json string to an object with the corresponding structure.
      */
     @Override
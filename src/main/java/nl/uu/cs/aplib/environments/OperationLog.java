@@ -0,0 +1,360 @@
+package nl.uu.cs.aplib.environments;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * An append-only log of the operations on an Environment, stored in a
+ * memory-mapped file. It is written by {@link RecordingEnvironment} and read
+ * by {@link ReplayEnvironment} (or by their variants for an Iv4xrEnvironment,
+ * in the package eu.iv4xr.framework.environments). Every entry records the kind of operation, the
+ * invoker-id, target-id and name of the command (but not its argument), and
+ * the result of the operation, stored with Java serialization.
+ *
+ * <p>
+ * The file starts with a small header holding the end of the last complete
+ * entry, which is updated after every append. So, if the recording process
+ * crashes, the entries written so far can still be read.
+ */
+public class OperationLog {
+
+    static final int MAGIC = 0x41504F4C; // "APOL"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int END_POSITION = 8;
+
+    public static enum Kind {
+        /**
+         * A command, whose result is the object returned by the Environment.
+         */
+        COMMAND,
+        /**
+         * A call to observe(), whose command is null and whose result is the
+         * observation.
+         */
+        OBSERVE,
+        /**
+         * A command or observe() that threw an exception, which is the result.
+         */
+        FAILURE,
+        /**
+         * A reset of the Environment; it has no result.
+         */
+        RESET
+    }
+
+    /**
+     * An entry in the log.
+     */
+    public static class Entry {
+        public final Kind kind;
+        public final String invokerId;
+        public final String targetId;
+        public final String command;
+        final byte[] result;
+
+        Entry(Kind kind, String invokerId, String targetId, String command, byte[] result) {
+            this.kind = kind;
+            this.invokerId = invokerId;
+            this.targetId = targetId;
+            this.command = command;
+            this.result = result;
+        }
+
+        /**
+         * Deserialize the result of the operation. Every call returns a fresh copy,
+         * so the result can be freely modified.
+         */
+        public Object result() {
+            if (result == null)
+                return null;
+            try (var in = new ObjectInputStream(new ByteArrayInputStream(result))) {
+                return in.readObject();
+            } catch (IOException | ClassNotFoundException e) {
+                throw new IllegalStateException("Fail to deserialize the result of " + this, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + command + " (invoker: " + invokerId + ", target: " + targetId + ")";
+        }
+    }
+
+    static byte[] serialize(Object o) throws NotSerializableException {
+        if (o == null)
+            return null;
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new ObjectOutputStream(bytes)) {
+            out.writeObject(o);
+        } catch (NotSerializableException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Appends entries to a log. The file grows in chunks; each time it is full, a
+     * larger region of the file is mapped. Appending is thread-safe.
+     */
+    public static class Writer implements Closeable {
+
+        static final int INITIAL_CAPACITY = 1 << 20;
+
+        private FileChannel channel;
+        private MappedByteBuffer buffer;
+        private int end = HEADER_SIZE;
+        private int numberOfEntries = 0;
+
+        /**
+         * Create a new log in the given file. If the file exists, it is overwritten.
+         */
+        public Writer(String filename) throws IOException {
+            channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            map(INITIAL_CAPACITY);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(END_POSITION, end);
+        }
+
+        private void map(int capacity) throws IOException {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+
+        /**
+         * Append an entry. The result must be serializable, else a
+         * NotSerializableException is thrown, and nothing is appended.
+         */
+        public synchronized void append(Kind kind, String invokerId, String targetId, String command,
+                Object result) throws IOException {
+            if (channel == null)
+                throw new IllegalStateException("The log is closed.");
+            byte[] payload = serialize(result);
+            byte[][] strings = { utf8(invokerId), utf8(targetId), utf8(command) };
+            long length = 1 + 4 + (payload == null ? 0 : payload.length);
+            for (var s : strings)
+                length += 4 + (s == null ? 0 : s.length);
+            long newEnd = end + 4 + length;
+            if (newEnd > Integer.MAX_VALUE)
+                throw new IOException("The log is full.");
+            if (newEnd > buffer.capacity()) {
+                long capacity = buffer.capacity();
+                while (capacity < newEnd)
+                    capacity *= 2;
+                map((int) Math.min(capacity, Integer.MAX_VALUE));
+            }
+            buffer.position(end);
+            buffer.putInt((int) length);
+            buffer.put((byte) kind.ordinal());
+            for (var s : strings)
+                putBytes(s);
+            putBytes(payload);
+            end = (int) newEnd;
+            numberOfEntries++;
+            // only now the entry becomes visible:
+            buffer.putLong(END_POSITION, end);
+        }
+
+        /**
+         * Append an entry as a recording Environment does: unlike
+         * {@link #append(Kind, String, String, String, Object)}, this throws an
+         * IllegalArgumentException if the result is not serializable, and an
+         * UncheckedIOException if writing fails. An exception (of a FAILURE) that
+         * is not serializable is recorded by its message.
+         */
+        public void record(Kind kind, String invokerId, String targetId, String command, Object result) {
+            try {
+                append(kind, invokerId, targetId, command, result);
+            } catch (NotSerializableException e) {
+                if (kind != Kind.FAILURE)
+                    throw new IllegalArgumentException("Cannot record " + kind + " " + command + ": its result "
+                            + result.getClass().getName() + " is not serializable.");
+                record(kind, invokerId, targetId, command, new RuntimeException(result.toString()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void putBytes(byte[] bytes) {
+            if (bytes == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(bytes.length);
+                buffer.put(bytes);
+            }
+        }
+
+        private static byte[] utf8(String s) {
+            return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+        }
+
+        public synchronized int numberOfEntries() {
+            return numberOfEntries;
+        }
+
+        /**
+         * Write the log to the disk, and close it. The file is truncated to the
+         * actual size of the log.
+         */
+        @Override
+        public synchronized void close() throws IOException {
+            if (channel == null)
+                return;
+            buffer.force();
+            buffer = null;
+            channel.truncate(end);
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Reads the entries of a log. The whole file is mapped into memory, and the
+     * positions of the entries are indexed when the log is opened.
+     */
+    public static class Reader {
+
+        private final ByteBuffer buffer;
+        private final List<Integer> positions = new ArrayList<>();
+        private int next = 0;
+
+        public Reader(String filename) throws IOException {
+            var path = Paths.get(filename);
+            try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = Files.size(path);
+                if (size < HEADER_SIZE)
+                    throw new StreamCorruptedException(filename + " is not an operation log.");
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            if (buffer.getInt(0) != MAGIC)
+                throw new StreamCorruptedException(filename + " is not an operation log.");
+            if (buffer.getInt(4) != VERSION)
+                throw new StreamCorruptedException("Unsupported version " + buffer.getInt(4));
+            long end = buffer.getLong(END_POSITION);
+            if (end < HEADER_SIZE || end > buffer.capacity())
+                throw new StreamCorruptedException(filename + " is corrupted.");
+            int p = HEADER_SIZE;
+            while (p < end) {
+                positions.add(p);
+                p += 4 + buffer.getInt(p);
+            }
+        }
+
+        public int size() {
+            return positions.size();
+        }
+
+        /**
+         * Return the k-th entry of the log.
+         */
+        public Entry get(int k) {
+            var in = buffer.duplicate();
+            in.position(positions.get(k) + 4);
+            var kind = Kind.values()[in.get()];
+            var invokerId = string(getBytes(in));
+            var targetId = string(getBytes(in));
+            var command = string(getBytes(in));
+            return new Entry(kind, invokerId, targetId, command, getBytes(in));
+        }
+
+        private static byte[] getBytes(ByteBuffer in) {
+            int n = in.getInt();
+            if (n < 0)
+                return null;
+            byte[] bytes = new byte[n];
+            in.get(bytes);
+            return bytes;
+        }
+
+        private static String string(byte[] bytes) {
+            return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        public synchronized boolean hasNext() {
+            return next < positions.size();
+        }
+
+        /**
+         * Return the index of the entry that {@link #next()} will return.
+         */
+        public synchronized int position() {
+            return next;
+        }
+
+        public synchronized Entry next() {
+            if (next >= positions.size())
+                throw new IllegalStateException("The log has no more entries.");
+            return get(next++);
+        }
+
+        /**
+         * Go back to the first entry.
+         */
+        public synchronized void rewind() {
+            next = 0;
+        }
+
+        /**
+         * Replay the next entry as a replaying Environment does: return its
+         * result, or throw the recorded exception if it is a FAILURE. The entry
+         * must be of the given kind, invoker, target, and command, else the replay
+         * has diverged from the recording, and an IllegalStateException is thrown.
+         */
+        public synchronized Object replay(Kind kind, String invokerId, String targetId, String command) {
+            int k = next;
+            if (!hasNext())
+                throw new IllegalStateException("The replay goes beyond the end of the log, at " + kind + " " + command);
+            Entry e = next();
+            if (!(e.kind == kind || e.kind == Kind.FAILURE) || !Objects.equals(e.invokerId, invokerId)
+                    || !Objects.equals(e.targetId, targetId) || !Objects.equals(e.command, command))
+                throw new IllegalStateException("The replay diverges from the log at entry " + k + ": expected " + e
+                        + ", but got " + kind + " " + command + " (invoker: " + invokerId + ", target: " + targetId
+                        + ")");
+            var result = e.result();
+            if (e.kind == Kind.FAILURE) {
+                if (result instanceof RuntimeException)
+                    throw (RuntimeException) result;
+                if (result instanceof Error)
+                    throw (Error) result;
+                throw new IllegalStateException("Recorded failure", (Throwable) result);
+            }
+            return result;
+        }
+
+        /**
+         * Replay a reset. If the whole log has been replayed, this starts a new
+         * replay from the start of the log.
+         */
+        public synchronized void replayReset() {
+            if (!hasNext())
+                rewind();
+            if (hasNext() && get(next).kind == Kind.RESET) {
+                next();
+            } else if (next > 0) {
+                throw new IllegalStateException(
+                        "The replay diverges from the log at entry " + next + ": a reset was not recorded here.");
+            }
+        }
+    }
+
+}
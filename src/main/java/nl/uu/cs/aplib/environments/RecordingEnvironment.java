@@ -0,0 +1,88 @@
+package nl.uu.cs.aplib.environments;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import nl.uu.cs.aplib.environments.OperationLog.Kind;
+import nl.uu.cs.aplib.mainConcepts.Environment;
+
+/**
+ * An Environment that wraps another Environment, and records every command sent
+ * to it, with the command's result, and every observation, to an
+ * {@link OperationLog}. The log can later be served back by a
+ * {@link ReplayEnvironment}, e.g. to re-run a test or to debug an LTL violation
+ * many times without running the real environment again. Exceptions thrown by
+ * the wrapped Environment are recorded too, and re-thrown.
+ *
+ * <p>
+ * The results and observations must be serializable. Call {@link #close()} at
+ * the end of the session.
+ *
+ * <p>
+ * Agent states that expect an Iv4xrEnvironment cannot be given this wrapper;
+ * use {@link eu.iv4xr.framework.environments.RecordingIv4xrEnvironment}
+ * instead. Other subclasses of Environment can use
+ * {@link OperationLog.Writer#record(Kind, String, String, String, Object)} in
+ * the same way.
+ */
+public class RecordingEnvironment extends Environment implements Closeable {
+
+    protected Environment recorded;
+
+    protected OperationLog.Writer log;
+
+    /**
+     * Record the operations on the given Environment to a new log in the given
+     * file.
+     */
+    public RecordingEnvironment(Environment recorded, String logfile) throws IOException {
+        this.recorded = recorded;
+        this.log = new OperationLog.Writer(logfile);
+    }
+
+    public Environment getRecordedEnvironment() {
+        return recorded;
+    }
+
+    @Override
+    public void resetWorker() {
+        recorded.resetWorker();
+        log.record(Kind.RESET, null, null, null, null);
+    }
+
+    @Override
+    public Object observe(String agentId) {
+        Object observation;
+        try {
+            observation = recorded.observe(agentId);
+        } catch (RuntimeException | Error e) {
+            log.record(Kind.FAILURE, agentId, null, null, e);
+            throw e;
+        }
+        log.record(Kind.OBSERVE, agentId, null, null, observation);
+        return observation;
+    }
+
+    @Override
+    protected Object sendCommand_(EnvOperation cmd) {
+        Object result;
+        try {
+            result = recorded.sendCommand(cmd.invokerId, cmd.targetId, cmd.command, cmd.arg,
+                    cmd.expectedTypeOfResult);
+        } catch (RuntimeException | Error e) {
+            log.record(Kind.FAILURE, cmd.invokerId, cmd.targetId, cmd.command, e);
+            throw e;
+        }
+        log.record(Kind.COMMAND, cmd.invokerId, cmd.targetId, cmd.command, result);
+        return result;
+    }
+
+    /**
+     * Close the log. The wrapped Environment is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+
+}
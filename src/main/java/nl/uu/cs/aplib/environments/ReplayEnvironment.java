@@ -0,0 +1,67 @@
+package nl.uu.cs.aplib.environments;
+
+import java.io.IOException;
+
+import nl.uu.cs.aplib.environments.OperationLog.Kind;
+import nl.uu.cs.aplib.mainConcepts.Environment;
+
+/**
+ * An Environment that serves back a session recorded by a
+ * {@link RecordingEnvironment}, without any real environment. The operations
+ * must come in the same order as they were recorded: every command and
+ * observe() is answered with the result of the next entry in the log, and
+ * throws the recorded exception if it failed. If an operation differs from the
+ * next entry (e.g. another command name, invoker, or target), the replay has
+ * diverged from the recording, and an IllegalStateException is thrown.
+ *
+ * <p>
+ * Recorded results are deserialized anew every time they are served, so agents
+ * may freely modify them. To replay the session again, call {@link #rewind()},
+ * or reset this Environment when the whole log has been replayed.
+ *
+ * <p>
+ * To replay a session recorded from an Iv4xrEnvironment, use
+ * {@link eu.iv4xr.framework.environments.ReplayIv4xrEnvironment}.
+ */
+public class ReplayEnvironment extends Environment {
+
+    protected OperationLog.Reader log;
+
+    public ReplayEnvironment(String logfile) throws IOException {
+        this.log = new OperationLog.Reader(logfile);
+    }
+
+    /**
+     * Go back to the start of the log.
+     */
+    public void rewind() {
+        log.rewind();
+    }
+
+    /**
+     * True if all entries of the log have been replayed.
+     */
+    public boolean isFinished() {
+        return !log.hasNext();
+    }
+
+    /**
+     * Replay a reset. If the whole log has been replayed, this starts a new
+     * replay from the start of the log.
+     */
+    @Override
+    public void resetWorker() {
+        log.replayReset();
+    }
+
+    @Override
+    public Object observe(String agentId) {
+        return log.replay(Kind.OBSERVE, agentId, null, null);
+    }
+
+    @Override
+    protected Object sendCommand_(EnvOperation cmd) {
+        return log.replay(Kind.COMMAND, cmd.invokerId, cmd.targetId, cmd.command);
+    }
+
+}
@@ -0,0 +1,97 @@
+package nl.uu.cs.aplib.events;
+
+/**
+ * A structured event in the life of an agent, e.g. that it solved a goal, or
+ * that it executed an action. Agents publish such events to the
+ * {@link AgentEventSink}s attached to them (see
+ * {@link nl.uu.cs.aplib.mainConcepts.BasicAgent#addEventSink(AgentEventSink)}).
+ *
+ * <p>
+ * An event only holds references to strings that already exist (the agent id,
+ * and the name of the goal or action involved), and some numbers. No string
+ * formatting is done when an event is created; this is left to the sinks that
+ * need it (see {@link #toString()}). Events are immutable.
+ */
+public class AgentEvent {
+
+    public static enum EventType {
+        /** A goal-structure is given to the agent, see BasicAgent.setGoal. */
+        GOAL_SET,
+        /** A goal-structure that was pushed to the agent's goal-stack becomes its current goal-structure. */
+        GOAL_PUSHED,
+        /** The agent switches to a new primitive goal. */
+        GOAL_SWITCHED,
+        /** The agent solved a primitive goal. */
+        GOAL_SOLVED,
+        /** The agent aborted a primitive goal. */
+        GOAL_ABORTED,
+        /** A primitive goal fails because its budget is exhausted. */
+        BUDGET_EXHAUSTED,
+        /**
+         * A goal-structure fails, e.g. a primitive goal that is aborted or whose
+         * budget is exhausted, or a SEQ of which a subgoal fails. This is published
+         * for the failing primitive goal first, and then for each of its ancestors
+         * that fail because of it.
+         */
+        GOAL_FAILED,
+        /** A root goal-structure is concluded and removed from the goal-stack. */
+        GOAL_DETACHED,
+        /** The agent executed an action. */
+        ACTION_EXECUTED
+    }
+
+    public final EventType type;
+
+    /**
+     * The id of the agent that produced this event.
+     */
+    public final String agentId;
+
+    /**
+     * The name of the goal, goal-structure, or action the event is about.
+     */
+    public final String name;
+
+    /**
+     * For GOAL_DETACHED events, this is true if the goal-structure was solved, and
+     * false if it failed. For ACTION_EXECUTED events, this is true if the action's
+     * proposal solved the agent's current goal. For other events this is false.
+     */
+    public final boolean success;
+
+    /**
+     * The time when this event happened, as given by
+     * {@link System#currentTimeMillis()}.
+     */
+    public final long timestamp;
+
+    /**
+     * For ACTION_EXECUTED events, this is the execution time of the action, in ns.
+     * For other events this is 0.
+     */
+    public final long duration;
+
+    public AgentEvent(EventType type, String agentId, String name, boolean success, long duration) {
+        this.type = type;
+        this.agentId = agentId;
+        this.name = name;
+        this.success = success;
+        this.duration = duration;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public AgentEvent(EventType type, String agentId, String name) {
+        this(type, agentId, name, false, 0);
+    }
+
+    @Override
+    public String toString() {
+        var s = timestamp + " " + agentId + " " + type + " " + name;
+        if (type == EventType.GOAL_DETACHED)
+            s += (success ? " (success)" : " (fail)");
+        if (type == EventType.ACTION_EXECUTED)
+            s += " " + duration + "ns" + (success ? " (solved)" : "");
+        return s;
+    }
+
+}
@@ -0,0 +1,14 @@
+package nl.uu.cs.aplib.events;
+
+/**
+ * A consumer of {@link AgentEvent}s. Agents call {@link #publish(AgentEvent)}
+ * from their own thread, in the middle of their update cycle, so an
+ * implementation should return quickly. A sink may be attached to multiple
+ * agents, which may run in different threads; so implementations should be
+ * thread-safe.
+ */
+public interface AgentEventSink {
+
+    public void publish(AgentEvent e);
+
+}
@@ -0,0 +1,136 @@
+package nl.uu.cs.aplib.events;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import nl.uu.cs.aplib.Logging;
+
+/**
+ * An {@link AgentEventSink} that writes events to a text file, one event per
+ * line (see {@link AgentEvent#toString()}). The writing is done by a background
+ * thread, so publishing an event only puts it in a bounded queue. If the queue
+ * is full, because the writer cannot keep up, the event is dropped rather than
+ * blocking the agent; the number of dropped events is counted, see
+ * {@link #droppedCount()}.
+ *
+ * <p>
+ * Call {@link #close()} to write the remaining events and close the file.
+ */
+public class AsyncFileEventSink implements AgentEventSink, AutoCloseable {
+
+    private static final AgentEvent END = new AgentEvent(null, null, null);
+
+    /**
+     * How long {@link #close()} waits for the writer thread, in ms.
+     */
+    static final long CLOSE_TIMEOUT = 10000;
+
+    private final BlockingQueue<AgentEvent> queue;
+    private final BufferedWriter writer;
+    private final Thread writerThread;
+    private final AtomicLong dropped = new AtomicLong(0);
+    private volatile boolean closed = false;
+    private volatile IOException failure = null;
+
+    /**
+     * Create a sink that writes to the given file, with a queue of 8192 events. If
+     * the file exists, it is overwritten.
+     */
+    public AsyncFileEventSink(String filename) throws IOException {
+        this(filename, 8192);
+    }
+
+    /**
+     * Create a sink that writes to the given file, with a queue of the given
+     * capacity. If the file exists, it is overwritten.
+     */
+    public AsyncFileEventSink(String filename, int queueCapacity) throws IOException {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        writer = Files.newBufferedWriter(Paths.get(filename), StandardCharsets.UTF_8);
+        writerThread = new Thread(() -> writeLoop(), "AsyncFileEventSink " + filename);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public void publish(AgentEvent e) {
+        if (closed || !queue.offer(e))
+            dropped.incrementAndGet();
+    }
+
+    /**
+     * The number of events that were dropped because the queue was full (or the
+     * sink was already closed).
+     */
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                var e = queue.take();
+                if (e == END)
+                    break;
+                writer.write(e.toString());
+                writer.newLine();
+                // flush when we have caught up with the agents:
+                if (queue.isEmpty())
+                    writer.flush();
+            }
+        } catch (InterruptedException e) {
+            // the sink is closing
+        } catch (IOException e) {
+            failure = e;
+            Logging.getAPLIBlogger().log(Level.WARNING, "AsyncFileEventSink fails to write: " + e);
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Write the events that are still in the queue, and close the file. Events
+     * published afterwards are dropped. If the writer does not finish within
+     * {@link #CLOSE_TIMEOUT} ms, it is interrupted, and the remaining events are
+     * lost.
+     *
+     * @throws IOException if the writer failed to write the events.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT;
+        try {
+            // the writer may have died on a failure, leaving a full queue behind:
+            while (writerThread.isAlive() && !queue.offer(END, 100, TimeUnit.MILLISECONDS)) {
+                if (System.currentTimeMillis() >= deadline)
+                    break;
+            }
+            writerThread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            if (writerThread.isAlive()) {
+                writerThread.interrupt();
+                Logging.getAPLIBlogger().log(Level.WARNING,
+                        "AsyncFileEventSink does not finish writing in time; some events are lost.");
+            }
+        } catch (InterruptedException e) {
+            writerThread.interrupt();
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+}
@@ -0,0 +1,105 @@
+package nl.uu.cs.aplib.events;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An {@link AgentEventSink} that keeps the most recent events in memory, in a
+ * ring buffer of a fixed capacity. When the buffer is full, the oldest events
+ * are overwritten. Publishing an event is lock-free: it does not block, and it
+ * does not allocate.
+ *
+ * <p>
+ * Every published event gets a sequence number (0, 1, 2, ...). Readers can
+ * take a {@link #snapshot()} of the events currently in the buffer, or ask for
+ * the events since a given sequence number, e.g. to follow the event stream.
+ * Reading does not disturb the writers; an event that is overwritten while it
+ * is being read is simply skipped.
+ */
+public class RingBufferEventSink implements AgentEventSink {
+
+    private final int mask;
+    private final AtomicReferenceArray<AgentEvent> events;
+
+    /**
+     * seqs[i] is the sequence number of the event in events[i], or -1 if the slot
+     * is empty or being written.
+     */
+    private final AtomicLongArray seqs;
+
+    private final AtomicLong next = new AtomicLong(0);
+
+    /**
+     * Create a ring buffer that can hold at least the given number of events. The
+     * actual capacity is rounded up to a power of two.
+     */
+    public RingBufferEventSink(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("The capacity should be positive.");
+        int N = Integer.highestOneBit(capacity);
+        if (N < capacity)
+            N = N << 1;
+        mask = N - 1;
+        events = new AtomicReferenceArray<>(N);
+        seqs = new AtomicLongArray(N);
+        for (int i = 0; i < N; i++)
+            seqs.set(i, -1);
+    }
+
+    @Override
+    public void publish(AgentEvent e) {
+        long seq = next.getAndIncrement();
+        int i = (int) (seq & mask);
+        // invalidate the slot first, so that readers do not mistake the new event
+        // for the old one:
+        seqs.set(i, -1);
+        events.set(i, e);
+        seqs.set(i, seq);
+    }
+
+    /**
+     * The capacity of this buffer.
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * The total number of events published to this sink so far (including those
+     * that were overwritten). This is also the sequence number the next event will
+     * get.
+     */
+    public long publishedCount() {
+        return next.get();
+    }
+
+    /**
+     * Return the events with sequence number equal or greater than the given
+     * number, that are still in the buffer, ordered from old to new.
+     */
+    public List<AgentEvent> eventsSince(long sequenceNumber) {
+        long end = next.get();
+        long start = Math.max(sequenceNumber, end - capacity());
+        List<AgentEvent> result = new ArrayList<>((int) Math.max(0, end - start));
+        for (long s = start; s < end; s++) {
+            int i = (int) (s & mask);
+            if (seqs.get(i) != s)
+                continue;
+            var e = events.get(i);
+            if (seqs.get(i) == s)
+                result.add(e);
+        }
+        return result;
+    }
+
+    /**
+     * Return the events currently in the buffer, ordered from old to new.
+     */
+    public List<AgentEvent> snapshot() {
+        return eventsSince(0);
+    }
+
+}
@@ -130,7 +130,9 @@ public class MyAgentState extends Iv4xrAgentState<Void> {
 			if (id.equals("Frodo") || id.equals("Smeagol")) {
 				continue;
 			}
-			this.worldmodel.elements.remove(id);
+			var removed = this.worldmodel.removeEntity(id);
+			if (removed != null && changeTracker != null)
+				changeTracker.registerChange(id, removed.type, null);
 			//System.out.println(">>>> " + this.worldmodel.agentId 
 			//		+ " removing " + id + ", in wom: " + this.worldmodel.elements.get(id)) ; ;
 		}
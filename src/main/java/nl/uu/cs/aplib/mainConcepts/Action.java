@@ -1,8 +1,11 @@
 package nl.uu.cs.aplib.mainConcepts;
 
+import java.util.HashSet;
+import java.util.Set;
 import java.util.function.*;
 
 import nl.uu.cs.aplib.mainConcepts.Tactic.PrimitiveTactic;
+import nl.uu.cs.aplib.utils.LatencyHistogram;
 
 /**
  * Actions are the building blocks for to build a {@link Tactic}. To solve a
@@ -39,6 +42,13 @@ public class Action {
     long totalRuntime = 0;
     int invocationCount = 0;
 
+    /**
+     * The execution times of this Action, in ns. Unlike {@link #totalRuntime},
+     * which is measured in ms, this also shows the cost of actions that complete
+     * in less than a ms.
+     */
+    final LatencyHistogram latencies = new LatencyHistogram();
+
     /**
      * This Action's guard, which is a query over the agent's state. This action is
      * considered as executable if the query results in a non-null value. Else the
@@ -51,9 +61,30 @@ public class Action {
     private final Boolean true_ = true;
 
     /**
-     * Store the result of guard evaluation, until it is retrieved.
+     * Store the result of guard evaluation, until it is retrieved. This is
+     * volatile because guards may be evaluated on a different thread than the one
+     * that executes the action, see
+     * {@link BasicAgent#useParallelGuardEvaluation(java.util.concurrent.ForkJoinPool)}.
+     */
+    private volatile Object queryResult = null;
+
+    /**
+     * The entity ids, types, and properties that this Action's guard reads, if
+     * declared. If at least one of them is not null, and the agent's state has a
+     * {@link ChangeTracker}, the guard is only re-evaluated when one of these
+     * changed since its last evaluation. Else the previous result is re-used.
      */
-    private Object queryResult = null;
+    Set<String> guardDependsOnIds = null;
+    Set<String> guardDependsOnTypes = null;
+    Set<String> guardDependsOnProperties = null;
+
+    /**
+     * The result of the last guard evaluation, the tracker in which it was done,
+     * and the cycle of the tracker at the time of the evaluation.
+     */
+    private Object cachedGuardResult = null;
+    private ChangeTracker guardEvaluationTracker = null;
+    private long guardEvaluationCycle = -1;
 
     Object retrieveQueryResult() {
         Object o = queryResult;
@@ -96,6 +127,7 @@ public class Action {
      * Action itself so that it can be used in the Fluent Interface style.
      */
     public <AgentSt> Action on_(Predicate<AgentSt> guard) {
+        invalidateCachedGuardResult();
         this.guard = st -> {
             if (guard.test((AgentSt) st))
                 return true_;
@@ -110,10 +142,79 @@ public class Action {
      * the Action itself so that it can be used in the Fluent Interface style.
      */
     public <AgentSt, QueryResult> Action on(Function<AgentSt, QueryResult> myguard) {
+        invalidateCachedGuardResult();
         this.guard = st -> myguard.apply((AgentSt) st);
         return this;
     }
 
+    /**
+     * Declare that this Action's guard reads the entities with the given ids. See
+     * {@link #dependsOnProperties(String...)} for how this is used.
+     */
+    public Action dependsOnIds(String... ids) {
+        guardDependsOnIds = addAll(guardDependsOnIds, ids);
+        invalidateCachedGuardResult();
+        return this;
+    }
+
+    /**
+     * Declare that this Action's guard reads entities of the given types. See
+     * {@link #dependsOnProperties(String...)} for how this is used.
+     */
+    public Action dependsOnTypes(String... types) {
+        guardDependsOnTypes = addAll(guardDependsOnTypes, types);
+        invalidateCachedGuardResult();
+        return this;
+    }
+
+    /**
+     * Declare that this Action's guard reads the given properties (of any entity).
+     * 
+     * <p>
+     * If an Action declares such dependencies (ids, types, or properties), and the
+     * agent's state tracks its changes (it has a {@link ChangeTracker}, see
+     * {@link SimpleState#enableChangeTracking()}), the guard is only evaluated
+     * again if at least one of the declared ids, types, or properties changed
+     * since the last evaluation. Otherwise the previous result of the guard is
+     * re-used. It is up to you to make sure that the declaration is complete, that
+     * is, that the guard really does not read anything else that may change.
+     * 
+     * <p>
+     * The method returns the Action itself so that it can be used in the Fluent
+     * Interface style.
+     */
+    public Action dependsOnProperties(String... properties) {
+        guardDependsOnProperties = addAll(guardDependsOnProperties, properties);
+        invalidateCachedGuardResult();
+        return this;
+    }
+
+    private static Set<String> addAll(Set<String> set, String... xs) {
+        if (set == null)
+            set = new HashSet<>();
+        for (String x : xs)
+            set.add(x);
+        return set;
+    }
+
+    /**
+     * True if this Action declares on which ids, types, or properties its guard
+     * depends.
+     */
+    public boolean hasGuardDependencies() {
+        return guardDependsOnIds != null || guardDependsOnTypes != null || guardDependsOnProperties != null;
+    }
+
+    /**
+     * Forget the stored result of the last guard evaluation, so that the guard will
+     * be evaluated again the next time.
+     */
+    public void invalidateCachedGuardResult() {
+        cachedGuardResult = null;
+        guardEvaluationTracker = null;
+        guardEvaluationCycle = -1;
+    }
+
     /**
      * Set the given function as the effect-part of this Action. The method returns
      * the Action itself so that it can be used in the Fluent Interface style.
@@ -179,6 +280,7 @@ public class Action {
             return o;
         };
         this.effect = a;
+        invalidateCachedGuardResult();
         this.guard = o -> true_;
         return this;
     }
@@ -199,6 +301,13 @@ public class Action {
         return until__(s -> myguard.test((AgentSt) s));
     }
 
+    /**
+     * Return the histogram of the execution times of this Action, in ns.
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
     /**
      * Wrap this Action to become a {@link PrimitiveTactic}.
      */
@@ -217,10 +326,32 @@ public class Action {
 
     /**
      * True if the guard of this Action evaluates to true on the given agent state.
+     * 
+     * <p>
+     * If this Action declares what its guard depends on, and the agent state
+     * tracks changes, the previous result of the guard is re-used when none of
+     * the declared dependencies changed since then. See
+     * {@link #dependsOnProperties(String...)}.
      */
     public boolean isEnabled(SimpleState agentstate) {
-        queryResult = guard.apply(agentstate);
-        return queryResult != null;
+        Object result;
+        var tracker = agentstate == null ? null : agentstate.changeTracker();
+        if (tracker != null && hasGuardDependencies()) {
+            if (guardEvaluationTracker == tracker
+                    && tracker.lastChange(guardDependsOnIds, guardDependsOnTypes, guardDependsOnProperties)
+                        <= guardEvaluationCycle) {
+                result = cachedGuardResult;
+            } else {
+                result = guard.apply(agentstate);
+                cachedGuardResult = result;
+                guardEvaluationTracker = tracker;
+                guardEvaluationCycle = tracker.cycle();
+            }
+        } else {
+            result = guard.apply(agentstate);
+        }
+        queryResult = result;
+        return result != null;
     }
 
     /**
@@ -1,14 +1,22 @@
 package nl.uu.cs.aplib.mainConcepts;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static nl.uu.cs.aplib.AplibEDSL.*;
 import nl.uu.cs.aplib.Logging;
+import nl.uu.cs.aplib.events.AgentEvent;
+import nl.uu.cs.aplib.events.AgentEvent.EventType;
+import nl.uu.cs.aplib.events.AgentEventSink;
 import nl.uu.cs.aplib.exception.AplibError;
 import nl.uu.cs.aplib.mainConcepts.Action.Abort;
 import nl.uu.cs.aplib.mainConcepts.GoalStructure.GoalsCombinator;
 import nl.uu.cs.aplib.mainConcepts.GoalStructure.PrimitiveGoal;
+import nl.uu.cs.aplib.mainConcepts.Tactic.PrimitiveTactic;
 import nl.uu.cs.aplib.utils.Time;
 import static nl.uu.cs.aplib.mainConcepts.GoalStructureStack.StackItem ;
 
@@ -138,6 +146,12 @@ public class BasicAgent {
      */
     protected Time mytime = new Time();
 
+    /**
+     * The value of System.nanoTime() at the start of the current update cycle;
+     * used to record the latencies of goals.
+     */
+    private long updateStart;
+
     /**
      * An instance of Deliberation is responsible for, as the name says, executing a
      * deliberation process for this agent. {@see Deliberation}.
@@ -150,6 +164,33 @@ public class BasicAgent {
      */
     protected CostFunction costFunction = new CostFunction();
 
+    /**
+     * If true, the agent evaluates its tactics on their compiled, array-based form
+     * (see {@link CompiledTactic}), and collects the enabled actions in
+     * {@link #candidateBuffer} rather than in freshly allocated lists. The default
+     * is false.
+     */
+    protected boolean useCompiledTactics = false;
+
+    /**
+     * A re-usable buffer to hold the enabled actions found in an update cycle,
+     * when {@link #useCompiledTactics} is turned on.
+     */
+    protected ArrayList<PrimitiveTactic> candidateBuffer = new ArrayList<>();
+
+    /**
+     * If not null, the guards of the children of ANYof tactics are evaluated in
+     * parallel on this pool. The default is null (sequential evaluation).
+     */
+    protected ForkJoinPool guardEvaluationPool = null;
+
+    /**
+     * The sinks to which this agent publishes its {@link AgentEvent}s. The array is
+     * replaced (rather than modified) when a sink is added or removed. When it is
+     * empty, no event is created at all.
+     */
+    protected volatile AgentEventSink[] eventSinks = new AgentEventSink[0];
+
     /**
      * Create a blank agent. You will need to at least attach a {@link SimpleState}
      * and a {@link GoalStructure} to it before it can be used to do something.
@@ -190,10 +231,14 @@ public class BasicAgent {
         if (!G.checkIfWellformed())
         	throw new IllegalArgumentException("Agent " + id + ": is given a goal-structure that is not well-formed.");
         
+        if (useCompiledTactics)
+            compileTactics(G);
         var GI = new StackItem(G) ;
         goalstack.stack.add(GI) ;
         prepareGoalStructureAtTheTopOfStack() ;
-        logger.info("Agent " + id + " is given a new goal structure " + showGoalStructShortDesc(G));
+        if (logger.isLoggable(Level.INFO))
+            logger.info("Agent " + id + " is given a new goal structure " + showGoalStructShortDesc(G));
+        publishEvent(EventType.GOAL_SET, G.getName());
         return this;
     }
     
@@ -220,6 +265,15 @@ public class BasicAgent {
         return true;
     }
     
+    private static void compileTactics(GoalStructure g) {
+        if (g instanceof PrimitiveGoal) {
+            ((PrimitiveGoal) g).goal.getTactic().compile();
+            return;
+        }
+        for (GoalStructure h : g.subgoals)
+            compileTactics(h);
+    }
+    
     private static String showGoalStructShortDesc(GoalStructure G) {
     	if (G instanceof PrimitiveGoal) return G.getName() ;
     	if (G.shortdesc == null) return "" ;
@@ -329,6 +383,100 @@ public class BasicAgent {
         return this;
     }
 
+    /**
+     * Attach a sink to which this agent will publish its lifecycle events, such as
+     * solving or failing a goal, or executing an action (see {@link AgentEvent}).
+     * Multiple sinks can be attached. The method returns the agent itself so that
+     * this method can be used in the Fluent Interface style.
+     */
+    public synchronized BasicAgent addEventSink(AgentEventSink sink) {
+        if (sink == null)
+            throw new IllegalArgumentException();
+        var sinks = Arrays.copyOf(eventSinks, eventSinks.length + 1);
+        sinks[sinks.length - 1] = sink;
+        eventSinks = sinks;
+        return this;
+    }
+
+    /**
+     * Detach the given event sink from this agent.
+     */
+    public synchronized void removeEventSink(AgentEventSink sink) {
+        eventSinks = Arrays.stream(eventSinks).filter(S -> S != sink).toArray(AgentEventSink[]::new);
+    }
+
+    /**
+     * Publish an event to the sinks attached to this agent, if there are any.
+     */
+    protected void publishEvent(EventType type, String name, boolean success, long duration) {
+        var sinks = eventSinks;
+        if (sinks.length == 0)
+            return;
+        var e = new AgentEvent(type, id, name, success, duration);
+        for (var S : sinks)
+            S.publish(e);
+    }
+
+    protected void publishEvent(EventType type, String name) {
+        publishEvent(type, name, false, 0);
+    }
+
+    /**
+     * Publish a GOAL_FAILED event for the given goal-structure, which has just
+     * failed, and for each of its ancestors that failed along with it.
+     */
+    private void publishGoalFailures(GoalStructure G) {
+        if (eventSinks.length == 0)
+            return;
+        for (; G != null && G.getStatus().failed(); G = G.parent)
+            publishEvent(EventType.GOAL_FAILED, G.getName());
+    }
+
+    /**
+     * Turn on or off the use of compiled tactics. When turned on, the tactics of
+     * the goals given to this agent are compiled to a flat, array-based form (see
+     * {@link CompiledTactic}) when the goals are set, and the agent then collects
+     * enabled actions in a re-usable buffer, rather than allocating new lists at
+     * every node of the tactic tree in every update. The semantics of FIRSTof,
+     * ANYof and SEQ tactics remain the same. Tactics of goals that are added
+     * dynamically are compiled when they are first used.
+     * 
+     * <p>
+     * Note that the list of candidates passed to the agent's {@link Deliberation}
+     * is then this re-used buffer; a Deliberation should not hold on to it after
+     * it returns.
+     * 
+     * <p>
+     * The method returns the agent itself so that this method can be used in the
+     * Fluent Interface style.
+     */
+    public BasicAgent useCompiledTactics(boolean flag) {
+        useCompiledTactics = flag;
+        return this;
+    }
+
+    /**
+     * Turn on parallel evaluation of guards. When the given pool is not null, the
+     * guards of the children of every ANYof tactic are evaluated at the same time,
+     * as tasks in this pool. This is useful when guards are expensive, e.g. when
+     * they do path-finding or Prolog queries. The list of candidate actions that
+     * is passed to the agent's {@link Deliberation} remains the same as with
+     * sequential evaluation (same actions, in the same order).
+     * 
+     * <p>
+     * Only use this when the guards are safe to be run concurrently on the agent's
+     * state; e.g. they should not modify the state. Passing null turns the
+     * parallel evaluation off again.
+     * 
+     * <p>
+     * The method returns the agent itself so that this method can be used in the
+     * Fluent Interface style.
+     */
+    public BasicAgent useParallelGuardEvaluation(ForkJoinPool pool) {
+        guardEvaluationPool = pool;
+        return this;
+    }
+
     /**
      * As the name says, this will detach/pop the entire goal-structure that is currently
      * at the top of the agent's goal-stack (this is the goal-structure that the
@@ -356,12 +504,18 @@ public class BasicAgent {
         if (goalstack.pendingPush != null) {
         	var H = goalstack.pendingPush ;
         	goalstack.pendingPush = null ;
-        	logger.info("Agent " + id + " RETRACTs a tentatively pushed goal " 
-        			+ showGoalStructShortDesc(H.rootGoal)
-        			+ ", because the root goal-structure that pushed it has concluded.") ;
+        	if (logger.isLoggable(Level.INFO))
+        	    logger.info("Agent " + id + " RETRACTs a tentatively pushed goal " 
+        	    		+ showGoalStructShortDesc(H.rootGoal)
+        	    		+ ", because the root goal-structure that pushed it has concluded.") ;
         }
         
         
+        publishEvent(EventType.GOAL_DETACHED, lastHandledRootGoalStructure.getName(),
+                lastHandledRootGoalStructure.getStatus().success(), 0);
+
+        if (!logger.isLoggable(Level.INFO))
+            return;
         String status = "" ;
         if (lastHandledRootGoalStructure.getStatus().success()) status = "(success)" ;
         else if(lastHandledRootGoalStructure.getStatus().failed()) status = "(fail)" ;
@@ -378,6 +532,14 @@ public class BasicAgent {
         			+ ".") ;
     }
 
+    /**
+     * True if the agent still has a goal-structure to work on (so, if its
+     * goal-stack is not empty).
+     */
+    public boolean hasGoal() {
+        return !goalstack.isEmpty();
+    }
+
     /**
      * Return the goal-structure that was last detached by this agent. A goal is
      * detached when it is declared successful or failed.
@@ -426,23 +588,16 @@ public class BasicAgent {
             var H = SEQ(currentGoal, G);
             H.budget = parent.budget ;
             parent.subgoals.clear();
-            parent.subgoals.add(H);
-            H.parent = parent;
+            parent.insertSubgoal(0, H);
         } else {
-            int k = currentGoal.parent.subgoals.indexOf(currentGoal);
-            int N = currentGoal.parent.subgoals.size();
-            if (k == N - 1) {
-                currentGoal.parent.subgoals.add(G);
-            } else {
-                currentGoal.parent.subgoals.add(k + 1, G);
-            }
-            G.parent = currentGoal.parent;
+            int k = currentGoal.positionInParent();
+            parent.insertSubgoal(k + 1, G);
         }
         G.budget = Math.min(G.bmax, G.parent.budget) ;
-        String Gname = "(" + G.getName() + ")" ;
-        logger.info("Agent " + id + " inserts a new goal "
-        		             + Gname + " after goal " + currentGoal.goal.name 
-        		             + "; autoremove=" + G.autoRemove);
+        if (logger.isLoggable(Level.INFO))
+            logger.info("Agent " + id + " inserts a new goal "
+                    + "(" + G.getName() + ")" + " after goal " + currentGoal.goal.name
+                    + "; autoremove=" + G.autoRemove);
     }
     
     /** 
@@ -492,7 +647,7 @@ public class BasicAgent {
 
         // currentGoal must therefore have a parent:
         var parent = currentGoal.parent;
-        int k = parent.subgoals.indexOf(currentGoal);
+        int k = currentGoal.positionInParent();
 
         // case (1), G was already added. This is the case if G occurs as a previous
         // sibling under a SEQ parent.
@@ -512,10 +667,9 @@ public class BasicAgent {
             repeatNode.maxbudget(parent.budget);
         g1.budget = parent.budget;
         G.budget = Math.min(G.parent.budget, G.bmax) ;
-        parent.subgoals.remove(k);
-        parent.subgoals.add(k, repeatNode);
-        repeatNode.parent = parent;
-        logger.info("Agent " + id + " inserts a new goal structure before goal " + currentGoal.goal.name + ".");
+        parent.replaceSubgoal(k, repeatNode);
+        if (logger.isLoggable(Level.INFO))
+            logger.info("Agent " + id + " inserts a new goal structure before goal " + currentGoal.goal.name + ".");
         // case-2 done
     }
     
@@ -541,15 +695,14 @@ public class BasicAgent {
             var H = SEQ(G, currentGoal);
             H.budget = parent.budget;
             parent.subgoals.clear();
-            parent.subgoals.add(H);
-            H.parent = parent;
+            parent.insertSubgoal(0, H);
         } else {
-            int k = currentGoal.parent.subgoals.indexOf(currentGoal);
-            currentGoal.parent.subgoals.add(k, G);
-            G.parent = currentGoal.parent;
+            int k = currentGoal.positionInParent();
+            parent.insertSubgoal(k, G);
         }
         G.budget = Math.min(G.parent.budget, G.bmax) ;
-        logger.info("Agent " + id + " inserts a new goal structure after goal " + currentGoal.goal.name + ".");
+        if (logger.isLoggable(Level.INFO))
+            logger.info("Agent " + id + " inserts a new goal structure after goal " + currentGoal.goal.name + ".");
     }
     
     /** 
@@ -586,37 +739,62 @@ public class BasicAgent {
         if (goalstack.currentPrimitiveGoal().isDescendantOf(G))
             throw new IllegalArgumentException("Trying to remove a goal-structure that contains the current primitive-goal.");
         removeGoalWorker(goal, G);
-        logger.info("Agent " + id + " removes a sub-goal-structure.");
+        if (logger.isLoggable(Level.INFO))
+            logger.info("Agent " + id + " removes a sub-goal-structure.");
     }
 
-    private boolean removeGoalWorker(GoalStructure H, GoalStructure tobeRemoved) {
-        if (H.subgoals.contains(tobeRemoved)) {
-            H.subgoals.remove(tobeRemoved);
-            if (H.subgoals.isEmpty()) {
-                if (H.isRootGoal()) {
-                    throw new AplibError("Removal of a goal structure causes the topgoal to become childless.");
-                } else {
-                    removeGoalWorker(goalstack.currentRootGoal(), H);
-                }
-            }
-            return true;
-        } else {
-            for (GoalStructure H2 : H.subgoals) {
-                var r = removeGoalWorker(H2, tobeRemoved);
-                if (r)
-                    return true;
-            }
+    private boolean removeGoalWorker(GoalStructure root, GoalStructure tobeRemoved) {
+        // rather than searching the tree for the goal, we follow the parent links
+        // from the goal, to check that it is part of the tree:
+        var H = tobeRemoved.parent;
+        if (H == null || !H.isDescendantOf(root))
+            return false;
+        if (!H.removeSubgoal(tobeRemoved))
             return false;
+        if (H.subgoals.isEmpty()) {
+            if (H.isRootGoal()) {
+                throw new AplibError("Removal of a goal structure causes the topgoal to become childless.");
+            } else {
+                removeGoalWorker(root, H);
+            }
         }
+        return true;
     }
 
+    /**
+     * The locking mode of the environment at the time this agent locked it, if it
+     * holds a lock on it. See {@link Environment.LockingMode}.
+     */
+    private Environment.LockingMode envLockingMode = null;
+
+    /**
+     * In the READ_WRITE locking mode, the number of write phases of the
+     * environment when this agent took its read-lock; and whether someone else
+     * took the write-lock since then, by the time this agent took it in
+     * {@link #beginExclusivePhase()}.
+     */
+    private long envWritePhasesSeen = 0;
+    private boolean envWrittenByOthers = false;
+
     /**
      * You should not need to use this, unless you want to implement your own Agent
      * by overriding this class, and you need your own custom way to lock and unlock
      * access to the Environment.
+     * 
+     * <p>
+     * Depending on the environment's {@link Environment.LockingMode}, this takes
+     * either the environment's exclusive lock, or the read-lock of its read-write
+     * lock.
      */
     protected void lockEnvironment() {
-        state.env.lock.lock();
+        var env = state.env;
+        envLockingMode = env.lockingMode;
+        if (envLockingMode == Environment.LockingMode.EXCLUSIVE)
+            env.lock.lock();
+        else {
+            env.rwlock.readLock().lock();
+            envWritePhasesSeen = env.writePhases;
+        }
     }
 
     /**
@@ -625,7 +803,54 @@ public class BasicAgent {
      * access to the Environment.
      */
     protected void unlockEnvironment() {
-        state.env.lock.unlock();
+        var env = state.env;
+        if (envLockingMode == null || envLockingMode == Environment.LockingMode.EXCLUSIVE)
+            env.lock.unlock();
+        else
+            env.rwlock.readLock().unlock();
+        envLockingMode = null;
+    }
+
+    /**
+     * Called right before the agent executes its chosen action. If the environment
+     * is locked in the READ_WRITE mode, this switches the agent's read-lock to the
+     * write-lock, so that the action has exclusive access to the environment. In
+     * the other modes this does nothing. Return the number of read-holds that were
+     * released, to be given back to {@link #endExclusivePhase(int)}.
+     * 
+     * <p>
+     * Since a read-lock cannot be upgraded, it is released before the write-lock
+     * is taken, and someone else may take the write-lock in between. This is
+     * recorded, so that the agent can re-check its chosen action, see
+     * {@link #update()}.
+     */
+    protected int beginExclusivePhase() {
+        envWrittenByOthers = false;
+        if (envLockingMode != Environment.LockingMode.READ_WRITE)
+            return 0;
+        var env = state.env;
+        var rwlock = env.rwlock;
+        // a read-lock cannot be upgraded; so we release it first:
+        int holds = rwlock.getReadHoldCount();
+        for (int k = 0; k < holds; k++)
+            rwlock.readLock().unlock();
+        rwlock.writeLock().lock();
+        envWrittenByOthers = env.writePhases != envWritePhasesSeen;
+        env.writePhases++;
+        return holds;
+    }
+
+    /**
+     * The counterpart of {@link #beginExclusivePhase()}; this downgrades the
+     * write-lock back to the given number of read-holds.
+     */
+    protected void endExclusivePhase(int readHolds) {
+        if (envLockingMode != Environment.LockingMode.READ_WRITE)
+            return;
+        var rwlock = state.env.rwlock;
+        for (int k = 0; k < readHolds; k++)
+            rwlock.readLock().lock();
+        rwlock.writeLock().unlock();
     }
 
     /**
@@ -640,6 +865,13 @@ public class BasicAgent {
      * If there is none, then the current root-goal is solved.
      * 
      * <p>
+     * If the environment uses the READ_WRITE locking mode, and another agent
+     * changed it between this agent's deliberation and the execution of its
+     * chosen action, the agent first observes the environment again and re-checks
+     * the guard of the chosen action. If the action is no longer enabled, nothing
+     * is executed in this update.
+     * 
+     * <p>
      * This method also keeps track of the computation time so far used to work on
      * the current root-goal as well as the current subgoal. If this exceeds the allocated
      * time, the corresponding root-goal/subgoal will be marked as failed.
@@ -660,6 +892,7 @@ public class BasicAgent {
             // the budget at the end of every update instead.
 
             mytime.sample();
+            updateStart = System.nanoTime();
             
             // goal.redistributeRemainingBudget();
             updateWorker();
@@ -678,7 +911,9 @@ public class BasicAgent {
             	if (H.budget > inheritedBudget) 
             		H.budget = inheritedBudget ;
 
-        		logger.info("Agent " + id + " switches to a newly pushed goal " + showGoalStructShortDesc(H) + ".");
+        		if (logger.isLoggable(Level.INFO))
+        		    logger.info("Agent " + id + " switches to a newly pushed goal " + showGoalStructShortDesc(H) + ".");
+        		publishEvent(EventType.GOAL_PUSHED, H.getName());
         	}
         	// unlock the env:	
         	unlockEnvironment();
@@ -688,12 +923,19 @@ public class BasicAgent {
     private void updateWorker() {
 
         // update the agent's state:
-        state.updateState(id);
+        state.updateStateAndTrackChanges(id);
         
         var currentRootGoalStructure = goalstack.currentRootGoal() ;
         var currentPrimitiveGoal   = goalstack.currentPrimitiveGoal() ;
         
-        var candidates = goalstack.currentTactic().getFirstEnabledActions(state);
+        List<PrimitiveTactic> candidates;
+        if (useCompiledTactics) {
+            candidateBuffer.clear();
+            goalstack.currentTactic().collectFirstEnabledActions(state, candidateBuffer, guardEvaluationPool);
+            candidates = candidateBuffer;
+        } else {
+            candidates = goalstack.currentTactic().getFirstEnabledActions(state, guardEvaluationPool);
+        }
         if (candidates.isEmpty()) {
             // if no action is enabled, we wait until the next update, to see
             // if the environment changes its state.
@@ -707,15 +949,39 @@ public class BasicAgent {
 
         if (chosenAction.action instanceof Abort) {
             // if the action is ABORT:
-            logger.info("Agent " + id + " ABORTs the goal " + currentPrimitiveGoal.goal.name + ".");
+            if (logger.isLoggable(Level.INFO))
+                logger.info("Agent " + id + " ABORTs the goal " + currentPrimitiveGoal.goal.name + ".");
             currentPrimitiveGoal.setStatusToFail("Abort was invoked.");
+            publishEvent(EventType.GOAL_ABORTED, currentPrimitiveGoal.goal.name);
+            publishGoalFailures(currentPrimitiveGoal);
         } else {
             // else execute the action:
-            Object proposal = costFunction.executeAction_andInstrumentCost(state, chosenAction.action);
+            Object proposal;
+            int readHolds = beginExclusivePhase();
+            long t0;
+            try {
+                if (envWrittenByOthers) {
+                    // another agent acted since we observed; so check that the chosen
+                    // action is still enabled on a fresh observation:
+                    state.updateStateAndTrackChanges(id);
+                    if (!chosenAction.action.isEnabled(state))
+                        return;
+                }
+                t0 = System.nanoTime();
+                proposal = costFunction.executeAction_andInstrumentCost(state, chosenAction.action);
+            } finally {
+                endExclusivePhase(readHolds);
+            }
+            long duration = System.nanoTime() - t0;
+            chosenAction.action.latencies.record(duration);
             currentPrimitiveGoal.goal.propose_(proposal);
+            publishEvent(EventType.ACTION_EXECUTED, chosenAction.action.name,
+                    currentPrimitiveGoal.goal.getStatus().success(), duration);
             if (currentPrimitiveGoal.goal.getStatus().success()) {
-                logger.info("Agent " + id + " SOLVEs the goal " + currentPrimitiveGoal.goal.name + ".");
+                if (logger.isLoggable(Level.INFO))
+                    logger.info("Agent " + id + " SOLVEs the goal " + currentPrimitiveGoal.goal.name + ".");
                 currentPrimitiveGoal.setStatusToSuccess("Solved by " + chosenAction.action.name);
+                publishEvent(EventType.GOAL_SOLVED, currentPrimitiveGoal.goal.name);
             }
             currentPrimitiveGoal.registerConsumedBudget(costFunction.getCost());
         }
@@ -726,12 +992,16 @@ public class BasicAgent {
         // System.out.println("### elapsed: " + elapsed) ;
         chosenAction.action.totalRuntime += elapsed;
         currentPrimitiveGoal.registerUsedTime(elapsed);
+        currentPrimitiveGoal.latencies.record(System.nanoTime() - updateStart);
 
         // if the current goal is not decided (still in progress), check if its budget is
         // not exhausted:
         if (currentPrimitiveGoal.getStatus().inProgress() && currentPrimitiveGoal.budget <= 0d) {
-            logger.info("Agent " + id + " FAILs the goal " + currentPrimitiveGoal.goal.name + "; its budget is exhausted.");
+            if (logger.isLoggable(Level.INFO))
+                logger.info("Agent " + id + " FAILs the goal " + currentPrimitiveGoal.goal.name + "; its budget is exhausted.");
             currentPrimitiveGoal.setStatusToFailBecauseBudgetExhausted();
+            publishEvent(EventType.BUDGET_EXHAUSTED, currentPrimitiveGoal.goal.name);
+            publishGoalFailures(currentPrimitiveGoal);
         }
 
         // check the status of root goal; if it is resolved, the agent is done:
@@ -746,7 +1016,7 @@ public class BasicAgent {
         if (currentPrimitiveGoal.getStatus().success() || currentPrimitiveGoal.getStatus().failed()) {
             // so... if the current goal is closed (but the root goal is not closed yet),
         	// check first if we have an auto-remove goal that needs to be removed:
-        	GoalStructure autoRemovedGoal_tobeRemoved = currentRootGoalStructure.get_Concluded_AutoRemove_Subgoal() ;
+        	GoalStructure autoRemovedGoal_tobeRemoved = currentPrimitiveGoal.get_Concluded_AutoRemove_Ancestor(currentRootGoalStructure) ;
         	
         	// Next, we need to find another goal to solve:
         	
@@ -754,7 +1024,9 @@ public class BasicAgent {
         	goalstack.setCurrentPrimitiveGoal(nextGoalToDo);
             
             if (nextGoalToDo != null) {
-                logger.info("Agent " + id + " switches to goal " + nextGoalToDo.goal.name + ".");
+                if (logger.isLoggable(Level.INFO))
+                    logger.info("Agent " + id + " switches to goal " + nextGoalToDo.goal.name + ".");
+                publishEvent(EventType.GOAL_SWITCHED, nextGoalToDo.goal.name);
                 goalstack.setCurrentTactic(nextGoalToDo.goal.getTactic());
                 if (goalstack.currentTactic() == null)
                     // should not happen...
@@ -777,8 +1049,9 @@ public class BasicAgent {
                 				+ " tries to auto-remove the current goal: " + goalstack.currentPrimitiveGoal().getName()) ;
                 	}
                 	this.remove(autoRemovedGoal_tobeRemoved);
-                	logger.info("Agent " + id + " AUTO-remove a goal: "
-                			+ showGoalStructShortDesc(autoRemovedGoal_tobeRemoved)) ;
+                	if (logger.isLoggable(Level.INFO))
+                	    logger.info("Agent " + id + " AUTO-remove a goal: "
+                	    		+ showGoalStructShortDesc(autoRemovedGoal_tobeRemoved)) ;
                 }
                 
                 
@@ -0,0 +1,124 @@
+package nl.uu.cs.aplib.mainConcepts;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A ChangeTracker keeps track of which parts of an agent's state were changed,
+ * and when. The state is assumed to be populated by entities; each has an id, a
+ * type, and named properties. Time is counted in update cycles: the state that
+ * owns the tracker calls {@link #nextCycle()} at the start of every
+ * {@link SimpleState#updateState(String)}, and then registers the changes it
+ * sees with {@link #registerChange(String, String, Collection)}. If an update of
+ * the agent does not advance the cycle, the agent does it, and registers the
+ * whole state as changed.
+ *
+ * <p>
+ * This is used by {@link Action} to decide whether the result of its guard from
+ * an earlier evaluation can be re-used. An action can declare which entity ids,
+ * types, and properties its guard reads (e.g. with
+ * {@link Action#dependsOnIds(String...)}). If none of these has changed since
+ * the cycle at which the guard was last evaluated, the guard is not evaluated
+ * again.
+ *
+ * <p>
+ * A state that does not know what has changed can call
+ * {@link #registerChangeOfEverything()}; this forces all guards to be
+ * re-evaluated.
+ */
+public class ChangeTracker {
+
+    long cycle = 0;
+
+    /**
+     * The last cycle in which the whole state was considered to be changed.
+     */
+    long lastGlobalChange = 0;
+
+    /**
+     * The last cycle in which anything was registered as changed.
+     */
+    long lastChangeOfAnything = 0;
+
+    Map<String, Long> idChanges = new HashMap<>();
+    Map<String, Long> typeChanges = new HashMap<>();
+    Map<String, Long> propertyChanges = new HashMap<>();
+
+    public ChangeTracker() {
+    }
+
+    /**
+     * Advance the cycle counter. Changes registered afterwards are registered as
+     * happening in the new cycle.
+     */
+    public void nextCycle() {
+        cycle++;
+    }
+
+    /**
+     * The current cycle.
+     */
+    public long cycle() {
+        return cycle;
+    }
+
+    /**
+     * Register that the entity with the given id and type has changed in the
+     * current cycle, and that the given properties of this entity were among
+     * those that changed. Both the type and the properties can be null.
+     */
+    public void registerChange(String id, String type, Collection<String> changedProperties) {
+        lastChangeOfAnything = cycle;
+        if (id != null)
+            idChanges.put(id, cycle);
+        if (type != null)
+            typeChanges.put(type, cycle);
+        if (changedProperties != null) {
+            for (String p : changedProperties)
+                propertyChanges.put(p, cycle);
+        }
+    }
+
+    /**
+     * Register that the whole state should be considered as changed in the
+     * current cycle.
+     */
+    public void registerChangeOfEverything() {
+        lastGlobalChange = cycle;
+        lastChangeOfAnything = cycle;
+    }
+
+    /**
+     * Return the last cycle in which anything in the state changed.
+     */
+    public long lastChange() {
+        return lastChangeOfAnything;
+    }
+
+    /**
+     * Return the last cycle in which any of the given ids, types, or properties
+     * changed, or the whole state changed. Each of the given sets may be null.
+     */
+    public long lastChange(Set<String> ids, Set<String> types, Set<String> properties) {
+        long last = lastGlobalChange;
+        last = Math.max(last, lastChange(idChanges, ids));
+        last = Math.max(last, lastChange(typeChanges, types));
+        last = Math.max(last, lastChange(propertyChanges, properties));
+        return last;
+    }
+
+    private static long lastChange(Map<String, Long> changes, Set<String> keys) {
+        long last = -1;
+        if (keys == null)
+            return last;
+        for (String k : keys) {
+            var t = changes.get(k);
+            if (t != null && t > last)
+                last = t;
+        }
+        return last;
+    }
+
+}
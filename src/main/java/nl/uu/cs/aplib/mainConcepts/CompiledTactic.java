@@ -0,0 +1,182 @@
+package nl.uu.cs.aplib.mainConcepts;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import nl.uu.cs.aplib.mainConcepts.Tactic.PrimitiveTactic;
+import nl.uu.cs.aplib.mainConcepts.Tactic.TacticType;
+
+/**
+ * A flat, array-based representation of a {@link Tactic} tree. The nodes of the
+ * tree are laid out in pre-order, so the children of a node n are found
+ * contiguously after n, and the whole subtree of n ends at {@code end[n]}.
+ * Each node of the tree also remembers its own position in this layout, so
+ * the evaluation can start from any sub-tactic (e.g. the current tactic of an
+ * agent, which may be somewhere in the middle of a SEQ).
+ *
+ * <p>
+ * The method {@link #collectFirstEnabledActions(Tactic, SimpleState, List)}
+ * computes the same set of enabled actions as
+ * {@link Tactic#getFirstEnabledActions(SimpleState)}, with the same FIRSTOF,
+ * ANYOF, and SEQ semantics, but writes them into a buffer supplied by the
+ * caller rather than allocating fresh lists at every node. This is used by
+ * {@link BasicAgent} when its compiled-tactic mode is turned on (see
+ * {@link BasicAgent#useCompiledTactics(boolean)}).
+ *
+ * <p>
+ * A Tactic tree is not supposed to change after it is constructed, so a
+ * compiled form, once made, is cached in the root of the tree.
+ */
+public class CompiledTactic {
+
+    final Tactic root;
+
+    /**
+     * The nodes of the tactic tree, in pre-order.
+     */
+    final Tactic[] nodes;
+
+    /**
+     * types[n] is the type of nodes[n].
+     */
+    final TacticType[] types;
+
+    /**
+     * end[n] is the index just after the last node in the subtree of nodes[n].
+     */
+    final int[] end;
+
+    private CompiledTactic(Tactic root, List<Tactic> preorder) {
+        this.root = root;
+        int N = preorder.size();
+        nodes = preorder.toArray(new Tactic[N]);
+        types = new TacticType[N];
+        end = new int[N];
+        for (int k = 0; k < N; k++) {
+            types[k] = nodes[k].strTy;
+        }
+        calcEnd(0);
+    }
+
+    private int calcEnd(int n) {
+        int k = n + 1;
+        for (int i = 0; i < nodes[n].subtactics.size(); i++) {
+            k = calcEnd(k);
+        }
+        end[n] = k;
+        return k;
+    }
+
+    /**
+     * Compile the whole tactic tree that T is part of (so, starting from T's root).
+     * If the tree was already compiled, its cached compiled form is returned.
+     * 
+     * <p>
+     * Since a sub-tactic can be re-used in a new tree (its parent is then
+     * re-assigned), the cached form is only re-used if T is still at its
+     * recorded position; else the tree is compiled again.
+     */
+    static CompiledTactic compile(Tactic T) {
+        Tactic root = T;
+        while (root.parent != null)
+            root = root.parent;
+        if (root.compiled != null && root.compiled.contains(T))
+            return root.compiled;
+        List<Tactic> preorder = new ArrayList<>();
+        collectPreorder(root, preorder);
+        var C = new CompiledTactic(root, preorder);
+        for (int k = 0; k < C.nodes.length; k++) {
+            C.nodes[k].compiledIndex = k;
+        }
+        root.compiled = C;
+        return C;
+    }
+
+    private static void collectPreorder(Tactic T, List<Tactic> preorder) {
+        preorder.add(T);
+        for (Tactic U : T.subtactics)
+            collectPreorder(U, preorder);
+    }
+
+    boolean contains(Tactic T) {
+        return T.compiledIndex >= 0 && T.compiledIndex < nodes.length && nodes[T.compiledIndex] == T;
+    }
+
+    /**
+     * Return the number of nodes in the compiled tree.
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * Add to the given buffer the actions in the sub-tactic T (which must be part
+     * of this compiled tree) that are eligible for execution and whose guards are
+     * true on the given state. The buffer is not cleared first.
+     * 
+     * <p>
+     * If the given pool is not null, the children of ANYOF nodes are evaluated in
+     * parallel on that pool, each into its own buffer. These are then appended to
+     * the given buffer in the order of the children, so the result is the same as
+     * that of the sequential evaluation.
+     */
+    public void collectFirstEnabledActions(Tactic T, SimpleState agentstate, List<PrimitiveTactic> buffer,
+            ForkJoinPool pool) {
+        if (!contains(T))
+            throw new IllegalArgumentException("The tactic is not part of this compiled tactic.");
+        collect(T.compiledIndex, agentstate, buffer, pool);
+    }
+
+    private void collect(int n, SimpleState agentstate, List<PrimitiveTactic> buffer, ForkJoinPool pool) {
+        int child;
+        switch (types[n]) {
+        case FIRSTOF:
+            child = n + 1;
+            while (child < end[n]) {
+                int before = buffer.size();
+                collect(child, agentstate, buffer, pool);
+                if (buffer.size() > before)
+                    return;
+                child = end[child];
+            }
+            return;
+        case ANYOF:
+            if (pool != null && nodes[n].subtactics.size() > 1) {
+                List<ForkJoinTask<List<PrimitiveTactic>>> tasks = new ArrayList<>();
+                child = n + 1;
+                while (child < end[n]) {
+                    final int c = child;
+                    tasks.add(ForkJoinTask.adapt(() -> {
+                        List<PrimitiveTactic> childBuffer = new ArrayList<>();
+                        collect(c, agentstate, childBuffer, pool);
+                        return childBuffer;
+                    }));
+                    child = end[child];
+                }
+                Tactic.invokeAll(pool, tasks);
+                for (var task : tasks) {
+                    buffer.addAll(task.join());
+                }
+                return;
+            }
+            child = n + 1;
+            while (child < end[n]) {
+                collect(child, agentstate, buffer, pool);
+                child = end[child];
+            }
+            return;
+        case SEQ:
+            if (n + 1 < end[n])
+                collect(n + 1, agentstate, buffer, pool);
+            return;
+        case PRIMITIVE:
+            var this_ = (PrimitiveTactic) nodes[n];
+            if (this_.action.isEnabled(agentstate))
+                buffer.add(this_);
+            return;
+        }
+    }
+
+}
@@ -1,10 +1,20 @@
 package nl.uu.cs.aplib.mainConcepts;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Logger;
 
 import nl.uu.cs.aplib.Logging;
+import nl.uu.cs.aplib.utils.ConcurrentLatencyHistogram;
+import nl.uu.cs.aplib.utils.LatencyHistogram;
 
 /**
  * 
@@ -21,6 +31,9 @@ import nl.uu.cs.aplib.Logging;
  * parameter, if we have one. The method returns an object that the actual
  * environment sends back as the reply to the given command.
  * 
+ * <p>Commands can also be sent without waiting for their results, with
+ * {@link #sendCommandAsync(String, String, String, Object)}.
+ * 
  * <p>Being just a template, this class does not know
  * what commands are available, nor does it know how to send it to the actual
  * environment. This depends on the concrete actual environment that you use.
@@ -60,6 +73,12 @@ import nl.uu.cs.aplib.Logging;
  * the Environment state, e.g. for the purpose of checking some correctness
  * property.
  * 
+ * <p>
+ * Independently of the debug-mode, the Environment always keeps cheap metrics
+ * of the commands sent through {@code sendCommand(...)}, per command name:
+ * their count, failures, latencies, and (if known) bytes. See
+ * {@link #snapshotCommandMetrics()}.
+ * 
  * @author wish
  *
  */
@@ -72,6 +91,65 @@ public class Environment {
      */
     ReentrantLock lock = new ReentrantLock();
 
+    /**
+     * The ways agents can lock this Environment during their update cycles.
+     * 
+     * <ul>
+     * <li>EXCLUSIVE: an agent holds {@link #lock} during its whole update cycle.
+     * So, agents sharing the Environment are fully serialized. This is the default.
+     * 
+     * <li>READ_WRITE: an agent holds the read-lock of {@link #rwlock} while it
+     * updates its state (observes) and evaluates guards. It switches to the
+     * write-lock when it executes the chosen action (which is when it sends
+     * commands). So, multiple agents can observe and deliberate at the same time.
+     * The Environment must then allow concurrent calls to {@link #observe(String)}.
+     * Because a read-lock cannot be upgraded, another agent may execute its action
+     * between an agent's deliberation and its action. If that happens, the agent
+     * observes again and re-checks the guard of its chosen action while holding
+     * the write-lock, and only executes the action if it is still enabled.
+     * 
+     * <li>STRIPED: an agent holds the read-lock of {@link #rwlock} during its whole
+     * update cycle, and every call to {@link #sendCommand(String, String, String, Object, Class)}
+     * locks one of several stripe-locks, chosen by the command's target-id. So,
+     * commands to different targets can run at the same time, while commands to
+     * the same target are serialized. Only use this if the Environment can handle
+     * concurrent commands to different targets.
+     * </ul>
+     * 
+     * In the last two modes, {@link #resetAndInstrument()} takes the write-lock.
+     */
+    public static enum LockingMode {
+        EXCLUSIVE, READ_WRITE, STRIPED
+    }
+
+    LockingMode lockingMode = LockingMode.EXCLUSIVE;
+
+    /**
+     * A read-write lock on the entire Environment; used when the locking mode is
+     * READ_WRITE or STRIPED.
+     */
+    ReentrantReadWriteLock rwlock = new ReentrantReadWriteLock();
+
+    /**
+     * The number of times the write-lock of {@link #rwlock} has been taken. This
+     * is only updated while holding the write-lock, so an agent that reads it
+     * under the read-lock can later tell whether someone else has taken the
+     * write-lock since.
+     */
+    long writePhases = 0;
+
+    /**
+     * The stripe-locks used when the locking mode is STRIPED.
+     */
+    ReentrantLock[] stripes = null;
+
+    /**
+     * The metrics of the commands sent through
+     * {@link #sendCommand(String, String, String, Object, Class)}, per command
+     * name.
+     */
+    Map<String, CommandMetricsRecorder> commandMetrics = new ConcurrentHashMap<>();
+
     /**
      * Create an instance of this environment.
      */
@@ -84,12 +162,67 @@ public class Environment {
      * Environment's active instrumenters.
      */
     public final void resetAndInstrument() {
-        logger.info("Environment reset is called.");
-        lastOperation = null;
-        resetWorker();
-        for (EnvironmentInstrumenter I : instrumenters) {
-            I.reset();
+        Lock L = lockingMode == LockingMode.EXCLUSIVE ? null : rwlock.writeLock();
+        if (L != null) {
+            L.lock();
+            writePhases++;
         }
+        try {
+            logger.info("Environment reset is called.");
+            lastOperation = null;
+            resetWorker();
+            for (EnvironmentInstrumenter I : instrumenters) {
+                I.reset();
+            }
+        } finally {
+            if (L != null)
+                L.unlock();
+        }
+    }
+
+    /**
+     * Set how agents lock this Environment, see {@link LockingMode}. For the
+     * STRIPED mode, use {@link #useStripedLocking(int)} instead. This should be
+     * set before agents start using this Environment. The method returns this
+     * Environment so that it can be used in the Fluent Interface style.
+     */
+    public Environment useLockingMode(LockingMode mode) {
+        if (mode == LockingMode.STRIPED)
+            return useStripedLocking(16);
+        lockingMode = mode;
+        return this;
+    }
+
+    /**
+     * Set the locking mode of this Environment to STRIPED, with the given number
+     * of stripe-locks. See {@link LockingMode}. The method returns this
+     * Environment so that it can be used in the Fluent Interface style.
+     */
+    public Environment useStripedLocking(int numberOfStripes) {
+        if (numberOfStripes <= 0)
+            throw new IllegalArgumentException("The number of stripes should be positive.");
+        stripes = new ReentrantLock[numberOfStripes];
+        for (int k = 0; k < numberOfStripes; k++)
+            stripes[k] = new ReentrantLock();
+        lockingMode = LockingMode.STRIPED;
+        return this;
+    }
+
+    public LockingMode getLockingMode() {
+        return lockingMode;
+    }
+
+    /**
+     * Return the stripe-lock guarding commands to the given target. Commands
+     * without a target all share the same stripe.
+     */
+    Lock stripeLock(String targetId) {
+        return stripes[stripeIndex(targetId)];
+    }
+
+    private int stripeIndex(String targetId) {
+        int h = targetId == null ? 0 : targetId.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), stripes.length);
     }
 
     /**
@@ -132,10 +265,353 @@ public class Environment {
 	public Object sendCommand(String invokerId, String targetId, String command, Object arg,
             Class expectedTypeOfResult) {
         var cmd = new EnvOperation(invokerId, targetId, command, arg, expectedTypeOfResult);
-        var response = sendCommand_(cmd);
-        cmd.result = response;
-        instrument(cmd);
-        return response;
+        return executeCommand(cmd);
+    }
+
+    /**
+     * Send the command through {@link #sendCommand_(EnvOperation)}, taking care
+     * of the stripe-locking, the recording of the command's latency, and the
+     * instrumentation.
+     */
+    private Object executeCommand(EnvOperation cmd) {
+        Lock L = lockingMode == LockingMode.STRIPED ? stripeLock(cmd.targetId) : null;
+        if (L != null)
+            L.lock();
+        try {
+            long t0 = System.nanoTime();
+            Object response;
+            try {
+                response = sendCommand_(cmd);
+            } catch (RuntimeException | Error e) {
+                metrics(cmd.command).failures.increment();
+                throw e;
+            }
+            metrics(cmd.command).latencies.record(System.nanoTime() - t0);
+            cmd.result = response;
+            instrument(cmd);
+            return response;
+        } finally {
+            if (L != null)
+                L.unlock();
+        }
+    }
+
+    /**
+     * Send a batch of commands to the real environment, in one go. The commands
+     * are executed in the given order. Each command gets its own result, which is
+     * also stored in its {@code result} field, and the instrumenters are invoked
+     * once for each command (if the debug-mode is on), after the whole batch is
+     * done. The latency of the batch is recorded evenly divided over its commands.
+     * 
+     * <p>
+     * By default the commands are simply sent one by one, through
+     * {@link #sendCommand_(EnvOperation)}. An Environment that can deliver a batch
+     * to the real environment in a single round trip should override
+     * {@link #sendCommands_(List)}.
+     * 
+     * @return the results of the commands, in the same order as the commands.
+     */
+    public List<Object> sendCommands(List<EnvOperation> batch) {
+        if (batch.isEmpty())
+            return new ArrayList<>();
+        List<Lock> locks = lockingMode == LockingMode.STRIPED ? stripeLocks(batch) : null;
+        if (locks != null)
+            for (Lock L : locks)
+                L.lock();
+        try {
+            long t0 = System.nanoTime();
+            List<Object> results;
+            try {
+                results = sendCommands_(batch);
+                if (results == null || results.size() != batch.size())
+                    throw new IllegalStateException("The batch of " + batch.size() + " commands gives "
+                            + (results == null ? "no" : "" + results.size()) + " results.");
+            } catch (RuntimeException | Error e) {
+                for (var cmd : batch)
+                    metrics(cmd.command).failures.increment();
+                throw e;
+            }
+            long latency = (System.nanoTime() - t0) / batch.size();
+            for (int k = 0; k < batch.size(); k++) {
+                var cmd = batch.get(k);
+                metrics(cmd.command).latencies.record(latency);
+                cmd.result = results.get(k);
+                instrument(cmd);
+            }
+            return results;
+        } finally {
+            if (locks != null)
+                for (Lock L : locks)
+                    L.unlock();
+        }
+    }
+
+    /**
+     * Return the stripe-locks of the targets in the batch, without duplicates,
+     * in the order of the stripes, so that they are always locked in the same
+     * order.
+     */
+    private List<Lock> stripeLocks(List<EnvOperation> batch) {
+        var indices = new TreeSet<Integer>();
+        for (var cmd : batch)
+            indices.add(stripeIndex(cmd.targetId));
+        List<Lock> locks = new ArrayList<>(indices.size());
+        for (int k : indices)
+            locks.add(stripes[k]);
+        return locks;
+    }
+
+    /**
+     * Override this method to send a batch of commands to the real environment in
+     * a single round trip. It should return the results of the commands, one per
+     * command, in the same order as the commands. The default implementation
+     * sends the commands one by one with {@link #sendCommand_(EnvOperation)}.
+     */
+    protected List<Object> sendCommands_(List<EnvOperation> batch) {
+        List<Object> results = new ArrayList<>(batch.size());
+        for (var cmd : batch)
+            results.add(sendCommand_(cmd));
+        return results;
+    }
+
+    /**
+     * The executor on which {@link #sendCommandAsync(String, String, String, Object, Class)}
+     * runs commands. If null, a single-threaded executor is created when it is
+     * first needed.
+     */
+    protected Executor asyncExecutor = null;
+
+    private ExecutorService ownAsyncExecutor = null;
+
+    /**
+     * Set the executor on which asynchronous commands are run. By default, this
+     * Environment runs them one at a time, in the order they are sent, on its own
+     * background thread; this is safe for an Environment that talks to the real
+     * environment over a single connection. If the Environment can handle
+     * multiple commands at the same time, a multi-threaded executor can be given
+     * here. The method returns this Environment so that it can be used in the
+     * Fluent Interface style.
+     */
+    public Environment useAsyncExecutor(Executor executor) {
+        if (executor == null)
+            throw new IllegalArgumentException();
+        asyncExecutor = executor;
+        return this;
+    }
+
+    private synchronized Executor asyncExecutor() {
+        if (asyncExecutor == null) {
+            ownAsyncExecutor = Executors.newSingleThreadExecutor(r -> {
+                var t = new Thread(r, "Environment-async");
+                t.setDaemon(true);
+                return t;
+            });
+            asyncExecutor = ownAsyncExecutor;
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * Like {@link #sendCommand(String, String, String, Object, Class)}, but does
+     * not wait for the real environment to respond. The command is sent, through
+     * sendCommand (so, also through its overriding implementations), on a
+     * background thread (see {@link #useAsyncExecutor(Executor)}), and the
+     * returned future completes with the command's result, or exceptionally if
+     * the command throws an exception. If expectedTypeOfResult is not null, and
+     * the result is not an instance of it, the future completes exceptionally with
+     * a {@link ClassCastException}. So, an agent can put several independent
+     * commands in flight, e.g. an interaction and an observation, and do other
+     * work (e.g. deliberation) while waiting for their results.
+     * 
+     * <p>
+     * As with sendCommand, the command's latency is recorded and the
+     * instrumenters are invoked (if the debug-mode is on), when the command
+     * completes.
+     * 
+     * <p>
+     * The background thread locks this Environment while it sends the command, as
+     * an agent would when it executes an action (see {@link LockingMode}): in the
+     * EXCLUSIVE mode it takes {@link #lock}, in the READ_WRITE mode the write-lock,
+     * and in the STRIPED mode the read-lock (and then the command's stripe-lock). So
+     * in the first two modes, a command sent by an agent during its update cycle
+     * only runs after the agent releases the Environment at the end of the cycle.
+     * The agent should then not wait for the command's result within the same
+     * cycle, as this would never complete; it can collect the result in a later
+     * cycle instead.
+     */
+    @SuppressWarnings("rawtypes")
+    public CompletableFuture<Object> sendCommandAsync(String invokerId, String targetId, String command, Object arg,
+            Class expectedTypeOfResult) {
+        return CompletableFuture.supplyAsync(() -> {
+            Lock L = asyncCommandLock();
+            L.lock();
+            Object result;
+            try {
+                if (L == rwlock.writeLock())
+                    writePhases++;
+                result = sendCommand(invokerId, targetId, command, arg, expectedTypeOfResult);
+            } finally {
+                L.unlock();
+            }
+            if (expectedTypeOfResult != null && result != null && !expectedTypeOfResult.isInstance(result))
+                throw new ClassCastException("The result of " + command + " is a " + result.getClass().getName()
+                        + ", rather than a " + expectedTypeOfResult.getName());
+            return result;
+        }, asyncExecutor());
+    }
+
+    /**
+     * The lock that an asynchronous command holds while it is sent, depending on
+     * the locking mode.
+     */
+    private Lock asyncCommandLock() {
+        if (lockingMode == LockingMode.EXCLUSIVE)
+            return lock;
+        if (lockingMode == LockingMode.READ_WRITE)
+            return rwlock.writeLock();
+        return rwlock.readLock();
+    }
+
+    /**
+     * A simplified version of the other sendCommandAsync where the
+     * expectedTypeOfResult parameter is left unspecified (set to null).
+     */
+    public CompletableFuture<Object> sendCommandAsync(String invokerId, String targetId, String command, Object arg) {
+        return sendCommandAsync(invokerId, targetId, command, arg, null);
+    }
+
+    /**
+     * Shut down the background thread that this Environment created to run
+     * asynchronous commands, if it created one. Commands already sent are still
+     * completed.
+     */
+    public synchronized void shutdownAsyncExecutor() {
+        if (ownAsyncExecutor != null) {
+            ownAsyncExecutor.shutdown();
+            ownAsyncExecutor = null;
+            asyncExecutor = null;
+        }
+    }
+
+    /**
+     * Records the metrics of a single command name. All updates are lock-free.
+     */
+    static class CommandMetricsRecorder {
+        final ConcurrentLatencyHistogram latencies = new ConcurrentLatencyHistogram();
+        final LongAdder failures = new LongAdder();
+        final LongAdder bytesSent = new LongAdder();
+        final LongAdder bytesReceived = new LongAdder();
+    }
+
+    /**
+     * A snapshot of the metrics of the commands with the same name, see
+     * {@link Environment#snapshotCommandMetrics()}.
+     */
+    static public class CommandMetrics {
+
+        public final String command;
+
+        /**
+         * The number of commands that completed, without throwing an exception.
+         */
+        public final long count;
+
+        /**
+         * The number of commands that threw an exception.
+         */
+        public final long failures;
+
+        /**
+         * The number of bytes sent to, and received from, the real environment, if
+         * the Environment reports them (see
+         * {@link Environment#recordCommandBytes(String, long, long)}); else 0.
+         */
+        public final long bytesSent, bytesReceived;
+
+        /**
+         * The latencies (in ns) of the commands that completed.
+         */
+        public final LatencyHistogram latencies;
+
+        CommandMetrics(String command, CommandMetricsRecorder recorder) {
+            this.command = command;
+            latencies = recorder.latencies.snapshot();
+            count = latencies.count();
+            failures = recorder.failures.sum();
+            bytesSent = recorder.bytesSent.sum();
+            bytesReceived = recorder.bytesReceived.sum();
+        }
+
+        @Override
+        public String toString() {
+            return command + ": " + latencies + ", failures=" + failures + ", bytes sent/received=" + bytesSent
+                    + "/" + bytesReceived;
+        }
+    }
+
+    private CommandMetricsRecorder metrics(String command) {
+        if (command == null)
+            command = "";
+        var M = commandMetrics.get(command);
+        if (M == null)
+            M = commandMetrics.computeIfAbsent(command, c -> new CommandMetricsRecorder());
+        return M;
+    }
+
+    /**
+     * Add the given numbers of bytes sent to and received from the real
+     * environment to the metrics of the given command. Environments that know
+     * these numbers, e.g. because they serialize the commands themselves, can
+     * call this from {@link #sendCommand_(EnvOperation)}.
+     */
+    protected void recordCommandBytes(String command, long sent, long received) {
+        var M = metrics(command);
+        if (sent != 0)
+            M.bytesSent.add(sent);
+        if (received != 0)
+            M.bytesReceived.add(received);
+    }
+
+    /**
+     * Return a snapshot of the metrics of the commands sent through this
+     * Environment, per command name, sorted by name. The metrics are always
+     * recorded, also when the debug-mode is off, and recording them does not
+     * lock.
+     */
+    public Map<String, CommandMetrics> snapshotCommandMetrics() {
+        Map<String, CommandMetrics> snapshot = new TreeMap<>();
+        for (var M : commandMetrics.entrySet())
+            snapshot.put(M.getKey(), new CommandMetrics(M.getKey(), M.getValue()));
+        return snapshot;
+    }
+
+    /**
+     * Forget the recorded metrics of commands. Commands that complete while the
+     * metrics are being reset may or may not be counted.
+     */
+    public void resetCommandMetrics() {
+        commandMetrics.clear();
+    }
+
+    /**
+     * Return the latencies (in ns) of the commands sent through this Environment,
+     * per command name. Only commands whose execution completed (without throwing
+     * an exception) are counted. The returned map is a snapshot; see also
+     * {@link #snapshotCommandMetrics()}.
+     */
+    public Map<String, LatencyHistogram> getCommandLatencies() {
+        Map<String, LatencyHistogram> latencies = new TreeMap<>();
+        for (var M : commandMetrics.entrySet())
+            latencies.put(M.getKey(), M.getValue().latencies.snapshot());
+        return latencies;
+    }
+
+    /**
+     * Forget the recorded latencies of commands; this is the same as
+     * {@link #resetCommandMetrics()}.
+     */
+    public void resetCommandLatencies() {
+        resetCommandMetrics();
     }
 
     /**
@@ -271,9 +747,13 @@ public class Environment {
      */
     protected void instrument(EnvOperation operation) {
         if (debugmode) {
-            lastOperation = operation;
-            for (EnvironmentInstrumenter I : instrumenters)
-                I.update(this);
+            // asynchronous commands may complete on other threads; so instrumenters
+            // are invoked one operation at a time:
+            synchronized (instrumenters) {
+                lastOperation = operation;
+                for (EnvironmentInstrumenter I : instrumenters)
+                    I.update(this);
+            }
         }
     }
 
@@ -3,6 +3,7 @@ package nl.uu.cs.aplib.mainConcepts;
 import java.util.*;
 import nl.uu.cs.aplib.Logging;
 import nl.uu.cs.aplib.exception.AplibError;
+import nl.uu.cs.aplib.utils.LatencyHistogram;
 
 /**
  * A GoalStructure is a generalization of a {@link Goal}. It is a tree-shaped
@@ -48,7 +49,24 @@ public class GoalStructure {
     }
 
     GoalStructure parent = null;
-    List<GoalStructure> subgoals = new LinkedList<GoalStructure>();
+
+    /**
+     * The subgoals of this goal-structure. This is an array-list, so that a
+     * subgoal can be found in O(1) from its position.
+     */
+    List<GoalStructure> subgoals = new ArrayList<GoalStructure>();
+
+    /**
+     * The position of this goal-structure in the list of subgoals of its parent.
+     * It is kept up to date by {@link #insertSubgoal(int, GoalStructure)},
+     * {@link #replaceSubgoal(int, GoalStructure)}, and
+     * {@link #removeSubgoal(GoalStructure)}. As the list of subgoals can also be
+     * changed from the outside, it is checked when used, and if it turns out to be
+     * outdated, the positions of all siblings are recorded again. See
+     * {@link #positionInParent()}.
+     */
+    int positionInParent = -1;
+
     GoalsCombinator combinator;
     ProgressStatus status = new ProgressStatus();
     
@@ -94,6 +112,7 @@ public class GoalStructure {
                 var g = subgoals[k];
                 this.subgoals.add(g);
                 g.parent = this;
+                g.positionInParent = k;
             }
         }
     }
@@ -116,6 +135,93 @@ public class GoalStructure {
         return parent;
     }
 
+    /**
+     * Return the position of this goal-structure in the list of subgoals of its
+     * parent, or -1 if it is not there (or if it has no parent). This takes O(1),
+     * unless the list of subgoals of the parent was changed from the outside,
+     * other than through the methods that insert, replace, and remove subgoals; the
+     * positions of all siblings are then recorded again, in O(n) for n siblings.
+     */
+    int positionInParent() {
+        if (parent == null)
+            return -1;
+        var siblings = parent.subgoals;
+        int k = positionInParent;
+        if (k >= 0 && k < siblings.size() && siblings.get(k) == this)
+            return k;
+        positionInParent = -1;
+        parent.recordPositionsOfSubgoals();
+        return positionInParent;
+    }
+
+    private void recordPositionsOfSubgoals() {
+        recordPositionsOfSubgoals(0);
+    }
+
+    /**
+     * Record the positions of the subgoals from the k-th on.
+     */
+    private void recordPositionsOfSubgoals(int k) {
+        for (int i = k; i < subgoals.size(); i++)
+            subgoals.get(i).positionInParent = i;
+    }
+
+    /**
+     * True if this goal-structure is the last subgoal of its parent.
+     */
+    boolean isLastSubgoal() {
+        return positionInParent() == parent.subgoals.size() - 1;
+    }
+
+    /**
+     * Return the next sibling of this goal-structure, or null if it is the last
+     * subgoal of its parent.
+     */
+    GoalStructure nextSibling() {
+        int k = positionInParent();
+        if (k < 0 || k + 1 >= parent.subgoals.size())
+            return null;
+        return parent.subgoals.get(k + 1);
+    }
+
+    /**
+     * Insert G as the k-th subgoal of this goal-structure. This takes O(m), for m
+     * the number of subgoals after position k: they are shifted in the list, and
+     * their recorded positions are updated, so that navigating from them stays
+     * O(1).
+     */
+    void insertSubgoal(int k, GoalStructure G) {
+        subgoals.add(k, G);
+        G.parent = this;
+        recordPositionsOfSubgoals(k);
+    }
+
+    /**
+     * Replace the k-th subgoal of this goal-structure with G.
+     */
+    void replaceSubgoal(int k, GoalStructure G) {
+        subgoals.set(k, G);
+        G.parent = this;
+        G.positionInParent = k;
+    }
+
+    /**
+     * Remove G from the subgoals of this goal-structure. Return true if G was a
+     * subgoal. Like {@link #insertSubgoal(int, GoalStructure)}, this takes O(m),
+     * for m the number of subgoals after G.
+     */
+    boolean removeSubgoal(GoalStructure G) {
+        if (G.parent != this)
+            return subgoals.remove(G);
+        int k = G.positionInParent();
+        if (k < 0)
+            return false;
+        subgoals.remove(k);
+        G.positionInParent = -1;
+        recordPositionsOfSubgoals(k);
+        return true;
+    }
+
     /**
      * True is this goal has no parent.
      */
@@ -191,8 +297,7 @@ public class GoalStructure {
                 parent.setStatusToSuccess(info);
                 break;
             case SEQ:
-                int i = parent.subgoals.indexOf(this);
-                if (i == parent.subgoals.size() - 1)
+                if (isLastSubgoal())
                     parent.setStatusToSuccess(info);
                 break;
             case REPEAT:
@@ -219,8 +324,7 @@ public class GoalStructure {
                 parent.setStatusToFail(reason);
                 break;
             case FIRSTOF:
-                int i = parent.subgoals.indexOf(this);
-                if (i == parent.subgoals.size() - 1)
+                if (isLastSubgoal())
                     parent.setStatusToFail(reason);
                 break;
             case REPEAT:
@@ -299,13 +403,12 @@ public class GoalStructure {
             // parent also failed
             // return parent.getNextPrimitiveGoal_andAllocateBudget() ;
             // else: so, this goal is solved:
-            int k = parent.subgoals.indexOf(this);
-            // if (k == parent.subgoals.size() - 1 )
+            // if (isLastSubgoal())
             // this case should have been caught by the if-parent case above; as it implies
             // that the parent succeeded
             // return parent.getNextPrimitiveGoal_andAllocateBudget() ;
             // else
-            return parent.subgoals.get(k + 1).getDeepestFirstPrimGoal_andAllocateBudget();
+            return nextSibling().getDeepestFirstPrimGoal_andAllocateBudget();
 
         case FIRSTOF:
             // Since the parent is still open, it follows that this goal cannot be
@@ -321,13 +424,12 @@ public class GoalStructure {
             // that the parent succeeded
             // return parent.getNextPrimitiveGoal_andAllocateBudget() ;
             // else: so, this goal failed:
-            k = parent.subgoals.indexOf(this);
-            // if (k == parent.subgoals.size() - 1 )
+            // if (isLastSubgoal())
             // this case should have caught by the if-parent above; as it implies that the
             // patent failed
             // return parent.getNextPrimitiveGoal_andAllocateBudget() ;
             // else
-            return parent.subgoals.get(k + 1).getDeepestFirstPrimGoal_andAllocateBudget();
+            return nextSibling().getDeepestFirstPrimGoal_andAllocateBudget();
         case REPEAT:
             // Since the parent is still open, it follows that this goal cannot be
             // successful.
@@ -389,6 +491,26 @@ public class GoalStructure {
     	return null ;
     }
 
+    /**
+     * Like {@link #get_Concluded_AutoRemove_Subgoal()} applied on the given root,
+     * but assuming that this goal-structure is the goal that was just concluded
+     * (and that concluded auto-remove goals were removed as they were found before).
+     * Then the goal to remove, if there is one, can only be this goal or one of its
+     * ancestors below the root. So, rather than searching the whole tree, we walk
+     * up to the root, and return the concluded auto-remove goal closest to the
+     * root. This takes time proportional to the depth of this goal.
+     */
+    GoalStructure get_Concluded_AutoRemove_Ancestor(GoalStructure root) {
+        GoalStructure found = null;
+        GoalStructure G = this;
+        while (G != null && G != root) {
+            if (!G.status.inProgress() && G.autoRemove)
+                found = G;
+            G = G.parent;
+        }
+        return found;
+    }
+
     void makeInProgressAgain() {
         status.resetToInProgress();
         for (GoalStructure G : subgoals)
@@ -505,6 +627,11 @@ public class GoalStructure {
         
     	Goal goal;
 
+        /**
+         * The durations of the update cycles the agent spent on this goal, in ns.
+         */
+        final LatencyHistogram latencies = new LatencyHistogram();
+
         /**
          * Create an instance of PrimitiveGoal, wrapping around the given {@link Goal}.
          */
@@ -540,6 +667,14 @@ public class GoalStructure {
         	return goal ;
         }
 
+        /**
+         * Return the histogram of the durations (in ns) of the update cycles that
+         * the agent spent on this goal.
+         */
+        public LatencyHistogram getLatencies() {
+            return latencies;
+        }
+
     }
 
 }
@@ -62,9 +62,42 @@ public class SimpleState {
      */
     Logger logger;
 
+    /**
+     * If not null, this tracks which parts of this state changed in which update
+     * cycle. This allows actions that declare what their guards depend on to
+     * re-use their previous guard results. See {@link ChangeTracker}. The default
+     * is null (no tracking).
+     */
+    protected ChangeTracker changeTracker = null;
+
     public SimpleState() {
     }
 
+    /**
+     * Attach a {@link ChangeTracker} to this state. Note that this state only
+     * supplies the tracker; registering changes to it is done by subclasses that
+     * know what their updates change, e.g.
+     * {@link eu.iv4xr.framework.mainConcepts.Iv4xrAgentState}. Such a subclass
+     * calls {@link ChangeTracker#nextCycle()} in its {@link #updateState(String)}.
+     * If an update of the agent does not advance the cycle, e.g. because
+     * updateState() is overridden by a state that does not know what it changes,
+     * the whole state is registered as changed, so that no guard re-uses an
+     * outdated result. The method returns this state so that it can be used in the
+     * Fluent Interface style.
+     */
+    public SimpleState enableChangeTracking() {
+        changeTracker = new ChangeTracker();
+        return this;
+    }
+
+    /**
+     * Return the {@link ChangeTracker} attached to this state, or null if there
+     * is none.
+     */
+    public ChangeTracker changeTracker() {
+        return changeTracker;
+    }
+
     /**
      * Every instance of this class requires an instance to the {@link Environment}
      * that is used by the agent that owns this state. This methods allows you to
@@ -89,11 +122,34 @@ public class SimpleState {
      * being just a 'simple' state, this method updateState() does not actually
      * update anything. Override this method to implement a more elaborate scheme of
      * updating state.
+     * 
+     * <p>If this state tracks changes, this starts a new cycle of its
+     * {@link ChangeTracker}, in which the whole state is registered as changed.
      */
     public void updateState(String agentId) {
         env.observe(agentId);
+        if (changeTracker != null) {
+            changeTracker.nextCycle();
+            changeTracker.registerChangeOfEverything();
+        }
     };
 
+    /**
+     * Call {@link #updateState(String)}, as the agent does at the start of every
+     * update. If this state tracks changes but updateState() did not advance the
+     * cycle of the tracker, the whole state is registered as changed in a new
+     * cycle.
+     */
+    void updateStateAndTrackChanges(String agentId) {
+        var tracker = changeTracker;
+        long cycle = tracker == null ? 0 : tracker.cycle();
+        updateState(agentId);
+        if (tracker != null && tracker == changeTracker && tracker.cycle() == cycle) {
+            tracker.nextCycle();
+            tracker.registerChangeOfEverything();
+        }
+    }
+
     /**
      * Return the {@link Environment} associated with the state.
      */
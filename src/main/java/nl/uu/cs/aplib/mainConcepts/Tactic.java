@@ -1,10 +1,19 @@
 package nl.uu.cs.aplib.mainConcepts;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
+import nl.uu.cs.aplib.utils.LatencyHistogram;
+
 
 /**
  * 
@@ -51,6 +60,18 @@ public class Tactic {
     List<Tactic> subtactics;
     TacticType strTy;
 
+    /**
+     * If this tactic is the root of a tactic tree, and the tree has been compiled,
+     * this holds the compiled form. See {@link CompiledTactic}.
+     */
+    CompiledTactic compiled = null;
+
+    /**
+     * The position of this tactic in the compiled form of its tree, if the latter
+     * has been compiled. Else it is -1.
+     */
+    int compiledIndex = -1;
+
     /**
      * Construct a new Tactic of the given type, with the given subtactics.
      */
@@ -68,23 +89,46 @@ public class Tactic {
      * are both eligible for executions and whose guard are true on the state.
      */
     public List<PrimitiveTactic> getFirstEnabledActions(SimpleState agentstate) {
+        return getFirstEnabledActions(agentstate, null);
+    }
+
+    /**
+     * As {@link #getFirstEnabledActions(SimpleState)}. However, if the given pool
+     * is not null, the children of every ANYOF node in this tactic are evaluated
+     * in parallel, as tasks in that pool. The results are still concatenated in
+     * the order of the children, so the returned list is the same as when the
+     * evaluation is done sequentially. Note that this requires the guards of the
+     * actions to be safe to be evaluated concurrently on the same state.
+     */
+    public List<PrimitiveTactic> getFirstEnabledActions(SimpleState agentstate, ForkJoinPool pool) {
 
         List<PrimitiveTactic> actions = new LinkedList<PrimitiveTactic>();
         switch (strTy) {
         case FIRSTOF:
             for (Tactic PT : subtactics) {
-                actions = PT.getFirstEnabledActions(agentstate);
+                actions = PT.getFirstEnabledActions(agentstate, pool);
                 if (!actions.isEmpty())
                     return actions;
             }
             return actions;
         case ANYOF:
+            if (pool != null && subtactics.size() > 1) {
+                List<ForkJoinTask<List<PrimitiveTactic>>> tasks = new ArrayList<>(subtactics.size());
+                for (Tactic PT : subtactics) {
+                    tasks.add(ForkJoinTask.adapt(() -> PT.getFirstEnabledActions(agentstate, pool)));
+                }
+                invokeAll(pool, tasks);
+                for (var T : tasks) {
+                    actions.addAll(T.join());
+                }
+                return actions;
+            }
             for (Tactic PT : subtactics) {
-                actions.addAll(PT.getFirstEnabledActions(agentstate));
+                actions.addAll(PT.getFirstEnabledActions(agentstate, pool));
             }
             return actions;
         case SEQ:
-            return subtactics.get(0).getFirstEnabledActions(agentstate);
+            return subtactics.get(0).getFirstEnabledActions(agentstate, pool);
         case PRIMITIVE:
             var this_ = (PrimitiveTactic) this;
             if (this_.action.isEnabled(agentstate))
@@ -95,6 +139,49 @@ public class Tactic {
         return null;
     }
 
+    /**
+     * Run the given tasks in the given pool, and wait until they are all done. If
+     * the calling thread is already a worker of the pool (e.g. when evaluating a
+     * nested ANYOF), the tasks are simply forked from there.
+     */
+    static <T> void invokeAll(ForkJoinPool pool, List<ForkJoinTask<T>> tasks) {
+        if (ForkJoinTask.getPool() == pool)
+            ForkJoinTask.invokeAll(tasks);
+        else
+            pool.invoke(ForkJoinTask.adapt(() -> {
+                ForkJoinTask.invokeAll(tasks);
+            }));
+    }
+
+    /**
+     * Compile the tactic tree that this tactic is part of to a flat, array-based
+     * form (see {@link CompiledTactic}). The compiled form is cached, so calling
+     * this again is cheap.
+     */
+    public CompiledTactic compile() {
+        return CompiledTactic.compile(this);
+    }
+
+    /**
+     * The same as {@link #getFirstEnabledActions(SimpleState)}, but the enabled
+     * actions are added to the given buffer rather than to freshly allocated
+     * lists. The buffer is not cleared first. The evaluation is done on the
+     * compiled form of the tactic tree; the tree will be compiled first if this
+     * was not done yet.
+     */
+    public void collectFirstEnabledActions(SimpleState agentstate, List<PrimitiveTactic> buffer) {
+        compile().collectFirstEnabledActions(this, agentstate, buffer, null);
+    }
+
+    /**
+     * As {@link #collectFirstEnabledActions(SimpleState, List)}, but if the given
+     * pool is not null, the children of ANYOF nodes are evaluated in parallel on
+     * the pool. See also {@link #getFirstEnabledActions(SimpleState, ForkJoinPool)}.
+     */
+    public void collectFirstEnabledActions(SimpleState agentstate, List<PrimitiveTactic> buffer, ForkJoinPool pool) {
+        compile().collectFirstEnabledActions(this, agentstate, buffer, pool);
+    }
+
     /**
      * Suppose this tactic is done/completed. This method calculates the next tactic
      * to execute.
@@ -149,7 +236,7 @@ public class Tactic {
         if (this instanceof PrimitiveTactic) {
             var action = ((PrimitiveTactic) this).action;
             s += "\n   action: " + action.name + "\n     #invoked: " + action.invocationCount + "\n     used time: "
-                    + action.totalRuntime + " (ms)";
+                    + action.totalRuntime + " (ms)" + "\n     latency: " + action.latencies;
             return s;
         }
         for (Tactic S : subtactics) {
@@ -177,7 +264,33 @@ public class Tactic {
             var action = ((PrimitiveTactic) this).action;
             action.totalRuntime = 0;
             action.invocationCount = 0;
+            action.latencies.reset();
+        }
+    }
+
+    /**
+     * Return the latency histograms (in ns) of the actions in this tactic, per
+     * action name. If multiple actions in the tactic have the same name, their
+     * histograms are merged. The returned histograms are copies; e.g. to export
+     * them see
+     * {@link LatencyHistogram#exportToCSVfile(Map, String)}.
+     */
+    public Map<String, LatencyHistogram> getActionLatencies() {
+        Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+        Set<Action> seen = new HashSet<>();
+        collectActionLatencies(latencies, seen);
+        return latencies;
+    }
+
+    private void collectActionLatencies(Map<String, LatencyHistogram> latencies, Set<Action> seen) {
+        if (this instanceof PrimitiveTactic) {
+            var action = ((PrimitiveTactic) this).action;
+            if (seen.add(action))
+                latencies.computeIfAbsent(action.name, a -> new LatencyHistogram()).merge(action.latencies);
+            return;
         }
+        for (Tactic S : subtactics)
+            S.collectActionLatencies(latencies, seen);
     }
 
     /**
@@ -0,0 +1,170 @@
+package nl.uu.cs.aplib.mainConcepts;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+import nl.uu.cs.aplib.mainConcepts.Tactic.PrimitiveTactic;
+
+/**
+ * A {@link Deliberation} that chooses, among the enabled actions, the one with
+ * the highest utility on the current agent state. A utility function can be
+ * given per {@link Action} with {@link #withUtility(Action, ToDoubleFunction)};
+ * actions without one get the default utility (see
+ * {@link #withDefaultUtility(ToDoubleFunction)}, which is 0 unless set). Ties
+ * are broken deterministically: the candidate that comes first in the list of
+ * candidates (so, in the order of the tactic) is chosen.
+ *
+ * <p>
+ * Utilities can be expensive to calculate (e.g. a path length), while the state
+ * often does not change between consecutive update cycles. So, the utility of
+ * an action is remembered, and re-used as long as the state has not changed.
+ * Whether the state has changed is decided as follows:
+ *
+ * <ol>
+ * <li>If a fingerprint function is given (see
+ * {@link #withStateFingerprint(Function)}), the utility is re-used as long as
+ * the fingerprint of the state is equal to the one when the utility was
+ * calculated.
+ * <li>Else, if the state tracks its changes (see
+ * {@link SimpleState#enableChangeTracking()}), the utility is re-used as long
+ * as nothing changed. If the action declares what its guard depends on (e.g.
+ * with {@link Action#dependsOnIds(String...)}), these are assumed to be what
+ * its utility depends on too, so only changes to those count.
+ * <li>Else the utility is calculated again at every deliberation.
+ * </ol>
+ */
+public class UtilityDeliberation extends Deliberation {
+
+    static class MemoizedUtility {
+        double utility;
+        Object fingerprint;
+        ChangeTracker tracker;
+        long cycle;
+    }
+
+    protected Map<Action, ToDoubleFunction<SimpleState>> utilities = new HashMap<>();
+
+    protected ToDoubleFunction<SimpleState> defaultUtility = S -> 0;
+
+    protected Function<SimpleState, Object> stateFingerprint = null;
+
+    private Map<Action, MemoizedUtility> memo = new HashMap<>();
+
+    private int numberOfUtilityEvaluations = 0;
+
+    public UtilityDeliberation() {
+        super();
+    }
+
+    /**
+     * Set the utility function of the given action. The method returns this
+     * deliberation itself so that it can be used in the Fluent Interface style.
+     */
+    @SuppressWarnings("unchecked")
+    public <AgentSt extends SimpleState> UtilityDeliberation withUtility(Action action,
+            ToDoubleFunction<AgentSt> utility) {
+        utilities.put(action, (ToDoubleFunction<SimpleState>) utility);
+        memo.remove(action);
+        return this;
+    }
+
+    /**
+     * Set the utility function of actions that have no utility function of their
+     * own. The method returns this deliberation itself so that it can be used in
+     * the Fluent Interface style.
+     */
+    @SuppressWarnings("unchecked")
+    public <AgentSt extends SimpleState> UtilityDeliberation withDefaultUtility(ToDoubleFunction<AgentSt> utility) {
+        defaultUtility = (ToDoubleFunction<SimpleState>) utility;
+        memo.clear();
+        return this;
+    }
+
+    /**
+     * Set the function to calculate the fingerprint of the agent state. Utilities
+     * are then re-used as long as the fingerprint of the state does not change.
+     * The method returns this deliberation itself so that it can be used in the
+     * Fluent Interface style.
+     */
+    @SuppressWarnings("unchecked")
+    public <AgentSt extends SimpleState> UtilityDeliberation withStateFingerprint(Function<AgentSt, Object> fingerprint) {
+        stateFingerprint = (Function<SimpleState, Object>) fingerprint;
+        memo.clear();
+        return this;
+    }
+
+    @Override
+    public PrimitiveTactic deliberate(SimpleState currentstate, List<PrimitiveTactic> candidates) {
+        if (candidates.size() == 1)
+            return candidates.get(0);
+        Object fingerprint = stateFingerprint == null ? null : stateFingerprint.apply(currentstate);
+        PrimitiveTactic best = null;
+        double bestUtility = Double.NEGATIVE_INFINITY;
+        for (PrimitiveTactic T : candidates) {
+            double u = utility(T.action, currentstate, fingerprint);
+            if (best == null || u > bestUtility) {
+                best = T;
+                bestUtility = u;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return the utility of the action on the given state, re-using the
+     * remembered utility if the state has not changed since it was calculated.
+     */
+    double utility(Action action, SimpleState state, Object fingerprint) {
+        var M = memo.get(action);
+        var tracker = state == null ? null : state.changeTracker();
+        if (M != null) {
+            if (stateFingerprint != null) {
+                if (Objects.equals(M.fingerprint, fingerprint))
+                    return M.utility;
+            } else if (tracker != null && M.tracker == tracker && lastChange(action, tracker) <= M.cycle) {
+                return M.utility;
+            }
+        }
+        var utility = utilities.getOrDefault(action, defaultUtility);
+        double u = utility.applyAsDouble(state);
+        numberOfUtilityEvaluations++;
+        if (stateFingerprint != null || tracker != null) {
+            if (M == null) {
+                M = new MemoizedUtility();
+                memo.put(action, M);
+            }
+            M.utility = u;
+            M.fingerprint = fingerprint;
+            M.tracker = tracker;
+            M.cycle = tracker == null ? 0 : tracker.cycle();
+        }
+        return u;
+    }
+
+    private static long lastChange(Action action, ChangeTracker tracker) {
+        if (action.hasGuardDependencies())
+            return tracker.lastChange(action.guardDependsOnIds, action.guardDependsOnTypes,
+                    action.guardDependsOnProperties);
+        return tracker.lastChange();
+    }
+
+    /**
+     * Forget all remembered utilities.
+     */
+    public void clearMemo() {
+        memo.clear();
+    }
+
+    /**
+     * The number of times a utility function was actually invoked (so, not
+     * counting the times a remembered utility was re-used).
+     */
+    public int getNumberOfUtilityEvaluations() {
+        return numberOfUtilityEvaluations;
+    }
+
+}
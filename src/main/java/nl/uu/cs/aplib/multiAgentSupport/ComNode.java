@@ -1,6 +1,10 @@
 package nl.uu.cs.aplib.multiAgentSupport;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.Predicate;
 
 import nl.uu.cs.aplib.agents.AutonomousBasicAgent;
 import nl.uu.cs.aplib.multiAgentSupport.Acknowledgement.AckType;
@@ -25,51 +29,153 @@ import nl.uu.cs.aplib.multiAgentSupport.Acknowledgement.AckType;
  * broadcast a message to all other agents (which are registered to the same
  * ComNode), or to all other agents with the same role.
  * 
+ * <p>
+ * Agents can moreover subscribe to topics, optionally with a filter. A
+ * TOPICCAST message is only delivered to the subscribers of its topic whose
+ * filter accepts it, so agents that are only interested in some kind of events
+ * do not get every broadcast in their mailbox, and are not awaken by them.
+ * 
+ * <p>
+ * Sending a message does not lock: the address book is kept in concurrent
+ * maps, and the set of agents of each role is a copy-on-write set, so many
+ * agents can send messages through the same ComNode at the same time, also
+ * while agents are registering or deregistering. A message is delivered to the
+ * receivers' mailboxes without waiting for the receiving agents, which may be
+ * busy in their update cycle (see
+ * {@link nl.uu.cs.aplib.agents.AutonomousBasicAgent#sendMsgToThisAgent(Message)}).
+ * Concurrent maps cannot have null keys, so a null id, role, or topic is
+ * mapped to the key {@link #NULL_KEY}; see {@link #key(String)}.
+ * 
  * @author Wish
  *
  */
 
 public class ComNode {
 
+    /**
+     * The key that stands for a null id, role, or topic in the maps below.
+     */
+    static final Object NULL_KEY = new Object();
+
     /**
      * Maping agents' names to their references/pointers.
      */
-    Map<String, AutonomousBasicAgent> idMap = new HashMap<String, AutonomousBasicAgent>();
+    Map<Object, AutonomousBasicAgent> idMap = new ConcurrentHashMap<Object, AutonomousBasicAgent>();
 
     /**
-     * Mapping role-names to the set of agents with the same role.
+     * Mapping role-names to the set of agents with the same role. Roles rarely
+     * change, compared to how often messages are sent to them, so these sets are
+     * copy-on-write.
      */
-    Map<String, Set<AutonomousBasicAgent>> roleMap = new HashMap<String, Set<AutonomousBasicAgent>>();
+    Map<Object, Set<AutonomousBasicAgent>> roleMap = new ConcurrentHashMap<Object, Set<AutonomousBasicAgent>>();
+
+    /**
+     * A subscription of an agent to a topic.
+     */
+    static class Subscription {
+        final AutonomousBasicAgent agent;
+        final Predicate<Message> filter;
+
+        Subscription(AutonomousBasicAgent agent, Predicate<Message> filter) {
+            this.agent = agent;
+            this.filter = filter;
+        }
+    }
+
+    /**
+     * Mapping topics to their subscriptions. Like the role sets, these lists are
+     * copy-on-write.
+     */
+    Map<Object, List<Subscription>> topicMap = new ConcurrentHashMap<Object, List<Subscription>>();
+
+    static final Acknowledgement SUCCESS = new Acknowledgement(AckType.SUCCESS, null);
 
     public ComNode() {
     }
 
     /**
-     * Register the agent to this ComNode.
+     * The key of the given id, role, or topic in the maps of this ComNode: the
+     * name itself, or {@link #NULL_KEY} if it is null.
+     */
+    static Object key(String name) {
+        return name == null ? NULL_KEY : name;
+    }
+
+    /**
+     * Register the agent to this ComNode. If another agent with the same id was
+     * registered, it is replaced by the given agent.
      */
     synchronized public void register(AutonomousBasicAgent agent) {
-        idMap.put(agent.getId(), agent);
-        var role = agent.getRole();
-        var brothers = roleMap.get(role);
-        if (brothers == null) {
-            brothers = new HashSet<AutonomousBasicAgent>();
-            brothers.add(agent);
-            roleMap.put(role, brothers);
-            return;
+        var old = idMap.put(key(agent.getId()), agent);
+        if (old != null && old != agent) {
+            removeFromRole(old);
+            removeSubscriptions(old);
         }
-        brothers.add(agent);
+        roleMap.computeIfAbsent(key(agent.getRole()), r -> new CopyOnWriteArraySet<AutonomousBasicAgent>()).add(agent);
     }
 
     /**
      * Remove the agent from this ComNode.
      */
     synchronized public void deregister(AutonomousBasicAgent agent) {
-        idMap.remove(agent);
-        var role = agent.getRole();
-        var brothers = roleMap.get(role);
-        if (brothers == null)
-            return;
-        brothers.remove(agent);
+        idMap.remove(key(agent.getId()), agent);
+        removeFromRole(agent);
+        removeSubscriptions(agent);
+    }
+
+    /**
+     * Subscribe the agent to the given topic. The agent will receive every
+     * TOPICCAST message on this topic (except its own messages).
+     */
+    public void subscribe(AutonomousBasicAgent agent, String topic) {
+        subscribe(agent, topic, null);
+    }
+
+    /**
+     * Subscribe the agent to the given topic. The agent will receive the TOPICCAST
+     * messages on this topic that satisfy the filter (except its own messages). If
+     * the filter is null, all messages on the topic are received. If the agent was
+     * already subscribed to the topic, its filter is replaced.
+     * 
+     * <p>
+     * The filter is evaluated by the thread of the sending agent, for every
+     * message sent on the topic, so it should be quick, and should not throw
+     * exceptions.
+     */
+    synchronized public void subscribe(AutonomousBasicAgent agent, String topic, Predicate<Message> filter) {
+        if (idMap.get(key(agent.getId())) != agent)
+            throw new IllegalArgumentException("Agent " + agent.getId() + " is not registered to this ComNode.");
+        var subscriptions = topicMap.computeIfAbsent(key(topic), t -> new CopyOnWriteArrayList<Subscription>());
+        subscriptions.removeIf(S -> S.agent == agent);
+        subscriptions.add(new Subscription(agent, filter));
+    }
+
+    /**
+     * Remove the agent's subscription to the given topic, if it has one.
+     */
+    synchronized public void unsubscribe(AutonomousBasicAgent agent, String topic) {
+        var subscriptions = topicMap.get(key(topic));
+        if (subscriptions != null)
+            subscriptions.removeIf(S -> S.agent == agent);
+    }
+
+    /**
+     * The number of agents subscribed to the given topic.
+     */
+    public int numberOfSubscribers(String topic) {
+        var subscriptions = topicMap.get(key(topic));
+        return subscriptions == null ? 0 : subscriptions.size();
+    }
+
+    private void removeFromRole(AutonomousBasicAgent agent) {
+        var brothers = roleMap.get(key(agent.getRole()));
+        if (brothers != null)
+            brothers.remove(agent);
+    }
+
+    private void removeSubscriptions(AutonomousBasicAgent agent) {
+        for (var subscriptions : topicMap.values())
+            subscriptions.removeIf(S -> S.agent == agent);
     }
 
     /**
@@ -78,7 +184,14 @@ public class ComNode {
      * its specified target agent (just one can be targetted in a SINGLECAST). If it
      * is a BROADCAST the message will be forwarded to all agents registered to this
      * ComNode. If it is a ROLECAST the message will be forwarded to all agents with
-     * the same role as the target role specified in the message.
+     * the same role as the target role specified in the message. If it is a
+     * TOPICCAST the message will be forwarded to the agents subscribed to the topic
+     * specified as the target of the message, if their filter accepts it.
+     * 
+     * <p>
+     * This method can be called concurrently. An agent that registers or
+     * deregisters (or subscribes, or unsubscribes) while a BROADCAST, ROLECAST,
+     * or TOPICCAST is being forwarded may or may not receive the message.
      * 
      * @param msg The message to send.
      * @return An {@link nl.uu.cs.aplib.multiAgentSupport.Acknowledgement}. It is a
@@ -89,37 +202,56 @@ public class ComNode {
      */
     public Acknowledgement send(Message msg) {
         String senderId = msg.idSource;
-        var sender = idMap.get(senderId);
+        var sender = idMap.get(key(senderId));
         if (sender == null) {
             // unknown sender!
             return new Acknowledgement(AckType.REJECTED, "Sender is not registered.");
         }
+        if (!deliver(msg, sender))
+            return new Acknowledgement(AckType.REJECTED, "Receiver is not registered.");
+        return SUCCESS;
+    }
+
+    /**
+     * Deliver the message to the agents registered to this ComNode that should
+     * receive it, except the sender (which may be null). Return false if the
+     * message is a SINGLECAST and its target is not registered here.
+     */
+    boolean deliver(Message msg, AutonomousBasicAgent sender) {
         switch (msg.castTy) {
         case SINGLECAST:
-            var receiver = idMap.get(msg.idTarget);
-            if (receiver == null) {
-                return new Acknowledgement(AckType.REJECTED, "Receiver is not registered.");
-            }
+            var receiver = idMap.get(key(msg.idTarget));
+            if (receiver == null)
+                return false;
             receiver.sendMsgToThisAgent(msg);
-            return new Acknowledgement(AckType.SUCCESS, null);
+            return true;
         case BROADCAST:
             for (AutonomousBasicAgent B : idMap.values()) {
                 if (B != sender)
                     B.sendMsgToThisAgent(msg);
             }
-            return new Acknowledgement(AckType.SUCCESS, null);
+            return true;
         case ROLECAST:
-            var receivers = roleMap.get(msg.idTarget);
+            var receivers = roleMap.get(key(msg.idTarget));
             if (receivers != null) {
                 for (AutonomousBasicAgent B : receivers) {
                     if (B != sender)
                         B.sendMsgToThisAgent(msg);
                 }
             }
-            return new Acknowledgement(AckType.SUCCESS, null);
+            return true;
+        case TOPICCAST:
+            var subscriptions = topicMap.get(key(msg.idTarget));
+            if (subscriptions != null) {
+                for (Subscription S : subscriptions) {
+                    if (S.agent != sender && (S.filter == null || S.filter.test(msg)))
+                        S.agent.sendMsgToThisAgent(msg);
+                }
+            }
+            return true;
         }
         // should not happen
-        return null;
+        return false;
     }
 
 }
@@ -11,13 +11,16 @@ import java.util.Date;
 public class Message {
 
     /**
-     * Different types of {@link Message}: SINGLECASR, ROLECAST, BROADCAST. A
-     * singlecast message is to be sent to single target agent. A broadcast message
-     * is to be sent to all agents (registered to the same {@link ComNode}, and
-     * rolecast message is to be sent to all agents of the specified role.
+     * Different types of {@link Message}: SINGLECASR, ROLECAST, BROADCAST,
+     * TOPICCAST. A singlecast message is to be sent to single target agent. A
+     * broadcast message is to be sent to all agents (registered to the same
+     * {@link ComNode}, and rolecast message is to be sent to all agents of the
+     * specified role. A topiccast message is to be sent to the agents that
+     * subscribed to the specified topic (see
+     * {@link ComNode#subscribe(nl.uu.cs.aplib.agents.AutonomousBasicAgent, String, java.util.function.Predicate)}).
      */
     static public enum MsgCastType {
-        SINGLECAST, ROLECAST, BROADCAST
+        SINGLECAST, ROLECAST, BROADCAST, TOPICCAST
     }
 
     String idSource;
@@ -31,7 +34,8 @@ public class Message {
     Object[] args;
 
     /**
-     * Message priority; currently not used.
+     * Message priority. A {@link Messenger} puts messages with a higher priority
+     * in front of its queue.
      */
     int priority;
 
@@ -42,11 +46,12 @@ public class Message {
      * 
      * @param idSource The id of the sending agent.
      * @param priority The priority of the message. Higher number means higher
-     *                 priority. Currently not used.
-     * @param castType Either SINGLECAST, ROLECAST, or BROADCAST.
-     * @param idTarget The id of the target agent if the message is SINGLECAST, and
-     *                 the role name if the message is ROLECAST. It is ignored if
-     *                 the message is BROADCAST.
+     *                 priority.
+     * @param castType Either SINGLECAST, ROLECAST, BROADCAST, or TOPICCAST.
+     * @param idTarget The id of the target agent if the message is SINGLECAST, the
+     *                 role name if the message is ROLECAST, and the topic if the
+     *                 message is TOPICCAST. It is ignored if the message is
+     *                 BROADCAST.
      * @param msgName  The 'name' of the message. We leave it unspecified what this
      *                 represents. E.g. it can be used to identify categories of the
      *                 messages.
@@ -78,6 +83,10 @@ public class Message {
         return idTarget;
     }
 
+    public int getPriority() {
+        return priority;
+    }
+
     public MsgCastType getCastTy() {
         return castTy;
     }
@@ -0,0 +1,225 @@
+package nl.uu.cs.aplib.multiAgentSupport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import nl.uu.cs.aplib.multiAgentSupport.Message.MsgCastType;
+import nl.uu.cs.aplib.utils.SerializationFilter;
+
+/**
+ * A compact binary encoding of {@link Message}s, used by {@link SocketComNode}
+ * to send messages to other processes. Integers are written as variable-length
+ * numbers, so small values take a single byte. The arguments of a message are
+ * tagged with their type; strings, numbers, booleans and byte arrays are
+ * written directly, and other arguments with Java serialization, so they must
+ * be serializable. When reading, only the classes allowed by a
+ * {@link SerializationFilter} are deserialized, and the number of arguments and
+ * the lengths of strings and byte arrays are bounded, as the bytes come from
+ * another process.
+ */
+class MessageCodec {
+
+    static final byte NULL = 0;
+    static final byte INT = 1;
+    static final byte LONG = 2;
+    static final byte DOUBLE = 3;
+    static final byte FALSE = 4;
+    static final byte TRUE = 5;
+    static final byte STRING = 6;
+    static final byte BYTES = 7;
+    static final byte SERIALIZED = 8;
+
+    /**
+     * The maximum number of arguments of a message.
+     */
+    static final int MAX_ARGS = 1 << 16;
+
+    /**
+     * The maximum length, in bytes, of a string, a byte array, or a serialized
+     * argument; also of a whole encoded message.
+     */
+    static final int MAX_LENGTH = 1 << 24;
+
+    static final MsgCastType[] CAST_TYPES = MsgCastType.values();
+
+    static void writeMessage(DataOutput out, Message m) throws IOException {
+        writeString(out, m.idSource);
+        writeString(out, m.idTarget);
+        out.writeByte(m.castTy.ordinal());
+        writeVarLong(out, zigzag(m.priority));
+        writeVarLong(out, m.timeStamp == null ? 0 : m.timeStamp.getTime() + 1);
+        writeString(out, m.msgName);
+        if (m.args == null) {
+            writeVarLong(out, 0);
+        } else {
+            writeVarLong(out, m.args.length + 1);
+            for (Object arg : m.args)
+                writeValue(out, arg);
+        }
+    }
+
+    static Message readMessage(DataInput in, SerializationFilter filter) throws IOException {
+        String idSource = readString(in);
+        String idTarget = readString(in);
+        int castTy = in.readByte();
+        if (castTy < 0 || castTy >= CAST_TYPES.length)
+            throw new StreamCorruptedException("Unknown cast type " + castTy);
+        int priority = (int) unzigzag(readVarLong(in));
+        long time = readVarLong(in);
+        String msgName = readString(in);
+        long n = readVarLong(in);
+        if (n < 0 || n - 1 > MAX_ARGS)
+            throw new StreamCorruptedException("Too many arguments: " + (n - 1));
+        Object[] args = null;
+        if (n > 0) {
+            args = new Object[(int) n - 1];
+            for (int k = 0; k < args.length; k++)
+                args[k] = readValue(in, filter);
+        }
+        var m = new Message(idSource, priority, CAST_TYPES[castTy], idTarget, msgName, args);
+        if (time > 0)
+            m.timeStamp = new Date(time - 1);
+        return m;
+    }
+
+    static void writeValue(DataOutput out, Object v) throws IOException {
+        if (v == null) {
+            out.writeByte(NULL);
+        } else if (v instanceof Integer) {
+            out.writeByte(INT);
+            writeVarLong(out, zigzag((Integer) v));
+        } else if (v instanceof Long) {
+            out.writeByte(LONG);
+            writeVarLong(out, zigzag((Long) v));
+        } else if (v instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) v);
+        } else if (v instanceof Boolean) {
+            out.writeByte((Boolean) v ? TRUE : FALSE);
+        } else if (v instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) v);
+        } else if (v instanceof byte[]) {
+            out.writeByte(BYTES);
+            writeBytes(out, (byte[]) v);
+        } else if (v instanceof Serializable) {
+            out.writeByte(SERIALIZED);
+            var bytes = new ByteArrayOutputStream();
+            try (var oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(v);
+            }
+            writeBytes(out, bytes.toByteArray());
+        } else {
+            throw new NotSerializableException(v.getClass().getName());
+        }
+    }
+
+    static Object readValue(DataInput in, SerializationFilter filter) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+        case NULL:
+            return null;
+        case INT:
+            return (int) unzigzag(readVarLong(in));
+        case LONG:
+            return unzigzag(readVarLong(in));
+        case DOUBLE:
+            return in.readDouble();
+        case FALSE:
+            return false;
+        case TRUE:
+            return true;
+        case STRING:
+            return readString(in);
+        case BYTES:
+            return readBytes(in);
+        case SERIALIZED:
+            return filter.readObject(readBytes(in));
+        default:
+            throw new StreamCorruptedException("Unknown value tag " + tag);
+        }
+    }
+
+    /**
+     * Write a string, which may be null, as its length + 1 followed by its UTF-8
+     * bytes; null is written as length 0.
+     */
+    static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        checkLength(bytes.length);
+        writeVarLong(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        long n = readVarLong(in);
+        if (n == 0)
+            return null;
+        byte[] bytes = new byte[readLength(n - 1)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        checkLength(bytes.length);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(DataInput in) throws IOException {
+        byte[] bytes = new byte[readLength(readVarLong(in))];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static void checkLength(int n) throws IOException {
+        if (n > MAX_LENGTH)
+            throw new IOException("Too long to send: " + n + " bytes");
+    }
+
+    static int readLength(long n) throws IOException {
+        if (n < 0 || n > MAX_LENGTH)
+            throw new StreamCorruptedException("Invalid length: " + n);
+        return (int) n;
+    }
+
+    static void writeVarLong(DataOutput out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return v;
+        }
+        throw new StreamCorruptedException("Malformed variable-length number.");
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+}
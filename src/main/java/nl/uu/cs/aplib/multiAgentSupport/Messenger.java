@@ -1,7 +1,11 @@
 package nl.uu.cs.aplib.multiAgentSupport;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Predicate;
 
 import nl.uu.cs.aplib.multiAgentSupport.Message.MsgCastType;
@@ -9,13 +13,96 @@ import nl.uu.cs.aplib.multiAgentSupport.Message.MsgCastType;
 /**
  * Providing incoming message queue for agents, methods to inspect and retrieve
  * messages from this queue, and also methods to send out messages to a ComNode.
- * 
+ *
+ * <p>
+ * The queue is ordered by the messages' priority: messages with a higher
+ * priority come first. Messages with the same priority are ordered by their
+ * time-stamp (or by the time they arrive, if they have none), and then by their
+ * arrival. The queue is moreover indexed by message name and by sender, so
+ * that looking up a message by its name and/or sender, with
+ * {@link #find(String, String)} and {@link #retrieve(String, String)}, takes
+ * O(log n) time, whereas looking up a message with a predicate scans the queue.
+ *
+ * <p>
+ * Putting a message in the queue does not lock: new messages are first added
+ * to a lock-free inbox, so that senders never wait for the agent that owns
+ * this Messenger. The inbox is moved to the queue when the agent inspects its
+ * messages. A Messenger can also be given a maximum capacity, see
+ * {@link #setCapacity(int, OverflowPolicy)}; then putting a message does lock.
+ *
  * @author Wish
  *
  */
 public class Messenger {
 
-    List<Message> incomingMsgs = new LinkedList<Message>();
+    /**
+     * What to do when a message is put in a Messenger whose queue is full.
+     */
+    public static enum OverflowPolicy {
+        /**
+         * Drop the new message.
+         */
+        DROP_NEWEST,
+        /**
+         * Drop the message that arrived first.
+         */
+        DROP_OLDEST,
+        /**
+         * Drop the last message in the queue, which has the lowest priority; this
+         * can be the new message itself.
+         */
+        DROP_LOWEST_PRIORITY
+    }
+
+    /**
+     * A message in the queue, with the keys it is ordered by.
+     */
+    private static class Entry implements Comparable<Entry> {
+        final Message msg;
+        final long time;
+        final long seqNr;
+
+        Entry(Message msg, long seqNr) {
+            this.msg = msg;
+            this.time = msg.timeStamp != null ? msg.timeStamp.getTime() : System.currentTimeMillis();
+            this.seqNr = seqNr;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            if (msg.priority != o.msg.priority)
+                return Integer.compare(o.msg.priority, msg.priority);
+            if (time != o.time)
+                return Long.compare(time, o.time);
+            return Long.compare(seqNr, o.seqNr);
+        }
+    }
+
+    /**
+     * The incoming messages, in their order.
+     */
+    private final NavigableSet<Entry> incomingMsgs = new TreeSet<Entry>();
+
+    private final Map<String, NavigableSet<Entry>> byName = new HashMap<String, NavigableSet<Entry>>();
+    private final Map<String, NavigableSet<Entry>> bySender = new HashMap<String, NavigableSet<Entry>>();
+
+    /**
+     * The messages in arrival order; only maintained for the DROP_OLDEST policy.
+     */
+    private NavigableSet<Entry> byArrival = null;
+
+    private long seqNr = 0;
+
+    private int capacity = Integer.MAX_VALUE;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+    private long numberOfDroppedMessages = 0;
+
+    /**
+     * Messages that have been put, but not yet moved to {@link #incomingMsgs}.
+     */
+    private final Queue<Message> inbox = new ConcurrentLinkedQueue<Message>();
+    private volatile boolean bounded = false;
+
     ComNode comNode;
 
     public Messenger() {
@@ -25,17 +112,63 @@ public class Messenger {
         this.comNode = comNode;
     }
 
+    /**
+     * Bound the number of messages this Messenger can hold. When the queue is
+     * full, putting a message drops a message, according to the given policy.
+     * Messages already in the queue beyond the new capacity are dropped too. The
+     * method returns this Messenger, so that it can be used in the Fluent
+     * Interface style.
+     */
+    synchronized public Messenger setCapacity(int capacity, OverflowPolicy policy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("The capacity should be positive.");
+        if (policy == null)
+            throw new IllegalArgumentException("An overflow policy is needed.");
+        drainInbox();
+        this.capacity = capacity;
+        this.overflowPolicy = policy;
+        if (policy == OverflowPolicy.DROP_OLDEST && byArrival == null) {
+            byArrival = new TreeSet<Entry>((e1, e2) -> Long.compare(e1.seqNr, e2.seqNr));
+            byArrival.addAll(incomingMsgs);
+        } else if (policy != OverflowPolicy.DROP_OLDEST) {
+            byArrival = null;
+        }
+        while (incomingMsgs.size() > capacity)
+            drop();
+        bounded = capacity < Integer.MAX_VALUE;
+        return this;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * The number of messages that were dropped because the queue was full.
+     */
+    synchronized public long numberOfDroppedMessages() {
+        return numberOfDroppedMessages;
+    }
+
     /**
      * Find a message in this Messenger's input queue that satisfies the predicate
      * p. It returns the first one that satisfies it. The message is not removed
      * from the queue. If none is found, null is returned.
      */
     synchronized public Message find(Predicate<Message> p) {
-        for (Message m : incomingMsgs) {
-            if (p.test(m))
-                return m;
-        }
-        return null;
+        var e = findEntry(p);
+        return e == null ? null : e.msg;
+    }
+
+    /**
+     * Find the first message in this Messenger's input queue with the given name
+     * and from the given sender. If the name is null, a message with any name is
+     * found; likewise if the sender is null. The message is not removed from the
+     * queue. If none is found, null is returned.
+     */
+    synchronized public Message find(String msgName, String idSource) {
+        var e = findEntry(msgName, idSource);
+        return e == null ? null : e.msg;
     }
 
     /**
@@ -46,11 +179,21 @@ public class Messenger {
         return find(p) != null;
     }
 
+    /**
+     * Check this Messenger's input queue if it contains a message with the given
+     * name and from the given sender. A null name or sender matches any.
+     */
+    synchronized public boolean has(String msgName, String idSource) {
+        return findEntry(msgName, idSource) != null;
+    }
+
     synchronized public boolean empty() {
+        drainInbox();
         return incomingMsgs.isEmpty();
     }
 
     synchronized public int size() {
+        drainInbox();
         return incomingMsgs.size();
     }
 
@@ -60,17 +203,130 @@ public class Messenger {
      * queue. If none is found, null is returned.
      */
     synchronized public Message retrieve(Predicate<Message> p) {
-        Message m = find(p);
-        if (m != null)
-            incomingMsgs.remove(m);
-        return m;
+        return remove(findEntry(p));
+    }
+
+    /**
+     * Find the first message in this Messenger's input queue with the given name
+     * and from the given sender, <b>and remove</b> it from the queue. A null name
+     * or sender matches any. If none is found, null is returned.
+     */
+    synchronized public Message retrieve(String msgName, String idSource) {
+        return remove(findEntry(msgName, idSource));
+    }
+
+    /**
+     * Put the message m in the input message queue. This method does not lock,
+     * and can be called concurrently, unless this Messenger has a bounded
+     * capacity.
+     *
+     * @return false if the message was dropped because the queue was full.
+     */
+    public boolean put(Message m) {
+        if (!bounded) {
+            inbox.add(m);
+            return true;
+        }
+        synchronized (this) {
+            drainInbox();
+            return insert(m);
+        }
+    }
+
+    /**
+     * Move the messages in the inbox to the input message queue, in the order
+     * they were put.
+     */
+    private void drainInbox() {
+        Message m;
+        while ((m = inbox.poll()) != null)
+            insert(m);
+    }
+
+    private Entry findEntry(Predicate<Message> p) {
+        drainInbox();
+        for (Entry e : incomingMsgs) {
+            if (p.test(e.msg))
+                return e;
+        }
+        return null;
+    }
+
+    private Entry findEntry(String msgName, String idSource) {
+        drainInbox();
+        if (msgName == null && idSource == null)
+            return incomingMsgs.isEmpty() ? null : incomingMsgs.first();
+        var withName = msgName == null ? null : byName.get(msgName);
+        var fromSender = idSource == null ? null : bySender.get(idSource);
+        if ((msgName != null && withName == null) || (idSource != null && fromSender == null))
+            return null;
+        if (fromSender == null)
+            return withName.first();
+        if (withName == null)
+            return fromSender.first();
+        // scan the smaller of the two:
+        if (withName.size() <= fromSender.size()) {
+            for (Entry e : withName)
+                if (idSource.equals(e.msg.idSource))
+                    return e;
+        } else {
+            for (Entry e : fromSender)
+                if (msgName.equals(e.msg.msgName))
+                    return e;
+        }
+        return null;
+    }
+
+    private boolean insert(Message m) {
+        var e = new Entry(m, seqNr++);
+        if (incomingMsgs.size() >= capacity) {
+            if (overflowPolicy == OverflowPolicy.DROP_NEWEST
+                    || (overflowPolicy == OverflowPolicy.DROP_LOWEST_PRIORITY && e.compareTo(incomingMsgs.last()) > 0)) {
+                numberOfDroppedMessages++;
+                return false;
+            }
+            drop();
+        }
+        incomingMsgs.add(e);
+        index(byName, m.msgName, e);
+        index(bySender, m.idSource, e);
+        if (byArrival != null)
+            byArrival.add(e);
+        return true;
     }
 
     /**
-     * Put the message m in the input message queue.
+     * Drop a message from the queue, to make room for a new one.
      */
-    synchronized public void put(Message m) {
-        incomingMsgs.add(m);
+    private void drop() {
+        remove(overflowPolicy == OverflowPolicy.DROP_OLDEST ? byArrival.first() : incomingMsgs.last());
+        numberOfDroppedMessages++;
+    }
+
+    private Message remove(Entry e) {
+        if (e == null)
+            return null;
+        incomingMsgs.remove(e);
+        unindex(byName, e.msg.msgName, e);
+        unindex(bySender, e.msg.idSource, e);
+        if (byArrival != null)
+            byArrival.remove(e);
+        return e.msg;
+    }
+
+    private static void index(Map<String, NavigableSet<Entry>> index, String key, Entry e) {
+        if (key == null)
+            return;
+        index.computeIfAbsent(key, k -> new TreeSet<Entry>()).add(e);
+    }
+
+    private static void unindex(Map<String, NavigableSet<Entry>> index, String key, Entry e) {
+        if (key == null)
+            return;
+        var entries = index.get(key);
+        entries.remove(e);
+        if (entries.isEmpty())
+            index.remove(key);
     }
 
     /**
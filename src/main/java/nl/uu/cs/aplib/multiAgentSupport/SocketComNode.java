@@ -0,0 +1,467 @@
+package nl.uu.cs.aplib.multiAgentSupport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import nl.uu.cs.aplib.Logging;
+import nl.uu.cs.aplib.agents.AutonomousBasicAgent;
+import nl.uu.cs.aplib.multiAgentSupport.Acknowledgement.AckType;
+import nl.uu.cs.aplib.utils.SerializationFilter;
+
+/**
+ * A {@link ComNode} that is connected to ComNodes in other processes on the
+ * same machine, over loopback TCP sockets. This allows a large population of
+ * agents to be spread over several JVMs, while the agents keep sending
+ * messages as usual, through their {@link Messenger}.
+ *
+ * <p>
+ * Every SocketComNode is a peer of the others: one node {@link #listen(int)}s
+ * on a port, and the others {@link #connect(int)} to it. Connected nodes tell
+ * each other which agents are registered to them, and keep each other updated
+ * when agents register or deregister. Nodes can only connect if they are
+ * created with the same token, which they check without sending it. A SINGLECAST message to an agent
+ * registered to a connected node is forwarded to that node. BROADCAST,
+ * ROLECAST, and TOPICCAST messages are delivered locally, and forwarded to all
+ * connected nodes, which deliver them to their own agents (so, the filters of
+ * topic subscriptions are evaluated by the node of the subscriber). Forwarded messages are not
+ * forwarded again, so every node should be connected to every other node.
+ *
+ * <p>
+ * Messages are sent with the compact binary encoding of
+ * {@link MessageCodec}. The arguments of messages that are sent to other
+ * nodes must be serializable, or else strings, numbers, booleans, or byte
+ * arrays. A receiving node only deserializes the classes allowed by its
+ * {@link #serializationFilter()}.
+ */
+public class SocketComNode extends ComNode implements Closeable {
+
+    static final int MAGIC = 0x41434E31; // "ACN1"
+
+    static final byte HELLO = 1;
+    static final byte REGISTER = 2;
+    static final byte DEREGISTER = 3;
+    static final byte MESSAGE = 4;
+
+    static final int NONCE_LENGTH = 16;
+
+    /**
+     * Tells the proofs of knowing the token of the connecting node and of the
+     * accepting node apart, so that one cannot be replayed as the other.
+     */
+    static final byte CONNECTING = 1;
+    static final byte ACCEPTING = 2;
+
+    static final Logger logger = Logging.getAPLIBlogger();
+
+    static final SecureRandom random = new SecureRandom();
+
+    /**
+     * A connection to another SocketComNode.
+     */
+    class Peer {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        /**
+         * True when the other node has told which agents are registered to it.
+         */
+        volatile boolean connected = false;
+
+        Peer(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        synchronized void write(byte kind, String s1, String s2) throws IOException {
+            out.writeByte(kind);
+            MessageCodec.writeString(out, s1);
+            MessageCodec.writeString(out, s2);
+            out.flush();
+        }
+
+        synchronized void write(byte[] encodedMsg) throws IOException {
+            out.writeByte(MESSAGE);
+            MessageCodec.writeBytes(out, encodedMsg);
+            out.flush();
+        }
+
+        /**
+         * Check that the other node has the same token, then send the agents
+         * registered to this node to the other node, and read back the agents
+         * registered there. Each side proves that it knows the token by sending a
+         * MAC of a fresh nonce of the other side. The connecting side sends its
+         * proof first, so that a connecting stranger learns nothing.
+         */
+        void handshake(boolean accepting) throws IOException {
+            byte[] nonce = new byte[NONCE_LENGTH];
+            random.nextBytes(nonce);
+            out.writeInt(MAGIC);
+            out.write(nonce);
+            out.flush();
+            if (in.readInt() != MAGIC)
+                throw new StreamCorruptedException("The other side is not a SocketComNode.");
+            byte[] otherNonce = new byte[NONCE_LENGTH];
+            in.readFully(otherNonce);
+            if (accepting) {
+                checkProof(nonce, CONNECTING);
+                out.write(proof(otherNonce, ACCEPTING));
+            } else {
+                out.write(proof(otherNonce, CONNECTING));
+                out.flush();
+                checkProof(nonce, ACCEPTING);
+            }
+            synchronized (SocketComNode.this) {
+                synchronized (this) {
+                    // the hello must be the first thing sent, before any message:
+                    peers.add(this);
+                    out.writeByte(HELLO);
+                    MessageCodec.writeVarLong(out, idMap.size());
+                    for (var agent : idMap.values()) {
+                        MessageCodec.writeString(out, agent.getId());
+                        MessageCodec.writeString(out, agent.getRole());
+                    }
+                    out.flush();
+                }
+            }
+            if (in.readByte() != HELLO)
+                throw new StreamCorruptedException("The other side is not a SocketComNode.");
+            long n = MessageCodec.readVarLong(in);
+            for (long k = 0; k < n; k++) {
+                remoteAgents.put(key(MessageCodec.readString(in)), this);
+                MessageCodec.readString(in); // the role, which is not needed
+            }
+            synchronized (SocketComNode.this) {
+                connected = true;
+                SocketComNode.this.notifyAll();
+            }
+            var reader = new Thread(this::readLoop, "SocketComNode-peer");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void checkProof(byte[] nonce, byte side) throws IOException {
+            byte[] otherProof = new byte[proof(nonce, side).length];
+            in.readFully(otherProof);
+            if (!MessageDigest.isEqual(otherProof, proof(nonce, side)))
+                throw new StreamCorruptedException("The other SocketComNode has a different token.");
+        }
+
+        private void readLoop() {
+            try {
+                while (true) {
+                    byte kind = in.readByte();
+                    switch (kind) {
+                    case REGISTER:
+                        String id = MessageCodec.readString(in);
+                        MessageCodec.readString(in);
+                        remoteAgents.put(key(id), this);
+                        break;
+                    case DEREGISTER:
+                        remoteAgents.remove(key(MessageCodec.readString(in)), this);
+                        MessageCodec.readString(in);
+                        break;
+                    case MESSAGE:
+                        byte[] bytes = MessageCodec.readBytes(in);
+                        var msg = MessageCodec.readMessage(new DataInputStream(new ByteArrayInputStream(bytes)),
+                                serializationFilter);
+                        deliver(msg, null);
+                        break;
+                    default:
+                        throw new StreamCorruptedException("Unknown frame " + kind);
+                    }
+                }
+            } catch (EOFException e) {
+                logger.log(Level.INFO, "Another node closes its connection to this SocketComNode.");
+            } catch (IOException e) {
+                if (!socket.isClosed())
+                    logger.log(Level.WARNING, "SocketComNode loses a connection: " + e);
+            } finally {
+                disconnect(this);
+            }
+        }
+    }
+
+    /**
+     * Maps the ids of agents registered to other nodes to the connection to
+     * their node.
+     */
+    final Map<Object, Peer> remoteAgents = new ConcurrentHashMap<Object, Peer>();
+
+    final List<Peer> peers = new CopyOnWriteArrayList<Peer>();
+
+    private ServerSocket server = null;
+
+    private final SecretKeySpec token;
+
+    private final SerializationFilter serializationFilter = new SerializationFilter();
+
+    /**
+     * Create a SocketComNode that can only connect to the SocketComNodes created
+     * with the same token. The token is shared with the other processes, e.g. as
+     * an argument or an environment variable, and should be hard to guess.
+     */
+    public SocketComNode(String token) {
+        super();
+        if (token == null || token.isEmpty())
+            throw new IllegalArgumentException("A SocketComNode needs a token.");
+        this.token = new SecretKeySpec(token.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+    }
+
+    /**
+     * Return the filter that decides which classes may be deserialized from the
+     * arguments of messages received from other nodes. To receive arguments of
+     * your own classes, allow them with e.g.
+     * {@code node.serializationFilter().allow("com.example.*")}.
+     */
+    public SerializationFilter serializationFilter() {
+        return serializationFilter;
+    }
+
+    /**
+     * The MAC, with the token as key, of the given nonce and side.
+     */
+    byte[] proof(byte[] nonce, byte side) {
+        try {
+            var mac = Mac.getInstance("HmacSHA256");
+            mac.init(token);
+            mac.update(side);
+            return mac.doFinal(nonce);
+        } catch (GeneralSecurityException e) {
+            // HmacSHA256 is supported by every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Accept connections from other SocketComNodes on the given port of the
+     * loopback interface. If the port is 0, a free port is chosen; use
+     * {@link #getPort()} to obtain it. The method returns this ComNode, so that it
+     * can be used in the Fluent Interface style.
+     */
+    public synchronized SocketComNode listen(int port) throws IOException {
+        if (server != null)
+            throw new IllegalStateException("This ComNode is already listening.");
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        var acceptor = new Thread(this::acceptLoop, "SocketComNode-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+
+    /**
+     * The port this ComNode listens on, or -1 if it does not listen.
+     */
+    public synchronized int getPort() {
+        return server == null ? -1 : server.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        var S = server;
+        while (!S.isClosed()) {
+            Socket socket;
+            try {
+                socket = S.accept();
+            } catch (IOException e) {
+                // the server socket is closed
+                return;
+            }
+            // the handshake is done in the new peer's thread, so that a slow peer
+            // does not hold up others:
+            var handshake = new Thread(() -> {
+                Peer peer = null;
+                try {
+                    peer = new Peer(socket);
+                    peer.handshake(true);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "SocketComNode fails to accept a connection: " + e);
+                    if (peer != null)
+                        disconnect(peer);
+                    else
+                        closeQuietly(socket);
+                }
+            }, "SocketComNode-handshake");
+            handshake.setDaemon(true);
+            handshake.start();
+        }
+    }
+
+    /**
+     * Connect to the SocketComNode listening on the given port of the loopback
+     * interface. When this method returns, the agents registered to either node
+     * can send messages to the agents registered to the other. The method returns
+     * this ComNode, so that it can be used in the Fluent Interface style.
+     */
+    public SocketComNode connect(int port) throws IOException {
+        var socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        var peer = new Peer(socket);
+        try {
+            peer.handshake(false);
+        } catch (IOException e) {
+            disconnect(peer);
+            throw e;
+        }
+        return this;
+    }
+
+    /**
+     * Wait until this ComNode is connected to at least n other nodes, or until the
+     * timeout (in ms) passes. Return true if it is connected to n nodes.
+     */
+    public synchronized boolean awaitPeers(int n, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (numberOfPeers() < n) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                return false;
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * The number of other nodes this ComNode is connected to.
+     */
+    public int numberOfPeers() {
+        int n = 0;
+        for (var peer : peers)
+            if (peer.connected)
+                n++;
+        return n;
+    }
+
+    @Override
+    synchronized public void register(AutonomousBasicAgent agent) {
+        super.register(agent);
+        for (var peer : peers)
+            announce(peer, REGISTER, agent.getId(), agent.getRole());
+    }
+
+    @Override
+    synchronized public void deregister(AutonomousBasicAgent agent) {
+        boolean registered = idMap.get(key(agent.getId())) == agent;
+        super.deregister(agent);
+        if (registered) {
+            for (var peer : peers)
+                announce(peer, DEREGISTER, agent.getId(), null);
+        }
+    }
+
+    private void announce(Peer peer, byte kind, String id, String role) {
+        try {
+            peer.write(kind, id, role);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "SocketComNode loses a connection: " + e);
+            disconnect(peer);
+        }
+    }
+
+    /**
+     * Send the message, as {@link ComNode#send(Message)} does, also to agents
+     * registered to the connected nodes. A SINGLECAST to an agent of another node
+     * is rejected if the connection to that node fails.
+     *
+     * @throws IllegalArgumentException if the message has to be forwarded to other
+     *                                  nodes, but one of its arguments cannot be
+     *                                  serialized.
+     */
+    @Override
+    public Acknowledgement send(Message msg) {
+        var sender = idMap.get(key(msg.idSource));
+        if (sender == null || peers.isEmpty())
+            return super.send(msg);
+        switch (msg.castTy) {
+        case SINGLECAST:
+            if (idMap.containsKey(key(msg.idTarget)))
+                return super.send(msg);
+            var peer = remoteAgents.get(key(msg.idTarget));
+            if (peer == null)
+                return super.send(msg);
+            if (!forward(peer, encode(msg)))
+                return new Acknowledgement(AckType.REJECTED, "Receiver is unreachable.");
+            return SUCCESS;
+        default:
+            byte[] bytes = encode(msg);
+            deliver(msg, sender);
+            for (var p : peers)
+                forward(p, bytes);
+            return SUCCESS;
+        }
+    }
+
+    private static byte[] encode(Message msg) {
+        var bytes = new ByteArrayOutputStream();
+        try {
+            MessageCodec.writeMessage(new DataOutputStream(bytes), msg);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("The message " + msg.msgName + " cannot be sent to another process: " + e);
+        }
+        if (bytes.size() > MessageCodec.MAX_LENGTH)
+            throw new IllegalArgumentException("The message " + msg.msgName + " is too long to be sent to another process.");
+        return bytes.toByteArray();
+    }
+
+    private boolean forward(Peer peer, byte[] encodedMsg) {
+        try {
+            peer.write(encodedMsg);
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "SocketComNode loses a connection: " + e);
+            disconnect(peer);
+            return false;
+        }
+    }
+
+    private void disconnect(Peer peer) {
+        peers.remove(peer);
+        remoteAgents.values().removeIf(p -> p == peer);
+        closeQuietly(peer.socket);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Stop listening, and close the connections to all other nodes. The agents
+     * registered to this ComNode stay registered.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (server != null)
+                server.close();
+        }
+        for (var peer : peers)
+            disconnect(peer);
+    }
+
+}
@@ -0,0 +1,72 @@
+package nl.uu.cs.aplib.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A variant of {@link LatencyHistogram}, with the same buckets, that does not
+ * lock: recording a latency only does a few atomic updates, so many threads can
+ * record into the same histogram without waiting on each other. It is meant to
+ * be always on, e.g. to measure every command sent to an environment.
+ *
+ * <p>
+ * To query the histogram, take a {@link #snapshot()}. While other threads are
+ * recording, a snapshot may include a latency in some of its statistics but
+ * not yet in others; e.g. its count may be one more than the sum of its
+ * buckets.
+ */
+public class ConcurrentLatencyHistogram {
+
+    private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.NUMBER_OF_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(0);
+
+    public ConcurrentLatencyHistogram() {
+    }
+
+    /**
+     * Record a latency, in ns. Negative values are recorded as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts.incrementAndGet(LatencyHistogram.bucketOf(nanos));
+        count.increment();
+        sum.add(nanos);
+        // most latencies are neither a new minimum nor maximum, so read first:
+        if (nanos < min.get())
+            min.accumulateAndGet(nanos, Math::min);
+        if (nanos > max.get())
+            max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * The number of recorded latencies.
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * Return a copy of this histogram, as a {@link LatencyHistogram}.
+     */
+    public LatencyHistogram snapshot() {
+        long[] buckets = new long[LatencyHistogram.NUMBER_OF_BUCKETS];
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = counts.get(i);
+        return new LatencyHistogram(buckets, count.sum(), sum.sum(), min.get(), max.get());
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++)
+            counts.set(i, 0);
+        count.reset();
+        sum.reset();
+        min.set(Long.MAX_VALUE);
+        max.set(0);
+    }
+
+}
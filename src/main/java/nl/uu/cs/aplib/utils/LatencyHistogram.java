@@ -0,0 +1,228 @@
+package nl.uu.cs.aplib.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A histogram of latencies, in ns. Recording a latency takes constant time and
+ * does not allocate. The histogram does not keep the individual values; they
+ * are counted in buckets whose width grows with the value (16 buckets per
+ * power of two), so that percentiles such as {@link #p50()} and {@link #p99()}
+ * are reported with a relative error of at most 1/16. The minimum, maximum, and
+ * mean are exact. The buckets are only allocated when the first latency is
+ * recorded, so a histogram that is never used (e.g. of an action that is never
+ * executed) takes little memory.
+ *
+ * <p>
+ * Histograms can be merged, e.g. to combine the latencies of the same action
+ * used in different tactics, or of different runs. The methods of this class
+ * are synchronized, so a histogram can be shared by multiple threads.
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    static final int NUMBER_OF_BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    /**
+     * The counts per bucket; null as long as nothing was recorded.
+     */
+    private long[] counts = null;
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    public LatencyHistogram() {
+    }
+
+    /**
+     * Create a histogram with the given content; used to take a snapshot of a
+     * {@link ConcurrentLatencyHistogram}.
+     */
+    LatencyHistogram(long[] counts, long count, long sum, long min, long max) {
+        if (count > 0)
+            this.counts = counts.clone();
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int e = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (e - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (e - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * The largest value that falls in the given bucket.
+     */
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int e = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (e - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Record a latency, in ns. Negative values are recorded as 0.
+     */
+    public synchronized void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        if (counts == null)
+            counts = new long[NUMBER_OF_BUCKETS];
+        counts[bucketOf(nanos)]++;
+        count++;
+        sum += nanos;
+        if (nanos < min)
+            min = nanos;
+        if (nanos > max)
+            max = nanos;
+    }
+
+    /**
+     * Add all latencies recorded in the other histogram to this histogram.
+     */
+    public void merge(LatencyHistogram other) {
+        if (other == this)
+            throw new IllegalArgumentException("Cannot merge a histogram with itself.");
+        long[] otherCounts;
+        long otherCount, otherSum, otherMin, otherMax;
+        synchronized (other) {
+            if (other.counts == null)
+                return;
+            otherCounts = other.counts.clone();
+            otherCount = other.count;
+            otherSum = other.sum;
+            otherMin = other.min;
+            otherMax = other.max;
+        }
+        synchronized (this) {
+            if (counts == null)
+                counts = new long[NUMBER_OF_BUCKETS];
+            for (int i = 0; i < NUMBER_OF_BUCKETS; i++)
+                counts[i] += otherCounts[i];
+            count += otherCount;
+            sum += otherSum;
+            min = Math.min(min, otherMin);
+            max = Math.max(max, otherMax);
+        }
+    }
+
+    public synchronized void reset() {
+        if (counts != null)
+            Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * The number of recorded latencies.
+     */
+    public synchronized long count() {
+        return count;
+    }
+
+    /**
+     * The sum of the recorded latencies, in ns.
+     */
+    public synchronized long total() {
+        return sum;
+    }
+
+    /**
+     * The smallest recorded latency in ns, or 0 if nothing was recorded.
+     */
+    public synchronized long min() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * The largest recorded latency in ns, or 0 if nothing was recorded.
+     */
+    public synchronized long max() {
+        return max;
+    }
+
+    /**
+     * The average of the recorded latencies in ns, or 0 if nothing was recorded.
+     */
+    public synchronized double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Return the latency (in ns) below or equal to which the given percentage p of
+     * the recorded latencies lie; p should be between 0 and 100. Return 0 if
+     * nothing was recorded.
+     */
+    public synchronized long percentile(double p) {
+        if (p < 0 || p > 100)
+            throw new IllegalArgumentException("The percentage should be between 0 and 100.");
+        if (count == 0)
+            return 0;
+        if (p == 0)
+            return min;
+        long rank = Math.max(1, (long) Math.ceil(p / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.max(min, Math.min(max, highestValueOf(i)));
+        }
+        return max;
+    }
+
+    public long p50() {
+        return percentile(50);
+    }
+
+    public long p99() {
+        return percentile(99);
+    }
+
+    /**
+     * Return a short summary of this histogram, with the latencies shown in
+     * micro-seconds.
+     */
+    @Override
+    public synchronized String toString() {
+        return "#=" + count + ", p50=" + micro(percentile(50)) + ", p99=" + micro(percentile(99)) + ", max="
+                + micro(max) + " (us)";
+    }
+
+    private static String micro(long nanos) {
+        return String.format("%.1f", nanos / 1000.0);
+    }
+
+    /**
+     * Write the summaries of the given histograms to a CSV file, one row per
+     * histogram, with the columns name, count, mean, p50, p99, max. The latencies
+     * are in ns. This is e.g. useful to track performance regressions across
+     * runs.
+     */
+    public static void exportToCSVfile(Map<String, LatencyHistogram> histograms, String filename)
+            throws IOException {
+        List<String[]> rows = new LinkedList<>();
+        rows.add(new String[] { "name", "count", "mean", "p50", "p99", "max" });
+        for (var entry : histograms.entrySet()) {
+            var H = entry.getValue();
+            synchronized (H) {
+                rows.add(new String[] { CSVUtility.cleanUpCommas(entry.getKey()), "" + H.count(),
+                        "" + Math.round(H.mean()), "" + H.p50(), "" + H.p99(), "" + H.max() });
+            }
+        }
+        CSVUtility.exportToCSVfile(',', rows, filename);
+    }
+
+}
@@ -0,0 +1,100 @@
+package nl.uu.cs.aplib.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An allow-list of the classes that may be deserialized from bytes that come
+ * from outside this JVM, e.g. from another process, or from the system under
+ * test. Deserializing such bytes with a plain {@link ObjectInputStream} lets
+ * the other side have objects of any serializable class on the classpath
+ * constructed, which can be abused to run code. So, a SerializationFilter only
+ * accepts the classes that it lists, and also bounds the size of the
+ * deserialized object graph.
+ *
+ * <p>
+ * By default, it accepts strings, boxed primitives, big numbers, dates, the
+ * standard lists, sets, and maps, arrays of these and of primitives, the classes of the eu.iv4xr.framework.spatial package (such
+ * as {@code Vec3}), and {@link Pair}. More classes can be allowed
+ * with {@link #allow(String...)}.
+ */
+public class SerializationFilter {
+
+    /**
+     * The classes that are allowed by default, in the pattern syntax of
+     * {@link ObjectInputFilter.Config#createFilter(String)}.
+     */
+    public static final String[] DEFAULT_ALLOWED = { "java.lang.String", "java.lang.Boolean",
+            "java.lang.Character", "java.lang.Number", "java.lang.Byte", "java.lang.Short", "java.lang.Integer",
+            "java.lang.Long", "java.lang.Float", "java.lang.Double", "java.lang.Enum", "java.lang.Object",
+            "java.io.Serializable", "java.math.BigInteger", "java.math.BigDecimal", "java.util.ArrayList",
+            "java.util.LinkedList", "java.util.HashMap", "java.util.LinkedHashMap", "java.util.TreeMap",
+            "java.util.HashSet", "java.util.LinkedHashSet", "java.util.TreeSet", "java.util.CollSer",
+            "java.util.Date", "eu.iv4xr.framework.spatial.*", "nl.uu.cs.aplib.utils.Pair" };
+
+    /**
+     * The bounds on the deserialized object graph.
+     */
+    static final String LIMITS = "maxdepth=32;maxrefs=100000;maxarray=1000000;maxbytes=16777216";
+
+    private final List<String> allowed = new ArrayList<>(List.of(DEFAULT_ALLOWED));
+
+    private volatile ObjectInputFilter filter = null;
+
+    public SerializationFilter() {
+    }
+
+    /**
+     * Also allow the classes that match the given patterns, e.g.
+     * "com.example.MyClass", or "com.example.*" for all classes in a package, or
+     * "com.example.**" for all classes in a package and its sub-packages. The
+     * method returns this filter, so that it can be used in the Fluent Interface
+     * style.
+     */
+    public synchronized SerializationFilter allow(String... patterns) {
+        for (var p : patterns) {
+            if (p == null || p.isEmpty() || p.startsWith("!") || p.contains(";") || p.contains("="))
+                throw new IllegalArgumentException("Not a class pattern: " + p);
+            allowed.add(p);
+        }
+        filter = null;
+        return this;
+    }
+
+    /**
+     * Return the {@link ObjectInputFilter} that accepts the allowed classes, and
+     * rejects all others.
+     */
+    public ObjectInputFilter filter() {
+        var F = filter;
+        if (F == null) {
+            synchronized (this) {
+                F = ObjectInputFilter.Config.createFilter(LIMITS + ";" + String.join(";", allowed) + ";!*");
+                filter = F;
+            }
+        }
+        return F;
+    }
+
+    /**
+     * Deserialize an object from the given bytes, rejecting the classes that are
+     * not allowed.
+     *
+     * @throws java.io.InvalidClassException if the bytes contain an object of a
+     *                                       class that is not allowed, or exceed
+     *                                       the bounds.
+     */
+    public Object readObject(byte[] bytes) throws IOException {
+        try (var in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            in.setObjectInputFilter(filter());
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown class of a deserialized object: " + e.getMessage(), e);
+        }
+    }
+
+}
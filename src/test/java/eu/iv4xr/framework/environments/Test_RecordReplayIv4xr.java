@@ -0,0 +1,113 @@
+package eu.iv4xr.framework.environments;
+
+import static nl.uu.cs.aplib.AplibEDSL.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+
+import eu.iv4xr.framework.mainConcepts.Iv4xrAgentState;
+import eu.iv4xr.framework.mainConcepts.Iv4xrEnvironment;
+import eu.iv4xr.framework.mainConcepts.TestAgent;
+import eu.iv4xr.framework.mainConcepts.WorldEntity;
+import eu.iv4xr.framework.mainConcepts.WorldModel;
+import nl.uu.cs.aplib.mainConcepts.GoalStructure;
+
+public class Test_RecordReplayIv4xr {
+
+    /**
+     * A world with a door d1, which the command "open" opens.
+     */
+    static class DoorEnv extends Iv4xrEnvironment {
+        boolean open = false;
+        long time = 0;
+
+        @Override
+        public WorldModel observe(String agentId) {
+            var wom = new WorldModel();
+            wom.agentId = agentId;
+            wom.timestamp = time++;
+            var door = new WorldEntity("d1", "door", true);
+            door.properties.put("isOpen", open);
+            door.assignTimeStamp(wom.timestamp);
+            wom.elements.put(door.id, door);
+            return wom;
+        }
+
+        @Override
+        public WorldModel observeDelta(String agentId, long sinceTimestamp) {
+            var wom = observe(agentId);
+            wom.deltaSince = sinceTimestamp;
+            return wom;
+        }
+
+        @Override
+        protected Object sendCommand_(EnvOperation cmd) {
+            if (!cmd.command.equals("open"))
+                throw new IllegalArgumentException("unknown command " + cmd.command);
+            open = true;
+            return true;
+        }
+
+        @Override
+        public void resetWorker() {
+            open = false;
+            time = 0;
+        }
+    }
+
+    static GoalStructure openTheDoor() {
+        return goal("d1 is open").toSolve((Boolean open) -> open).withTactic(action("open").do1(
+                (Iv4xrAgentState<Void> S) -> {
+                    if (S.worldmodel.getElement("d1").getBooleanProperty("isOpen"))
+                        return true;
+                    S.env().sendCommand(S.worldmodel.agentId, "d1", "open", null);
+                    return false;
+                }).lift()).lift();
+    }
+
+    /**
+     * Run an agent that opens the door, on the given environment; return its
+     * final WorldModel.
+     */
+    static WorldModel runAgent(Iv4xrEnvironment env) {
+        env.resetAndInstrument();
+        var state = new Iv4xrAgentState<Void>().useDeltaObservations(true);
+        var G = openTheDoor();
+        var agent = new TestAgent("agent", "opener").attachState(state).attachEnvironment(env).setGoal(G);
+        for (int k = 0; k < 10 && G.getStatus().inProgress(); k++)
+            agent.update();
+        assertTrue(G.getStatus().success());
+        return state.worldmodel;
+    }
+
+    @Test
+    public void test_record_and_replay_through_an_agent() throws Exception {
+        Files.createDirectories(Paths.get("tmp"));
+        String file = "tmp/iv4xrSession.oplog";
+        var real = new DoorEnv();
+        var recorder = new RecordingIv4xrEnvironment(real, file);
+        var recorded = runAgent(recorder);
+        recorder.close();
+        assertTrue(real.open);
+
+        var replay = new ReplayIv4xrEnvironment(file);
+        for (int k = 0; k < 3; k++) {
+            var replayed = runAgent(replay);
+            assertTrue(replay.isFinished());
+            assertEquals(recorded.timestamp, replayed.timestamp);
+            assertTrue(replayed.getElement("d1").getBooleanProperty("isOpen"));
+        }
+
+        // the replay diverges if the agent does something else:
+        replay.rewind();
+        replay.resetWorker();
+        var obs = replay.observe("agent");
+        assertFalse(obs.getElement("d1").getBooleanProperty("isOpen"));
+        assertThrows(IllegalStateException.class, () -> replay.sendCommand("agent", "d1", "close", null));
+        Files.delete(Paths.get(file));
+    }
+
+}
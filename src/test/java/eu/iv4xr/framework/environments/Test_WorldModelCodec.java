@@ -0,0 +1,153 @@
+package eu.iv4xr.framework.environments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import eu.iv4xr.framework.exception.Iv4xrError;
+import eu.iv4xr.framework.mainConcepts.WorldEntity;
+import eu.iv4xr.framework.mainConcepts.WorldModel;
+import eu.iv4xr.framework.spatial.IntVec2D;
+import eu.iv4xr.framework.spatial.Vec3;
+
+public class Test_WorldModelCodec {
+
+    static WorldModel observation() {
+        var wom = Test_WorldModelJsonDecoder.observation(7, 1);
+        var door = wom.elements.get("door1");
+        door.velocity = new Vec3(0, -1, 0);
+        door.lastStutterTimestamp = 5;
+        door.properties.put("long", 1L << 40);
+        door.properties.put("float", 0.5f);
+        door.properties.put("nothing", null);
+        door.properties.put("direction", new Vec3(1, 0, 0));
+        door.properties.put("list", new ArrayList<Serializable>(Arrays.asList(1, "door", true)));
+        var map = new HashMap<String, Serializable>();
+        map.put("a", -3);
+        door.properties.put("map", map);
+        door.properties.put("tile", new IntVec2D(2, 3));
+        door.properties.put("linked", new LinkedList<Integer>(Arrays.asList(4, 5)));
+        return wom;
+    }
+
+    static void assertSameWorldModel(WorldModel expected, WorldModel actual) {
+        assertEquals(expected.agentId, actual.agentId);
+        assertEquals(expected.timestamp, actual.timestamp);
+        assertEquals(expected.position, actual.position);
+        assertEquals(expected.velocity, actual.velocity);
+        assertEquals(expected.extent, actual.extent);
+        assertEquals(expected.elements.keySet(), actual.elements.keySet());
+        assertEquals(expected.deltaSince, actual.deltaSince);
+        assertEquals(expected.removedElements, actual.removedElements);
+        for (var e : expected.elements.values()) {
+            var f = actual.elements.get(e.id);
+            assertEquals(e.type, f.type);
+            assertEquals(e.dynamic, f.dynamic);
+            assertEquals(e.timestamp, f.timestamp);
+            assertEquals(e.lastStutterTimestamp, f.lastStutterTimestamp);
+            assertEquals(e.properties, f.properties);
+            assertEquals(e.elements.keySet(), f.elements.keySet());
+            assertTrue(f.hasSameState(e));
+        }
+    }
+
+    @Test
+    public void test_binary_roundtrip() throws IOException {
+        var codec = new WorldModelBinaryCodec();
+        var wom = observation();
+        var bytes = codec.encode(wom);
+        var decoded = codec.decode(bytes);
+        assertSameWorldModel(wom, decoded);
+        assertEquals(new IntVec2D(2, 3), decoded.elements.get("door1").getProperty("tile"));
+
+        // exactly the bytes of one WorldModel are read from a stream:
+        var out = new ByteArrayOutputStream();
+        codec.encode(wom, out);
+        codec.encode(Test_WorldModelJsonDecoder.observation(8, 0), out);
+        var in = new ByteArrayInputStream(out.toByteArray());
+        assertEquals(7, codec.decode(in).timestamp);
+        assertEquals(8, codec.decode(in).timestamp);
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    public void test_delta_roundtrip() throws IOException {
+        var wom = Test_WorldModelJsonDecoder.observation(7, 1);
+        wom.deltaSince = 6;
+        wom.removedElements = new HashSet<>(Arrays.asList("chest", "key"));
+        assertSameWorldModel(wom, new WorldModelBinaryCodec().decode(new WorldModelBinaryCodec().encode(wom)));
+        assertSameWorldModel(wom, new WorldModelJsonCodec().decode(new WorldModelJsonCodec().encode(wom)));
+        wom.removedElements = new HashSet<>();
+        assertSameWorldModel(wom, new WorldModelBinaryCodec().decode(new WorldModelBinaryCodec().encode(wom)));
+    }
+
+    @Test
+    public void test_binary_is_smaller_than_json() throws IOException {
+        var wom = Test_WorldModelJsonDecoder.observation(7, 1);
+        var binary = new WorldModelBinaryCodec().encode(wom);
+        var json = new WorldModelJsonCodec().encode(wom);
+        assertTrue(binary.length * 2 < json.length);
+        assertSameWorldModel(wom, new WorldModelJsonCodec().decode(json));
+    }
+
+    @Test
+    public void test_corrupted_input() throws IOException {
+        var codec = new WorldModelBinaryCodec();
+        var bytes = codec.encode(observation());
+        assertThrows(IOException.class, () -> codec.decode(Arrays.copyOf(bytes, bytes.length / 2)));
+        assertThrows(IOException.class, () -> codec.decode(new byte[] { 1, 2, 3 }));
+    }
+
+    @Test
+    public void test_serialization_filter() throws IOException {
+        var wom = observation();
+        wom.elements.get("door1").properties.put("counter", new AtomicInteger(3));
+        var codec = new WorldModelBinaryCodec();
+        var bytes = codec.encode(wom);
+        // AtomicInteger is not on the allow-list:
+        assertThrows(InvalidClassException.class, () -> codec.decode(bytes));
+        codec.serializationFilter().allow("java.util.concurrent.atomic.AtomicInteger");
+        var counter = (AtomicInteger) codec.decode(bytes).elements.get("door1").properties.get("counter");
+        assertEquals(3, counter.get());
+        assertThrows(IllegalArgumentException.class, () -> codec.serializationFilter().allow("*;maxdepth=1000"));
+    }
+
+    @Test
+    public void test_decodeObservation_error() {
+        var env = new W3DEnvironment() {
+            @Override
+            protected Object sendCommand_(EnvOperation cmd) {
+                return decodeObservation(new byte[] { 1, 2, 3 });
+            }
+        };
+        env.useObservationCodec(new WorldModelBinaryCodec());
+        var error = assertThrows(Iv4xrError.class, () -> env.observe("agent"));
+        assertTrue(error.getCause() instanceof IOException);
+    }
+
+    @Test
+    public void test_decodeObservation() throws IOException {
+        var bytes = new WorldModelBinaryCodec().encode(observation());
+        var env = new W3DEnvironment() {
+            @Override
+            protected Object sendCommand_(EnvOperation cmd) {
+                return decodeObservation(bytes);
+            }
+        };
+        env.useObservationCodec(new WorldModelBinaryCodec());
+        assertSameWorldModel(observation(), env.observe("agent"));
+    }
+
+}
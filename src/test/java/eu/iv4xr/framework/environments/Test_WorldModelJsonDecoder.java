@@ -0,0 +1,183 @@
+package eu.iv4xr.framework.environments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.Gson;
+
+import eu.iv4xr.framework.mainConcepts.WorldEntity;
+import eu.iv4xr.framework.mainConcepts.WorldModel;
+import eu.iv4xr.framework.spatial.Vec3;
+import nl.uu.cs.aplib.environments.JsonEnvironment;
+
+public class Test_WorldModelJsonDecoder {
+
+    static WorldModel observation(long time, int doorState) {
+        var wom = new WorldModel();
+        wom.agentId = "agent";
+        wom.timestamp = time;
+        wom.position = new Vec3(1, 2, 3);
+        var door = new WorldEntity("door1", "door", true);
+        door.timestamp = time;
+        door.position = new Vec3(4, 0, 0.5f);
+        door.properties.put("isOpen", doorState > 0);
+        door.properties.put("state", doorState);
+        door.properties.put("label", "the door");
+        var knob = new WorldEntity("knob", "knob", true);
+        knob.timestamp = time;
+        knob.properties.put("weight", 1.5);
+        door.elements.put(knob.id, knob);
+        var wall = new WorldEntity("wall", "wall", false);
+        wall.timestamp = time;
+        wall.extent = new Vec3(10, 1, 1);
+        wom.elements.put(door.id, door);
+        wom.elements.put(wall.id, wall);
+        return wom;
+    }
+
+    @Test
+    public void test_decode() throws IOException {
+        var gson = new Gson();
+        var decoder = new WorldModelJsonDecoder();
+        var wom = observation(3, 1);
+        wom.elements.get("door1").linkPreviousState(observation(2, 0).elements.get("door1"));
+        var decoded = decoder.decode(gson.toJson(wom));
+
+        assertEquals("agent", decoded.agentId);
+        assertEquals(3, decoded.timestamp);
+        assertEquals(new Vec3(1, 2, 3), decoded.position);
+        assertNull(decoded.velocity);
+        assertEquals(2, decoded.elements.size());
+        var door = decoded.elements.get("door1");
+        assertEquals("door", door.type);
+        assertTrue(door.dynamic);
+        assertEquals(3, door.timestamp);
+        assertEquals(1, door.getIntProperty("state"));
+        assertTrue(door.getBooleanProperty("isOpen"));
+        assertEquals("the door", door.getStringProperty("label"));
+        assertEquals(1.5, door.elements.get("knob").getProperty("weight"));
+        // previousState is not part of an observation:
+        assertNull(door.getPreviousState());
+        assertTrue(door.hasSameState(wom.elements.get("door1")));
+        assertFalse(decoded.elements.get("wall").dynamic);
+        assertEquals(new Vec3(10, 1, 1), decoded.elements.get("wall").extent);
+
+        // names are interned:
+        var decoded2 = decoder.decode(gson.toJson(observation(4, 1)));
+        var door2 = decoded2.elements.get("door1");
+        assertSame(door.id, door2.id);
+        assertSame(door.type, door2.type);
+        var names = door.properties.keySet().toArray(new String[0]);
+        for (var name : door2.properties.keySet())
+            assertTrue(List.of(names).stream().anyMatch(n -> n == name));
+    }
+
+    @Test
+    public void test_entity_pool() throws IOException {
+        var gson = new Gson();
+        var decoder = new WorldModelJsonDecoder().useEntityPool(true);
+        var belief = decoder.decode(gson.toJson(observation(0, 0)));
+        var door = belief.elements.get("door1");
+
+        var snapshot = belief.snapshot();
+
+        // the door does not change, so the same instance is re-used, unchanged:
+        var obs1 = decoder.decode(gson.toJson(observation(1, 0)));
+        assertSame(door, obs1.elements.get("door1"));
+        assertEquals(0, door.timestamp);
+        assertEquals(-1, door.lastStutterTimestamp);
+        assertTrue(belief.mergeNewObservation(obs1).isEmpty());
+        assertEquals(1, belief.timestamp);
+        assertEquals(1, belief.elements.get("door1").timestamp);
+        assertEquals(0, belief.elements.get("door1").lastStutterTimestamp);
+        // the snapshot that shares the door is not affected:
+        assertEquals(0, snapshot.elements.get("door1").timestamp);
+        assertEquals(-1, snapshot.elements.get("door1").lastStutterTimestamp);
+        door = belief.elements.get("door1");
+
+        // the pool still has the door that belief copied, because of the snapshot;
+        // that instance is still taken as observed again:
+        var obs1b = decoder.decode(gson.toJson(observation(2, 0)));
+        assertNotSame(door, obs1b.elements.get("door1"));
+        assertTrue(belief.mergeNewObservation(obs1b).isEmpty());
+        assertEquals(2, belief.elements.get("door1").timestamp);
+        assertEquals(0, belief.elements.get("door1").lastStutterTimestamp);
+        door = belief.elements.get("door1");
+
+        // now the door changes:
+        var obs2 = decoder.decode(gson.toJson(observation(3, 1)));
+        var door2 = obs2.elements.get("door1");
+        assertNotSame(door, door2);
+        var impacted = belief.mergeNewObservation(obs2);
+        assertEquals(List.of(door2), impacted);
+        assertSame(door, door2.getPreviousState());
+        assertEquals(-1, door2.lastStutterTimestamp);
+    }
+
+    @Test
+    public void test_entity_pool_eviction() throws IOException {
+        var gson = new Gson();
+        var decoder = new WorldModelJsonDecoder().useEntityPool(true);
+        decoder.decode(gson.toJson(observation(0, 0)));
+        assertEquals(2, decoder.pool.size());
+
+        // an entity that is removed is forgotten:
+        var delta = new WorldModel();
+        delta.timestamp = 1;
+        delta.deltaSince = 0;
+        delta.removedElements = java.util.Set.of("wall");
+        decoder.decode(gson.toJson(delta));
+        assertEquals(java.util.Set.of("door1"), decoder.pool.keySet());
+
+        // so is an entity that a full observation does not contain:
+        var obs = observation(2, 0);
+        obs.elements.remove("door1");
+        decoder.decode(gson.toJson(obs));
+        assertEquals(java.util.Set.of("wall"), decoder.pool.keySet());
+
+        // the pool is bounded:
+        decoder = new WorldModelJsonDecoder().useEntityPool(1);
+        decoder.decode(gson.toJson(observation(0, 0)));
+        assertEquals(1, decoder.pool.size());
+        assertThrows(IllegalArgumentException.class, () -> new WorldModelJsonDecoder().useEntityPool(-1));
+        assertNull(new WorldModelJsonDecoder().useEntityPool(true).useEntityPool(false).pool);
+    }
+
+    @Test
+    public void test_jsonEnvironment_streaming() {
+        var gson = new Gson();
+        var env = new JsonEnvironment() {
+            @Override
+            protected Object sendCommand_(EnvOperation cmd) {
+                // the reply is streamed rather than given as a string:
+                return new StringReader(gson.toJson(observation(5, 1)));
+            }
+        };
+        env.registerDecoder(WorldModel.class, new WorldModelJsonDecoder());
+        var wom = (WorldModel) env.sendCommand("agent", null, "observe", null, WorldModel.class);
+        assertEquals(5, wom.timestamp);
+        assertEquals(1, wom.elements.get("door1").getIntProperty("state"));
+
+        // a streamed reply that is not parsed is closed as well:
+        var closed = new boolean[] { false };
+        var env2 = new JsonEnvironment() {
+            @Override
+            protected Object sendCommand_(EnvOperation cmd) {
+                return new StringReader("{}") {
+                    @Override
+                    public void close() {
+                        closed[0] = true;
+                    }
+                };
+            }
+        };
+        assertNull(env2.sendCommand("agent", null, "observe", null, null));
+        assertTrue(closed[0]);
+    }
+
+}
@@ -0,0 +1,125 @@
+package eu.iv4xr.framework.environments;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializer;
+
+import eu.iv4xr.framework.mainConcepts.WorldEntity;
+import eu.iv4xr.framework.mainConcepts.WorldModel;
+import eu.iv4xr.framework.spatial.Vec3;
+
+/**
+ * A benchmark comparing the size of an encoded observation, and the encoding
+ * and decoding throughput, of plain Gson, of {@link WorldModelJsonCodec} (Gson
+ * to encode, {@link WorldModelJsonDecoder} to decode), and of
+ * {@link WorldModelBinaryCodec}. The observations are WorldModels with a given
+ * number of entities, each with a few typed properties and a nested element,
+ * similar to what a 3D game sends.
+ *
+ * <p>
+ * This is not a unit test; run it as a main program, with the test classes on
+ * the classpath. An optional argument specifies the numbers of entities, e.g.
+ * "100,1000,10000".
+ */
+public class WorldModelCodecBenchmark {
+
+    static final long TIME_PER_MEASUREMENT = 2_000_000_000L; // ns
+
+    static WorldModel observation(int numberOfEntities) {
+        var rnd = new Random(1);
+        var wom = new WorldModel();
+        wom.agentId = "agent0";
+        wom.timestamp = 1000;
+        wom.position = new Vec3(10, 0, 10);
+        wom.velocity = new Vec3(0.5f, 0, 0);
+        wom.extent = new Vec3(0.2f, 1, 0.2f);
+        for (int k = 0; k < numberOfEntities; k++) {
+            var e = new WorldEntity("entity" + k, k % 3 == 0 ? "Door" : "Switch", true);
+            e.timestamp = 1000;
+            e.position = new Vec3(rnd.nextFloat() * 100, 0, rnd.nextFloat() * 100);
+            e.extent = new Vec3(0.5f, 1, 0.5f);
+            e.properties.put("isOpen", rnd.nextBoolean());
+            e.properties.put("hp", rnd.nextInt(100));
+            e.properties.put("temperature", rnd.nextDouble());
+            e.properties.put("label", "room" + (k % 10));
+            e.properties.put("tags", new ArrayList<Serializable>(Arrays.asList("a", "b")));
+            var child = new WorldEntity(e.id + ".light", "Light", true);
+            child.timestamp = 1000;
+            child.position = e.position.copy();
+            child.properties.put("on", rnd.nextBoolean());
+            e.elements.put(child.id, child);
+            wom.elements.put(e.id, e);
+        }
+        return wom;
+    }
+
+    interface Job {
+        void run() throws IOException;
+    }
+
+    /**
+     * Return the number of runs of the job per second.
+     */
+    static double throughput(Job job) throws IOException {
+        // warm up:
+        long t0 = System.nanoTime();
+        while (System.nanoTime() - t0 < TIME_PER_MEASUREMENT / 2)
+            job.run();
+        int n = 0;
+        t0 = System.nanoTime();
+        long elapsed;
+        do {
+            job.run();
+            n++;
+            elapsed = System.nanoTime() - t0;
+        } while (elapsed < TIME_PER_MEASUREMENT);
+        return n / (elapsed / 1e9);
+    }
+
+    static void report(String label, int size, double encodes, double decodes) {
+        System.out.println(String.format("%-8s size=%10d bytes  encode=%10.1f/s (%7.1f MB/s)  decode=%10.1f/s (%7.1f MB/s)",
+                label, size, encodes, encodes * size / 1e6, decodes, decodes * size / 1e6));
+    }
+
+    static void run(int numberOfEntities) throws IOException {
+        System.out.println("** entities=" + numberOfEntities);
+        var wom = observation(numberOfEntities);
+
+        // Gson cannot instantiate the declared type of property values by itself:
+        Gson gson = new GsonBuilder().serializeNulls()
+                .registerTypeAdapter(Serializable.class,
+                        (JsonDeserializer<Serializable>) (json, type, context) -> context.deserialize(json, Object.class))
+                .create();
+        var json = gson.toJson(wom).getBytes(StandardCharsets.UTF_8);
+        report("gson", json.length, throughput(() -> gson.toJson(wom).getBytes(StandardCharsets.UTF_8)),
+                throughput(() -> gson.fromJson(new String(json, StandardCharsets.UTF_8), WorldModel.class)));
+
+        var jsonCodec = new WorldModelJsonCodec();
+        report("json", json.length, throughput(() -> jsonCodec.encode(wom)), throughput(() -> jsonCodec.decode(json)));
+
+        var binaryCodec = new WorldModelBinaryCodec();
+        var binary = binaryCodec.encode(wom);
+        report("binary", binary.length, throughput(() -> binaryCodec.encode(wom)),
+                throughput(() -> binaryCodec.decode(binary)));
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] counts = { 100, 1000, 10000 };
+        if (args.length > 0) {
+            String[] s = args[0].split(",");
+            counts = new int[s.length];
+            for (int k = 0; k < s.length; k++)
+                counts[k] = Integer.parseInt(s[k].trim());
+        }
+        for (int N : counts)
+            run(N);
+    }
+
+}
@@ -0,0 +1,145 @@
+package eu.iv4xr.framework.mainConcepts;
+
+import static nl.uu.cs.aplib.AplibEDSL.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+public class Test_GuardDependencies {
+
+    static class DoorsEnv extends Iv4xrEnvironment {
+        boolean d1open = false;
+        boolean d2open = false;
+        long time = 0;
+
+        WorldEntity door(String id, boolean open) {
+            WorldEntity e = new WorldEntity(id, "door", true);
+            e.properties.put("isOpen", open);
+            e.properties.put("color", "red");
+            return e;
+        }
+
+        @Override
+        public WorldModel observe(String agentId) {
+            WorldModel wom = new WorldModel();
+            wom.agentId = agentId;
+            wom.elements.put("d1", door("d1", d1open));
+            wom.elements.put("d2", door("d2", d2open));
+            wom.timestamp = time++;
+            for (var e : wom.elements.values())
+                e.assignTimeStamp(wom.timestamp);
+            return wom;
+        }
+    }
+
+    int countGuardEval = 0;
+
+    @Test
+    public void test_guard_reuse() {
+        var env = new DoorsEnv();
+        var state = new Iv4xrAgentState<Void>();
+        state.setEnvironment(env);
+        state.enableChangeTracking();
+
+        var a = action("a").on((Iv4xrAgentState<Void> S) -> {
+            countGuardEval++;
+            return S.worldmodel.getElement("d1").getBooleanProperty("isOpen") ? true : null;
+        }).dependsOnIds("d1");
+
+        state.updateState("agent");
+        assertFalse(a.isEnabled(state));
+        assertEquals(1, countGuardEval);
+
+        // nothing changes, the previous result is re-used:
+        state.updateState("agent");
+        assertFalse(a.isEnabled(state));
+        assertEquals(1, countGuardEval);
+
+        // d2 changes, but the guard does not depend on it:
+        env.d2open = true;
+        state.updateState("agent");
+        assertFalse(a.isEnabled(state));
+        assertEquals(1, countGuardEval);
+
+        // d1 changes:
+        env.d1open = true;
+        state.updateState("agent");
+        assertTrue(a.isEnabled(state));
+        assertEquals(2, countGuardEval);
+        state.updateState("agent");
+        assertTrue(a.isEnabled(state));
+        assertEquals(2, countGuardEval);
+
+        // depending on a property rather than an id; the change of d2 should now
+        // trigger re-evaluation, but not the unchanged "color":
+        countGuardEval = 0;
+        var b = action("b").on((Iv4xrAgentState<Void> S) -> {
+            countGuardEval++;
+            return true;
+        }).dependsOnProperties("isOpen");
+        var c = action("c").on((Iv4xrAgentState<Void> S) -> {
+            countGuardEval += 10;
+            return true;
+        }).dependsOnProperties("color");
+        assertTrue(b.isEnabled(state));
+        assertTrue(c.isEnabled(state));
+        assertEquals(11, countGuardEval);
+        env.d2open = false;
+        state.updateState("agent");
+        assertTrue(b.isEnabled(state));
+        assertTrue(c.isEnabled(state));
+        assertEquals(12, countGuardEval);
+
+        // without a change tracker, guards are always evaluated:
+        var state2 = new Iv4xrAgentState<Void>();
+        state2.setEnvironment(env);
+        state2.updateState("agent");
+        countGuardEval = 0;
+        a.isEnabled(state2);
+        a.isEnabled(state2);
+        assertEquals(2, countGuardEval);
+    }
+
+    @Test
+    public void test_delta_observations() {
+        // an environment that only reports d1, and the removal of d2:
+        var env = new DoorsEnv() {
+            boolean d2removed = false;
+
+            @Override
+            public WorldModel observeDelta(String agentId, long sinceTimestamp) {
+                var wom = observe(agentId);
+                wom.deltaSince = sinceTimestamp;
+                wom.elements.remove("d2");
+                if (d2removed)
+                    wom.removedElements = java.util.Set.of("d2");
+                return wom;
+            }
+        };
+        var state = new Iv4xrAgentState<Void>().useDeltaObservations(true);
+        state.setEnvironment(env);
+        state.enableChangeTracking();
+        var a = action("a").on((Iv4xrAgentState<Void> S) -> {
+            countGuardEval++;
+            return S.worldmodel.contains("d2") ? null : true;
+        }).dependsOnIds("d2");
+
+        // the first observation is a full one:
+        state.updateState("agent");
+        assertTrue(state.worldmodel.contains("d2"));
+        assertFalse(a.isEnabled(state));
+        state.updateState("agent");
+        assertEquals(1, state.worldmodel.getElement("d2").timestamp);
+        assertEquals(0, state.worldmodel.getElement("d2").lastStutterTimestamp);
+        assertFalse(a.isEnabled(state));
+        assertEquals(1, countGuardEval);
+
+        // the removal of d2 is registered as a change:
+        env.d2removed = true;
+        state.updateState("agent");
+        assertFalse(state.worldmodel.contains("d2"));
+        assertTrue(a.isEnabled(state));
+        assertEquals(2, countGuardEval);
+    }
+
+}
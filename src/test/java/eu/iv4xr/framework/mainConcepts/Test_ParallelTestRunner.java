@@ -0,0 +1,119 @@
+package eu.iv4xr.framework.mainConcepts;
+
+import static nl.uu.cs.aplib.AplibEDSL.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import eu.iv4xr.framework.mainConcepts.ObservationEvent.VerdictEvent;
+import nl.uu.cs.aplib.agents.State;
+import nl.uu.cs.aplib.environments.NullEnvironment;
+
+public class Test_ParallelTestRunner {
+
+    static class MyState extends State {
+        int counter = 0;
+    }
+
+    /**
+     * An agent that counts up to a random target, and reports a pass verdict at
+     * every step.
+     */
+    static TestAgent countingAgent(ParallelTestRunner.Run run) {
+        int target = 3 + run.random.nextInt(10);
+        var agent = new TestAgent(run.agentId("counter"), "tester");
+        var a = action("count").do1((MyState S) -> {
+            S.counter++;
+            agent.registerVerdict(new VerdictEvent("count", "" + S.counter, true));
+            return S.counter;
+        }).lift();
+        return agent.attachState(new MyState().setEnvironment(new NullEnvironment()))
+                .setGoal(goal("g").toSolve((Integer x) -> x == target).withTactic(a).lift());
+    }
+
+    @Test
+    public void test_runs() throws InterruptedException {
+        var runner = new ParallelTestRunner();
+        runner.poolSize = 4;
+        runner.seed = 42;
+        var destroyed = new AtomicInteger();
+        runner.agentConstructor = Test_ParallelTestRunner::countingAgent;
+        runner.agentDestructor = agent -> destroyed.incrementAndGet();
+
+        var results = runner.run(20);
+        assertEquals(20, results.size());
+        assertEquals(20, destroyed.get());
+        int totalTurns = 0;
+        for (int k = 0; k < 20; k++) {
+            var R = results.get(k);
+            assertEquals(k, R.index);
+            assertTrue(R.success(), R.toString());
+            assertEquals("counter#" + k, R.agentId);
+            assertTrue(R.turns >= 3 && R.turns < 13);
+            assertEquals(R.turns, runner.dataCollector.getNumberOfPassVerdictsSeen(R.agentId));
+            totalTurns += R.turns;
+        }
+        assertEquals(totalTurns, runner.dataCollector.getNumberOfPassVerdictsSeen());
+
+        // a run can be repeated on its own, with the same seed and outcome:
+        var runner2 = new ParallelTestRunner();
+        runner2.seed = 42;
+        runner2.agentConstructor = Test_ParallelTestRunner::countingAgent;
+        var R = runner2.run(List.of(13)).get(0);
+        assertEquals(results.get(13).seed, R.seed);
+        assertEquals(results.get(13).turns, R.turns);
+    }
+
+    @Test
+    public void test_failing_runs() throws InterruptedException {
+        var runner = new ParallelTestRunner();
+        runner.poolSize = 3;
+        runner.maxTurnsPerRun = 2;
+        runner.agentConstructor = run -> {
+            if (run.index == 1)
+                throw new IllegalStateException("the SUT does not start");
+            var agent = countingAgent(run);
+            // agents with the same id:
+            if (run.index >= 3)
+                return new TestAgent("same", "tester").attachState(agent.state()).setGoal(SUCCESS());
+            return agent;
+        };
+        var results = runner.run(5);
+        assertFalse(results.get(0).success());
+        assertNull(results.get(0).exception);
+        assertNull(results.get(0).status);
+        assertEquals(2, results.get(0).turns);
+        assertTrue(results.get(1).exception instanceof IllegalStateException);
+        assertNull(results.get(1).agentId);
+        // one of the two agents named "same" runs, the other is rejected:
+        assertTrue(results.get(3).success() ^ results.get(4).success());
+        assertTrue(results.get(3).exception instanceof IllegalArgumentException
+                ^ results.get(4).exception instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void test_run_logs() throws Exception {
+        var dir = new File("tmp/runlogs");
+        var runner = new ParallelTestRunner();
+        runner.poolSize = 2;
+        runner.logDirectory = dir.getPath();
+        runner.agentConstructor = Test_ParallelTestRunner::countingAgent;
+        runner.run(4);
+        for (int k = 0; k < 4; k++) {
+            var log = new File(dir, "run-" + k + ".log");
+            var content = Files.readString(log.toPath());
+            assertTrue(content.contains("counter#" + k));
+            for (int j = 0; j < 4; j++)
+                if (j != k)
+                    assertFalse(content.contains("counter#" + j));
+            Files.delete(log.toPath());
+        }
+        Files.delete(dir.toPath());
+    }
+
+}
@@ -200,4 +200,28 @@ public class Test_TestDataCollector {
 		return new ObservationEvent.ScalarTracingEvent(data) ;
 	}
 
+	@Test
+	public void test_concurrent_agents() throws InterruptedException {
+		var collector = new TestDataCollector() ;
+		collector.startTrackingCoveragePoint("button1");
+		var threads = new Thread[8] ;
+		for (int k = 0; k < threads.length; k++) {
+			String agent = "agent" + k ;
+			threads[k] = new Thread(() -> {
+				collector.registerTestAgent(agent);
+				for (int i = 0; i < 1000; i++) {
+					collector.registerVisit(agent, new ObservationEvent.CoveragePointEvent("family", "button1"));
+					collector.registerEvent(agent, new ObservationEvent.VerdictEvent("family", "info", i % 2 == 0));
+				}
+			}) ;
+			threads[k].start();
+		}
+		for (var t : threads) t.join();
+		assertEquals(8000, collector.getCollectiveCoverage().get("button1")) ;
+		assertEquals(1000, collector.getTestAgentCoverage("agent3").get("button1")) ;
+		assertEquals(4000, collector.getNumberOfPassVerdictsSeen()) ;
+		assertEquals(4000, collector.getNumberOfFailVerdictsSeen()) ;
+		assertEquals(1000, collector.getTestAgentTrace("agent5").size()) ;
+	}
+
 }
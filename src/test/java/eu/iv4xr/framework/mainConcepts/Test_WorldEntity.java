@@ -4,9 +4,18 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import eu.iv4xr.framework.spatial.Vec3;
+
 public class Test_WorldEntity {
 
     WorldEntity door(String id) {
@@ -44,6 +53,39 @@ public class Test_WorldEntity {
 
     }
 
+    @Test
+    public void test_fingerprint() {
+        var bag1 = bag("bag1");
+        bag1.position = new Vec3(1, 0, 1);
+        bag1.properties.put("weight", 3);
+        bag1.properties.put("color", "red");
+        bag1.elements.put("excalibur", door("excalibur"));
+        var bag2 = bag("bag1");
+        bag2.position = new Vec3(1, 0, 1);
+        bag2.properties.put("color", "red");
+        bag2.properties.put("weight", 3);
+        bag2.elements.put("excalibur", door("excalibur"));
+        Assertions.assertEquals(bag1.fingerprint(), bag2.fingerprint());
+        assertTrue(bag1.hasSameState(bag2));
+
+        // the fingerprint is cached until the state is declared changed:
+        bag2.elements.get("excalibur").properties.put("isOpen", true);
+        Assertions.assertEquals(bag1.fingerprint(), bag2.fingerprint());
+        // the deep comparison still notices the change:
+        assertFalse(bag1.hasSameState(bag2));
+        bag2.stateChanged();
+        Assertions.assertNotEquals(bag1.fingerprint(), bag2.fingerprint());
+        assertFalse(bag1.hasSameState(bag2));
+
+        bag2.elements.get("excalibur").properties.put("isOpen", false);
+        bag2.position = new Vec3(1, 1, 0);
+        bag2.stateChanged();
+        Assertions.assertNotEquals(bag1.fingerprint(), bag2.fingerprint());
+        bag2.position = new Vec3(1, 0, 1);
+        bag2.stateChanged();
+        Assertions.assertEquals(bag1.fingerprint(), bag2.fingerprint());
+    }
+
     @Test
     public void test_getProperty() {
         var door = door("d1");
@@ -75,4 +117,88 @@ public class Test_WorldEntity {
 
     }
 
+    @Test
+    public void test_deepclone() throws Exception {
+        var bag = bag("b1");
+        bag.position = new Vec3(1, 2, 3);
+        bag.properties.put("weight", 10);
+        bag.properties.put("owner", "frodo");
+        bag.properties.put("pos", new Vec3(4, 5, 6));
+        bag.properties.put("slots", new int[] { 1, 2 });
+        bag.properties.put("tiles", new Serializable[] { new Serializable[] { 1, new Vec3(0) }, "x" });
+        bag.properties.put("items", new LinkedList<>(List.of("i1", "i2")));
+        bag.properties.put("sorted", new TreeMap<>(Map.of("a", 1)));
+        var s = sword("excalibur");
+        s.position = new Vec3(1, 2, 3);
+        bag.elements.put(s.id, s);
+        var old = bag("b1");
+        bag.linkPreviousState(old);
+        bag.timestamp = 5;
+
+        var copy = bag.deepclone();
+        Assertions.assertEquals(10, copy.properties.get("weight"));
+        Assertions.assertEquals(5, copy.timestamp);
+        Assertions.assertNotSame(bag.position, copy.position);
+        Assertions.assertEquals(bag.position, copy.position);
+        Assertions.assertSame(bag.properties.get("owner"), copy.properties.get("owner"));
+        Assertions.assertNotSame(bag.properties.get("pos"), copy.properties.get("pos"));
+        Assertions.assertArrayEquals((int[]) bag.properties.get("slots"), (int[]) copy.properties.get("slots"));
+        var tiles = (Serializable[]) copy.properties.get("tiles");
+        Assertions.assertEquals(new Vec3(0), ((Serializable[]) tiles[0])[1]);
+        Assertions.assertNotSame(((Serializable[]) bag.properties.get("tiles"))[0], tiles[0]);
+        Assertions.assertEquals(bag.properties.get("items"), copy.properties.get("items"));
+        Assertions.assertNotSame(bag.properties.get("items"), copy.properties.get("items"));
+        Assertions.assertEquals(TreeMap.class, copy.properties.get("sorted").getClass());
+        Assertions.assertEquals(bag.properties.get("sorted"), copy.properties.get("sorted"));
+        Assertions.assertNotSame(s, copy.elements.get("excalibur"));
+        Assertions.assertNotSame(old, copy.getPreviousState());
+        Assertions.assertEquals("b1", copy.getPreviousState().id);
+
+        // changing the copy does not change the original:
+        copy.position.x = 10;
+        ((int[]) copy.properties.get("slots"))[0] = 10;
+        copy.elements.get("excalibur").position.x = 10;
+        Assertions.assertEquals(1, bag.position.x);
+        Assertions.assertEquals(1, ((int[]) bag.properties.get("slots"))[0]);
+        Assertions.assertEquals(1, s.position.x);
+    }
+
+    static class Chest extends WorldEntity {
+        private static final long serialVersionUID = 1L;
+        int gold;
+
+        Chest(String id, int gold) {
+            super(id, "chest", true);
+            this.gold = gold;
+        }
+    }
+
+    @Test
+    public void test_deepclone_keeps_class_and_aliases() throws Exception {
+        // an object referred to from several places is copied once:
+        var bag = bag("b1");
+        var items = new ArrayList<String>(List.of("i1"));
+        bag.position = new Vec3(1, 2, 3);
+        bag.properties.put("pos", bag.position);
+        bag.properties.put("items", items);
+        bag.properties.put("same items", items);
+        var copy = bag.deepclone();
+        Assertions.assertNotSame(items, copy.properties.get("items"));
+        Assertions.assertSame(copy.properties.get("items"), copy.properties.get("same items"));
+        Assertions.assertSame(copy.position, copy.properties.get("pos"));
+
+        // a subclass is copied with its own fields:
+        var chest = new Chest("c1", 100);
+        chest.properties.put("items", items);
+        chest.properties.put("same items", items);
+        bag.elements.put(chest.id, chest);
+        copy = bag.deepclone();
+        var chestCopy = copy.elements.get("c1");
+        Assertions.assertEquals(Chest.class, chestCopy.getClass());
+        Assertions.assertNotSame(chest, chestCopy);
+        Assertions.assertEquals(100, ((Chest) chestCopy).gold);
+        Assertions.assertSame(chestCopy.properties.get("items"), chestCopy.properties.get("same items"));
+        Assertions.assertEquals(Chest.class, chest.deepclone().getClass());
+    }
+
 }
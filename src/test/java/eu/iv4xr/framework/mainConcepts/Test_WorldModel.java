@@ -124,4 +124,215 @@ public class Test_WorldModel {
 
     }
 
+    @Test
+    public void test_mergeDeltaObservation() {
+        WorldModel wom = world(0);
+        wom.mergeNewObservation(world(10));
+
+        // a delta in which only d2 changes; d1 and excalibur are unchanged:
+        WorldModel delta = new WorldModel();
+        delta.timestamp = 20;
+        delta.deltaSince = 10;
+        var d2 = door("d2");
+        d2.properties.put("isOpen", true);
+        d2.assignTimeStamp(20);
+        delta.elements.put("d2", d2);
+        var changed = wom.mergeNewObservation(delta);
+        Assertions.assertEquals(1, changed.size());
+        assertTrue(changed.get(0) == d2);
+        assertTrue(wom.getElement("d2").getBooleanProperty("isOpen"));
+        Assertions.assertEquals(20, wom.timestamp);
+        // the unchanged entities are observed again, and keep stuttering since time 0:
+        Assertions.assertEquals(20, wom.getElement("d1").timestamp);
+        Assertions.assertEquals(0, wom.getElement("d1").lastStutterTimestamp);
+        Assertions.assertEquals(20, wom.getElement("excalibur").timestamp);
+        Assertions.assertEquals(-1, wom.getElement("d2").lastStutterTimestamp);
+
+        // an empty delta with a tombstone:
+        WorldModel delta2 = new WorldModel();
+        delta2.timestamp = 30;
+        delta2.deltaSince = 20;
+        delta2.removedElements = java.util.Set.of("excalibur");
+        changed = wom.mergeNewObservation(delta2);
+        assertTrue(changed.isEmpty());
+        assertFalse(wom.contains("excalibur"));
+        Assertions.assertEquals(30, wom.getElement("d2").timestamp);
+        Assertions.assertEquals(20, wom.getElement("d2").lastStutterTimestamp);
+
+        // a delta relative to a later time than the WorldModel cannot be merged:
+        WorldModel delta3 = new WorldModel();
+        delta3.timestamp = 50;
+        delta3.deltaSince = 40;
+        assertThrows(IllegalArgumentException.class, () -> wom.mergeNewObservation(delta3));
+    }
+
+    @Test
+    public void test_mergeStaleEntity() {
+        WorldModel wom = world(0);
+        wom.mergeNewObservation(world(10));
+
+        // an observation with a stale copy of d1, from time 5, with the same state;
+        // it is not taken to be observed again at time 20:
+        WorldModel obs = new WorldModel();
+        obs.timestamp = 20;
+        var d1 = door("d1");
+        d1.assignTimeStamp(5);
+        obs.elements.put("d1", d1);
+        assertTrue(wom.mergeNewObservation(obs).isEmpty());
+        Assertions.assertEquals(10, wom.getElement("d1").timestamp);
+
+        // but the instance of d1 in wom itself, or one it was copied from, is:
+        var snap = wom.snapshot();
+        var d1Instance = wom.getElement("d1");
+        obs.timestamp = 30;
+        obs.elements.put("d1", d1Instance);
+        wom.mergeNewObservation(obs);
+        Assertions.assertEquals(30, wom.getElement("d1").timestamp);
+        Assertions.assertEquals(10, snap.getElement("d1").timestamp);
+        obs.timestamp = 40;
+        wom.mergeNewObservation(obs);
+        assertTrue(wom.getElement("d1") != d1Instance);
+        Assertions.assertEquals(40, wom.getElement("d1").timestamp);
+    }
+
+    @Test
+    public void test_mergeMutatedObservation() {
+        WorldModel wom = world(0);
+        wom.mergeNewObservation(world(10));
+
+        // the fingerprint of d1 is cached, and then d1 is changed in place without
+        // calling stateChanged():
+        WorldModel obs = world(20);
+        var d1 = obs.getElement("d1");
+        assertTrue(d1.hasSameState(wom.getElement("d1")));
+        d1.properties.put("isOpen", true);
+        var changed = wom.mergeNewObservation(obs);
+        Assertions.assertEquals(1, changed.size());
+        assertTrue(changed.get(0) == d1);
+        assertTrue(wom.getElement("d1").getBooleanProperty("isOpen"));
+        assertFalse(wom.getElement("d1").hasSameState(wom.getElement("d1").getPreviousState()));
+
+        // likewise for updateEntity:
+        var d2 = door("d2");
+        d2.assignTimeStamp(30);
+        assertTrue(d2.hasSameState(wom.getElement("d2")));
+        d2.properties.put("isOpen", true);
+        assertTrue(wom.updateEntity(d2) == d2);
+        assertFalse(d2.hasSameState(d2.getPreviousState()));
+
+        // the other way around: a stale fingerprint of a different state must not
+        // make an unchanged entity look changed:
+        WorldModel wom2 = world(0);
+        WorldModel obs2 = world(10);
+        var d1b = obs2.getElement("d1");
+        d1b.properties.put("isOpen", true);
+        assertFalse(d1b.hasSameState(wom2.getElement("d1")));
+        d1b.properties.put("isOpen", false);
+        assertTrue(wom2.mergeNewObservation(obs2).isEmpty());
+        Assertions.assertEquals(10, wom2.getElement("d1").timestamp);
+    }
+
+    @Test
+    public void test_snapshot() {
+        WorldModel wom = world(0);
+        WorldModel snap0 = wom.snapshot();
+        Assertions.assertSame(wom.getElement("d1"), snap0.getElement("d1"));
+
+        // d2 changes; d1 and excalibur stutter:
+        WorldModel obs = world(10);
+        obs.getElement("d2").properties.put("isOpen", true);
+        var changed = wom.mergeNewObservation(obs);
+        Assertions.assertEquals(1, changed.size());
+        WorldModel snap1 = wom.snapshot();
+
+        // the snapshot still has the old state:
+        Assertions.assertEquals(0, snap0.timestamp);
+        Assertions.assertEquals(0, snap0.getElement("d1").timestamp);
+        Assertions.assertEquals(-1, snap0.getElement("d1").lastStutterTimestamp);
+        assertFalse(snap0.getElement("d2").getBooleanProperty("isOpen"));
+        Assertions.assertNull(snap0.getElement("d2").getPreviousState());
+        Assertions.assertEquals(10, wom.getElement("d1").timestamp);
+        Assertions.assertEquals(0, wom.getElement("d1").lastStutterTimestamp);
+        assertTrue(wom.getElement("d2").getBooleanProperty("isOpen"));
+        assertFalse(wom.getElement("d2").getPreviousState().getBooleanProperty("isOpen"));
+        Assertions.assertEquals(0, wom.getElement("d2").getPreviousState().timestamp);
+
+        // a delta in which nothing changes, and excalibur is removed:
+        WorldModel delta = new WorldModel();
+        delta.timestamp = 20;
+        delta.deltaSince = 10;
+        delta.removedElements = java.util.Set.of("excalibur");
+        wom.mergeNewObservation(delta);
+        Assertions.assertEquals(20, wom.getElement("d2").timestamp);
+        Assertions.assertEquals(10, snap1.getElement("d2").timestamp);
+        assertFalse(wom.contains("excalibur"));
+        assertTrue(snap1.contains("excalibur"));
+        assertTrue(snap0.contains("excalibur"));
+        // entities that did not change since the last snapshot are still shared:
+        Assertions.assertSame(snap1.getElement("d2").getPreviousState(), wom.getElement("d2").getPreviousState());
+
+        // backtracking: a snapshot can be updated on its own:
+        WorldModel wom2 = snap1.snapshot();
+        WorldModel obs2 = world(30);
+        wom2.mergeNewObservation(obs2);
+        assertFalse(wom2.getElement("d2").getBooleanProperty("isOpen"));
+        assertTrue(snap1.getElement("d2").getBooleanProperty("isOpen"));
+        assertTrue(wom.getElement("d2").getBooleanProperty("isOpen"));
+        Assertions.assertEquals(30, wom2.timestamp);
+        Assertions.assertEquals(10, snap1.timestamp);
+
+        // an older observation is also merged without affecting the snapshots:
+        WorldModel wom3 = snap0.snapshot();
+        wom3.timestamp = 10;
+        WorldModel old = world(5);
+        old.getElement("d1").properties.put("isOpen", true);
+        wom3.mergeNewObservation(world(10));
+        wom3.mergeOldObservation(old);
+        assertTrue(wom3.getElement("d1").getPreviousState().getBooleanProperty("isOpen"));
+        Assertions.assertNull(snap0.getElement("d1").getPreviousState());
+        Assertions.assertEquals(0, snap0.getElement("d1").timestamp);
+    }
+
+    static class Lamp extends WorldEntity {
+        private static final long serialVersionUID = 1L;
+        int watt;
+
+        Lamp(String id, int watt) {
+            super(id, "lamp", true);
+            this.watt = watt;
+        }
+    }
+
+    @Test
+    public void test_snapshot_copies() {
+        WorldModel wom = world(0);
+        var lamp = new Lamp("lamp", 40);
+        lamp.assignTimeStamp(0);
+        wom.updateEntity(lamp);
+        WorldModel snap = wom.snapshot();
+
+        // removing an entity does not affect the snapshot:
+        Assertions.assertSame(wom.getElement("d1"), wom.removeEntity("d1"));
+        Assertions.assertNull(wom.removeEntity("d1"));
+        assertFalse(wom.contains("d1"));
+        assertTrue(snap.contains("d1"));
+
+        // an entity observed again is copied, keeping its class and its state:
+        WorldModel obs = world(10);
+        obs.removeEntity("d1");
+        var lamp2 = new Lamp("lamp", 40);
+        lamp2.assignTimeStamp(10);
+        obs.elements.put(lamp2.id, lamp2);
+        assertTrue(wom.mergeNewObservation(obs).isEmpty());
+        var copy = wom.getElement("lamp");
+        Assertions.assertNotSame(lamp, copy);
+        assertTrue(copy instanceof Lamp);
+        Assertions.assertEquals(40, ((Lamp) copy).watt);
+        Assertions.assertSame(lamp.properties, copy.properties);
+        Assertions.assertEquals(10, copy.timestamp);
+        Assertions.assertEquals(0, copy.lastStutterTimestamp);
+        Assertions.assertEquals(0, snap.getElement("lamp").timestamp);
+        Assertions.assertEquals(-1, snap.getElement("lamp").lastStutterTimestamp);
+    }
+
 }
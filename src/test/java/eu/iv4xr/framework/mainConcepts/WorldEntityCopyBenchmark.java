@@ -0,0 +1,113 @@
+package eu.iv4xr.framework.mainConcepts;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.LinkedList;
+
+import eu.iv4xr.framework.spatial.Vec3;
+
+/**
+ * A benchmark that compares {@link WorldEntity#deepclone()} with copying an
+ * entity by serializing and deserializing it, which is how deepclone used to
+ * work. It uses two kinds of entities: a flat one, with properties like those
+ * of the player in MiniDungeon, and a nested one, like an agent in Lab
+ * Recruits that carries an inventory of sub-entities.
+ *
+ * <p>
+ * This is not a unit test; run it as a main program, with the test classes on
+ * the classpath.
+ */
+public class WorldEntityCopyBenchmark {
+
+    static WorldEntity miniDungeonPlayer() {
+        var e = new WorldEntity("Frodo", "FRODO", true);
+        e.position = new Vec3(5, 0, 7);
+        e.properties.put("maze", 0);
+        e.properties.put("hp", 10);
+        e.properties.put("hpmax", 20);
+        e.properties.put("ar", 1);
+        e.properties.put("score", 100);
+        e.properties.put("bagUsed", 2);
+        e.properties.put("maxBagSize", 2);
+        e.properties.put("scrollsInBag", 1);
+        e.properties.put("healpotsInBag", 1);
+        e.properties.put("ragepotsInBag", 0);
+        e.properties.put("itemsInBag", new LinkedList<>(java.util.List.of("S0_1", "H0_3")));
+        e.properties.put("rageTimer", 0);
+        e.timestamp = 10;
+        return e;
+    }
+
+    static WorldEntity labRecruitsAgent() {
+        var e = new WorldEntity("agent0", "Agent", true);
+        e.position = new Vec3(10.5f, 0, 3.25f);
+        e.extent = new Vec3(0.2f, 0.75f, 0.2f);
+        e.velocity = new Vec3(0.1f, 0, 0);
+        e.properties.put("health", 100);
+        e.properties.put("score", 42);
+        e.properties.put("mood", "happy");
+        e.properties.put("lastVisible", new int[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        for (int k = 0; k < 10; k++) {
+            var item = new WorldEntity("item" + k, "Collectible", true);
+            item.position = new Vec3(k, 0, k);
+            item.extent = new Vec3(0.5f);
+            item.properties.put("points", k * 10);
+            item.properties.put("isCollected", k % 2 == 0);
+            for (int j = 0; j < 3; j++) {
+                var part = new WorldEntity("item" + k + "." + j, "Part", false);
+                part.position = new Vec3(k, j, k);
+                part.properties.put("tag", "p" + j);
+                item.elements.put(part.id, part);
+            }
+            e.elements.put(item.id, item);
+        }
+        e.timestamp = 10;
+        return e;
+    }
+
+    static WorldEntity serializationClone(WorldEntity e) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bos);
+        out.writeObject(e);
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+        return (WorldEntity) in.readObject();
+    }
+
+    interface Copier {
+        WorldEntity copy(WorldEntity e) throws Exception;
+    }
+
+    static Serializable sink;
+
+    static double measure(WorldEntity e, Copier copier, int iterations) throws Exception {
+        long t0 = System.nanoTime();
+        for (int k = 0; k < iterations; k++)
+            sink = copier.copy(e);
+        return (double) (System.nanoTime() - t0) / iterations;
+    }
+
+    static void compare(String name, WorldEntity e, int iterations) throws Exception {
+        double serialization = measure(e, WorldEntityCopyBenchmark::serializationClone, iterations);
+        double structural = measure(e, WorldEntity::deepclone, iterations);
+        System.out.println(String.format("%-14s  serialization ns/copy=%10.0f  deepclone ns/copy=%8.0f  speedup=%5.1fx",
+                name, serialization, structural, serialization / structural));
+    }
+
+    public static void main(String[] args) throws Exception {
+        var player = miniDungeonPlayer();
+        var agent = labRecruitsAgent();
+        // warm up:
+        for (int k = 0; k < 3; k++) {
+            measure(player, WorldEntityCopyBenchmark::serializationClone, 20000);
+            measure(player, WorldEntity::deepclone, 20000);
+            measure(agent, WorldEntityCopyBenchmark::serializationClone, 2000);
+            measure(agent, WorldEntity::deepclone, 2000);
+        }
+        compare("MiniDungeon", player, 100000);
+        compare("LabRecruits", agent, 10000);
+    }
+
+}
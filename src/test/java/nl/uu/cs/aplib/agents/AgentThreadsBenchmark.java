@@ -0,0 +1,108 @@
+package nl.uu.cs.aplib.agents;
+
+import static nl.uu.cs.aplib.AplibEDSL.*;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import nl.uu.cs.aplib.Logging;
+import nl.uu.cs.aplib.environments.NullEnvironment;
+
+/**
+ * A benchmark comparing running {@link AutonomousBasicAgent}s on ordinary
+ * platform threads with running them on the threads of
+ * {@link AutonomousBasicAgent#lightweightThreadFactory()} (virtual threads, if
+ * the JVM supports them). For an increasing number of agents it reports the
+ * heap memory used while all agents are idle in their loops, and the update
+ * throughput when all of them are given a goal at once. Note that the stacks
+ * of platform threads live outside the heap, so they are not included in the
+ * reported memory.
+ *
+ * <p>
+ * This is not a unit test; run it as a main program, with the test classes on
+ * the classpath. An optional argument specifies the agent counts, e.g.
+ * "100,1000,10000".
+ */
+public class AgentThreadsBenchmark {
+
+    static class MyState extends State {
+        int counter = 0;
+    }
+
+    static final int UPDATES_PER_AGENT = 20;
+
+    static final Logger logger = Logging.getAPLIBlogger();
+
+    static long usedMemory() {
+        Runtime rt = Runtime.getRuntime();
+        for (int k = 0; k < 3; k++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+            }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    static void run(String label, ThreadFactory factory, int N) {
+        long mem0 = usedMemory();
+        AutonomousBasicAgent[] agents = new AutonomousBasicAgent[N];
+        Thread[] threads = new Thread[N];
+        for (int k = 0; k < N; k++) {
+            agents[k] = new AutonomousBasicAgent("agent" + k, "worker")
+                    .attachState(new MyState().setEnvironment(new NullEnvironment())).setSamplingInterval(0);
+        }
+        // creating an agent resets the logging level, so turn logging off here:
+        logger.setLevel(Level.OFF);
+        for (int k = 0; k < N; k++) {
+            threads[k] = agents[k].start(factory);
+        }
+        // all agents are now idle, waiting for a goal:
+        long mem1 = usedMemory();
+
+        long t0 = System.nanoTime();
+        for (var agent : agents) {
+            var a = action("a").do1((MyState S) -> {
+                S.counter++;
+                return S.counter;
+            }).lift();
+            agent.setGoal(goal("g").toSolve((Integer x) -> x == UPDATES_PER_AGENT).withTactic(a).lift());
+        }
+        for (var agent : agents)
+            agent.waitUntilTheGoalIsConcluded();
+        long elapsed = System.nanoTime() - t0;
+
+        for (var agent : agents)
+            agent.stop();
+        for (var t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+            }
+        }
+        double throughput = (double) N * UPDATES_PER_AGENT / (elapsed / 1e9);
+        System.out.println(String.format("%-12s agents=%6d  memory/agent=%8.1f KB  updates/s=%12.0f  elapsed=%8.1f ms",
+                label, N, (mem1 - mem0) / 1024.0 / N, throughput, elapsed / 1e6));
+    }
+
+    public static void main(String[] args) {
+        int[] counts = { 100, 1000, 10000 };
+        if (args.length > 0) {
+            String[] s = args[0].split(",");
+            counts = new int[s.length];
+            for (int k = 0; k < s.length; k++)
+                counts[k] = Integer.parseInt(s[k].trim());
+        }
+        System.out.println("Virtual threads supported: " + AutonomousBasicAgent.virtualThreadsSupported());
+        // warm up:
+        run("(warmup)", Thread::new, 100);
+        run("(warmup)", AutonomousBasicAgent.lightweightThreadFactory(), 100);
+        for (int N : counts) {
+            run("platform", Thread::new, N);
+            run("lightweight", AutonomousBasicAgent.lightweightThreadFactory(), N);
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package nl.uu.cs.aplib.agents;
+
+import static nl.uu.cs.aplib.AplibEDSL.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import nl.uu.cs.aplib.agents.AgentScheduler.RoundMode;
+import nl.uu.cs.aplib.environments.NullEnvironment;
+import nl.uu.cs.aplib.mainConcepts.GoalStructure;
+import nl.uu.cs.aplib.multiAgentSupport.ComNode;
+import nl.uu.cs.aplib.multiAgentSupport.Message;
+import nl.uu.cs.aplib.multiAgentSupport.Message.MsgCastType;
+
+public class Test_AgentScheduler {
+
+    static class MyState extends State {
+        int counter = 0;
+    }
+
+    static AutonomousBasicAgent mkAgent(String id) {
+        var state = (MyState) (new MyState().setEnvironment(new NullEnvironment()));
+        return new AutonomousBasicAgent(id, "worker").attachState(state);
+    }
+
+    static GoalStructure countTo(int n, List<String> trace, String agentId) {
+        var a = action("a").do1((MyState S) -> {
+            S.counter++;
+            if (trace != null) {
+                synchronized (trace) {
+                    trace.add(agentId);
+                }
+            }
+            return S.counter;
+        }).lift();
+        return goal("g").toSolve((Integer k) -> k == n).withTactic(a).lift();
+    }
+
+    static int counter(AutonomousBasicAgent agent) {
+        return ((MyState) agent.state()).counter;
+    }
+
+    @Test
+    public void test_lockstep_pause_resume_stop() {
+        var A = mkAgent("A");
+        var B = mkAgent("B");
+        var C = mkAgent("C");
+        var comNode = new ComNode();
+        A.registerTo(comNode);
+        B.registerTo(comNode);
+        C.registerTo(comNode);
+        var scheduler = new AgentScheduler(2).add(A).add(B).add(C);
+        A.setGoal(countTo(3, null, "A"));
+        B.setGoal(countTo(10, null, "B"));
+        C.setGoal(countTo(10, null, "C"));
+
+        assertEquals(3, scheduler.runRound());
+        assertEquals(1, counter(A));
+        assertEquals(1, counter(B));
+        assertEquals(1, counter(C));
+
+        B.pause();
+        assertEquals(2, scheduler.runRound());
+        assertEquals(1, counter(B));
+
+        // a message resumes B:
+        A.messenger().send("A", 0, MsgCastType.SINGLECAST, "B", "wake up");
+        assertEquals(3, scheduler.runRound());
+        assertEquals(2, counter(B));
+        assertTrue(B.messenger().has((Message m) -> m.getMsgName().equals("wake up")));
+
+        // A concludes its goal:
+        assertFalse(A.hasGoal());
+        assertEquals(2, scheduler.runRound());
+        assertEquals(3, counter(A));
+
+        // a stopped agent is removed from the scheduler:
+        C.stop();
+        assertEquals(1, scheduler.runRound());
+        assertFalse(scheduler.getAgents().contains(C));
+        assertEquals(2, scheduler.getAgents().size());
+
+        assertEquals(5, scheduler.getNumberOfRounds());
+        assertTrue(scheduler.getMaxRoundLatency() >= scheduler.getLastRoundLatency());
+        assertTrue(scheduler.getAverageRoundLatency() > 0);
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void test_priority_rounds() {
+        var A = mkAgent("A");
+        var B = mkAgent("B");
+        var C = mkAgent("C");
+        List<String> trace = new LinkedList<>();
+        var scheduler = new AgentScheduler(4, RoundMode.PRIORITY).add(A, 1).add(B, 5).add(C, 3);
+        A.setGoal(countTo(10, trace, "A"));
+        B.setGoal(countTo(10, trace, "B"));
+        C.setGoal(countTo(10, trace, "C"));
+        scheduler.runRound();
+        scheduler.runRound();
+        assertEquals(List.of("B", "C", "A", "B", "C", "A"), trace);
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void test_loop() {
+        List<AutonomousBasicAgent> agents = new LinkedList<>();
+        var scheduler = new AgentScheduler(4);
+        for (int k = 0; k < 50; k++) {
+            var agent = mkAgent("agent" + k);
+            agents.add(agent);
+            scheduler.add(agent);
+        }
+        new Thread(() -> scheduler.loop()).start();
+        // goals given while the scheduler is idle wake it up:
+        for (var agent : agents)
+            agent.setGoal(countTo(5, null, agent.getId()));
+        for (var agent : agents)
+            agent.waitUntilTheGoalIsConcluded();
+        for (var agent : agents)
+            assertEquals(5, counter(agent));
+        scheduler.shutdown();
+    }
+
+}
@@ -267,4 +267,36 @@ public class Test_AutonomousBasicAgent {
         agent1.stop();
     }
 
+    @Test
+    public void test_lightweight_threads() {
+        // run many agents, each on a lightweight thread:
+        int N = 1000;
+        AutonomousBasicAgent[] agents = new AutonomousBasicAgent[N];
+        Thread[] threads = new Thread[N];
+        for (int k = 0; k < N; k++) {
+            agents[k] = new AutonomousBasicAgent("agent" + k, "worker")
+                    .attachState(new MyState().setEnvironment(new NullEnvironment())).setSamplingInterval(0);
+            threads[k] = agents[k].start(AutonomousBasicAgent.lightweightThreadFactory());
+        }
+        for (var agent : agents) {
+            var a0 = action("a0").do1((MyState S) -> {
+                S.counter++;
+                return S.counter;
+            }).lift();
+            agent.setGoal(goal("g").toSolve((Integer x) -> x == 3).withTactic(a0).lift());
+        }
+        for (var agent : agents) {
+            agent.waitUntilTheGoalIsConcluded();
+            assertEquals(3, ((MyState) agent.state()).counter);
+            agent.stop();
+        }
+        for (var t : threads) {
+            try {
+                t.join(5000);
+            } catch (InterruptedException e) {
+            }
+            assertFalse(t.isAlive());
+        }
+    }
+
 }
@@ -123,4 +123,130 @@ public class Test_InterAgentCommunication {
         var ack = agent1.messenger().send("D1", 0, MsgCastType.SINGLECAST, "P1", "blabla");
         assertFalse(ack.success());
     }
+
+    @Test
+    public void test_topics() {
+        var comNode = new ComNode();
+        var agents = new AutonomousBasicAgent[4];
+        for (int k = 0; k < agents.length; k++) {
+            agents[k] = new AutonomousBasicAgent("A" + k, "worker")
+                    .attachState(new MyState().setEnvironment(new NullEnvironment())).registerTo(comNode);
+        }
+        agents[0].subscribeTo("doors");
+        agents[1].subscribeTo("doors", M -> M.getMsgName().equals("open"));
+        agents[2].subscribeTo("doors");
+        agents[2].subscribeTo("fire");
+        assertEquals(3, comNode.numberOfSubscribers("doors"));
+
+        assertTrue(agents[0].messenger().send("A0", 0, MsgCastType.TOPICCAST, "doors", "open").success());
+        assertTrue(agents[3].messenger().send("A3", 0, MsgCastType.TOPICCAST, "doors", "close").success());
+        assertTrue(agents[3].messenger().send("A3", 0, MsgCastType.TOPICCAST, "nobody listens", "x").success());
+        // the sender does not receive its own message:
+        assertEquals(1, agents[0].messenger().size());
+        assertTrue(agents[0].messenger().has("close", "A3"));
+        assertEquals(1, agents[1].messenger().size());
+        assertTrue(agents[1].messenger().has("open", "A0"));
+        assertEquals(2, agents[2].messenger().size());
+        assertEquals(0, agents[3].messenger().size());
+
+        // re-subscribing replaces the filter:
+        agents[1].subscribeTo("doors", M -> M.getMsgName().equals("close"));
+        assertEquals(3, comNode.numberOfSubscribers("doors"));
+        agents[2].unsubscribeFrom("doors");
+        comNode.deregister(agents[0]);
+        assertEquals(1, comNode.numberOfSubscribers("doors"));
+        agents[3].messenger().send("A3", 0, MsgCastType.TOPICCAST, "doors", "close");
+        assertEquals(2, agents[1].messenger().size());
+        assertEquals(2, agents[2].messenger().size());
+        assertEquals(1, agents[0].messenger().size());
+
+        var stranger = new AutonomousBasicAgent("S", "worker")
+                .attachState(new MyState().setEnvironment(new NullEnvironment()));
+        assertThrows(IllegalStateException.class, () -> stranger.subscribeTo("doors"));
+        assertThrows(IllegalArgumentException.class, () -> comNode.subscribe(stranger, "doors"));
+    }
+
+    @Test
+    public void test_null_id_and_role() {
+        // agents without a role, or even without an id, can still register:
+        var comNode = new ComNode();
+        var noRole = new AutonomousBasicAgent("R", null)
+                .attachState(new MyState().setEnvironment(new NullEnvironment())).registerTo(comNode);
+        var noId = new AutonomousBasicAgent()
+                .attachState(new MyState().setEnvironment(new NullEnvironment())).registerTo(comNode);
+        var teacher = new AutonomousBasicAgent("T", "teacher")
+                .attachState(new MyState().setEnvironment(new NullEnvironment())).registerTo(comNode);
+
+        assertTrue(teacher.messenger().send("T", 0, MsgCastType.ROLECAST, null, "RC").success());
+        assertTrue(noRole.messenger().has("RC", null));
+        assertTrue(noId.messenger().has("RC", null));
+        assertFalse(teacher.messenger().has("RC", null));
+        assertTrue(teacher.messenger().send("T", 0, MsgCastType.SINGLECAST, null, "SC").success());
+        assertTrue(noId.messenger().has("SC", null));
+        assertTrue(noId.messenger().send(null, 0, MsgCastType.SINGLECAST, "R", "hi").success());
+        assertTrue(noRole.messenger().has("hi", null));
+        assertTrue(teacher.messenger().send("T", 0, MsgCastType.TOPICCAST, null, "TC").success());
+
+        comNode.deregister(noId);
+        assertFalse(teacher.messenger().send("T", 0, MsgCastType.SINGLECAST, null, "SC").success());
+        comNode.deregister(noRole);
+        noRole.messenger().retrieve("RC", null);
+        assertTrue(teacher.messenger().send("T", 0, MsgCastType.ROLECAST, null, "RC").success());
+        assertFalse(noRole.messenger().has("RC", null));
+    }
+
+    @Test
+    public void test_concurrentSend() throws InterruptedException {
+        // many threads sending at the same time, while agents join and leave:
+        var comNode = new ComNode();
+        int N = 8;
+        int M = 500;
+        var agents = new AutonomousBasicAgent[N];
+        for (int k = 0; k < N; k++) {
+            agents[k] = new AutonomousBasicAgent("A" + k, k % 2 == 0 ? "even" : "odd")
+                    .attachState(new MyState().setEnvironment(new NullEnvironment())).registerTo(comNode);
+        }
+        var threads = new Thread[N];
+        for (int k = 0; k < N; k++) {
+            var sender = agents[k];
+            threads[k] = new Thread(() -> {
+                for (int i = 0; i < M; i++) {
+                    assertTrue(sender.messenger().send(sender.getId(), 0, MsgCastType.BROADCAST, null, "BC", i).success());
+                    assertTrue(sender.messenger().send(sender.getId(), 0, MsgCastType.ROLECAST, "even", "RC", i).success());
+                }
+            });
+        }
+        var churn = new Thread(() -> {
+            for (int i = 0; i < M; i++) {
+                var guest = new AutonomousBasicAgent("guest", "even")
+                        .attachState(new MyState().setEnvironment(new NullEnvironment())).registerTo(comNode);
+                comNode.deregister(guest);
+            }
+        });
+        for (var t : threads)
+            t.start();
+        churn.start();
+        for (var t : threads)
+            t.join();
+        churn.join();
+
+        for (int k = 0; k < N; k++) {
+            var messenger = agents[k].messenger();
+            // only the even agents receive the rolecasts:
+            assertEquals((N - 1) * M * (k % 2 == 0 ? 2 : 1), messenger.size());
+            // messages from the same sender arrive in the order they were sent:
+            for (int j = 0; j < N; j++) {
+                String senderId = "A" + j;
+                int i = 0;
+                Message m;
+                while ((m = messenger.retrieve(x -> x.getIdSource().equals(senderId)
+                        && x.getMsgName().equals("BC"))) != null) {
+                    assertEquals(i, m.getArgs()[0]);
+                    i++;
+                }
+                assertEquals(j == k ? 0 : M, i);
+            }
+        }
+        assertFalse(comNode.send(new Message("guest", 0, MsgCastType.BROADCAST, null, "BC")).success());
+    }
 }
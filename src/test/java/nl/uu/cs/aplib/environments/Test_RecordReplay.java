@@ -0,0 +1,106 @@
+package nl.uu.cs.aplib.environments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import nl.uu.cs.aplib.mainConcepts.Environment;
+
+public class Test_RecordReplay {
+
+    static class CounterEnv extends Environment {
+        int counter = 0;
+
+        @Override
+        public Object observe(String agentId) {
+            return new ArrayList<>(List.of(agentId, counter));
+        }
+
+        @Override
+        protected Object sendCommand_(EnvOperation cmd) {
+            switch (cmd.command) {
+            case "incr":
+                counter += (Integer) cmd.arg;
+                return counter;
+            case "big":
+                return new byte[(Integer) cmd.arg];
+            default:
+                throw new IllegalArgumentException("unknown command " + cmd.command);
+            }
+        }
+
+        @Override
+        public void resetWorker() {
+            counter = 0;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    void runSession(Environment env) {
+        env.resetAndInstrument();
+        assertEquals(List.of("A", 0), env.observe("A"));
+        assertEquals(3, env.sendCommand("A", "c", "incr", 3));
+        assertEquals(5, env.sendCommand("B", "c", "incr", 2));
+        var e = assertThrows(IllegalArgumentException.class, () -> env.sendCommand("A", "c", "fly", null));
+        assertEquals("unknown command fly", e.getMessage());
+        var obs = (List<Object>) env.observe("B");
+        assertEquals(List.of("B", 5), obs);
+        // results are fresh copies, so they can be modified:
+        obs.add("modified");
+    }
+
+    @Test
+    public void test_record_and_replay() throws Exception {
+        Files.createDirectories(Paths.get("tmp"));
+        String file = "tmp/session.oplog";
+        var recorder = new RecordingEnvironment(new CounterEnv(), file);
+        runSession(recorder);
+        recorder.close();
+
+        var replay = new ReplayEnvironment(file);
+        for (int k = 0; k < 100; k++) {
+            runSession(replay);
+            assertTrue(replay.isFinished());
+        }
+        assertEquals(200, replay.getCommandLatencies().get("incr").count());
+
+        // a replay that diverges from the log:
+        replay.rewind();
+        replay.resetWorker();
+        assertEquals(List.of("A", 0), replay.observe("A"));
+        assertThrows(IllegalStateException.class, () -> replay.sendCommand("A", "c", "decr", 3));
+        Files.delete(Paths.get(file));
+    }
+
+    @Test
+    public void test_large_and_unclosed_log() throws Exception {
+        Files.createDirectories(Paths.get("tmp"));
+        String file = "tmp/large.oplog";
+        var recorder = new RecordingEnvironment(new CounterEnv(), file);
+        // more than the initially mapped size of the log:
+        for (int k = 0; k < 5; k++)
+            recorder.sendCommand("A", null, "big", 400000);
+        recorder.sendCommand("A", null, "incr", 1);
+
+        // the entries can be read before the log is closed:
+        var log = new OperationLog.Reader(file);
+        assertEquals(6, log.size());
+        assertEquals(400000, ((byte[]) log.get(4).result()).length);
+        assertEquals(1, log.get(5).result());
+        recorder.close();
+        assertTrue(Files.size(Paths.get(file)) < 2100000);
+
+        var replay = new ReplayEnvironment(file);
+        for (int k = 0; k < 5; k++)
+            replay.sendCommand("A", null, "big", 400000);
+        assertEquals(1, replay.sendCommand("A", null, "incr", 1));
+        assertThrows(IllegalStateException.class, () -> replay.sendCommand("A", null, "incr", 1));
+        Files.delete(Paths.get(file));
+    }
+
+}
@@ -0,0 +1,172 @@
+package nl.uu.cs.aplib.events;
+
+import static nl.uu.cs.aplib.AplibEDSL.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import nl.uu.cs.aplib.environments.NullEnvironment;
+import nl.uu.cs.aplib.events.AgentEvent.EventType;
+import nl.uu.cs.aplib.mainConcepts.BasicAgent;
+import nl.uu.cs.aplib.mainConcepts.SimpleState;
+
+public class Test_AgentEvents {
+
+    static class MyState extends SimpleState {
+        int counter = 0;
+
+        @Override
+        public void updateState(String agentId) {
+        }
+    }
+
+    static List<EventType> types(List<AgentEvent> events) {
+        return events.stream().map(e -> e.type).collect(Collectors.toList());
+    }
+
+    @Test
+    public void test_agent_events() {
+        var state = (MyState) (new MyState().setEnvironment(new NullEnvironment()));
+        var ringbuffer = new RingBufferEventSink(64);
+        var agent = new BasicAgent("agent", "role").attachState(state).addEventSink(ringbuffer);
+
+        var a = action("a").do1((MyState S) -> {
+            S.counter++;
+            return S.counter;
+        }).lift();
+        var g1 = goal("g1").toSolve((Integer k) -> k == 1).withTactic(a).lift();
+        var g2 = goal("g2").toSolve((Integer k) -> k == 100).withTactic(a).lift().maxbudget(2);
+        agent.setGoal(SEQ(g1, g2));
+        while (agent.hasGoal())
+            agent.update();
+
+        var events = ringbuffer.snapshot();
+        assertEquals(List.of(EventType.GOAL_SET, EventType.ACTION_EXECUTED, EventType.GOAL_SOLVED,
+                EventType.GOAL_SWITCHED, EventType.ACTION_EXECUTED, EventType.ACTION_EXECUTED,
+                EventType.BUDGET_EXHAUSTED, EventType.GOAL_FAILED, EventType.GOAL_FAILED, EventType.GOAL_DETACHED),
+                types(events));
+        assertTrue(events.stream().allMatch(e -> e.agentId.equals("agent")));
+        assertEquals("g1", events.get(2).name);
+        assertEquals("g2", events.get(3).name);
+        assertEquals("a", events.get(1).name);
+        assertTrue(events.get(1).duration > 0);
+        // the first action solved g1, the others did not solve g2:
+        assertTrue(events.get(1).success);
+        assertFalse(events.get(4).success || events.get(5).success);
+        // g2 fails, and with it the SEQ:
+        assertEquals("g2", events.get(7).name);
+        assertEquals("SEQ", events.get(8).name);
+        assertFalse(events.get(9).success);
+
+        // after removing the sink, nothing is published to it anymore:
+        agent.removeEventSink(ringbuffer);
+        agent.setGoal(goal("g3").toSolve((Integer k) -> true).withTactic(a).lift());
+        agent.update();
+        assertEquals(10, ringbuffer.publishedCount());
+    }
+
+    @Test
+    public void test_goal_failed() {
+        var state = (MyState) (new MyState().setEnvironment(new NullEnvironment()));
+        var ringbuffer = new RingBufferEventSink(64);
+        var agent = new BasicAgent("agent", "role").attachState(state).addEventSink(ringbuffer);
+        var g1 = goal("g1").toSolve((Integer k) -> true).withTactic(ABORT()).lift();
+        var g2 = goal("g2").toSolve((Integer k) -> true).withTactic(ABORT()).lift();
+        var g3 = goal("g3").toSolve((Integer k) -> true).withTactic(ABORT()).lift();
+        // g1 failing does not fail the FIRSTOF, but g2 failing fails both the
+        // FIRSTOF and the SEQ:
+        agent.setGoal(SEQ(FIRSTof(g1, g2), g3));
+        while (agent.hasGoal())
+            agent.update();
+
+        var failed = ringbuffer.snapshot().stream().filter(e -> e.type == EventType.GOAL_FAILED).map(e -> e.name)
+                .collect(Collectors.toList());
+        assertEquals(List.of("g1", "g2", "FIRSTOF", "SEQ"), failed);
+    }
+
+    @Test
+    public void test_ringbuffer() {
+        var ringbuffer = new RingBufferEventSink(5);
+        assertEquals(8, ringbuffer.capacity());
+        for (int k = 0; k < 20; k++)
+            ringbuffer.publish(new AgentEvent(EventType.GOAL_SET, "agent", "g" + k));
+        var events = ringbuffer.snapshot();
+        assertEquals(8, events.size());
+        assertEquals("g12", events.get(0).name);
+        assertEquals("g19", events.get(7).name);
+        var recent = ringbuffer.eventsSince(18);
+        assertEquals(2, recent.size());
+        assertEquals("g18", recent.get(0).name);
+
+        // concurrent writers:
+        var ringbuffer2 = new RingBufferEventSink(1024);
+        Thread[] writers = new Thread[4];
+        for (int w = 0; w < writers.length; w++) {
+            final String id = "agent" + w;
+            writers[w] = new Thread(() -> {
+                for (int k = 0; k < 200; k++)
+                    ringbuffer2.publish(new AgentEvent(EventType.GOAL_SET, id, "g"));
+            });
+            writers[w].start();
+        }
+        for (var t : writers) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+            }
+        }
+        assertEquals(800, ringbuffer2.publishedCount());
+        assertEquals(800, ringbuffer2.snapshot().size());
+    }
+
+    @Test
+    public void test_asyncFileSink() throws Exception {
+        String file = "tmp/agentevents.txt";
+        Files.createDirectories(Paths.get("tmp"));
+        var state = (MyState) (new MyState().setEnvironment(new NullEnvironment()));
+        var sink = new AsyncFileEventSink(file);
+        var agent = new BasicAgent("agent", "role").attachState(state).addEventSink(sink);
+        var a = action("a").do1((MyState S) -> {
+            S.counter++;
+            return S.counter;
+        }).lift();
+        agent.setGoal(goal("g").toSolve((Integer k) -> k == 3).withTactic(a).lift());
+        while (agent.hasGoal())
+            agent.update();
+        sink.close();
+
+        var lines = Files.readAllLines(Paths.get(file));
+        // GOAL_SET, 3x ACTION_EXECUTED, GOAL_SOLVED, GOAL_DETACHED:
+        assertEquals(6, lines.size());
+        assertTrue(lines.get(0).contains("agent GOAL_SET"));
+        assertTrue(lines.get(5).contains("GOAL_DETACHED g (success)"));
+        assertEquals(0, sink.droppedCount());
+        Files.delete(Paths.get(file));
+    }
+
+    @Test
+    public void test_file_sink_failure() throws Exception {
+        // writing to /dev/full always fails:
+        assumeTrue(new File("/dev/full").exists());
+        var sink = new AsyncFileEventSink("/dev/full", 4);
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            // the writer dies on the first flush, and the queue then fills up:
+            for (int k = 0; k < 100; k++) {
+                sink.publish(new AgentEvent(EventType.GOAL_SET, "agent", "g"));
+                Thread.sleep(1);
+            }
+            assertTrue(sink.droppedCount() > 0);
+            assertThrows(IOException.class, () -> sink.close());
+        });
+    }
+
+}
@@ -24,6 +24,44 @@ public class Test_BasicAgent {
         }
     }
 
+    @Test
+    public void test_change_tracking_without_registered_changes() {
+        // MyState tracks changes, but its updateState() does not register them:
+        var state = (MyState) new MyState().setEnvironment(new ConsoleEnvironment()).enableChangeTracking();
+        var agent = new BasicAgent().attachState(state);
+        var even = action("even").do1((MyState S) -> {
+            S.last = "even";
+            S.counter++;
+            return S.counter;
+        }).on_((MyState S) -> S.counter % 2 == 0).dependsOnIds("counter");
+        var odd = action("odd").do1((MyState S) -> {
+            S.last = "odd";
+            S.counter++;
+            return S.counter;
+        }).on_((MyState S) -> S.counter % 2 == 1).dependsOnIds("counter");
+        agent.setGoal(goal("g").toSolve((Integer k) -> k == 4).withTactic(FIRSTof(even.lift(), odd.lift())).lift());
+        // so the guards must be re-evaluated at every update:
+        agent.update();
+        assertEquals("even", state.last);
+        agent.update();
+        assertEquals("odd", state.last);
+        agent.update();
+        assertEquals("even", state.last);
+
+        // the updateState() of SimpleState itself registers everything as changed:
+        var state2 = new SimpleState() {
+            int counter = 0;
+        };
+        state2.setEnvironment(new nl.uu.cs.aplib.environments.NullEnvironment()).enableChangeTracking();
+        var a = action("a").do1((SimpleState S) -> 0).on_((SimpleState S) -> state2.counter > 0).dependsOnIds("counter");
+        state2.updateState("agent");
+        assertFalse(a.isEnabled(state2));
+        state2.counter++;
+        assertFalse(a.isEnabled(state2));
+        state2.updateState("agent");
+        assertTrue(a.isEnabled(state2));
+    }
+
     @Test
     public void test_with_oneaction() {
         var state = (MyState) (new MyState().setEnvironment(new ConsoleEnvironment()));
@@ -49,6 +87,74 @@ public class Test_BasicAgent {
         assertTrue(state.counter == 2);
         assertTrue(topgoal.getStatus().success());
         assertTrue(agent.goalstack.isEmpty());
+
+        // latencies are recorded per action and per goal:
+        var latencies = a0.getActionLatencies().get("a0");
+        assertEquals(2, latencies.count());
+        assertTrue(latencies.max() > 0);
+        assertEquals(2, topgoal.getLatencies().count());
+        assertTrue(topgoal.getLatencies().min() >= latencies.min());
+        assertTrue(a0.showStatistics().contains("latency: #=2"));
+        a0.resetStatistics();
+        assertEquals(0, a0.getActionLatencies().get("a0").count());
+    }
+
+    @Test
+    public void test_with_compiledTactics() {
+        var state = (MyState) (new MyState().setEnvironment(new ConsoleEnvironment()));
+        var agent = new BasicAgent().attachState(state).useCompiledTactics(true);
+
+        var a0 = action("a0").do1((MyState S) -> {
+            S.counter++;
+            return S.counter;
+        }).on_((MyState S) -> S.counter < 2).lift();
+        var a1 = action("a1").do1((MyState S) -> {
+            S.counter += 10;
+            return S.counter;
+        }).lift();
+        var topgoal = goal("g").toSolve((Integer k) -> k == 12).withTactic(SEQ(a0, FIRSTof(a0, a1))).lift();
+
+        agent.setGoal(topgoal);
+        assertTrue(topgoal.goal.getTactic().compiled != null);
+        agent.update();
+        assertTrue(state.counter == 1);
+        agent.update();
+        assertTrue(state.counter == 2);
+        assertTrue(topgoal.getStatus().inProgress());
+        // a0 is now disabled, so FIRSTof falls through to a1:
+        agent.update();
+        assertTrue(state.counter == 12);
+        assertTrue(topgoal.getStatus().success());
+        assertTrue(agent.goalstack.isEmpty());
+    }
+
+    @Test
+    public void test_growing_goalstructure() {
+        // grow a SEQ goal-structure to thousands of goals with addAfter, while the
+        // agent is working on it:
+        var state = (MyState) (new MyState().setEnvironment(new ConsoleEnvironment()));
+        var agent = new BasicAgent().attachState(state);
+        var a0 = action("a0").do1((MyState S) -> {
+            S.counter++;
+            return S.counter;
+        }).lift();
+        var g0 = goal("g0").toSolve((Integer k) -> k == 1).withTactic(a0).lift();
+        var last = goal("last").toSolve((Integer k) -> true).withTactic(a0).lift();
+        var topgoal = SEQ(g0, last);
+        agent.setGoal(topgoal);
+        int N = 3000;
+        for (int i = 1; i <= N; i++) {
+            final int k = i + 1;
+            agent.addAfter(goal("g" + i).toSolve((Integer x) -> x == k).withTactic(a0).lift());
+            agent.update();
+            assertEquals(i + 2, topgoal.subgoals.size());
+            assertEquals(i, agent.goalstack.currentPrimitiveGoal().positionInParent());
+        }
+        // solve gN, and then the last goal:
+        agent.update();
+        agent.update();
+        assertTrue(topgoal.getStatus().success());
+        assertEquals(N + 2, state.counter);
     }
 
     @Test
@@ -2,6 +2,8 @@ package nl.uu.cs.aplib.mainConcepts;
 
 import java.util.*;
 
+import static nl.uu.cs.aplib.AplibEDSL.*;
+
 import org.junit.jupiter.api.Test;
 
 import nl.uu.cs.aplib.mainConcepts.Environment;
@@ -120,4 +122,359 @@ public class Test_Environment {
 
     }
 
+    @Test
+    public void test_readwrite_locking() {
+        var env = new MyEnv();
+        env.useLockingMode(Environment.LockingMode.READ_WRITE);
+        var state = new SimpleState().setEnvironment(env);
+        var agent = new BasicAgent().attachState(state);
+        List<String> log = new LinkedList<>();
+
+        var a = action("a").do1((SimpleState S) -> {
+            log.add("exec:" + env.rwlock.isWriteLockedByCurrentThread() + "," + env.rwlock.getReadHoldCount());
+            S.env().sendCommand("agent", "x", "incrx", null);
+            return env.x;
+        }).on_((SimpleState S) -> {
+            log.add("guard:" + env.rwlock.isWriteLockedByCurrentThread() + "," + env.rwlock.getReadHoldCount());
+            return true;
+        }).lift();
+        agent.setGoal(goal("g").toSolve((Integer x) -> x == 1).withTactic(a).lift());
+        agent.update();
+        assertEquals(List.of("guard:false,1", "exec:true,0"), log);
+        assertEquals(1, env.x);
+        assertEquals(0, env.rwlock.getReadHoldCount());
+        assertFalse(env.rwlock.isWriteLocked());
+    }
+
+    @Test
+    public void test_readwrite_locking_interleaved() {
+        var env = new MyEnv();
+        env.useLockingMode(Environment.LockingMode.READ_WRITE);
+        var state = new SimpleState().setEnvironment(env);
+        var agent = new BasicAgent().attachState(state);
+        List<String> log = new LinkedList<>();
+        boolean[] interleave = { true };
+
+        var a = action("a").do1((SimpleState S) -> {
+            log.add("exec");
+            S.env().sendCommand("agent", "x", "incrx", null);
+            return env.x;
+        }).on_((SimpleState S) -> {
+            log.add("guard:" + env.y);
+            boolean enabled = env.y < 2;
+            if (interleave[0]) {
+                // pretend that another agent executes an action, right after this
+                // agent releases its read-lock:
+                interleave[0] = false;
+                env.y++;
+                env.writePhases++;
+            }
+            return enabled;
+        }).lift();
+        agent.setGoal(goal("g").toSolve((Integer x) -> x == 2).withTactic(a).lift());
+
+        // the guard is re-checked when another agent has acted in between:
+        agent.update();
+        assertEquals(List.of("guard:0", "guard:1", "exec"), log);
+        assertEquals(1, env.x);
+        // not when nobody did:
+        log.clear();
+        agent.update();
+        assertEquals(List.of("guard:1", "exec"), log);
+        assertEquals(2, env.x);
+
+        // the chosen action is not executed when it is no longer enabled:
+        agent.setGoal(goal("h").toSolve((Integer x) -> x == 3).withTactic(a).lift());
+        log.clear();
+        interleave[0] = true;
+        agent.update();
+        assertEquals(List.of("guard:1", "guard:2"), log);
+        assertEquals(2, env.x);
+        assertEquals(0, env.rwlock.getReadHoldCount());
+        assertFalse(env.rwlock.isWriteLocked());
+    }
+
+    @Test
+    public void test_striped_locking() throws InterruptedException {
+        // two commands to different targets should be able to run at the same time:
+        var bothInside = new java.util.concurrent.CountDownLatch(2);
+        var env = new MyEnv() {
+            @Override
+            protected Object sendCommand_(EnvOperation opr) {
+                assertTrue(((java.util.concurrent.locks.ReentrantLock) stripeLock(opr.targetId)).isHeldByCurrentThread());
+                bothInside.countDown();
+                try {
+                    bothInside.await(5, java.util.concurrent.TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                }
+                return this;
+            }
+        };
+        env.useStripedLocking(16);
+        assertEquals(Environment.LockingMode.STRIPED, env.getLockingMode());
+        assertTrue(env.stripeLock("a") != env.stripeLock("b"));
+        var t = new Thread(() -> env.sendCommand("agent1", "a", "incrx", null));
+        t.start();
+        env.sendCommand("agent2", "b", "incry", null);
+        t.join();
+        assertEquals(0, bothInside.getCount());
+    }
+
+    @Test
+    public void test_command_latencies() {
+        var env = new MyEnv();
+        env.sendCommand("A", null, "incrx", null);
+        env.sendCommand("A", null, "incrx", null);
+        env.sendCommand("A", null, "incry", null);
+        var latencies = env.getCommandLatencies();
+        assertEquals(2, latencies.size());
+        assertEquals(2, latencies.get("incrx").count());
+        assertEquals(1, latencies.get("incry").count());
+        assertTrue(latencies.get("incrx").max() > 0);
+        env.resetCommandLatencies();
+        assertTrue(env.getCommandLatencies().isEmpty());
+    }
+
+    @Test
+    public void test_sendCommandAsync() throws Exception {
+        var release = new java.util.concurrent.CountDownLatch(1);
+        var env = new MyEnv() {
+            @Override
+            protected Object sendCommand_(EnvOperation opr) {
+                if (opr.command.equals("crash"))
+                    throw new IllegalStateException("crash");
+                try {
+                    release.await(10, java.util.concurrent.TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                }
+                super.sendCommand_(opr);
+                return opr.command.equals("incrx") ? x : y;
+            }
+        };
+        var instrumenter = new MyInstrumenter();
+        env.registerInstrumenter(instrumenter);
+        env.turnOnDebugInstrumentation();
+
+        // the calls return without waiting for the commands, which are blocked
+        // until they are released:
+        var f1 = env.sendCommandAsync("A", null, "incrx", null);
+        var f2 = env.sendCommandAsync("A", null, "incry", null);
+        var f3 = env.sendCommandAsync("A", null, "incrx", null, Integer.class);
+        assertFalse(f1.isDone() || f2.isDone() || f3.isDone());
+        assertEquals(0, env.x);
+        release.countDown();
+
+        // the commands are executed in the order they were sent:
+        assertEquals(2, f3.get());
+        assertEquals(1, f1.get());
+        assertEquals(1, f2.get());
+        assertEquals(3, instrumenter.history.size());
+        assertEquals("incrx", env.getLastOperation().command);
+        assertEquals(2, env.getCommandLatencies().get("incrx").count());
+
+        var f4 = env.sendCommandAsync("A", null, "crash", null);
+        var e = assertThrows(java.util.concurrent.ExecutionException.class, () -> f4.get());
+        assertTrue(e.getCause() instanceof IllegalStateException);
+
+        // a result of another type than the expected one:
+        var f5 = env.sendCommandAsync("A", null, "incrx", null, String.class);
+        e = assertThrows(java.util.concurrent.ExecutionException.class, () -> f5.get());
+        assertTrue(e.getCause() instanceof ClassCastException);
+        env.shutdownAsyncExecutor();
+    }
+
+    @Test
+    public void test_sendCommandAsync_locking() throws Exception {
+        // in the EXCLUSIVE mode, an asynchronous command waits until the one
+        // holding the Environment releases it:
+        var env = new MyEnv();
+        env.lock.lock();
+        var f1 = env.sendCommandAsync("A", null, "incrx", null);
+        Thread.sleep(100);
+        assertFalse(f1.isDone());
+        env.lock.unlock();
+        f1.get();
+        assertEquals(1, env.x);
+        env.shutdownAsyncExecutor();
+
+        // in the READ_WRITE mode, it waits for the readers:
+        env.useLockingMode(Environment.LockingMode.READ_WRITE);
+        env.rwlock.readLock().lock();
+        var f2 = env.sendCommandAsync("A", null, "incrx", null);
+        Thread.sleep(100);
+        assertFalse(f2.isDone());
+        env.rwlock.readLock().unlock();
+        f2.get();
+        assertEquals(2, env.x);
+        env.shutdownAsyncExecutor();
+
+        // in the STRIPED mode, it can run alongside the readers:
+        env.useStripedLocking(4);
+        env.rwlock.readLock().lock();
+        env.sendCommandAsync("A", null, "incrx", null).get();
+        env.rwlock.readLock().unlock();
+        assertEquals(3, env.x);
+        env.shutdownAsyncExecutor();
+    }
+
+    @Test
+    public void test_sendCommandAsync_json() throws Exception {
+        var env = new nl.uu.cs.aplib.environments.JsonEnvironment() {
+            @Override
+            protected Object sendCommand_(EnvOperation cmd) {
+                if (cmd.command.equals("stream"))
+                    return new java.io.StringReader("[1, 2, 3]");
+                return "{\"x\": 7}";
+            }
+        };
+        // the replies are parsed, as with sendCommand:
+        var f1 = env.sendCommandAsync("A", null, "get", null, Map.class);
+        var f2 = env.sendCommandAsync("A", null, "stream", null, int[].class);
+        var f3 = env.sendCommandAsync("A", null, "get", null);
+        assertEquals(7.0, ((Map<?, ?>) f1.get()).get("x"));
+        assertArrayEquals(new int[] { 1, 2, 3 }, (int[]) f2.get());
+        assertNull(f3.get());
+        assertEquals(3, env.getCommandLatencies().values().stream().mapToLong(L -> L.count()).sum());
+        env.shutdownAsyncExecutor();
+    }
+
+    @Test
+    public void test_sendCommands() {
+        var env = new MyEnv();
+        var instrumenter = new MyInstrumenter();
+        env.registerInstrumenter(instrumenter);
+        env.turnOnDebugInstrumentation();
+        env.useStripedLocking(4);
+        var batch = List.of(new Environment.EnvOperation("A", "a", "incrx", null, null),
+                new Environment.EnvOperation("A", "b", "incry", null, null),
+                new Environment.EnvOperation("A", "a", "incrx", null, null));
+        var results = env.sendCommands(batch);
+        assertEquals(3, results.size());
+        assertTrue(batch.stream().allMatch(cmd -> cmd.result == env));
+        assertEquals(2, env.x);
+        assertEquals(1, env.y);
+        // each command is instrumented, after the whole batch is done:
+        assertEquals(3, instrumenter.history.size());
+        assertEquals(2, instrumenter.history.get(0).x);
+        assertEquals("incrx", env.getLastOperation().command);
+        assertEquals(2, env.getCommandLatencies().get("incrx").count());
+        assertTrue(env.sendCommands(List.of()).isEmpty());
+    }
+
+    @Test
+    public void test_sendCommands_json() {
+        List<String> sent = new LinkedList<>();
+        var env = new nl.uu.cs.aplib.environments.JsonEnvironment() {
+            @Override
+            protected boolean supportsBatches() {
+                return true;
+            }
+
+            @Override
+            protected String sendBatch_(String batch) {
+                sent.add(batch);
+                return "[3, null, \"ok\", [1, 2]]";
+            }
+        };
+        // a registered decoder reads the result's Json element directly:
+        env.registerDecoder(StringBuilder.class, in -> {
+            var z = new StringBuilder();
+            in.beginArray();
+            while (in.hasNext())
+                z.append(in.nextInt());
+            in.endArray();
+            return z;
+        });
+        var batch = List.of(new Environment.EnvOperation("A", "a", "count", 1, Integer.class),
+                new Environment.EnvOperation("A", null, "nothing", null, Integer.class),
+                new Environment.EnvOperation("A", "b", "move", "up", String.class),
+                new Environment.EnvOperation("A", null, "list", null, StringBuilder.class));
+        var results = env.sendCommands(batch);
+        assertEquals(Arrays.asList(3, null, "ok"), results.subList(0, 3));
+        assertEquals("12", results.get(3).toString());
+        // the bytes received are divided over the commands:
+        assertEquals(5, env.snapshotCommandMetrics().get("count").bytesReceived);
+        // the batch is sent in a single round trip, as one Json array:
+        assertEquals(1, sent.size());
+        assertEquals("[{\"invokerId\":\"A\",\"targetId\":\"a\",\"command\":\"count\",\"arg\":1},"
+                + "{\"invokerId\":\"A\",\"targetId\":null,\"command\":\"nothing\",\"arg\":null},"
+                + "{\"invokerId\":\"A\",\"targetId\":\"b\",\"command\":\"move\",\"arg\":\"up\"},"
+                + "{\"invokerId\":\"A\",\"targetId\":null,\"command\":\"list\",\"arg\":null}]", sent.get(0));
+    }
+
+    @Test
+    public void test_sendCommands_json_bad_reply() {
+        String[] reply = { null };
+        var env = new nl.uu.cs.aplib.environments.JsonEnvironment() {
+            @Override
+            protected boolean supportsBatches() {
+                return true;
+            }
+
+            @Override
+            protected String sendBatch_(String batch) {
+                return reply[0];
+            }
+        };
+        var batch = List.of(new Environment.EnvOperation("A", "a", "count", 1, Integer.class),
+                new Environment.EnvOperation("A", "b", "count", 1, Integer.class));
+        for (String r : new String[] { null, "", "[1]", "[1, 2, 3]" }) {
+            reply[0] = r;
+            assertThrows(com.google.gson.JsonParseException.class, () -> env.sendCommands(batch));
+        }
+        reply[0] = "[1, 2]";
+        assertEquals(List.of(1, 2), env.sendCommands(batch));
+    }
+
+    @Test
+    public void test_command_metrics() throws InterruptedException {
+        var env = new MyEnv() {
+            @Override
+            protected Object sendCommand_(EnvOperation opr) {
+                if (opr.command.equals("crash"))
+                    throw new IllegalStateException("crash");
+                return null;
+            }
+        };
+        // metrics are recorded without the debug-mode, also from multiple threads:
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int k = 0; k < 500; k++)
+                    env.sendCommand("A", null, "incrx", null);
+            });
+            threads[t].start();
+        }
+        for (var t : threads)
+            t.join();
+        assertThrows(IllegalStateException.class, () -> env.sendCommand("A", null, "crash", null));
+        var metrics = env.snapshotCommandMetrics();
+        assertEquals(List.of("crash", "incrx"), new ArrayList<>(metrics.keySet()));
+        assertEquals(2000, metrics.get("incrx").count);
+        assertEquals(2000, metrics.get("incrx").latencies.count());
+        assertEquals(0, metrics.get("incrx").failures);
+        assertEquals(0, metrics.get("crash").count);
+        assertEquals(1, metrics.get("crash").failures);
+
+        env.resetCommandMetrics();
+        assertTrue(env.snapshotCommandMetrics().isEmpty());
+    }
+
+    @Test
+    public void test_command_bytes() {
+        var env = new nl.uu.cs.aplib.environments.JsonEnvironment() {
+            @Override
+            protected Object sendCommand_(EnvOperation cmd) {
+                return "\"h\u00e9\"";
+            }
+        };
+        env.sendCommand("A", null, "hello", null, String.class);
+        env.sendCommand("A", null, "hello", null, String.class);
+        var metrics = env.snapshotCommandMetrics().get("hello");
+        assertEquals(2, metrics.count);
+        // the reply is 5 bytes in UTF-8:
+        assertEquals(10, metrics.bytesReceived);
+        assertEquals(0, metrics.bytesSent);
+    }
+
 }
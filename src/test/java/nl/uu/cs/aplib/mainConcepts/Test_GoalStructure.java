@@ -480,4 +480,72 @@ public class Test_GoalStructure {
     	
     }
 
+    @Test
+    public void test_positionInParent() {
+        setup();
+        assertEquals(0, a.positionInParent());
+        assertEquals(2, g5.positionInParent());
+        assertEquals(b, a.nextSibling());
+        assertNull(g5.nextSibling());
+        assertTrue(g5.isLastSubgoal());
+        assertFalse(a.isLastSubgoal());
+        assertEquals(-1, d.positionInParent());
+
+        // insertion through the goal-structure itself:
+        var h = goal("h").lift();
+        c.insertSubgoal(1, h);
+        assertEquals(c, h.parent);
+        assertEquals(1, h.positionInParent());
+        assertEquals(h, a.nextSibling());
+        assertEquals(b, h.nextSibling());
+        assertEquals(3, g5.positionInParent());
+
+        // the subgoals are changed from the outside; the recorded positions are
+        // then outdated, but should be corrected when used:
+        c.subgoals.remove(0);
+        assertEquals(0, h.positionInParent());
+        assertEquals(2, g5.positionInParent());
+        assertEquals(-1, a.positionInParent());
+
+        assertTrue(c.removeSubgoal(b));
+        assertEquals(g5, h.nextSibling());
+        assertFalse(c.removeSubgoal(b));
+    }
+
+    /**
+     * Check that the recorded positions of the subgoals of G are correct, so that
+     * navigating from them takes O(1), without recording them again.
+     */
+    static void assertPositionsRecorded(GoalStructure G) {
+        for (int k = 0; k < G.subgoals.size(); k++)
+            assertEquals(k, G.subgoals.get(k).positionInParent);
+    }
+
+    @Test
+    public void test_manySiblings() {
+        int N = 2000;
+        var siblings = new GoalStructure[N];
+        for (int k = 0; k < N; k++)
+            siblings[k] = goal("g" + k).lift();
+        var S = SEQ(siblings);
+        assertPositionsRecorded(S);
+        // insert after, and before, goals spread over the list, as addAfter and
+        // simpleAddBefore do:
+        for (int k = 0; k < N; k += 10) {
+            var current = siblings[k];
+            S.insertSubgoal(current.positionInParent() + 1, goal("after" + k).lift());
+            assertPositionsRecorded(S);
+            S.insertSubgoal(current.positionInParent(), goal("before" + k).lift());
+            assertPositionsRecorded(S);
+            assertEquals("after" + k, current.nextSibling().getName());
+        }
+        assertEquals(N + N / 5, S.subgoals.size());
+        for (int k = 0; k < N; k += 20) {
+            assertTrue(S.removeSubgoal(siblings[k]));
+            assertEquals(-1, siblings[k].positionInParent);
+            assertPositionsRecorded(S);
+        }
+        assertTrue(siblings[N - 1].isLastSubgoal());
+    }
+
 }
@@ -2,9 +2,16 @@ package nl.uu.cs.aplib.mainConcepts;
 
 import static nl.uu.cs.aplib.AplibEDSL.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
 import org.junit.jupiter.api.Test;
 
 import nl.uu.cs.aplib.mainConcepts.SimpleState;
+import nl.uu.cs.aplib.mainConcepts.Tactic.PrimitiveTactic;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -47,6 +54,82 @@ public class Test_Tactic {
         assertTrue(SEQ(a0, a1, a2).getFirstEnabledActions(Int(99)).isEmpty());
     }
 
+    static List<PrimitiveTactic> collect(Tactic T, SimpleState S) {
+        List<PrimitiveTactic> buffer = new ArrayList<>();
+        T.collectFirstEnabledActions(S, buffer);
+        return buffer;
+    }
+
+    @Test
+    public void test_compiled_getFirstEnabledActions() {
+        var a0 = action("a0").on_(s -> ((IntState) s).i == 0).lift() ;
+        var a1 = action("a1").on_(s -> ((IntState) s).i == 1).lift() ;
+        var a2 = action("a2").on_(s -> ((IntState) s).i == 1).lift() ;
+        var a3 = action("a3").on_(s -> ((IntState) s).i <= 3).lift() ;
+        var a4 = action("a4").on_(s -> ((IntState) s).i == 4).lift() ;
+
+        var t1 = FIRSTof(a0, a1, a2);
+        var t2 = ANYof(t1, a3);
+        var t3 = SEQ(a4, t2);
+        var root = FIRSTof(t3, a0);
+
+        for (int i = 0; i <= 5; i++) {
+            for (Tactic T : List.of(root, t3, t2, t1, a3)) {
+                assertEquals(T.getFirstEnabledActions(Int(i)), collect(T, Int(i)));
+            }
+        }
+        assertEquals(List.of(a1, a3), collect(t2, Int(1)));
+        assertEquals(List.of(a4), collect(root, Int(4)));
+        assertTrue(collect(root, Int(5)).isEmpty());
+
+        // the compiled form is cached at the root, and shared by the subtactics:
+        var C = root.compile();
+        assertTrue(C == t2.compile());
+        // a0 occurs twice in the tree:
+        assertEquals(10, C.size());
+
+        // the buffer is not cleared:
+        List<PrimitiveTactic> buffer = new ArrayList<>();
+        t2.collectFirstEnabledActions(Int(0), buffer);
+        t2.collectFirstEnabledActions(Int(1), buffer);
+        assertEquals(List.of(a0, a3, a1, a3), buffer);
+    }
+
+    @Test
+    public void test_parallel_getFirstEnabledActions() {
+        Set<Thread> guardThreads = ConcurrentHashMap.newKeySet();
+        List<PrimitiveTactic> actions = new ArrayList<>();
+        for (int k = 0; k < 8; k++) {
+            int k_ = k;
+            actions.add(action("a" + k).on((IntState S) -> {
+                guardThreads.add(Thread.currentThread());
+                return k_ % 2 == S.i % 2 ? k_ : null;
+            }).lift());
+        }
+        var t1 = ANYof(actions.subList(0, 4).toArray(new Tactic[0]));
+        var t2 = ANYof(actions.subList(4, 8).toArray(new Tactic[0]));
+        var root = ANYof(t1, FIRSTof(t2));
+
+        var pool = new ForkJoinPool(4);
+        try {
+            for (int i = 0; i < 2; i++) {
+                var expected = root.getFirstEnabledActions(Int(i));
+                assertEquals(expected, root.getFirstEnabledActions(Int(i), pool));
+                List<PrimitiveTactic> buffer = new ArrayList<>();
+                root.collectFirstEnabledActions(Int(i), buffer, pool);
+                assertEquals(expected, buffer);
+            }
+            assertEquals(List.of(actions.get(1), actions.get(3), actions.get(5), actions.get(7)),
+                    root.getFirstEnabledActions(Int(1), pool));
+            // the query results are kept per action:
+            assertEquals(5, actions.get(5).action.retrieveQueryResult());
+            assertNull(actions.get(4).action.retrieveQueryResult());
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(guardThreads.stream().anyMatch(t -> t.getName().contains("ForkJoinPool")));
+    }
+
     @Test
     public void test_calcNextTactic() {
         var a0 = action("a0").lift();
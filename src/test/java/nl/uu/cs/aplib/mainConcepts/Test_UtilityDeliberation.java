@@ -0,0 +1,106 @@
+package nl.uu.cs.aplib.mainConcepts;
+
+import static nl.uu.cs.aplib.AplibEDSL.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import nl.uu.cs.aplib.environments.NullEnvironment;
+
+public class Test_UtilityDeliberation {
+
+    static class MyState extends SimpleState {
+        int target = 0;
+        int position = 0;
+        int nextTarget = 0;
+
+        @Override
+        public void updateState(String agentId) {
+            if (changeTracker != null) {
+                changeTracker.nextCycle();
+                if (nextTarget != target)
+                    changeTracker.registerChange("target", null, null);
+            }
+            target = nextTarget;
+        }
+    }
+
+    @Test
+    public void test_utility_and_memo() {
+        var state = new MyState();
+        state.setEnvironment(new NullEnvironment());
+        state.enableChangeTracking();
+
+        List<String> chosen = new LinkedList<>();
+        var left = action("left").do1((MyState S) -> {
+            S.position--;
+            chosen.add("left");
+            return S.position;
+        });
+        var right = action("right").do1((MyState S) -> {
+            S.position++;
+            chosen.add("right");
+            return S.position;
+        });
+        var stay = action("stay").do1((MyState S) -> {
+            chosen.add("stay");
+            return S.position;
+        });
+
+        var delib = new UtilityDeliberation()
+                .withUtility(left, (MyState S) -> S.target < 0 ? 1 : 0)
+                .withUtility(right, (MyState S) -> S.target > 0 ? 1 : 0);
+        var agent = new BasicAgent().attachState(state).useDeliberation(delib);
+        agent.setGoal(goal("g").toSolve((Integer p) -> false).withTactic(ANYof(stay.lift(), left.lift(), right.lift())).lift());
+
+        // all utilities are 0; the first candidate is chosen:
+        agent.update();
+        agent.update();
+        assertEquals(List.of("stay", "stay"), chosen);
+        // the utilities are calculated in the first cycle, then re-used:
+        assertEquals(3, delib.getNumberOfUtilityEvaluations());
+
+        state.nextTarget = 5;
+        agent.update();
+        agent.update();
+        assertEquals("right", chosen.get(2));
+        assertEquals("right", chosen.get(3));
+        assertEquals(6, delib.getNumberOfUtilityEvaluations());
+
+        state.nextTarget = -5;
+        agent.update();
+        assertEquals("left", chosen.get(4));
+        assertEquals(9, delib.getNumberOfUtilityEvaluations());
+    }
+
+    @Test
+    public void test_fingerprint() {
+        var state = new MyState();
+        state.setEnvironment(new NullEnvironment());
+        var a = action("a");
+        var b = action("b");
+        var candidates = List.of(a.lift(), b.lift());
+
+        var delib = new UtilityDeliberation()
+                .withUtility(a, (MyState S) -> -Math.abs(S.target - 1))
+                .withUtility(b, (MyState S) -> -Math.abs(S.target - 2))
+                .withStateFingerprint((MyState S) -> S.target);
+        state.target = 2;
+        assertEquals(b, delib.deliberate(state, candidates).action);
+        assertEquals(b, delib.deliberate(state, candidates).action);
+        assertEquals(2, delib.getNumberOfUtilityEvaluations());
+        state.target = 1;
+        assertEquals(a, delib.deliberate(state, candidates).action);
+        assertEquals(4, delib.getNumberOfUtilityEvaluations());
+
+        // without a fingerprint or change tracking, there is no memoization:
+        var delib2 = new UtilityDeliberation().withUtility(a, (MyState S) -> 1);
+        delib2.deliberate(state, candidates);
+        delib2.deliberate(state, candidates);
+        assertEquals(4, delib2.getNumberOfUtilityEvaluations());
+    }
+
+}
@@ -0,0 +1,124 @@
+package nl.uu.cs.aplib.multiAgentSupport;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import nl.uu.cs.aplib.Logging;
+import nl.uu.cs.aplib.agents.AutonomousBasicAgent;
+import nl.uu.cs.aplib.agents.State;
+import nl.uu.cs.aplib.environments.NullEnvironment;
+import nl.uu.cs.aplib.multiAgentSupport.Message.MsgCastType;
+
+/**
+ * A benchmark of message routing through a {@link ComNode}. It reports the
+ * throughput of SINGLECAST messages for an increasing number of sender
+ * threads, and the cost of a BROADCAST per receiving agent, for an increasing
+ * number of agents. It also compares broadcasting an event that only 1% of the
+ * agents are interested in with sending it as a TOPICCAST to them. The agents
+ * are not running, so the messages simply pile up in their mailboxes, which are
+ * emptied between the measurements.
+ *
+ * <p>
+ * This is not a unit test; run it as a main program, with the test classes on
+ * the classpath.
+ */
+public class ComNodeBenchmark {
+
+    static final Logger logger = Logging.getAPLIBlogger();
+
+    static AutonomousBasicAgent[] createAgents(ComNode comNode, int N) {
+        var agents = new AutonomousBasicAgent[N];
+        for (int k = 0; k < N; k++) {
+            agents[k] = new AutonomousBasicAgent("agent" + k, "worker")
+                    .attachState(new State().setEnvironment(new NullEnvironment())).registerTo(comNode);
+        }
+        // creating an agent resets the logging level, so turn logging off here:
+        logger.setLevel(Level.OFF);
+        return agents;
+    }
+
+    static void clearMailboxes(AutonomousBasicAgent[] agents) {
+        for (var agent : agents) {
+            var messenger = ((State) agent.state()).messenger();
+            while (messenger.retrieve(m -> true) != null) {
+            }
+        }
+    }
+
+    static void singlecast(int threads, int messagesPerThread) throws InterruptedException {
+        var comNode = new ComNode();
+        var agents = createAgents(comNode, 2 * threads);
+        var senders = new Thread[threads];
+        for (int k = 0; k < threads; k++) {
+            var sender = agents[2 * k].getId();
+            var receiver = agents[2 * k + 1].getId();
+            senders[k] = new Thread(() -> {
+                for (int i = 0; i < messagesPerThread; i++)
+                    comNode.send(new Message(sender, 0, MsgCastType.SINGLECAST, receiver, "ping"));
+            });
+        }
+        long t0 = System.nanoTime();
+        for (var t : senders)
+            t.start();
+        for (var t : senders)
+            t.join();
+        long elapsed = System.nanoTime() - t0;
+        double throughput = (double) threads * messagesPerThread / (elapsed / 1e9);
+        System.out.println(String.format("singlecast  threads=%4d  msgs/s=%12.0f  elapsed=%8.1f ms", threads,
+                throughput, elapsed / 1e6));
+        clearMailboxes(agents);
+    }
+
+    static void broadcast(int N, int broadcasts) {
+        var comNode = new ComNode();
+        var agents = createAgents(comNode, N);
+        var sender = agents[0].getId();
+        long elapsed = 0;
+        int done = 0;
+        while (done < broadcasts) {
+            // empty the mailboxes now and then, so that they do not grow too large:
+            int batch = Math.min(broadcasts - done, Math.max(1, 1000000 / N));
+            long t0 = System.nanoTime();
+            for (int i = 0; i < batch; i++)
+                comNode.send(new Message(sender, 0, MsgCastType.BROADCAST, null, "ping"));
+            elapsed += System.nanoTime() - t0;
+            done += batch;
+            clearMailboxes(agents);
+        }
+        System.out.println(String.format("broadcast   agents=%5d  ns/broadcast=%10.0f  ns/receiver=%6.1f", N,
+                (double) elapsed / broadcasts, (double) elapsed / broadcasts / (N - 1)));
+    }
+
+    static void topiccast(int N, int messages) {
+        var comNode = new ComNode();
+        var agents = createAgents(comNode, N);
+        var sender = agents[0].getId();
+        for (int k = 1; k < N; k += 100)
+            comNode.subscribe(agents[k], "event");
+        for (var castType : new MsgCastType[] { MsgCastType.BROADCAST, MsgCastType.TOPICCAST }) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < messages; i++)
+                comNode.send(new Message(sender, 0, castType, "event", "event"));
+            long elapsed = System.nanoTime() - t0;
+            long delivered = 0;
+            for (var agent : agents)
+                delivered += ((State) agent.state()).messenger().size();
+            System.out.println(String.format("%-10s  agents=%5d  ns/msg=%10.0f  delivered/msg=%6d", castType, N,
+                    (double) elapsed / messages, delivered / messages));
+            clearMailboxes(agents);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // warm up:
+        singlecast(4, 200000);
+        broadcast(100, 10000);
+        for (int threads : new int[] { 1, 2, 4, 8 })
+            singlecast(threads, 1000000);
+        for (int N : new int[] { 10, 100, 1000, 10000 })
+            broadcast(N, 20000000 / N);
+        for (int N : new int[] { 1000, 10000 })
+            topiccast(N, 1000000 / N);
+    }
+
+}
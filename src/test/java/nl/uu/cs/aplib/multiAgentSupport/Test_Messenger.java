@@ -0,0 +1,105 @@
+package nl.uu.cs.aplib.multiAgentSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Date;
+
+import org.junit.jupiter.api.Test;
+
+import nl.uu.cs.aplib.multiAgentSupport.Message.MsgCastType;
+import nl.uu.cs.aplib.multiAgentSupport.Messenger.OverflowPolicy;
+
+public class Test_Messenger {
+
+    static Message msg(String from, int priority, String name, int arg) {
+        return new Message(from, priority, MsgCastType.SINGLECAST, "me", name, arg);
+    }
+
+    static Message msg(String from, int priority, String name, int arg, long time) {
+        var m = msg(from, priority, name, arg);
+        m.timeStamp = new Date(time);
+        return m;
+    }
+
+    @Test
+    public void test_order() {
+        var messenger = new Messenger();
+        messenger.put(msg("A", 0, "x", 1, 2000));
+        messenger.put(msg("B", 0, "x", 2, 1000));
+        messenger.put(msg("A", 5, "y", 3, 3000));
+        messenger.put(msg("B", 0, "y", 4, 1000));
+        assertEquals(4, messenger.size());
+        // highest priority first, then the oldest, then in arrival order:
+        int[] expected = { 3, 2, 4, 1 };
+        for (int k : expected)
+            assertEquals(k, messenger.retrieve(m -> true).getArgs()[0]);
+        assertTrue(messenger.empty());
+        assertNull(messenger.retrieve(m -> true));
+    }
+
+    @Test
+    public void test_indexed_lookup() {
+        var messenger = new Messenger();
+        messenger.put(msg("A", 0, "x", 1));
+        messenger.put(msg("B", 0, "x", 2));
+        messenger.put(msg("A", 0, "y", 3));
+        messenger.put(msg("B", 1, "y", 4));
+
+        assertEquals(4, messenger.find(null, null).getArgs()[0]);
+        assertEquals(1, messenger.find("x", null).getArgs()[0]);
+        assertEquals(1, messenger.find(null, "A").getArgs()[0]);
+        assertEquals(3, messenger.find("y", "A").getArgs()[0]);
+        assertEquals(2, messenger.find("x", "B").getArgs()[0]);
+        assertFalse(messenger.has("z", null));
+        assertFalse(messenger.has(null, "C"));
+        assertEquals(4, messenger.size());
+
+        assertEquals(3, messenger.retrieve("y", "A").getArgs()[0]);
+        assertNull(messenger.retrieve("y", "A"));
+        assertEquals(4, messenger.retrieve("y", null).getArgs()[0]);
+        assertFalse(messenger.has("y", null));
+        // the predicate and indexed queries see the same queue:
+        assertEquals(2, messenger.retrieve(m -> m.getIdSource().equals("B")).getArgs()[0]);
+        assertFalse(messenger.has(null, "B"));
+        assertEquals(1, messenger.retrieve(null, "A").getArgs()[0]);
+        assertTrue(messenger.empty());
+    }
+
+    @Test
+    public void test_bounded() {
+        var messenger = new Messenger().setCapacity(2, OverflowPolicy.DROP_NEWEST);
+        assertTrue(messenger.put(msg("A", 0, "x", 1)));
+        assertTrue(messenger.put(msg("A", 0, "x", 2)));
+        assertFalse(messenger.put(msg("A", 9, "x", 3)));
+        assertEquals(2, messenger.size());
+        assertEquals(1, messenger.numberOfDroppedMessages());
+        assertNull(messenger.find(m -> m.getArgs()[0].equals(3)));
+
+        messenger = new Messenger().setCapacity(2, OverflowPolicy.DROP_OLDEST);
+        messenger.put(msg("A", 5, "x", 1));
+        messenger.put(msg("A", 0, "x", 2));
+        messenger.put(msg("A", 0, "x", 3));
+        assertEquals(2, messenger.size());
+        assertNull(messenger.find(m -> m.getArgs()[0].equals(1)));
+        assertEquals(2, messenger.find("x", "A").getArgs()[0]);
+
+        messenger = new Messenger().setCapacity(2, OverflowPolicy.DROP_LOWEST_PRIORITY);
+        messenger.put(msg("A", 5, "x", 1));
+        messenger.put(msg("A", 0, "x", 2));
+        assertTrue(messenger.put(msg("A", 3, "x", 3)));
+        assertFalse(messenger.put(msg("A", 0, "x", 4)));
+        assertEquals(1, messenger.retrieve(m -> true).getArgs()[0]);
+        assertEquals(3, messenger.retrieve(m -> true).getArgs()[0]);
+        assertEquals(2, messenger.numberOfDroppedMessages());
+
+        // shrinking the capacity drops messages that no longer fit:
+        messenger = new Messenger();
+        for (int k = 0; k < 5; k++)
+            messenger.put(msg("A", k, "x", k));
+        messenger.setCapacity(3, OverflowPolicy.DROP_LOWEST_PRIORITY);
+        assertEquals(3, messenger.size());
+        assertEquals(2, messenger.find(m -> m.getPriority() < 3).getArgs()[0]);
+        assertThrows(IllegalArgumentException.class, () -> new Messenger().setCapacity(0, OverflowPolicy.DROP_NEWEST));
+    }
+
+}
@@ -0,0 +1,238 @@
+package nl.uu.cs.aplib.multiAgentSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import nl.uu.cs.aplib.agents.AutonomousBasicAgent;
+import nl.uu.cs.aplib.agents.State;
+import nl.uu.cs.aplib.environments.NullEnvironment;
+import nl.uu.cs.aplib.multiAgentSupport.Message.MsgCastType;
+import nl.uu.cs.aplib.utils.SerializationFilter;
+
+public class Test_SocketComNode {
+
+    static final String TOKEN = "test-token";
+    static final String TOKEN_VARIABLE = "SOCKETCOMNODE_TOKEN";
+
+    static AutonomousBasicAgent agent(String id, String role, ComNode comNode) {
+        return new AutonomousBasicAgent(id, role).attachState(new State().setEnvironment(new NullEnvironment()))
+                .registerTo(comNode);
+    }
+
+    static Messenger messenger(AutonomousBasicAgent agent) {
+        return ((State) agent.state()).messenger();
+    }
+
+    /**
+     * Wait until the agent receives a message with the given name, and return
+     * it; or null if none arrives in time.
+     */
+    static Message await(AutonomousBasicAgent agent, String msgName) throws InterruptedException {
+        for (int k = 0; k < 500; k++) {
+            var m = messenger(agent).retrieve(msgName, null);
+            if (m != null)
+                return m;
+            Thread.sleep(10);
+        }
+        return null;
+    }
+
+    @Test
+    public void test_codec() throws Exception {
+        var m = new Message("A", -3, MsgCastType.ROLECAST, "role", "hi", 1, -2L, 3.5, true, null, "sé",
+                new byte[] { 1, 2 }, new ArrayList<>(List.of("x")));
+        m.timeStamp = new Date(123456789L);
+        var bytes = new ByteArrayOutputStream();
+        MessageCodec.writeMessage(new DataOutputStream(bytes), m);
+        var m2 = MessageCodec.readMessage(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+                new SerializationFilter());
+        assertEquals("A", m2.idSource);
+        assertEquals("role", m2.idTarget);
+        assertEquals(MsgCastType.ROLECAST, m2.castTy);
+        assertEquals(-3, m2.priority);
+        assertEquals(m.timeStamp, m2.timeStamp);
+        assertEquals("hi", m2.msgName);
+        assertEquals(8, m2.args.length);
+        assertArrayEquals(new Object[] { 1, -2L, 3.5, true, null, "sé" }, Arrays.copyOf(m2.args, 6));
+        assertArrayEquals(new byte[] { 1, 2 }, (byte[]) m2.args[6]);
+        assertEquals(List.of("x"), m2.args[7]);
+
+        var m3 = new Message("A", 0, MsgCastType.BROADCAST, null, "no args", (Object[]) null);
+        bytes.reset();
+        MessageCodec.writeMessage(new DataOutputStream(bytes), m3);
+        m3 = MessageCodec.readMessage(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+                new SerializationFilter());
+        assertNull(m3.args);
+        assertNull(m3.idTarget);
+        assertNull(m3.timeStamp);
+    }
+
+    @Test
+    public void test_codec_rejects_bad_input() throws Exception {
+        var filter = new SerializationFilter();
+        var m = new Message("A", 0, MsgCastType.BROADCAST, null, "counter", new AtomicInteger(1));
+        var bytes = new ByteArrayOutputStream();
+        MessageCodec.writeMessage(new DataOutputStream(bytes), m);
+        byte[] encoded = bytes.toByteArray();
+        // AtomicInteger is not on the allow-list:
+        assertThrows(InvalidClassException.class,
+                () -> MessageCodec.readMessage(new DataInputStream(new ByteArrayInputStream(encoded)), filter));
+        filter.allow("java.util.concurrent.atomic.AtomicInteger");
+        var m2 = MessageCodec.readMessage(new DataInputStream(new ByteArrayInputStream(encoded)), filter);
+        assertEquals(1, ((AtomicInteger) m2.args[0]).get());
+
+        // a huge number of arguments, or a huge string:
+        bytes.reset();
+        var out = new DataOutputStream(bytes);
+        MessageCodec.writeString(out, "A");
+        MessageCodec.writeString(out, null);
+        out.writeByte(MsgCastType.BROADCAST.ordinal());
+        MessageCodec.writeVarLong(out, 0);
+        MessageCodec.writeVarLong(out, 0);
+        MessageCodec.writeString(out, "m");
+        MessageCodec.writeVarLong(out, Integer.MAX_VALUE);
+        byte[] tooManyArgs = bytes.toByteArray();
+        assertThrows(StreamCorruptedException.class,
+                () -> MessageCodec.readMessage(new DataInputStream(new ByteArrayInputStream(tooManyArgs)), filter));
+        bytes.reset();
+        MessageCodec.writeVarLong(out, 1L << 40);
+        byte[] tooLong = bytes.toByteArray();
+        assertThrows(StreamCorruptedException.class,
+                () -> MessageCodec.readString(new DataInputStream(new ByteArrayInputStream(tooLong))));
+        assertThrows(StreamCorruptedException.class,
+                () -> MessageCodec.readBytes(new DataInputStream(new ByteArrayInputStream(tooLong))));
+    }
+
+    @Test
+    public void test_wrong_token() throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> new SocketComNode(""));
+        try (var node1 = new SocketComNode("secret").listen(0); var node2 = new SocketComNode("guess")) {
+            agent("a", "teacher", node1);
+            agent("b", "student", node2);
+            assertThrows(IOException.class, () -> node2.connect(node1.getPort()));
+            assertFalse(node1.awaitPeers(1, 200));
+            assertEquals(0, node2.numberOfPeers());
+            assertTrue(node2.remoteAgents.isEmpty());
+            assertTrue(node1.remoteAgents.isEmpty());
+        }
+    }
+
+    @Test
+    public void test_two_nodes() throws Exception {
+        try (var node1 = new SocketComNode(TOKEN).listen(0); var node2 = new SocketComNode(TOKEN)) {
+            var a = agent("a", "teacher", node1);
+            var b = agent("b", "student", node2);
+            node2.connect(node1.getPort());
+            assertTrue(node1.awaitPeers(1, 5000));
+            var c = agent("c", "student", node2);
+
+            assertTrue(messenger(a).send("a", 0, MsgCastType.SINGLECAST, "b", "sc", 1).success());
+            assertEquals(1, await(b, "sc").getArgs()[0]);
+
+            // a registration after connecting is announced to the other node:
+            Message m = null;
+            for (int k = 0; k < 500 && m == null; k++) {
+                messenger(a).send("a", 0, MsgCastType.SINGLECAST, "c", "hello");
+                m = await(c, "hello");
+            }
+            assertNotNull(m);
+
+            assertTrue(messenger(b).send("b", 0, MsgCastType.BROADCAST, null, "bc").success());
+            assertNotNull(await(a, "bc"));
+            assertNotNull(await(c, "bc"));
+            assertTrue(messenger(a).send("a", 0, MsgCastType.ROLECAST, "student", "rc").success());
+            assertNotNull(await(b, "rc"));
+            assertNotNull(await(c, "rc"));
+            assertFalse(messenger(b).has("bc", null));
+            // topic filters are evaluated by the subscriber's node:
+            node2.subscribe(c, "news", M -> M.getArgs()[0].equals(2));
+            Message news = null;
+            for (int k = 0; k < 500 && news == null; k++) {
+                messenger(a).send("a", 0, MsgCastType.TOPICCAST, "news", "news", 1);
+                messenger(a).send("a", 0, MsgCastType.TOPICCAST, "news", "news", 2);
+                news = await(c, "news");
+            }
+            assertEquals(2, news.getArgs()[0]);
+            assertFalse(messenger(b).has("news", null));
+
+            assertFalse(messenger(a).send("a", 0, MsgCastType.SINGLECAST, "nobody", "sc").success());
+            assertThrows(IllegalArgumentException.class,
+                    () -> messenger(a).send("a", 0, MsgCastType.BROADCAST, null, "bc", new Object()));
+
+            node2.deregister(c);
+            boolean rejected = false;
+            for (int k = 0; k < 500 && !rejected; k++) {
+                rejected = !messenger(a).send("a", 0, MsgCastType.SINGLECAST, "c", "sc").success();
+                Thread.sleep(10);
+            }
+            assertTrue(rejected);
+        }
+    }
+
+    /**
+     * The main program of the other JVM in {@link #test_two_jvms()}: it connects
+     * to the given port, with the token in the environment variable TOKEN_VARIABLE,
+     * and answers every "ping" with a "pong", until it receives
+     * "bye".
+     */
+    public static class RemotePeer {
+        public static void main(String[] args) throws Exception {
+            try (var node = new SocketComNode(System.getenv(TOKEN_VARIABLE))) {
+                var agent = agent("remote", "echo", node);
+                node.connect(Integer.parseInt(args[0]));
+                while (true) {
+                    var m = messenger(agent).retrieve(null, null);
+                    if (m == null) {
+                        Thread.sleep(5);
+                    } else if (m.getMsgName().equals("ping")) {
+                        messenger(agent).send("remote", 0, MsgCastType.SINGLECAST, m.getIdSource(), "pong",
+                                (Integer) m.getArgs()[0] + 1);
+                    } else if (m.getMsgName().equals("bye")) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_two_jvms() throws Exception {
+        try (var node = new SocketComNode(TOKEN).listen(0)) {
+            var agent = agent("local", "tester", node);
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            var builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    RemotePeer.class.getName(), "" + node.getPort()).inheritIO();
+            builder.environment().put(TOKEN_VARIABLE, TOKEN);
+            var process = builder.start();
+            try {
+                assertTrue(node.awaitPeers(1, 20000));
+                for (int k = 0; k < 10; k++) {
+                    assertTrue(messenger(agent).send("local", 0, MsgCastType.SINGLECAST, "remote", "ping", k).success());
+                    assertEquals(k + 1, await(agent, "pong").getArgs()[0]);
+                }
+                messenger(agent).send("local", 0, MsgCastType.ROLECAST, "echo", "bye");
+                assertTrue(process.waitFor(20, TimeUnit.SECONDS));
+                assertEquals(0, process.exitValue());
+            } finally {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+}
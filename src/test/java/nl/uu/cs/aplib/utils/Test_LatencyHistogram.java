@@ -0,0 +1,119 @@
+package nl.uu.cs.aplib.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class Test_LatencyHistogram {
+
+    @Test
+    public void test_buckets() {
+        // buckets are contiguous, and every value falls in a bucket whose highest
+        // value is not smaller than it, and within 1/16 of it:
+        long previousHighest = -1;
+        for (int b = 0; b < LatencyHistogram.NUMBER_OF_BUCKETS - 1; b++) {
+            long h = LatencyHistogram.highestValueOf(b);
+            assertEquals(b, LatencyHistogram.bucketOf(previousHighest + 1));
+            assertEquals(b, LatencyHistogram.bucketOf(h));
+            assertTrue(h - (previousHighest + 1) <= (previousHighest + 1) / 16);
+            previousHighest = h;
+        }
+        assertEquals(LatencyHistogram.NUMBER_OF_BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void test_percentiles() {
+        var H = new LatencyHistogram();
+        assertEquals(0, H.p50());
+        assertEquals(0, H.max());
+        for (long v = 1; v <= 1000; v++)
+            H.record(v * 1000);
+        assertEquals(1000, H.count());
+        assertEquals(1000, H.min());
+        assertEquals(1000000, H.max());
+        assertEquals(500500, H.mean(), 0.01);
+        assertTrue(Math.abs(H.p50() - 500000) <= 500000 / 16);
+        assertTrue(Math.abs(H.p99() - 990000) <= 990000 / 16);
+        assertEquals(1000000, H.percentile(100));
+        assertEquals(1000, H.percentile(0));
+
+        var H2 = new LatencyHistogram();
+        H2.record(5);
+        H2.record(2000000);
+        H.merge(H2);
+        assertEquals(1002, H.count());
+        assertEquals(5, H.min());
+        assertEquals(2000000, H.max());
+
+        H.reset();
+        assertEquals(0, H.count());
+        assertEquals(0, H.min());
+
+        // empty histograms, which have no buckets yet, can be merged and reset:
+        var E = new LatencyHistogram();
+        H.merge(E);
+        assertEquals(0, H.count());
+        E.reset();
+        E.merge(H2);
+        assertEquals(2, E.count());
+        assertEquals(2000000, E.percentile(100));
+        assertEquals(0, new LatencyHistogram().percentile(50));
+    }
+
+    @Test
+    public void test_export() throws Exception {
+        var H = new LatencyHistogram();
+        H.record(100);
+        H.record(300);
+        Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+        histograms.put("a,b", H);
+        histograms.put("c", new LatencyHistogram());
+        String file = "tmp/latencies.csv";
+        Files.createDirectories(Paths.get("tmp"));
+        LatencyHistogram.exportToCSVfile(histograms, file);
+        var rows = CSVUtility.readCSV(',', file);
+        assertEquals(3, rows.size());
+        assertEquals("a b", rows.get(1)[0]);
+        assertEquals("2", rows.get(1)[1]);
+        assertEquals("200", rows.get(1)[2]);
+        assertEquals("300", rows.get(1)[5]);
+        assertEquals("0", rows.get(2)[1]);
+        Files.delete(Paths.get(file));
+    }
+
+    @Test
+    public void test_concurrent_histogram() throws InterruptedException {
+        var C = new ConcurrentLatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int k = 1; k <= 1000; k++)
+                    C.record(k * 1000);
+            });
+            threads[t].start();
+        }
+        for (var t : threads)
+            t.join();
+        var H = C.snapshot();
+        var expected = new LatencyHistogram();
+        for (int k = 1; k <= 1000; k++)
+            expected.record(k * 1000);
+        assertEquals(4000, C.count());
+        assertEquals(4000, H.count());
+        assertEquals(1000, H.min());
+        assertEquals(1000000, H.max());
+        assertEquals(expected.mean(), H.mean());
+        assertEquals(expected.p50(), H.p50());
+        assertEquals(expected.p99(), H.p99());
+
+        C.reset();
+        assertEquals(0, C.snapshot().count());
+        assertEquals(0, C.snapshot().min());
+    }
+
+}